@@ -2,6 +2,8 @@ package kdm.data;
 
 import java.util.*;
 
+import kdm.util.*;
+
 /**
  * Represents a discrete (1D, integeger values in [0..n) ) sequence
  */
@@ -115,6 +117,15 @@ public class DiscreteSeq extends Sequence
       nSymbols = map.size();
    }
    
+   /** Replace each symbol with the value it maps to; the alphabet size is set to the size of the map */
+   public void remapSymbols(IntIntMap map)
+   {
+      int T = length();
+      for(int i=0; i<T; i++)
+         set(i, 0, map.get(geti(i)));
+      nSymbols = map.size();
+   }
+   
    /**
     * Remap the data to force the symbols in [0..n). That is, we could start with symbosl {
     * 3, 7, 12 } and this would be remapped to { 0, 1, 2 }.
@@ -123,20 +134,17 @@ public class DiscreteSeq extends Sequence
     */
    public int remapSymbols()
    {
-      TreeSet<Integer> set = new TreeSet<Integer>();
+      // collect the distinct symbols, then map each one to its rank
+      IntSet set = new IntSet();
       int n = length();
       for(int i = 0; i < n; i++)
-         set.add(new Integer(geti(i)));
-      Iterator<Integer> it = set.iterator();
-      int iSymbol = 0;
-      while(it.hasNext())
-      {
-         int x = it.next().intValue();
-         for(int i = 0; i < n; i++)
-            if (geti(i) == x) set(i, 0, iSymbol);
-         iSymbol++;
-      }
-      nSymbols = iSymbol;
+         set.add(geti(i));
+      int[] symbols = set.toArray();
+      Arrays.sort(symbols);
+      IntIntMap map = new IntIntMap(symbols.length);
+      for(int iSymbol = 0; iSymbol < symbols.length; iSymbol++)
+         map.put(symbols[iSymbol], iSymbol);
+      remapSymbols(map);
       return nSymbols;
    }
 
@@ -177,6 +185,31 @@ public class DiscreteSeq extends Sequence
       return extract(0, data.size());
    }
 
+   /**
+    * Count symbol transitions: entry (a,b) of the returned (CSR) matrix is the number of times symbol b
+    * immediately follows symbol a in the given sequences. Only observed transitions are stored, so this works
+    * for large alphabets; normalizeRows() turns the counts into transition probabilities.
+    */
+   public static CompressedMatrix calcBigramCounts(List<DiscreteSeq> seqs, int nSymbols)
+   {
+      int n = 0;
+      for(DiscreteSeq seq : seqs)
+         n += Math.max(0, seq.length() - 1);
+      int[] from = new int[n];
+      int[] to = new int[n];
+      double[] ones = new double[n];
+      Arrays.fill(ones, 1.0);
+      n = 0;
+      for(DiscreteSeq seq : seqs){
+         int T = seq.length();
+         for(int t = 1; t < T; t++){
+            from[n] = seq.geti(t - 1);
+            to[n++] = seq.geti(t);
+         }
+      }
+      return CompressedMatrix.fromTriplets(nSymbols, nSymbols, from, to, ones, n, Library.MatrixOrder.RowMajor);
+   }
+
    public static ArrayList<DiscreteSeq> convertFull(ArrayList<Sequence> data, int nSymbols)
    {
       ArrayList<DiscreteSeq> ret = new ArrayList<DiscreteSeq>();
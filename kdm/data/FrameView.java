@@ -0,0 +1,62 @@
+package kdm.data;
+
+import java.util.*;
+
+/**
+ * A read-only window onto a range of another frame list (see Sequence.view()). Random access (get/size) reads
+ * straight through to the source list, so a view costs the same regardless of its length. Any other list
+ * operation (including modification) first copies the frame references out of the source, after which the view
+ * is independent of the source list (but still shares the FeatureVec objects, just like subseq()).
+ *
+ * The source list must not be structurally modified (frames added or removed) while a view reads through to it.
+ */
+public class FrameView extends LazyFrameList
+{
+   private static final long serialVersionUID = 1L;
+
+   protected ArrayList<FeatureVec> src;
+   protected final int iStart;
+
+   /**
+    * Create a view of the frames src[iStart..iEnd)
+    */
+   public FrameView(ArrayList<FeatureVec> src, int iStart, int iEnd)
+   {
+      super(iEnd - iStart);
+      assert (iStart >= 0 && iStart <= iEnd && iEnd <= src.size());
+      this.src = src;
+      this.iStart = iStart;
+   }
+
+   @Override
+   protected FeatureVec loadFrame(int i)
+   {
+      return src.get(iStart + i);
+   }
+
+   @Override
+   protected void loadAll(FeatureVec[] frames)
+   {
+      for(int i = 0; i < frames.length; i++)
+         frames[i] = src.get(iStart + i);
+   }
+
+   @Override
+   protected void release()
+   {
+      src = null;
+   }
+
+   @Override
+   public FeatureVec get(int i)
+   {
+      if (!bMaterialized){
+         // no need to cache anything: the source already holds the frames
+         if (i < 0 || i >= nFrames)
+            throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", i, nFrames));
+         ArrayList<FeatureVec> a = src;
+         if (a != null) return a.get(iStart + i);
+      }
+      return super.get(i);
+   }
+}
@@ -0,0 +1,363 @@
+package kdm.data;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/**
+ * A list of frames that are created on demand (e.g., decoded from a memory mapped file). A Sequence can be
+ * backed by a lazy list (see Sequence(String, double, long, ArrayList)) so that frames are only decoded when
+ * they're accessed. Random access (get/size) does not force the whole list to load; any other list operation
+ * (iteration, modification, etc.) first materializes all of the frames, after which the list behaves like a
+ * normal ArrayList.
+ *
+ * Decoded frames are cached in pages that are allocated when first touched, so a very long list only holds the
+ * frames that have been accessed. Frames may be requested from several threads; pages and frames are published
+ * through atomic arrays, so a frame might be decoded more than once, but all callers see the same (fully
+ * initialized) frame. Serializing a lazy list loads all of its frames and writes them as a plain ArrayList.
+ */
+public abstract class LazyFrameList extends ArrayList<FeatureVec>
+{
+   private static final long serialVersionUID = 1L;
+
+   protected static final int PageBits = 12;
+   protected static final int PageSize = 1 << PageBits;
+
+   protected final int nFrames;
+   protected transient volatile AtomicReferenceArray<AtomicReferenceArray<FeatureVec>> cache;
+   protected volatile boolean bMaterialized;
+
+   /** create a lazy list with the given number of frames */
+   protected LazyFrameList(int nFrames)
+   {
+      super(0);
+      this.nFrames = nFrames;
+   }
+
+   /** @return the frame at the given index (decoded from the underlying source) */
+   protected abstract FeatureVec loadFrame(int i);
+
+   /**
+    * @return true if frames can be loaded individually; if false, the first access loads the whole list (e.g.,
+    *         for sequential encodings)
+    */
+   protected boolean isRandomAccess()
+   {
+      return true;
+   }
+
+   /**
+    * Load every frame that isn't already loaded. Subclasses with sequential encodings should override this
+    * function.
+    */
+   protected void loadAll(FeatureVec[] frames)
+   {
+      for(int i = 0; i < frames.length; i++)
+         if (frames[i] == null) frames[i] = loadFrame(i);
+   }
+
+   /** called after all frames are materialized so that subclasses can release the underlying source */
+   protected void release()
+   {}
+
+   /** @return true if all frames have been loaded */
+   public boolean isMaterialized()
+   {
+      return bMaterialized;
+   }
+
+   /** load all of the frames into the list */
+   public synchronized void materialize()
+   {
+      if (bMaterialized) return;
+      FeatureVec[] frames = new FeatureVec[nFrames];
+      if (cache != null){
+         for(int iPage = 0; iPage < cache.length(); iPage++){
+            AtomicReferenceArray<FeatureVec> page = cache.get(iPage);
+            if (page == null) continue;
+            for(int j = 0; j < page.length(); j++)
+               frames[(iPage << PageBits) + j] = page.get(j);
+         }
+      }
+      loadAll(frames);
+      super.ensureCapacity(nFrames);
+      super.addAll(Arrays.asList(frames));
+      bMaterialized = true;
+      cache = null;
+      release();
+   }
+
+   /** @return cache page for the given frame, null if the list is materialized */
+   protected synchronized AtomicReferenceArray<FeatureVec> getPage(int i)
+   {
+      if (bMaterialized) return null;
+      if (!isRandomAccess()){
+         materialize();
+         return null;
+      }
+      if (cache == null)
+         cache = new AtomicReferenceArray<AtomicReferenceArray<FeatureVec>>((nFrames + PageSize - 1) >> PageBits);
+      int iPage = i >> PageBits;
+      AtomicReferenceArray<FeatureVec> page = cache.get(iPage);
+      if (page == null){
+         page = new AtomicReferenceArray<FeatureVec>(Math.min(PageSize, nFrames - (iPage << PageBits)));
+         cache.set(iPage, page);
+      }
+      return page;
+   }
+
+   @Override
+   public FeatureVec get(int i)
+   {
+      if (!bMaterialized){
+         if (i < 0 || i >= nFrames)
+            throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", i, nFrames));
+         AtomicReferenceArray<AtomicReferenceArray<FeatureVec>> c = cache;
+         AtomicReferenceArray<FeatureVec> page = (c == null ? null : c.get(i >> PageBits));
+         if (page == null) page = getPage(i);
+         if (page != null){
+            int j = i & (PageSize - 1);
+            FeatureVec fv = page.get(j);
+            if (fv == null){
+               // if another thread got there first, use its frame so that everyone sees the same object
+               if (!page.compareAndSet(j, null, fv = loadFrame(i))) fv = page.get(j);
+            }
+            return fv;
+         }
+      }
+      return super.get(i);
+   }
+
+   @Override
+   public int size()
+   {
+      return bMaterialized ? super.size() : nFrames;
+   }
+
+   @Override
+   public boolean isEmpty()
+   {
+      return size() == 0;
+   }
+
+   // everything else materializes the list first
+
+   @Override
+   public FeatureVec set(int i, FeatureVec fv)
+   {
+      materialize();
+      return super.set(i, fv);
+   }
+
+   @Override
+   public boolean add(FeatureVec fv)
+   {
+      materialize();
+      return super.add(fv);
+   }
+
+   @Override
+   public void add(int i, FeatureVec fv)
+   {
+      materialize();
+      super.add(i, fv);
+   }
+
+   @Override
+   public boolean addAll(Collection<? extends FeatureVec> c)
+   {
+      materialize();
+      return super.addAll(c);
+   }
+
+   @Override
+   public boolean addAll(int i, Collection<? extends FeatureVec> c)
+   {
+      materialize();
+      return super.addAll(i, c);
+   }
+
+   @Override
+   public FeatureVec remove(int i)
+   {
+      materialize();
+      return super.remove(i);
+   }
+
+   @Override
+   public boolean remove(Object o)
+   {
+      materialize();
+      return super.remove(o);
+   }
+
+   @Override
+   public boolean removeAll(Collection<?> c)
+   {
+      materialize();
+      return super.removeAll(c);
+   }
+
+   @Override
+   public boolean retainAll(Collection<?> c)
+   {
+      materialize();
+      return super.retainAll(c);
+   }
+
+   @Override
+   public void clear()
+   {
+      materialize();
+      super.clear();
+   }
+
+   @Override
+   public boolean contains(Object o)
+   {
+      materialize();
+      return super.contains(o);
+   }
+
+   @Override
+   public int indexOf(Object o)
+   {
+      materialize();
+      return super.indexOf(o);
+   }
+
+   @Override
+   public int lastIndexOf(Object o)
+   {
+      materialize();
+      return super.lastIndexOf(o);
+   }
+
+   @Override
+   public Iterator<FeatureVec> iterator()
+   {
+      materialize();
+      return super.iterator();
+   }
+
+   @Override
+   public ListIterator<FeatureVec> listIterator()
+   {
+      materialize();
+      return super.listIterator();
+   }
+
+   @Override
+   public ListIterator<FeatureVec> listIterator(int i)
+   {
+      materialize();
+      return super.listIterator(i);
+   }
+
+   @Override
+   public List<FeatureVec> subList(int a, int b)
+   {
+      materialize();
+      return super.subList(a, b);
+   }
+
+   @Override
+   public void forEach(Consumer<? super FeatureVec> action)
+   {
+      materialize();
+      super.forEach(action);
+   }
+
+   @Override
+   public boolean removeIf(Predicate<? super FeatureVec> filter)
+   {
+      materialize();
+      return super.removeIf(filter);
+   }
+
+   @Override
+   public void replaceAll(UnaryOperator<FeatureVec> op)
+   {
+      materialize();
+      super.replaceAll(op);
+   }
+
+   @Override
+   public void sort(Comparator<? super FeatureVec> c)
+   {
+      materialize();
+      super.sort(c);
+   }
+
+   @Override
+   public Spliterator<FeatureVec> spliterator()
+   {
+      materialize();
+      return super.spliterator();
+   }
+
+   @Override
+   public Stream<FeatureVec> stream()
+   {
+      materialize();
+      return super.stream();
+   }
+
+   @Override
+   public Stream<FeatureVec> parallelStream()
+   {
+      materialize();
+      return super.parallelStream();
+   }
+
+   @Override
+   public Object[] toArray()
+   {
+      materialize();
+      return super.toArray();
+   }
+
+   @Override
+   public <T> T[] toArray(T[] a)
+   {
+      materialize();
+      return super.toArray(a);
+   }
+
+   @Override
+   public void trimToSize()
+   {
+      materialize();
+      super.trimToSize();
+   }
+
+   @Override
+   public boolean equals(Object o)
+   {
+      materialize();
+      return super.equals(o);
+   }
+
+   @Override
+   public int hashCode()
+   {
+      materialize();
+      return super.hashCode();
+   }
+
+   @Override
+   public Object clone()
+   {
+      materialize();
+      return new ArrayList<FeatureVec>(this);
+   }
+
+   /** serialize the frames (loading them first) as a plain list rather than the (unloaded) lazy list */
+   protected Object writeReplace() throws ObjectStreamException
+   {
+      materialize();
+      return new ArrayList<FeatureVec>(this);
+   }
+}
@@ -0,0 +1,182 @@
+package kdm.data;
+
+import java.util.*;
+
+/**
+ * Static interval index over the time markers of a MarkupSet. The markers are sorted by start position and
+ * arranged as an implicit balanced tree (each node is the middle of its range) augmented with the maximum stop
+ * position in each subtree. Overlap and stabbing queries take O(log n + k) time and nearest-neighbor queries
+ * take O(log n) time.
+ *
+ * An event at position t is treated as the interval [t, t+1) so that it can be found by the same queries. The
+ * index does not look at the units of the markers, so all markers should use the same units.
+ *
+ * The index is a snapshot; MarkupSet.getIndex() rebuilds it when the set or its markers change.
+ */
+public final class MarkupIndex
+{
+   /** markers sorted by start */
+   protected final TimeMarker[] marks;
+
+   /** start and (effective) stop of each marker */
+   protected final long[] start, stop;
+
+   /** max stop in the subtree rooted at each node */
+   protected final long[] maxStop;
+
+   /** max stop (and index of the marker with that stop) over marks[0..i] */
+   protected final long[] prefixMaxStop;
+   protected final int[] prefixArgMax;
+
+   /** version of the list and its markers when this index was built */
+   protected int nListMods, nMarkEdits;
+
+   public MarkupIndex(List<TimeMarker> list)
+   {
+      int n = list.size();
+      final long[] a = new long[n];
+      Integer[] order = new Integer[n];
+      for(int i = 0; i < n; i++){
+         a[i] = list.get(i).getStart();
+         order[i] = i;
+      }
+      // stable sort, so markers with the same start stay in list order
+      Arrays.sort(order, new Comparator<Integer>() {
+         public int compare(Integer i, Integer j)
+         {
+            return a[i] < a[j] ? -1 : (a[i] > a[j] ? 1 : 0);
+         }
+      });
+
+      marks = new TimeMarker[n];
+      start = new long[n];
+      stop = new long[n];
+      for(int i = 0; i < n; i++){
+         TimeMarker tm = list.get(order[i]);
+         marks[i] = tm;
+         start[i] = tm.getStart();
+         stop[i] = Math.max(tm.getStop(), tm.getStart() + 1);
+      }
+
+      maxStop = new long[n];
+      if (n > 0) buildMax(0, n);
+
+      prefixMaxStop = new long[n];
+      prefixArgMax = new int[n];
+      for(int i = 0; i < n; i++){
+         if (i == 0 || stop[i] > prefixMaxStop[i - 1]){
+            prefixMaxStop[i] = stop[i];
+            prefixArgMax[i] = i;
+         }
+         else{
+            prefixMaxStop[i] = prefixMaxStop[i - 1];
+            prefixArgMax[i] = prefixArgMax[i - 1];
+         }
+      }
+   }
+
+   /** compute the max stop of the subtree over [lo,hi) and store it at the root (lo+hi)/2 */
+   protected long buildMax(int lo, int hi)
+   {
+      int mid = (lo + hi) >>> 1;
+      long x = stop[mid];
+      if (lo < mid) x = Math.max(x, buildMax(lo, mid));
+      if (mid + 1 < hi) x = Math.max(x, buildMax(mid + 1, hi));
+      maxStop[mid] = x;
+      return x;
+   }
+
+   public int size()
+   {
+      return marks.length;
+   }
+
+   /** @return marker with the i-th smallest start position */
+   public TimeMarker get(int i)
+   {
+      return marks[i];
+   }
+
+   /** @return index of the first marker (in start order) with start >= x */
+   public int lowerBound(long x)
+   {
+      int lo = 0, hi = marks.length;
+      while(lo < hi){
+         int mid = (lo + hi) >>> 1;
+         if (start[mid] < x) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+
+   /**
+    * Find the markers that overlap the interval [a,b)
+    *
+    * @param ret list that receives the markers (sorted by start), or null to create a new list
+    * @return list of markers
+    */
+   public ArrayList<TimeMarker> getOverlapping(long a, long b, ArrayList<TimeMarker> ret)
+   {
+      if (ret == null) ret = new ArrayList<TimeMarker>();
+      if (a < b && marks.length > 0) collect(0, marks.length, a, b, ret);
+      return ret;
+   }
+
+   /** in-order traversal of the subtree over [lo,hi) that reports markers overlapping [a,b) */
+   protected void collect(int lo, int hi, long a, long b, ArrayList<TimeMarker> ret)
+   {
+      while(lo < hi){
+         int mid = (lo + hi) >>> 1;
+         if (maxStop[mid] <= a) return; // nothing in this subtree reaches the query
+         if (lo < mid) collect(lo, mid, a, b, ret);
+         if (start[mid] >= b) return; // this node and everything to its right start too late
+         if (stop[mid] > a) ret.add(marks[mid]);
+         lo = mid + 1;
+      }
+   }
+
+   /** @return markers that contain the given position (start <= t < stop) */
+   public ArrayList<TimeMarker> getStabbing(long t)
+   {
+      return getOverlapping(t, t + 1, null);
+   }
+
+   /** @return number of markers that overlap the interval [a,b) */
+   public int countOverlapping(long a, long b)
+   {
+      if (a >= b || marks.length == 0) return 0;
+      return count(0, marks.length, a, b);
+   }
+
+   protected int count(int lo, int hi, long a, long b)
+   {
+      int n = 0;
+      while(lo < hi){
+         int mid = (lo + hi) >>> 1;
+         if (maxStop[mid] <= a) return n;
+         if (lo < mid) n += count(lo, mid, a, b);
+         if (start[mid] >= b) return n;
+         if (stop[mid] > a) n++;
+         lo = mid + 1;
+      }
+      return n;
+   }
+
+   /**
+    * Find the marker closest to the given position, where the distance is zero for markers that contain the
+    * position and otherwise the distance to the nearest position covered by the marker.
+    *
+    * @return closest marker (ties go to the earlier marker), or null if the index is empty
+    */
+   public TimeMarker findNearest(long t)
+   {
+      int n = marks.length;
+      if (n == 0) return null;
+      int i = lowerBound(t + 1); // first marker that starts after t
+      long dPrev = Long.MAX_VALUE, dNext = Long.MAX_VALUE;
+      if (i > 0) dPrev = Math.max(0, t - (prefixMaxStop[i - 1] - 1));
+      if (i < n) dNext = start[i] - t;
+      if (dPrev <= dNext) return marks[prefixArgMax[i - 1]];
+      return marks[i];
+   }
+}
@@ -1,6 +1,7 @@
 package kdm.data;
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
 import java.io.*;
 
 /**
@@ -8,8 +9,35 @@ import java.io.*;
  */
 public class MarkupSet
 {
+   /**
+    * list that exposes its modification count and counts edits to its markers so that we can tell when the
+    * index is stale
+    */
+   protected static class MarkList extends ArrayList<TimeMarker>
+   {
+      private static final long serialVersionUID = 1L;
+
+      /** number of edits to markers in this list (incremented by the markers, see TimeMarker.changed()) */
+      protected final AtomicInteger nMarkEdits = new AtomicInteger();
+
+      public int getModCount()
+      {
+         return modCount;
+      }
+
+      @Override
+      public TimeMarker set(int i, TimeMarker tm)
+      {
+         modCount++;
+         return super.set(i, tm);
+      }
+   }
+
    /** list of time markers that make up the labels */
    protected ArrayList<TimeMarker> marks;
+
+   /** interval index over the markers (built on demand) */
+   protected MarkupIndex index;
    
    /** name of this set (e.g., the label) */
    protected String name;
@@ -37,7 +65,7 @@ public class MarkupSet
    {      
       this.name = name;
       this.seq = seq;
-      marks = new ArrayList<TimeMarker>();
+      marks = new MarkList();
    }
 
    public boolean hasFile(){ return fInput!=null; }
@@ -191,6 +219,54 @@ public class MarkupSet
       marks.add(0, mark);
    }
 
+   /**
+    * @return interval index over the markers in this set; the index is rebuilt if the set or any of its markers
+    *         have changed since the last call
+    */
+   public synchronized MarkupIndex getIndex()
+   {
+      MarkList list = (MarkList)marks;
+      int nListMods = list.getModCount();
+      int nMarkEdits = list.nMarkEdits.get();
+      MarkupIndex mi = index;
+      if (mi != null && mi.nMarkEdits == nMarkEdits && mi.nListMods == nListMods) return mi;
+
+      // register with the markers so that we hear about edits, and stop listening to markers that were removed
+      for(TimeMarker tm : marks)
+         tm.addList(list);
+      if (mi != null){
+         IdentityHashMap<TimeMarker, Boolean> cur = new IdentityHashMap<TimeMarker, Boolean>();
+         for(TimeMarker tm : marks)
+            cur.put(tm, Boolean.TRUE);
+         for(TimeMarker tm : mi.marks)
+            if (!cur.containsKey(tm)) tm.removeList(list);
+      }
+
+      mi = new MarkupIndex(marks);
+      mi.nMarkEdits = nMarkEdits;
+      mi.nListMods = nListMods;
+      index = mi;
+      return mi;
+   }
+
+   /** @return markers that overlap the interval [a,b) (sorted by start) */
+   public ArrayList<TimeMarker> getOverlapping(long a, long b)
+   {
+      return getIndex().getOverlapping(a, b, null);
+   }
+
+   /** @return markers that contain the given position */
+   public ArrayList<TimeMarker> getStabbing(long t)
+   {
+      return getIndex().getStabbing(t);
+   }
+
+   /** @return marker closest to the given position (null if the set is empty) */
+   public TimeMarker findNearest(long t)
+   {
+      return getIndex().findNearest(t);
+   }
+
    public double getScale()
    {
       return scale;
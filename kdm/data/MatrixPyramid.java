@@ -0,0 +1,303 @@
+package kdm.data;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Multi-resolution (mipmapped) version of a large matrix, e.g., an n x n similarity matrix. Level 0 holds the
+ * matrix itself and each cell of level k summarizes a 2x2 block of cells from level k-1 (by max or mean), so a
+ * view of the whole matrix only needs to touch about one cell per pixel. Values are stored as floats, either
+ * in memory or in a memory-mapped file so that matrices larger than the heap can be viewed (and reopened
+ * without rebuilding the pyramid).
+ *
+ * To create a pyramid, fill in level 0 with setRow() or set() and then call build().
+ *
+ * File layout (little endian): header (magic, version, #rows, #cols, reduction, min, max), then the levels in
+ * order, each stored row by row.
+ */
+public final class MatrixPyramid
+{
+   /** how a block of cells is summarized by the next level */
+   public static enum Reduce {
+      Max, Mean
+   }
+
+   /** magic number at the start of a pyramid file ("KDMP") */
+   public static final int Magic = 0x4B444D50;
+   public static final int Version = 1;
+   protected static final int HeaderSize = 32;
+
+   /** values are stored in chunks of 2^ChunkBits floats (no single array or mapping can hold 20k x 20k) */
+   protected static final int ChunkBits = 26;
+   protected static final int ChunkMask = (1 << ChunkBits) - 1;
+
+   protected final int nRows, nCols;
+   protected final Reduce reduce;
+   protected final int[] rows, cols;
+   protected final long[] offset;
+   protected float vmin = Float.NaN, vmax = Float.NaN;
+   protected float[][] mem;
+   protected FloatBuffer[] mapped;
+   protected File file;
+
+   /**
+    * Create an empty pyramid stored in memory
+    */
+   public MatrixPyramid(int nRows, int nCols, Reduce reduce)
+   {
+      this(nRows, nCols, reduce, null, true);
+   }
+
+   /**
+    * Create an empty pyramid stored in the given file (which is overwritten)
+    */
+   public MatrixPyramid(int nRows, int nCols, Reduce reduce, File file) throws IOException
+   {
+      this(nRows, nCols, reduce, file, false);
+      map(FileChannel.MapMode.READ_WRITE);
+   }
+
+   /** Create a pyramid in memory from the given matrix (level 0 = m) */
+   public MatrixPyramid(double[][] m, Reduce reduce)
+   {
+      this(m.length, m.length == 0 ? 0 : m[0].length, reduce);
+      for(int i = 0; i < m.length; i++)
+         setRow(i, m[i]);
+      build();
+   }
+
+   /** compute the layout of the levels; the values are allocated here (bMem) or mapped later */
+   protected MatrixPyramid(int nRows, int nCols, Reduce reduce, File file, boolean bMem)
+   {
+      this.nRows = nRows;
+      this.nCols = nCols;
+      this.reduce = reduce;
+      this.file = file;
+
+      // the top level is a single cell
+      int nLevels = 1;
+      while(((long)nRows + (1L << (nLevels - 1)) - 1) >> (nLevels - 1) > 1
+            || ((long)nCols + (1L << (nLevels - 1)) - 1) >> (nLevels - 1) > 1)
+         nLevels++;
+      rows = new int[nLevels];
+      cols = new int[nLevels];
+      offset = new long[nLevels + 1];
+      for(int k = 0; k < nLevels; k++){
+         rows[k] = (int)(((long)nRows + (1L << k) - 1) >> k);
+         cols[k] = (int)(((long)nCols + (1L << k) - 1) >> k);
+         offset[k + 1] = offset[k] + (long)rows[k] * cols[k];
+      }
+      if (bMem){
+         long n = offset[nLevels];
+         int nChunks = (int)((n + ChunkMask) >>> ChunkBits);
+         mem = new float[nChunks][];
+         for(int i = 0; i < nChunks; i++)
+            mem[i] = new float[(int)Math.min(1L << ChunkBits, n - ((long)i << ChunkBits))];
+      }
+   }
+
+   /** memory map the values of the pyramid file */
+   protected void map(FileChannel.MapMode mode) throws IOException
+   {
+      long n = offset[offset.length - 1];
+      RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+      try{
+         FileChannel fc = raf.getChannel();
+         if (mode != FileChannel.MapMode.READ_ONLY) raf.setLength(HeaderSize + n * 4);
+         else if (fc.size() < HeaderSize + n * 4) throw new IOException("pyramid file is truncated");
+         int nChunks = (int)((n + ChunkMask) >>> ChunkBits);
+         mapped = new FloatBuffer[nChunks];
+         for(int i = 0; i < nChunks; i++){
+            long a = (long)i << ChunkBits;
+            long len = Math.min(1L << ChunkBits, n - a);
+            mapped[i] = fc.map(mode, HeaderSize + a * 4, len * 4).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+         }
+      } finally{
+         raf.close();
+      }
+   }
+
+   /**
+    * Open a pyramid file (read only)
+    *
+    * @return the pyramid or null on error
+    */
+   public static MatrixPyramid open(File file)
+   {
+      try{
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+         ByteBuffer bb = ByteBuffer.allocate(HeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+         try{
+            in.readFully(bb.array());
+         } finally{
+            in.close();
+         }
+         if (bb.getInt() != Magic){
+            System.err.printf("Error: invalid matrix pyramid (%s)\n", file.getAbsolutePath());
+            return null;
+         }
+         int ver = bb.getInt();
+         if (ver != Version){
+            System.err.printf("Error: unsupported matrix pyramid version: %d (%s)\n", ver, file.getAbsolutePath());
+            return null;
+         }
+         int nRows = bb.getInt();
+         int nCols = bb.getInt();
+         Reduce reduce = Reduce.values()[bb.getInt()];
+         MatrixPyramid mp = new MatrixPyramid(nRows, nCols, reduce, file, false);
+         mp.vmin = bb.getFloat();
+         mp.vmax = bb.getFloat();
+         mp.map(FileChannel.MapMode.READ_ONLY);
+         return mp;
+      } catch (IOException e){
+         System.err.printf("Error: failed to open matrix pyramid (%s)\n", file.getAbsolutePath());
+         e.printStackTrace();
+         return null;
+      }
+   }
+
+   public int getNumLevels()
+   {
+      return rows.length;
+   }
+
+   /** @return number of rows in the given level */
+   public int getRows(int level)
+   {
+      return rows[level];
+   }
+
+   /** @return number of columns in the given level */
+   public int getCols(int level)
+   {
+      return cols[level];
+   }
+
+   public Reduce getReduce()
+   {
+      return reduce;
+   }
+
+   /** @return smallest finite value in the matrix (NaN until the pyramid is built) */
+   public float getMin()
+   {
+      return vmin;
+   }
+
+   /** @return largest finite value in the matrix (NaN until the pyramid is built) */
+   public float getMax()
+   {
+      return vmax;
+   }
+
+   /** @return value of a cell in the given level */
+   public float get(int level, int r, int c)
+   {
+      long i = offset[level] + (long)r * cols[level] + c;
+      if (mem != null) return mem[(int)(i >>> ChunkBits)][(int)(i & ChunkMask)];
+      return mapped[(int)(i >>> ChunkBits)].get((int)(i & ChunkMask));
+   }
+
+   /** @return value of a cell in the original matrix */
+   public float get(int r, int c)
+   {
+      return get(0, r, c);
+   }
+
+   protected void put(int level, int r, int c, float v)
+   {
+      long i = offset[level] + (long)r * cols[level] + c;
+      if (mem != null) mem[(int)(i >>> ChunkBits)][(int)(i & ChunkMask)] = v;
+      else mapped[(int)(i >>> ChunkBits)].put((int)(i & ChunkMask), v);
+   }
+
+   /** set the value of a cell in the original matrix (call build() when the matrix is complete) */
+   public void set(int r, int c, double v)
+   {
+      put(0, r, c, (float)v);
+   }
+
+   /** set a row of the original matrix (call build() when the matrix is complete) */
+   public void setRow(int r, double[] row)
+   {
+      assert (row.length == nCols);
+      for(int c = 0; c < nCols; c++)
+         put(0, r, c, (float)row[c]);
+   }
+
+   /**
+    * Compute the upper levels of the pyramid and the range of the values; for file-based pyramids, the header
+    * is written (the mapped values are written back by the OS). Non-finite cells are skipped by the reduction (approximately,
+    * for Mean: a block is weighted by the number of cells it covers).
+    */
+   public void build()
+   {
+      vmin = Float.POSITIVE_INFINITY;
+      vmax = Float.NEGATIVE_INFINITY;
+      for(int r = 0; r < nRows; r++)
+         for(int c = 0; c < nCols; c++){
+            float v = get(0, r, c);
+            if (Float.isNaN(v) || Float.isInfinite(v)) continue;
+            if (v < vmin) vmin = v;
+            if (v > vmax) vmax = v;
+         }
+      if (vmin > vmax) vmin = vmax = Float.NaN;
+
+      for(int k = 1; k < rows.length; k++){
+         for(int r = 0; r < rows[k]; r++){
+            for(int c = 0; c < cols[k]; c++){
+               double sum = 0, wsum = 0;
+               float vbest = Float.NaN;
+               for(int i = 2 * r; i < Math.min(2 * r + 2, rows[k - 1]); i++){
+                  for(int j = 2 * c; j < Math.min(2 * c + 2, cols[k - 1]); j++){
+                     float v = get(k - 1, i, j);
+                     if (Float.isNaN(v) || Float.isInfinite(v)) continue;
+                     if (reduce == Reduce.Max){
+                        if (Float.isNaN(vbest) || v > vbest) vbest = v;
+                     }
+                     else{
+                        // weight by the number of original cells that the child covers
+                        double w = (double)span(k - 1, i, nRows) * span(k - 1, j, nCols);
+                        sum += w * v;
+                        wsum += w;
+                     }
+                  }
+               }
+               if (reduce == Reduce.Mean && wsum > 0) vbest = (float)(sum / wsum);
+               put(k, r, c, vbest);
+            }
+         }
+      }
+
+      if (mapped != null){
+         try{
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try{
+               ByteBuffer bb = ByteBuffer.allocate(HeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+               bb.putInt(Magic);
+               bb.putInt(Version);
+               bb.putInt(nRows);
+               bb.putInt(nCols);
+               bb.putInt(reduce.ordinal());
+               bb.putFloat(vmin);
+               bb.putFloat(vmax);
+               bb.putInt(0);
+               raf.write(bb.array());
+            } finally{
+               raf.close();
+            }
+         } catch (IOException e){
+            System.err.printf("Error: failed to write matrix pyramid header (%s)\n", file.getAbsolutePath());
+            e.printStackTrace();
+         }
+      }
+   }
+
+   /** @return number of original rows (or columns) covered by index i of the given level */
+   protected static int span(int level, int i, int n)
+   {
+      long a = (long)i << level;
+      return (int)Math.min(1L << level, n - a);
+   }
+}
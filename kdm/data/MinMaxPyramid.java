@@ -0,0 +1,152 @@
+package kdm.data;
+
+/**
+ * Multi-resolution summary of the per-dimension min and max values of a sequence. Level k holds the min/max
+ * over aligned blocks of 2^(LeafBits+k) frames, so the min/max over any range of frames can be found by
+ * combining O(log n) blocks plus at most 2^LeafBits frames at each end of the range. This lets a graph compute
+ * its vertical scale or draw a zoomed-out view in time proportional to the number of pixels instead of the
+ * number of frames.
+ *
+ * The pyramid is a snapshot of the sequence when it was built. Frames appended to the sequence later are
+ * scanned directly, but changes to the existing frames are not noticed.
+ */
+public final class MinMaxPyramid
+{
+   /** log2 of the number of frames summarized by each block in the first level */
+   public static final int LeafBits = 4;
+
+   protected final Sequence seq;
+   protected final int nFrames, nDims;
+
+   /** min/max of each block; level[k][iBlock * nDims + d] */
+   protected final double[][] mins, maxs;
+
+   /**
+    * Build the pyramid for the given sequence (takes time linear in the length of the sequence)
+    */
+   public MinMaxPyramid(Sequence seq)
+   {
+      this.seq = seq;
+      nFrames = seq.length();
+      nDims = seq.getNumDims();
+
+      int nLevels = 0;
+      while((nFrames >> (LeafBits + nLevels)) > 0)
+         nLevels++;
+      mins = new double[nLevels][];
+      maxs = new double[nLevels][];
+      if (nLevels == 0) return;
+
+      // first level comes from the frames themselves
+      int nBlocks = nFrames >> LeafBits;
+      double[] mn = new double[nBlocks * nDims];
+      double[] mx = new double[nBlocks * nDims];
+      for(int iBlock = 0; iBlock < nBlocks; iBlock++){
+         int base = iBlock * nDims;
+         int iFrame = iBlock << LeafBits;
+         FeatureVec fv = seq.get(iFrame);
+         for(int d = 0; d < nDims; d++)
+            mn[base + d] = mx[base + d] = fv.get(d);
+         for(int i = 1; i < (1 << LeafBits); i++){
+            fv = seq.get(iFrame + i);
+            for(int d = 0; d < nDims; d++){
+               double v = fv.get(d);
+               if (v < mn[base + d]) mn[base + d] = v;
+               if (v > mx[base + d]) mx[base + d] = v;
+            }
+         }
+      }
+      mins[0] = mn;
+      maxs[0] = mx;
+
+      // each higher level combines pairs of blocks from the level below
+      for(int k = 1; k < nLevels; k++){
+         double[] mnPrev = mn, mxPrev = mx;
+         nBlocks >>= 1;
+         mn = new double[nBlocks * nDims];
+         mx = new double[nBlocks * nDims];
+         for(int iBlock = 0; iBlock < nBlocks; iBlock++){
+            int base = iBlock * nDims;
+            int a = 2 * base, b = a + nDims;
+            for(int d = 0; d < nDims; d++){
+               mn[base + d] = Math.min(mnPrev[a + d], mnPrev[b + d]);
+               mx[base + d] = Math.max(mxPrev[a + d], mxPrev[b + d]);
+            }
+         }
+         mins[k] = mn;
+         maxs[k] = mx;
+      }
+   }
+
+   /** @return number of frames summarized by this pyramid (the sequence may have grown since) */
+   public int length()
+   {
+      return nFrames;
+   }
+
+   public int getNumDims()
+   {
+      return nDims;
+   }
+
+   /** @return true if this pyramid was built for the given sequence and no frames have been removed */
+   public boolean isValidFor(Sequence seq)
+   {
+      return seq == this.seq && seq.length() >= nFrames && seq.getNumDims() == nDims;
+   }
+
+   /**
+    * Compute the min and max value of each dimension over the frames [iStart, iEnd). If the range is empty, the
+    * min is +inf and the max is -inf.
+    *
+    * @param vmin receives the min of each dimension
+    * @param vmax receives the max of each dimension
+    */
+   public void getMinMax(int iStart, int iEnd, double[] vmin, double[] vmax)
+   {
+      assert (iStart >= 0 && iEnd <= seq.length());
+      for(int d = 0; d < nDims; d++){
+         vmin[d] = Double.POSITIVE_INFINITY;
+         vmax[d] = Double.NEGATIVE_INFINITY;
+      }
+
+      // frames appended after the pyramid was built
+      for(int i = Math.max(iStart, nFrames); i < iEnd; i++)
+         scan(i, vmin, vmax);
+      iEnd = Math.min(iEnd, nFrames);
+
+      // frames before the first aligned block
+      int i = iStart;
+      int mask = (1 << LeafBits) - 1;
+      while(i < iEnd && ((i & mask) != 0 || iEnd - i <= mask))
+         scan(i++, vmin, vmax);
+
+      // largest aligned blocks that fit in the rest of the range
+      while(iEnd - i > mask){
+         int k = Math.min(Integer.numberOfTrailingZeros(i) - LeafBits, mins.length - 1);
+         while(iEnd - i < (1 << (LeafBits + k)))
+            k--;
+         int base = (i >> (LeafBits + k)) * nDims;
+         double[] mn = mins[k], mx = maxs[k];
+         for(int d = 0; d < nDims; d++){
+            if (mn[base + d] < vmin[d]) vmin[d] = mn[base + d];
+            if (mx[base + d] > vmax[d]) vmax[d] = mx[base + d];
+         }
+         i += 1 << (LeafBits + k);
+      }
+
+      // frames after the last block
+      while(i < iEnd)
+         scan(i++, vmin, vmax);
+   }
+
+   protected void scan(int i, double[] vmin, double[] vmax)
+   {
+      FeatureVec fv = seq.get(i);
+      for(int d = 0; d < nDims; d++){
+         double v = fv.get(d);
+         if (v < vmin[d]) vmin[d] = v;
+         if (v > vmax[d]) vmax[d] = v;
+      }
+   }
+}
@@ -141,6 +141,23 @@ public class Sequence extends Datum
       setData(data);
    }
    
+   /**
+    * Creates a new sequence that stores its frames in the given list (not a copy!). This allows a sequence to
+    * be backed by a lazily populated list (see LazyFrameList).
+    *
+    * @param name - name of the new sequence
+    * @param freq - sampling frequency
+    * @param msStart - start time (in ms) of the sequence
+    * @param frames - list that holds the frames of this sequence
+    */
+   public Sequence(String name, double freq, long msStart, ArrayList<FeatureVec> frames)
+   {
+      setName(name);
+      setFreq(freq);
+      setStartMS(msStart);
+      data = frames;
+   }
+
    /** @return data as a list of feature vectors (not a copy!) */
    public ArrayList<FeatureVec> getData(){ return data; }
 
@@ -863,6 +880,26 @@ public class Sequence extends Datum
       return ret;
    }
 
+   /**
+    * Same as subseq(iStart, iEnd, index) but the returned sequence is a view onto the frames of this sequence
+    * instead of a copy of the references (see FrameView). Extraction is O(1), so this is the better choice
+    * for pulling many (or long) occurrences out of a sequence. This sequence must not be structurally modified
+    * while the view is in use.
+    */
+   public Sequence view(int iStart, int iEnd, int index)
+   {
+      assert !(iStart < 0 || iEnd <= iStart || iEnd > data.size()) : String.format(
+            "iStart: %d  iEnd: %d  seq.len: %d\n", iStart, iEnd, length());
+
+      Sequence ret = new Sequence(getName(), getFreq(), getTimeMS(iStart), new FrameView(data, iStart, iEnd));
+
+      // setup the parent index info
+      if (hasParent()) ret.setParent(getParentIndex(), getParentOffset() + iStart);
+      else ret.setParent(index, iStart);
+
+      return ret;
+   }
+
    /**
     * @return the location of this sequence, assuming it was extracted from some other sequence
     */
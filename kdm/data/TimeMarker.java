@@ -35,6 +35,9 @@ public class TimeMarker implements Comparable
    /** associated metadata */
    protected Object meta;
 
+   /** marker lists of the sets whose index includes this marker; notified on edits (copy on write) */
+   protected volatile MarkupSet.MarkList[] lists;
+
    /**
     * Create an event time marker at time x.
     */
@@ -174,6 +177,7 @@ public class TimeMarker implements Comparable
       type = Type.Event;
       start = x;
       stop = x;
+      changed();
    }
 
    public void setStart(long ms)
@@ -181,6 +185,7 @@ public class TimeMarker implements Comparable
       start = ms;
       if (start == stop) type = Type.Event;
       else type = Type.Interval;
+      changed();
    }
 
    public void setStop(long ms)
@@ -188,6 +193,7 @@ public class TimeMarker implements Comparable
       stop = ms;
       if (start == stop) type = Type.Event;
       else type = Type.Interval;
+      changed();
    }
 
    public void set(long _msStart, long _msStop)
@@ -203,18 +209,63 @@ public class TimeMarker implements Comparable
          start = _msStart;
          stop = _msStop;
       }
+      changed();
+   }
+
+   /** let the sets that index this marker know that it has moved */
+   protected final void changed()
+   {
+      MarkupSet.MarkList[] a = lists;
+      if (a == null) return;
+      for(MarkupSet.MarkList list : a)
+         list.nMarkEdits.incrementAndGet();
+   }
+
+   /** notify the given list when this marker changes */
+   protected synchronized void addList(MarkupSet.MarkList list)
+   {
+      MarkupSet.MarkList[] a = lists;
+      if (a == null){
+         lists = new MarkupSet.MarkList[] { list };
+         return;
+      }
+      for(MarkupSet.MarkList x : a)
+         if (x == list) return;
+      a = Arrays.copyOf(a, a.length + 1);
+      a[a.length - 1] = list;
+      lists = a;
+   }
+
+   /** stop notifying the given list */
+   protected synchronized void removeList(MarkupSet.MarkList list)
+   {
+      MarkupSet.MarkList[] a = lists;
+      if (a == null) return;
+      for(int i = 0; i < a.length; i++){
+         if (a[i] != list) continue;
+         if (a.length == 1) lists = null;
+         else{
+            MarkupSet.MarkList[] b = new MarkupSet.MarkList[a.length - 1];
+            System.arraycopy(a, 0, b, 0, i);
+            System.arraycopy(a, i + 1, b, i, b.length - i);
+            lists = b;
+         }
+         return;
+      }
    }
 
    public void translate(long dms)
    {
       start += dms;
       stop += dms;
+      changed();
    }
 
    public void scale(double v)
    {
       start = (int)Math.round(start * v);
       stop = (int)Math.round(stop * v);
+      changed();
    }
 
    public int compareTo(Object o)
@@ -321,6 +372,7 @@ public class TimeMarker implements Comparable
       units = Units.Time;
       start = seq.getTimeMS((int)start);
       stop = seq.getTimeMS((int)stop);
+      changed();
    }
 
    public void convertToIndex(Sequence seq)
@@ -329,6 +381,7 @@ public class TimeMarker implements Comparable
       units = Units.Index;
       start = seq.getClosestIndex(start);
       stop = seq.getClosestIndex(stop);
+      changed();
    }
 
    public void convertToOrigUnits(Sequence seq)
@@ -379,6 +432,7 @@ public class TimeMarker implements Comparable
       long b = stop % 1000;
       if (b < 500) stop -= b;
       else stop += 1000 - b;
+      changed();
    }
 
    /**
@@ -391,9 +445,9 @@ public class TimeMarker implements Comparable
    {
       ArrayList<TimeMarker> ret = new ArrayList<TimeMarker>();
 
-      int nMarks = tms.size();
-      for(int iMark = 0; iMark < nMarks; iMark++){
-         TimeMarker tmo = intersect(tms.get(iMark));
+      // only look at the markers that overlap this one
+      for(TimeMarker tm : tms.getOverlapping(start, stop)){
+         TimeMarker tmo = intersect(tm);
          if (tmo != null) ret.add(tmo);
       }
 
@@ -24,10 +24,18 @@ public class SeqRand
     * @return random sequence
     */
    public static double[] generate(double vStart, double vEnd, double scale, int smooth, int len)
+   {
+      return generate(vStart, vEnd, scale, smooth, len, Library.rng);
+   }
+
+   /** Same as above, but the random steps come from the given stream */
+   public static double[] generate(double vStart, double vEnd, double scale, int smooth, int len,
+         RandomStream rng)
    {
       double[] x = new double[len];
+      rng.uniform(x);
       for(int i=0; i<len; i++)
-         x[i] = (Library.random() - 0.5)*scale;
+         x[i] = (x[i] - 0.5)*scale;
       
       if (smooth > 1)
       {
@@ -56,6 +64,12 @@ public class SeqRand
     * @return random sequence
     */
    public static double[] generate(double vStart, double vStep, int smooth, int len)
+   {
+      return generate(vStart, vStep, smooth, len, Library.rng);
+   }
+
+   /** Same as above, but the random steps come from the given stream */
+   public static double[] generate(double vStart, double vStep, int smooth, int len, RandomStream rng)
    {
       Sequence seq = new Sequence();
       
@@ -63,7 +77,7 @@ public class SeqRand
       seq.add(new FeatureVec(1, vStart));
       for(int t=1; t<len; t++)
       {
-         if (Library.random() < 0.5) v -= vStep;
+         if (rng.raw() < 0.5) v -= vStep;
          else v += vStep;
          seq.add(new FeatureVec(1, v));
       }
@@ -0,0 +1,10 @@
+package kdm.data.transform;
+
+import kdm.data.*;
+
+/** receives frames emitted by a streaming transform */
+public interface FrameSink
+{
+   /** called for each output frame (the frame is not reused by the caller) */
+   public void emit(FeatureVec fv);
+}
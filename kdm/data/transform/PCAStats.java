@@ -0,0 +1,182 @@
+package kdm.data.transform;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import kdm.data.*;
+
+/**
+ * Accumulates the mean and covariance of a stream of feature vectors in O(D^2) memory so that PCA can be
+ * computed without holding all of the data at once. Partial statistics (e.g., computed over different chunks in
+ * parallel) can be merged.
+ */
+public class PCAStats
+{
+   protected int nd;
+   protected long n;
+   protected double[] mean;
+
+   /** co-moment matrix: sum of (x-mean)(x-mean)^T; only the upper triangle is maintained */
+   protected double[][] co;
+
+   /** scratch for the centered data point */
+   protected double[] delta;
+
+   public PCAStats(int nd)
+   {
+      this.nd = nd;
+      n = 0;
+      mean = new double[nd];
+      co = new double[nd][nd];
+      delta = new double[nd];
+   }
+
+   /** @return number of dimensions */
+   public int getNumDims()
+   {
+      return nd;
+   }
+
+   /** @return number of data points accumulated so far */
+   public long getCount()
+   {
+      return n;
+   }
+
+   /** add a single data point (Welford's update) */
+   public void add(FeatureVec fv)
+   {
+      double[] x = fv.get();
+      assert (x.length == nd);
+      n++;
+      for(int i = 0; i < nd; i++){
+         delta[i] = x[i] - mean[i];
+         mean[i] += delta[i] / n;
+      }
+      for(int i = 0; i < nd; i++){
+         double di = delta[i];
+         double[] row = co[i];
+         for(int j = i; j < nd; j++)
+            row[j] += di * (x[j] - mean[j]);
+      }
+   }
+
+   /** add every frame of the given sequence */
+   public void add(Sequence seq)
+   {
+      int T = seq.length();
+      for(int t = 0; t < T; t++)
+         add(seq.get(t));
+   }
+
+   /** merge the given statistics into this object (Chan et al.'s pairwise update) */
+   public void merge(PCAStats stats)
+   {
+      assert (stats.nd == nd);
+      if (stats.n == 0) return;
+      if (n == 0){
+         n = stats.n;
+         for(int i = 0; i < nd; i++){
+            mean[i] = stats.mean[i];
+            System.arraycopy(stats.co[i], 0, co[i], 0, nd);
+         }
+         return;
+      }
+
+      double na = n, nb = stats.n, nab = na + nb;
+      for(int i = 0; i < nd; i++)
+         delta[i] = stats.mean[i] - mean[i];
+      double f = na * nb / nab;
+      for(int i = 0; i < nd; i++)
+         for(int j = i; j < nd; j++)
+            co[i][j] += stats.co[i][j] + delta[i] * delta[j] * f;
+      for(int i = 0; i < nd; i++)
+         mean[i] += delta[i] * nb / nab;
+      n += stats.n;
+   }
+
+   /** @return mean of the accumulated data */
+   public FeatureVec getMean()
+   {
+      return new FeatureVec(mean);
+   }
+
+   /** @return unbiased estimate of the covariance matrix (full, symmetric) */
+   public double[][] getCov()
+   {
+      double[][] cov = new double[nd][nd];
+      double f = (n > 1 ? 1.0 / (n - 1) : 0.0);
+      for(int i = 0; i < nd; i++)
+         for(int j = i; j < nd; j++)
+            cov[i][j] = cov[j][i] = co[i][j] * f;
+      return cov;
+   }
+
+   /**
+    * Compute statistics over a set of sequences using several threads; each thread accumulates a subset of
+    * the sequences and the partial results are merged.
+    *
+    * @param seqs data to accumulate
+    * @param nThreads number of threads to use
+    * @return statistics over all frames of all sequences
+    * @throws IllegalArgumentException if there are no sequences
+    * @throws RuntimeException if the calling thread is interrupted (the interrupt flag is restored)
+    */
+   public static PCAStats compute(final List<Sequence> seqs, int nThreads)
+   {
+      if (seqs.isEmpty()) throw new IllegalArgumentException("no sequences to compute PCA statistics over");
+      final int nd = seqs.get(0).getNumDims();
+      int nJobs = Math.max(1, Math.min(nThreads, seqs.size()));
+      PCAStats stats = new PCAStats(nd);
+      if (nJobs == 1){
+         for(Sequence seq : seqs)
+            stats.add(seq);
+         return stats;
+      }
+
+      ArrayList<Callable<PCAStats>> jobs = new ArrayList<Callable<PCAStats>>();
+      for(int i = 0; i < nJobs; i++){
+         final int iJob = i, nStride = nJobs;
+         jobs.add(new Callable<PCAStats>() {
+            public PCAStats call()
+            {
+               PCAStats part = new PCAStats(nd);
+               for(int j = iJob; j < seqs.size(); j += nStride)
+                  part.add(seqs.get(j));
+               return part;
+            }
+         });
+      }
+      ExecutorService pool = Executors.newFixedThreadPool(nJobs);
+      try{
+         for(Future<PCAStats> f : pool.invokeAll(jobs))
+            stats.merge(f.get());
+      } catch (InterruptedException e){
+         // partial statistics would give the wrong mean and covariance, so don't return them
+         shutdownAndWait(pool);
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e){
+         shutdownAndWait(pool);
+         throw new RuntimeException(e.getCause());
+      } finally{
+         pool.shutdown();
+      }
+      return stats;
+   }
+
+   /** shut down the pool and wait (ignoring interrupts) for any running jobs to finish */
+   protected static void shutdownAndWait(ExecutorService pool)
+   {
+      pool.shutdownNow();
+      boolean bInterrupted = false;
+      while(true){
+         try{
+            if (pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)) break;
+         } catch (InterruptedException e){
+            bInterrupted = true;
+         }
+      }
+      if (bInterrupted) Thread.currentThread().interrupt();
+   }
+}
@@ -0,0 +1,49 @@
+package kdm.data.transform;
+
+import kdm.data.*;
+
+/** frame sink that collects the emitted frames in a sequence */
+public class SequenceSink implements FrameSink
+{
+   protected Sequence seq;
+
+   public SequenceSink(Sequence seq)
+   {
+      this.seq = seq;
+   }
+
+   public SequenceSink(String name, double freq, long msStart)
+   {
+      this(new Sequence(name, freq, msStart));
+   }
+
+   public void emit(FeatureVec fv)
+   {
+      seq.add(fv);
+   }
+
+   /** @return sequence holding all frames emitted so far (not a copy!) */
+   public Sequence getSequence()
+   {
+      return seq;
+   }
+
+   /**
+    * Run an entire sequence through a streaming transform and collect the results.
+    * 
+    * @param tran transform to apply (reset before use)
+    * @param data input sequence
+    * @param name name of the output sequence
+    * @return sequence of output frames
+    */
+   public static Sequence stream(StreamTransform tran, Sequence data, String name)
+   {
+      SequenceSink sink = new SequenceSink(name, data.getFreq(), data.getStartMS());
+      tran.reset();
+      int T = data.length();
+      for(int i = 0; i < T; i++)
+         tran.push(data.get(i), sink);
+      tran.flush(sink);
+      return sink.getSequence();
+   }
+}
@@ -0,0 +1,30 @@
+package kdm.data.transform;
+
+import kdm.data.*;
+
+/**
+ * A transform that processes frames incrementally (push-based) rather than requiring a full sequence. Each
+ * input frame may produce zero or more output frames, which are handed to the given sink. Implementations
+ * only keep a bounded amount of state, so the cost per frame does not depend on the length of the stream.
+ */
+public interface StreamTransform
+{
+   /** clear any internal state in preparation for a new stream */
+   public void reset();
+
+   /**
+    * Push the next frame of the stream into this transform
+    * 
+    * @param fv next input frame (not modified)
+    * @param out receives any output frames that are ready
+    */
+   public void push(FeatureVec fv, FrameSink out);
+
+   /**
+    * Signal the end of the stream so that any buffered output can be emitted; the transform must be reset
+    * before it is used for another stream.
+    * 
+    * @param out receives any remaining output frames
+    */
+   public void flush(FrameSink out);
+}
@@ -5,11 +5,17 @@ import kdm.data.*;
 import java.util.*;
 
 /**
- * A transform that is composed of several transforms performed in sequence.
+ * A transform that is composed of several transforms performed in sequence. If every component supports
+ * streaming, the compound transform can also be streamed; frames are then pushed through all stages without
+ * building any intermediate sequences.
  */
-public class TransformCompound extends DataTransform
+public class TransformCompound extends DataTransform implements StreamTransform
 {
    protected ArrayList<DataTransform> trans;
+
+   /** streaming state: sink feeding each stage after the first, and the final output sink */
+   protected FrameSink[] sinks;
+   protected FrameSink out;
    
    /**
     * Create a compound transform that performs transform 'a' and then 'b'
@@ -42,4 +48,56 @@ public class TransformCompound extends DataTransform
       for (DataTransform tran : trans) data = tran.transform(data);
       return data;
    }
+
+   /** @return true if every component transform supports streaming */
+   public boolean canStream()
+   {
+      for(DataTransform tran : trans)
+         if (!(tran instanceof StreamTransform)) return false;
+      return true;
+   }
+
+   /**
+    * Prepare for a new stream
+    * @throws IllegalStateException if some component transform does not support streaming
+    */
+   public void reset()
+   {
+      if (!canStream()) throw new IllegalStateException(String.format(
+            "%s: all component transforms must support streaming", getClass().getSimpleName()));
+      int n = trans.size();
+      sinks = new FrameSink[n];
+      for(int i = 0; i < n; i++){
+         ((StreamTransform)trans.get(i)).reset();
+         final int iNext = i + 1;
+         if (iNext < n) sinks[i] = new FrameSink() {
+            public void emit(FeatureVec fv)
+            {
+               ((StreamTransform)trans.get(iNext)).push(fv, sinks[iNext]);
+            }
+         };
+         else sinks[i] = new FrameSink() {
+            public void emit(FeatureVec fv)
+            {
+               out.emit(fv);
+            }
+         };
+      }
+   }
+
+   public void push(FeatureVec fv, FrameSink out)
+   {
+      if (sinks == null) throw new IllegalStateException("TransformCompound: call reset() before streaming");
+      this.out = out;
+      ((StreamTransform)trans.get(0)).push(fv, sinks[0]);
+   }
+
+   public void flush(FrameSink out)
+   {
+      if (sinks == null) throw new IllegalStateException("TransformCompound: call reset() before streaming");
+      // flush in order so that buffered output from one stage reaches the later stages before they flush
+      this.out = out;
+      for(int i = 0; i < trans.size(); i++)
+         ((StreamTransform)trans.get(i)).flush(sinks[i]);
+   }
 }
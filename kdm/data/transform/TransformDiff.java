@@ -4,8 +4,11 @@ import kdm.data.*;
 import java.util.*;
 
 /** Calculate the first discrete derivative ([1..end] - [0..end-1]) */
-public class TransformDiff extends DataTransform
+public class TransformDiff extends DataTransform implements StreamTransform
 {
+   /** previous frame when streaming */
+   protected FeatureVec fvPrev;
+
    public void dumpParams()
    {
       System.err.printf("%s: no params\n", getClass());
@@ -23,4 +26,18 @@ public class TransformDiff extends DataTransform
       }
       return data;
    }
+
+   public void reset()
+   {
+      fvPrev = null;
+   }
+
+   public void push(FeatureVec fv, FrameSink out)
+   {
+      if (fvPrev != null) out.emit(fv.sub(fvPrev));
+      fvPrev = fv;
+   }
+
+   public void flush(FrameSink out)
+   {}
 }
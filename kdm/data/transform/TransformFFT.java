@@ -1,20 +1,43 @@
 package kdm.data.transform;
 
 import kdm.data.*;
-import jnt.FFT.*;
+import kdm.util.*;
 import java.util.*;
+import java.util.concurrent.*;
 
-/** Compute the FFT of a sequence */
+/**
+ * Compute the FFT of a sequence. Windows of any length are supported (non-power-of-2 lengths use Bluestein's
+ * algorithm). When consecutive windows overlap heavily and only a few coefficients are requested, a sliding
+ * DFT updates each coefficient in O(1) per time step instead of transforming every window. Windows can also
+ * be spread across several threads.
+ */
 public class TransformFFT extends DataTransform
 {
-   int nw; // window size -- must be a power of 2
+   /** method used to compute the DFT coefficients */
+   public enum Method {
+      /** choose based on window length, window increment, and number of coefficients */
+      auto,
+      /** full FFT of every window */
+      fft,
+      /** sliding DFT of just the requested coefficients */
+      sliding
+   }
+
+   /** number of sliding updates between exact recomputations of the coefficients (limits drift) */
+   public static final int SlidingRefresh = 4096;
+
+   int nw; // window size
    int nSkip; // window increment -- how many time steps to skip between successive
                // windows
    int iSpecStart; // first spectrum component to include
    int iSpecStop; // last spectrum component to include (ie. endpoint is inclusive)
    boolean bReal; // include real component of DFT?
    boolean bImag; // include imaginary component of DFT?
-   RealDoubleFFT_Radix2 fft;
+   Method method = Method.auto;
+   int nThreads = 1;
+
+   /** twiddle factors: exp(-2 pi i t/nw) */
+   protected double[] twRe, twIm;
 
    public TransformFFT(int _nw, int _nSkip, int _iSpecStart, int _iSpecStop)
    {
@@ -29,11 +52,32 @@ public class TransformFFT extends DataTransform
       iSpecStop = _iSpecStop;
       bReal = _bReal;
       bImag = _bImag;
-      fft = new RealDoubleFFT_Radix2(nw);
 
       assert bReal || bImag;
+      assert (iSpecStart >= 0 && iSpecStart <= iSpecStop && iSpecStop <= nw / 2) : String.format(
+            "invalid spectrum range: [%d, %d] (nw=%d)", iSpecStart, iSpecStop, nw);
+
+      twRe = new double[nw];
+      twIm = new double[nw];
+      for(int t = 0; t < nw; t++){
+         double ang = Library.TWO_PI * t / nw;
+         twRe[t] = Math.cos(ang);
+         twIm[t] = -Math.sin(ang);
+      }
    }
-   
+
+   /** set the method used to compute the coefficients */
+   public void setMethod(Method method)
+   {
+      this.method = method;
+   }
+
+   /** set the number of threads used to process windows (1 = run in the calling thread) */
+   public void setNumThreads(int nThreads)
+   {
+      this.nThreads = Math.max(1, nThreads);
+   }
+
    public void dumpParams()
    {
       System.err.printf("%s:\n", getClass());
@@ -41,42 +85,204 @@ public class TransformFFT extends DataTransform
       System.err.printf(" Window increment: %d\n", nSkip);
       System.err.printf(" Spectrum Start: %d\n", iSpecStart);
       System.err.printf(" Spectrum Stop: %d\n", iSpecStop);
+      System.err.printf(" Method: %s (%s)\n", method, getMethod());
+      System.err.printf(" Threads: %d\n", nThreads);
    }
 
-   public Sequence transform(Sequence _data)
+   /** @return method that will actually be used (resolves 'auto') */
+   public Method getMethod()
+   {
+      if (method != Method.auto) return method;
+      int nBins = iSpecStop - iSpecStart + 1;
+      // sliding costs nSkip updates per coefficient per window, the FFT costs ~nw*log(nw) per window
+      if ((double)nSkip * nBins < nw * Math.max(1.0, Library.log2(nw))) return Method.sliding;
+      return Method.fft;
+   }
+
+   public Sequence transform(final Sequence _data)
    {
       double period = nSkip * _data.getPeriod();
       Sequence data = new Sequence("FFT: " + _data.getName(), 1.0 / period, _data.getStartMS());
-      int nDims = _data.getNumDims(); // num dims of original data
+      int nWin = (_data.length() < nw ? 0 : (_data.length() - nw) / nSkip + 1);
+      if (nWin == 0) return data;
+
+      // pull the data out of the sequence once so that workers can access it without touching FeatureVecs
+      final double[][] x = _data.toSeqArray();
+      final FeatureVec[] fvs = new FeatureVec[nWin];
+      final boolean bSliding = (getMethod() == Method.sliding);
+
+      int nChunks = Math.min(nThreads, nWin);
+      if (nChunks == 1){
+         if (bSliding) calcSliding(x, fvs, 0, nWin);
+         else calcFFT(x, fvs, 0, nWin);
+      }
+      else{
+         ArrayList<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+         for(int i = 0; i < nChunks; i++){
+            final int a = (int)((long)nWin * i / nChunks);
+            final int b = (int)((long)nWin * (i + 1) / nChunks);
+            jobs.add(new Callable<Object>() {
+               public Object call()
+               {
+                  if (bSliding) calcSliding(x, fvs, a, b);
+                  else calcFFT(x, fvs, a, b);
+                  return null;
+               }
+            });
+         }
+         ExecutorService pool = Executors.newFixedThreadPool(nChunks);
+         try{
+            for(Future<Object> f : pool.invokeAll(jobs))
+               f.get();
+         } catch (InterruptedException e){
+            // don't hand back a half-filled spectrogram; wait for the running windows so nothing outlives this call
+            shutdownAndWait(pool);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+         } catch (ExecutionException e){
+            shutdownAndWait(pool);
+            throw new RuntimeException(e.getCause());
+         } finally{
+            pool.shutdown();
+         }
+      }
+
+      // finally, add the DFT coefs FVs to the new dataset
+      for(int i = 0; i < nWin; i++)
+         data.add(fvs[i]);
+      return data;
+   }
+
+   /** shut down the pool and wait (ignoring interrupts) for any running jobs to finish */
+   protected static void shutdownAndWait(ExecutorService pool)
+   {
+      pool.shutdownNow();
+      boolean bInterrupted = false;
+      while(true){
+         try{
+            if (pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)) break;
+         } catch (InterruptedException e){
+            bInterrupted = true;
+         }
+      }
+      if (bInterrupted) Thread.currentThread().interrupt();
+   }
+
+   /** @return number of dimensions in the output feature vectors */
+   protected int getOutputDims(int nDims)
+   {
       int D = (iSpecStop - iSpecStart + 1) * (bReal && bImag ? 2 : 1); // # DFT coefs
-      int D2 = nDims * D; // num dimensions for all DFT coefs
-      double v[] = new double[nw];
-      for(int iw = 0; iw + nw <= _data.length(); iw += nSkip)
-      {
-         // offset in feature vectors is initially zero
-         int ifv = 0;
+      return nDims * D; // num dimensions for all DFT coefs
+   }
+
+   /** store the coefficients of one dimension in the output vector; return new offset in the vector */
+   protected int setCoefs(FeatureVec fv, int ifv, double[] re, double[] im)
+   {
+      for(int i = iSpecStart; i <= iSpecStop; i++){
+         if (bReal) fv.set(ifv++, re[i]);
+         if (bImag) fv.set(ifv++, im[i]);
+      }
+      return ifv;
+   }
+
+   /**
+    * Compute windows [iwa..iwb) by transforming each window. Pairs of (real) dimensions are packed into a
+    * single complex transform.
+    */
+   protected void calcFFT(double[][] x, FeatureVec[] fvs, int iwa, int iwb)
+   {
+      int nDims = x.length;
+      int D2 = getOutputDims(nDims);
+      FFT fft = new FFT(nw);
+      double[] zr = new double[nw], zi = new double[nw];
+      double[] ar = new double[nw], ai = new double[nw];
+      double[] br = new double[nw], bi = new double[nw];
+      for(int w = iwa; w < iwb; w++){
+         int iw = w * nSkip;
          FeatureVec fv = new FeatureVec(D2);
+         int ifv = 0;
+         for(int d = 0; d < nDims; d += 2){
+            boolean bPair = (d + 1 < nDims);
+            System.arraycopy(x[d], iw, zr, 0, nw);
+            if (bPair) System.arraycopy(x[d + 1], iw, zi, 0, nw);
+            else Arrays.fill(zi, 0.0);
+            fft.transform(zr, zi);
 
-         // process each dimension separately
-         for(int d = 0; d < nDims; d++)
-         {
-            // copy this dimension into the v array and compute the DFT
-            for(int i = 0; i < nw; i++)
-               v[i] = _data.get(iw + i, d);
-            fft.transform(v, 0, 1);
-
-            // now get the coefficients back out of the v array
-            for(int i = iSpecStart; i <= iSpecStop; i++)
-            {
-               if (bReal) fv.set(ifv++, v[i]);
-               if (bImag) fv.set(ifv++, i == 0 ? 0.0 : v[nw - i]);
+            // separate the spectra: A[k] = (Z[k] + conj(Z[n-k]))/2, B[k] = (Z[k] - conj(Z[n-k]))/2i
+            for(int k = iSpecStart; k <= iSpecStop; k++){
+               int k2 = (nw - k) % nw;
+               ar[k] = 0.5 * (zr[k] + zr[k2]);
+               ai[k] = 0.5 * (zi[k] - zi[k2]);
+               br[k] = 0.5 * (zi[k] + zi[k2]);
+               bi[k] = -0.5 * (zr[k] - zr[k2]);
+            }
+            ifv = setCoefs(fv, ifv, ar, ai);
+            if (bPair) ifv = setCoefs(fv, ifv, br, bi);
+         }
+         fvs[w] = fv;
+      }
+   }
+
+   /**
+    * Compute windows [iwa..iwb) with a sliding DFT: X_k(t+1) = (X_k(t) - x[t] + x[t+nw]) * exp(2 pi i k/nw).
+    * The coefficients are periodically recomputed directly so that rounding errors can't accumulate.
+    */
+   protected void calcSliding(double[][] x, FeatureVec[] fvs, int iwa, int iwb)
+   {
+      int nDims = x.length;
+      int D2 = getOutputDims(nDims);
+      double[][] re = new double[nDims][iSpecStop + 1];
+      double[][] im = new double[nDims][iSpecStop + 1];
+      int nSinceRefresh = SlidingRefresh;
+      int iPos = -1; // start of the window currently represented by re/im
+      for(int w = iwa; w < iwb; w++){
+         int iw = w * nSkip;
+         if (nSinceRefresh >= SlidingRefresh){
+            for(int d = 0; d < nDims; d++)
+               calcDirect(x[d], iw, re[d], im[d]);
+            nSinceRefresh = 0;
+         }
+         else{
+            for(int d = 0; d < nDims; d++){
+               double[] v = x[d], xr = re[d], xi = im[d];
+               for(int t = iPos; t < iw; t++){
+                  double delta = v[t + nw] - v[t];
+                  for(int k = iSpecStart; k <= iSpecStop; k++){
+                     // multiply by exp(+2 pi i k/nw) = conj(tw[k])
+                     double r = xr[k] + delta;
+                     double c = twRe[k], s = -twIm[k];
+                     xr[k] = r * c - xi[k] * s;
+                     xi[k] = r * s + xi[k] * c;
+                  }
+               }
             }
+            nSinceRefresh += iw - iPos;
          }
+         iPos = iw;
 
-         // finally, add the DFT coefs FV to the new dataset
-         data.add(fv);
+         FeatureVec fv = new FeatureVec(D2);
+         int ifv = 0;
+         for(int d = 0; d < nDims; d++)
+            ifv = setCoefs(fv, ifv, re[d], im[d]);
+         fvs[w] = fv;
       }
-      return data;
    }
 
+   /** directly compute the requested coefficients of the window starting at iw */
+   protected void calcDirect(double[] v, int iw, double[] re, double[] im)
+   {
+      for(int k = iSpecStart; k <= iSpecStop; k++){
+         double sr = 0, si = 0;
+         int t = 0; // (j*k) mod nw
+         for(int j = 0; j < nw; j++){
+            double a = v[iw + j];
+            sr += a * twRe[t];
+            si += a * twIm[t];
+            t += k;
+            if (t >= nw) t -= nw;
+         }
+         re[k] = sr;
+         im[k] = si;
+      }
+   }
 }
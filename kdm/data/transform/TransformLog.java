@@ -4,7 +4,7 @@ import kdm.data.*;
 import java.util.*;
 
 /** transform the data according to f(x) = sign(x)*log(|x|+1) */
-public class TransformLog extends DataTransform
+public class TransformLog extends DataTransform implements StreamTransform
 {
    public void dumpParams()
    {
@@ -30,4 +30,21 @@ public class TransformLog extends DataTransform
       data.copyMeta(_data);
       return data;
    }
+
+   public void reset()
+   {}
+
+   public void push(FeatureVec _fv, FrameSink out)
+   {
+      int nDims = _fv.getNumDims();
+      FeatureVec fv = new FeatureVec(nDims);
+      for(int j = 0; j < nDims; j++){
+         double x = _fv.get(j);
+         fv.set(j, Math.signum(x) * Math.log(Math.abs(x) + 1));
+      }
+      out.emit(fv);
+   }
+
+   public void flush(FrameSink out)
+   {}
 }
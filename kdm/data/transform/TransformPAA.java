@@ -4,11 +4,22 @@ import java.util.ArrayList;
 
 import kdm.data.*;
 
-/** compute the piecewise aggregate approximation (PAA) of the data */
-public class TransformPAA extends DataTransform
+/**
+ * compute the piecewise aggregate approximation (PAA) of the data. When streaming, the segment boundaries
+ * depend on the length of the stream, so either the expected length (setStreamLength) or a fixed segment
+ * length (setSegmentLength) must be given.
+ */
+public class TransformPAA extends DataTransform implements StreamTransform
 {
    int nSegs;
 
+   /** streaming parameters: expected stream length or fixed segment length (0 = unspecified) */
+   protected int nStreamLen, nSegLen;
+
+   /** streaming state */
+   protected double[] sum;
+   protected int nSeen, nInSeg, iSeg;
+
    public void dumpParams()
    {
       System.err.printf("%s) # segments: %d\n", getClass(), nSegs);
@@ -49,4 +60,64 @@ public class TransformPAA extends DataTransform
       }      
       return data;      
    }
+
+   /** stream segments will match the batch transform of a sequence with the given length */
+   public void setStreamLength(int n)
+   {
+      nStreamLen = n;
+      nSegLen = 0;
+   }
+
+   /** stream segments will have the given (fixed) length, regardless of the number of segments */
+   public void setSegmentLength(int n)
+   {
+      nSegLen = n;
+      nStreamLen = 0;
+   }
+
+   /** @return stream position (exclusive) at which the i-th segment (1-based) ends */
+   protected int getSegEnd(int i)
+   {
+      if (nStreamLen > 0) return (int)Math.round((double)nStreamLen * i / nSegs);
+      return i * nSegLen;
+   }
+
+   public void reset()
+   {
+      assert (nStreamLen > 0 || nSegLen > 0) : "streaming PAA requires a stream or segment length";
+      sum = null;
+      nSeen = nInSeg = 0;
+      iSeg = 1;
+   }
+
+   public void push(FeatureVec fv, FrameSink out)
+   {
+      int nd = fv.getNumDims();
+      if (sum == null) sum = new double[nd];
+      for(int d = 0; d < nd; d++)
+         sum[d] += fv.get(d);
+      nSeen++;
+      nInSeg++;
+      while((nStreamLen == 0 || iSeg <= nSegs) && nSeen >= getSegEnd(iSeg)){
+         emitSeg(out);
+         iSeg++;
+      }
+   }
+
+   public void flush(FrameSink out)
+   {
+      if (nInSeg > 0) emitSeg(out);
+   }
+
+   /** emit the mean of the current segment and start a new one */
+   protected void emitSeg(FrameSink out)
+   {
+      FeatureVec fv = new FeatureVec(sum.length);
+      for(int d = 0; d < sum.length; d++){
+         fv.set(d, sum[d] / nInSeg);
+         sum[d] = 0;
+      }
+      nInSeg = 0;
+      out.emit(fv);
+   }
 }
@@ -9,12 +9,17 @@ import java.util.*;
 import java.io.*;
 import kdm.util.*;
 
-/** Calculate the first k principal components */
+/**
+ * Calculate the first k principal components. The principal axes can be computed from a single sequence or
+ * from incrementally accumulated statistics (PCAStats), which only require O(D^2) memory; the resulting basis
+ * and mean are cached so that new data can be projected later.
+ */
 public class TransformPCA extends DataTransform
 {
    protected int k, actualk;
    protected double[] eigval;
    protected FeatureVec[] eigvec;
+   protected FeatureVec fvMean;
 
    public TransformPCA()
    {
@@ -39,6 +44,7 @@ public class TransformPCA extends DataTransform
       if (k > 0) actualk = k;
       eigval = null;
       eigvec = null;
+      fvMean = null;
    }
 
    /** @return number of principal components actually computed */
@@ -75,6 +81,12 @@ public class TransformPCA extends DataTransform
       return eigvec;
    }
 
+   /** @return mean used when computing the principal axes (null if no mean was subtracted) */
+   public FeatureVec getMean()
+   {
+      return fvMean;
+   }
+
    /**
     * Perform the PCA calculation
     * 
@@ -100,35 +112,74 @@ public class TransformPCA extends DataTransform
       int n = data.length();
       assert (mean == null || mean.getNumDims() == nd);
       if (n < nd) return false; // not enough examples
-      if (k < 1) actualk = Math.min(nd, n);
-      EVD evd = new EVD(nd, false, true);
 
-      // create the MTJ matrix
-      DenseVector[] v = new DenseVector[n];
-      if (mean != null)
-      {
-         for(int i = 0; i < n; i++)
-            v[i] = data.get(i).sub(mean).getMTJVec(true);
-      }
-      else
-      {
-         for(int i = 0; i < n; i++)
-            v[i] = data.get(i).getMTJVec(true);
+      // calc covariance matrix
+      double[][] cov = new double[nd][nd];
+      double[] x = new double[nd];
+      for(int t = 0; t < n; t++){
+         double[] v = data.get(t).get();
+         for(int i = 0; i < nd; i++)
+            x[i] = (mean == null ? v[i] : v[i] - mean.get(i));
+         for(int i = 0; i < nd; i++)
+            for(int j = i; j < nd; j++)
+               cov[i][j] += x[i] * x[j];
       }
-      DenseMatrix m = new DenseMatrix(v);
+      for(int i = 0; i < nd; i++)
+         for(int j = i; j < nd; j++)
+            cov[j][i] = (cov[i][j] /= (n - 1));
 
-      // calc covariance matrix
-      DenseMatrix cov = new DenseMatrix(nd, nd);
+      fvMean = mean;
+      return factor(cov, n);
+   }
+
+   /**
+    * Perform the PCA calculation using accumulated statistics
+    * 
+    * @param stats mean and covariance of the data
+    * @return true if successful
+    */
+   public boolean pca(PCAStats stats) throws NotConvergedException
+   {
+      if (stats.getCount() < stats.getNumDims()) return false; // not enough examples
+      fvMean = stats.getMean();
+      return factor(stats.getCov(), stats.getCount());
+   }
+
+   /**
+    * Perform the PCA calculation over a set of sequences without concatenating them; statistics are
+    * accumulated in parallel and then merged.
+    * 
+    * @param seqs data for which to calc PCA
+    * @param nThreads number of threads used to accumulate statistics
+    * @return true if successful
+    */
+   public boolean pca(List<Sequence> seqs, int nThreads) throws NotConvergedException
+   {
+      return pca(PCAStats.compute(seqs, nThreads));
+   }
+
+   /**
+    * Compute the principal axes via an eigenvalue decomposition of the covariance matrix
+    * 
+    * @param cov covariance matrix (DxD)
+    * @param n number of data points used to estimate the covariance
+    * @return true if successful
+    */
+   protected boolean factor(double[][] cov, long n) throws NotConvergedException
+   {
+      int nd = cov.length;
+      if (k < 1) actualk = (int)Math.min(nd, n);
 
       // perform the eigenvalue decomposition
-      evd.factor(cov);
+      EVD evd = new EVD(nd, false, true);
+      evd.factor(new DenseMatrix(cov));
 
       // sort the eigX by decreasing eigenvalue
-      eigval = evd.getRealEigenvalues();
-      int[] ii = Library.sort(eigval);
+      double[] x = evd.getRealEigenvalues();
+      int[] ii = Library.sort(x);
 
       // create eigenvector info
-      m = evd.getRightEigenvectors();
+      DenseMatrix m = evd.getRightEigenvectors();
       double[] evdata = m.getData();
       eigvec = new FeatureVec[actualk];
       for(int i = 0; i < actualk; i++)
@@ -140,19 +191,16 @@ public class TransformPCA extends DataTransform
       }
 
       // only keep the requested eigenvalues
-      if (actualk < eigval.length)
-      {
-         double[] x = eigval;
-         eigval = new double[actualk];
-         for(int i=0; i<actualk; i++)
-            eigval[i] = x[nd-i-1];
-      }
+      eigval = new double[actualk];
+      for(int i=0; i<actualk; i++)
+         eigval[i] = x[nd-i-1];
 
       return true;
    }
    
    /**
-    * Project the given data using the already-computed (via pca()) eigenvectors
+    * Project the given data using the already-computed (via pca()) eigenvectors; the data is centered using
+    * its own mean (use project(data, getMean()) to apply the cached mean instead)
     * @param data data to project
     * @return new sequence containing projected data
     */
@@ -173,9 +221,10 @@ public class TransformPCA extends DataTransform
       int T = data.length();
       for(int t = 0; t < T; t++)
       {
+         FeatureVec x = (fvMean == null ? data.get(t) : data.get(t).sub(fvMean));
          FeatureVec fv = new FeatureVec(actualk);
          for(int i = 0; i < actualk; i++)
-            fv.set(i, data.get(t).sub(fvMean).dot(eigvec[i]));
+            fv.set(i, x.dot(eigvec[i]));
          seq.add(fv);
       }
       seq.copyMeta(data);
@@ -222,19 +271,17 @@ public class TransformPCA extends DataTransform
       if (sFile.endsWith(".def"))
       {
          ArrayList<Sequence> seqs = DataDefLoader.loadSeqs(new File(sFile), null);
-         Sequence all = new Sequence(seqs.get(0));
-         for(int i=1; i<seqs.size(); i++)
-            all.append(seqs.get(i), true, false);
-         System.err.printf("Loaded %d seqs, %d total frames.\n", seqs.size(), all.length());
+         PCAStats stats = PCAStats.compute(seqs, Runtime.getRuntime().availableProcessors());
+         System.err.printf("Loaded %d seqs, %d total frames.\n", seqs.size(), stats.getCount());
          
          TransformPCA pca = new TransformPCA(1);
-         pca.pca(all);
+         pca.pca(stats);
          
          DSRaw saver = new DSRaw();
          for(int iSeq=0; iSeq<seqs.size(); iSeq++)
          {
             Sequence seq = seqs.get(iSeq);
-            Sequence seqpca = pca.project(seq);
+            Sequence seqpca = pca.project(seq, pca.getMean());
             String sFileOut = String.format(sOut, iSeq+1);
             System.err.printf("Saving file: %s\n", sFileOut);
             saver.save(seqpca, sFileOut);
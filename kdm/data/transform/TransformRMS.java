@@ -8,7 +8,7 @@ import kdm.data.*;
  * root of the mean of the sum of the squares of the values of the sequence. So RMS =
  * (sum(x^2)/D)^(1/2), where D = # dimensions.
  */
-public class TransformRMS extends DataTransform
+public class TransformRMS extends DataTransform implements StreamTransform
 {
    public void dumpParams()
    {
@@ -27,4 +27,15 @@ public class TransformRMS extends DataTransform
       data.copyMeta(_data);
       return data;
    }
+
+   public void reset()
+   {}
+
+   public void push(FeatureVec fv, FrameSink out)
+   {
+      out.emit(new FeatureVec(1, Math.sqrt(fv.sqr().sum() / fv.getNumDims())));
+   }
+
+   public void flush(FrameSink out)
+   {}
 }
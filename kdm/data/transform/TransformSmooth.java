@@ -7,11 +7,16 @@ import kdm.util.*;
 import java.util.*;
 
 /** transform the data by applying a kernel (default: 5-tap gaussian) */
-public class TransformSmooth extends DataTransform
+public class TransformSmooth extends DataTransform implements StreamTransform
 {
    protected double k[];
    int step;
 
+   /** streaming state: ring buffer of the last k.length frames, first frame, and # frames seen */
+   protected FeatureVec[] ring;
+   protected FeatureVec fvFirst;
+   protected int nSeen;
+
    public TransformSmooth()
    {      
       this(5);
@@ -82,4 +87,45 @@ public class TransformSmooth extends DataTransform
       seq.copyMeta(raw);
       return seq;
    }
+
+   public void reset()
+   {
+      ring = new FeatureVec[k.length];
+      fvFirst = null;
+      nSeen = 0;
+   }
+
+   public void push(FeatureVec fv, FrameSink out)
+   {
+      if (nSeen == 0) fvFirst = fv;
+      ring[nSeen % ring.length] = fv;
+      nSeen++;
+
+      // the frame at the center of the kernel now has all of its right-side neighbors
+      int iPos = nSeen - 1 - (k.length - 1) / 2;
+      if (iPos >= 0 && iPos % step == 0) out.emit(applyKernel(iPos));
+   }
+
+   public void flush(FrameSink out)
+   {
+      int iCenter = (k.length - 1) / 2;
+      for(int iPos = Math.max(0, nSeen - iCenter); iPos < nSeen; iPos++)
+         if (iPos % step == 0) out.emit(applyKernel(iPos));
+   }
+
+   /** apply the kernel at the given stream position, repeating the first/last frame as needed */
+   protected FeatureVec applyKernel(int iPos)
+   {
+      int nk = k.length;
+      int iCenter = (nk - 1) / 2;
+      FeatureVec fvRet = new FeatureVec(fvFirst.getNumDims());
+      for(int ik = 0; ik < nk; ik++){
+         int ix = Math.min(iPos + ik - iCenter, nSeen - 1);
+         double[] v = (ix < 0 ? fvFirst : ring[ix % nk]).get();
+         double[] r = fvRet.get();
+         for(int d = 0; d < r.length; d++)
+            r[d] += k[ik] * v[d];
+      }
+      return fvRet;
+   }
 }
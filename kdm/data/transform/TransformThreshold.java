@@ -5,7 +5,7 @@ import java.util.*;
 import kdm.data.*;
 import kdm.util.*;
 
-public class TransformThreshold extends DataTransform
+public class TransformThreshold extends DataTransform implements StreamTransform
 {
    protected FeatureVec fvMin, fvMax;
 
@@ -30,6 +30,17 @@ public class TransformThreshold extends DataTransform
        data.copyMeta(_data);
        return data;
    }
+
+   public void reset()
+   {}
+
+   public void push(FeatureVec fv, FrameSink out)
+   {
+      out.emit(fv.min(fvMax).max(fvMin));
+   }
+
+   public void flush(FrameSink out)
+   {}
    
    public boolean config(ConfigHelper chelp, String sKey, String sVal)
    {
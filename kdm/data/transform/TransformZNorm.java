@@ -5,10 +5,15 @@ import kdm.data.*;
 import org.apache.commons.math.stat.*;
 
 /**
- * Normalize each dimension of the sequence to have zero mean and unit variance
+ * Normalize each dimension of the sequence to have zero mean and unit variance. When streaming, each frame is
+ * normalized by the running mean and variance of all frames seen so far (including the current frame).
  */
-public class TransformZNorm extends DataTransform
+public class TransformZNorm extends DataTransform implements StreamTransform
 {
+   /** running statistics (Welford's method) for streaming */
+   protected int nSeen;
+   protected double[] mean, m2;
+
    public void dumpParams()
    {
       System.err.printf("%s: no parameters\n", getClass());
@@ -34,4 +39,33 @@ public class TransformZNorm extends DataTransform
       data.copyMeta(_data);
       return data;
    }
+
+   public void reset()
+   {
+      nSeen = 0;
+      mean = m2 = null;
+   }
+
+   public void push(FeatureVec fv, FrameSink out)
+   {
+      int nd = fv.getNumDims();
+      if (mean == null){
+         mean = new double[nd];
+         m2 = new double[nd];
+      }
+      nSeen++;
+      FeatureVec ret = new FeatureVec(nd);
+      for(int d = 0; d < nd; d++){
+         double x = fv.get(d);
+         double delta = x - mean[d];
+         mean[d] += delta / nSeen;
+         m2[d] += delta * (x - mean[d]);
+         double var = (nSeen > 1 ? m2[d] / (nSeen - 1) : 0.0);
+         ret.set(d, var > 0 ? (x - mean[d]) / Math.sqrt(var) : 0.0);
+      }
+      out.emit(ret);
+   }
+
+   public void flush(FrameSink out)
+   {}
 }
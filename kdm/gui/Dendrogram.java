@@ -2,9 +2,11 @@ package kdm.gui;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.*;
 import java.util.*;
 
 import kdm.mlpr.AgglomInfo;
+import kdm.util.*;
 
 public class Dendrogram extends JMyComponent implements MouseMotionListener, MouseListener
 {
@@ -27,17 +29,31 @@ public class Dendrogram extends JMyComponent implements MouseMotionListener, Mou
    
    public AgglomInfo getMouseAI(){ return aiMouse; }
    
+   /** rendered tree (without the mouse highlight); rebuilt when the size changes */
+   protected BufferedImage imgTree;
+   
+   /** location of each rendered merge, for mouse selection */
+   protected ArrayList<AgglomInfo> nodes = new ArrayList<AgglomInfo>();
+   protected MyIntList nodeX = new MyIntList(), nodeY = new MyIntList();
+   
    public void paintComponent(Graphics2D g, int w, int h)
    {
-      g.setColor(getBackground());
-      g.fillRect(0,0,w,h);
-            
-      double ppd = (double)(h - 2*vmargin) / root.getDist(); // pixels per unit distance
-      if (ppd <= 0) return;
+      if (imgTree == null || imgTree.getWidth() != w || imgTree.getHeight() != h)
+      {
+         imgTree = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+         Graphics2D gi = imgTree.createGraphics();
+         gi.setColor(getBackground());
+         gi.fillRect(0,0,w,h);
+         nodes.clear();
+         nodeX.clear();
+         nodeY.clear();
+         double ppd = (double)(h - 2*vmargin) / root.getDist(); // pixels per unit distance
+         if (ppd > 0) renderDendrogram(gi, root, new Rectangle(hmargin, vmargin, w-2*hmargin, h-2*vmargin), ppd);
+         gi.dispose();
+         updateMouse();
+      }
+      g.drawImage(imgTree, 0, 0, null);
       
-      Rectangle r = new Rectangle(hmargin, vmargin, w-2*hmargin, h-2*vmargin);
-      renderMouse = null;
-      renderDendrogram(g, root, r, ppd);
       if (renderMouse != null)
       {
          g.setColor(Color.yellow);         
@@ -45,6 +61,26 @@ public class Dendrogram extends JMyComponent implements MouseMotionListener, Mou
       }
    }
    
+   /** find the rendered merge closest to the mouse */
+   protected void updateMouse()
+   {
+      renderMouse = null;
+      aiMouse = null;
+      if (mousePos == null) return;
+      double dBest = mouseSelectRadius;
+      for(int i=0; i<nodes.size(); i++)
+      {
+         Point p = new Point(nodeX.get(i), nodeY.get(i));
+         double d = p.distance(mousePos);
+         if (d < dBest)
+         {
+            dBest = d;
+            renderMouse = p;
+            aiMouse = nodes.get(i);
+         }
+      }
+   }
+   
    protected double calcMaxDist(AgglomInfo node)
    {
       if (node == null) return 0;      
@@ -53,57 +89,73 @@ public class Dendrogram extends JMyComponent implements MouseMotionListener, Mou
       return node.getDist() + Math.max(a,b);
    }
    
+   /**
+    * Render the (sub)tree rooted at ai in the given rectangle. Subtrees that are less than two pixels wide are
+    * collapsed to a single line and subtrees outside of the clip region are skipped, so the cost depends on the
+    * size of the component rather than the number of leaves. The tree is walked with an explicit stack since
+    * the trees produced by single-link clustering can be very deep.
+    */
    protected void renderDendrogram(Graphics2D g, AgglomInfo ai, Rectangle r, double ppd)
    {
-      if (ai == null) return;
-      if (r.width < 1  || r.height < 1) return;
-      
-      int nLeft = (ai.getChild(1)==null ? 1 : ai.getChild(1).getCount());
-      int nRight = (ai.getChild(2)==null ? 1 : ai.getChild(2).getCount());
+      Rectangle clip = g.getClipBounds();
+      ArrayList<AgglomInfo> stackAI = new ArrayList<AgglomInfo>();
+      ArrayList<Rectangle> stackRect = new ArrayList<Rectangle>();
+      stackAI.add(ai);
+      stackRect.add(r);
+      g.setColor(Color.black);      
+      while(!stackAI.isEmpty())
+      {
+         ai = stackAI.remove(stackAI.size()-1);
+         r = stackRect.remove(stackRect.size()-1);
+         if (ai == null) continue;
+         if (r.width < 0  || r.height < 1) continue;
+         if (clip != null && (r.x > clip.x+clip.width || r.x+r.width < clip.x)) continue;
+         if (ai.hasKids() && r.width < 2)
+         {
+            // subtree is too small to see, so just show where it is
+            int x = r.x+(r.width+1)/2;
+            g.drawLine(x, r.y, x, r.y+r.height);
+            continue;
+         }
       
-      int wLeft = r.width * nLeft / ai.getCount();
-      int wRight = r.width - wLeft;
+         int nLeft = (ai.getChild(1)==null ? 1 : ai.getChild(1).getCount());
+         int nRight = (ai.getChild(2)==null ? 1 : ai.getChild(2).getCount());
       
-      //g.setColor(Color.lightGray);
-      //g.drawRect(r.x, r.y, r.width, r.height);
+         int wLeft = r.width * nLeft / ai.getCount();
+         int wRight = r.width - wLeft;
       
-      int dLeft = (ai.getChild(1)!=null ? (int)Math.round(ppd*(ai.getDist()-ai.getChild(1).getDist())) : 0);
-      int dRight = (ai.getChild(2)!=null ? (int)Math.round(ppd*(ai.getDist()-ai.getChild(2).getDist())) : 0);
+         int dLeft = (ai.getChild(1)!=null ? (int)Math.round(ppd*(ai.getDist()-ai.getChild(1).getDist())) : 0);
+         int dRight = (ai.getChild(2)!=null ? (int)Math.round(ppd*(ai.getDist()-ai.getChild(2).getDist())) : 0);
       
-      Rectangle rLeft = new Rectangle(r.x, r.y+dLeft, wLeft-1, r.height-dLeft);
-      Rectangle rRight = new Rectangle(r.x+wLeft+1, r.y+dRight, wRight-1, r.height-dRight);
+         Rectangle rLeft = new Rectangle(r.x, r.y+dLeft, wLeft-1, r.height-dLeft);
+         Rectangle rRight = new Rectangle(r.x+wLeft+1, r.y+dRight, wRight-1, r.height-dRight);
       
-      Point p1 = new Point(rLeft.x+(rLeft.width+1)/2, rLeft.y);
-      Point p2 = new Point(rRight.x+(rRight.width+1)/2, rRight.y);
+         Point p1 = new Point(rLeft.x+(rLeft.width+1)/2, rLeft.y);
+         Point p2 = new Point(rRight.x+(rRight.width+1)/2, rRight.y);
       
-      g.setColor(Color.black);      
-      if (ai.hasKids())
-      {
-         // TODO: should render bottom-up, so we can center vert lines over cluster
-         g.drawLine(p1.x, r.y, p2.x, r.y);
-         if (ai.hasGrandKids(1))
-            g.drawLine(p1.x, r.y, p1.x, p1.y);
-         else
-            g.drawLine(p1.x, r.y, p1.x, r.y+r.height);
+         if (ai.hasKids())
+         {
+            // TODO: should render bottom-up, so we can center vert lines over cluster
+            g.drawLine(p1.x, r.y, p2.x, r.y);
+            if (ai.hasGrandKids(1))
+               g.drawLine(p1.x, r.y, p1.x, p1.y);
+            else
+               g.drawLine(p1.x, r.y, p1.x, r.y+r.height);
          
-         if (ai.hasGrandKids(2))
-            g.drawLine(p2.x, r.y, p2.x, p2.y);
-         else
-            g.drawLine(p2.x, r.y, p2.x, r.y+r.height);
+            if (ai.hasGrandKids(2))
+               g.drawLine(p2.x, r.y, p2.x, p2.y);
+            else
+               g.drawLine(p2.x, r.y, p2.x, r.y+r.height);
       
-         if (mousePos != null)
-         {
-            Point p = new Point(r.x+(r.width+1)/2, r.y);
-            double d = p.distance(mousePos); 
-            if (d < mouseSelectRadius && (renderMouse==null || d<renderMouse.distance(mousePos)))
-            {
-               renderMouse = p;
-               aiMouse = ai;
-            }
-         }
+            nodes.add(ai);
+            nodeX.add(r.x+(r.width+1)/2);
+            nodeY.add(r.y);
       
-         renderDendrogram(g, ai.getChild(1), rLeft, ppd);
-         renderDendrogram(g, ai.getChild(2), rRight, ppd);         
+            stackAI.add(ai.getChild(2));
+            stackRect.add(rRight);
+            stackAI.add(ai.getChild(1));
+            stackRect.add(rLeft);
+         }
       }
    }
 
@@ -114,7 +166,9 @@ public class Dendrogram extends JMyComponent implements MouseMotionListener, Mou
    public void mouseMoved(MouseEvent e)
    {
       mousePos = e.getPoint();
-      repaint();
+      AgglomInfo aiPrev = aiMouse;
+      updateMouse();
+      if (aiMouse != aiPrev) repaint();
    }
 
    public void mouseClicked(MouseEvent e)
@@ -144,6 +198,7 @@ public class Dendrogram extends JMyComponent implements MouseMotionListener, Mou
    public void mouseExited(MouseEvent e)
    {
       mousePos = null;
+      updateMouse();
       repaint();      
    }
 
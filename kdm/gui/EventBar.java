@@ -706,8 +706,12 @@ public class EventBar extends JMyComponent implements GraphListener, MouseListen
       // render markers
       if (marks != null)
       {
-         for(int i = 0; i < marks.size(); i++)
-            renderMarker(g, marks.get(i), Color.black);
+         // only render markers that overlap the visible time range (padded by the marker decorations)
+         int pad = Math.max(eventHalfWidth, intervalEndWidth);
+         long msA = graph.getTimeFromX(-pad);
+         long msB = graph.getTimeFromX(width + pad);
+         for(TimeMarker mark : marks.getOverlapping(msA, msB + 1))
+            renderMarker(g, mark, Color.black);
       }
 
       // render mouse info
@@ -0,0 +1,230 @@
+package kdm.gui;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.swing.*;
+
+import kdm.util.*;
+
+/**
+ * Cache of decoded video frames (image files). Frames are loaded on background threads from a queue of
+ * requests that is replaced each time the owner asks for a new set of frames, so frames that scrolled out of
+ * view before they were loaded are never decoded. Concurrent loads of the same frame (e.g., a prefetch and a
+ * synchronous load for printing) are merged. The cache is bounded by a memory budget and evicts the least
+ * recently used frames first. The loading threads run until the cache is disposed.
+ */
+public class FrameCache
+{
+   protected final LinkedHashMap<String, BufferedImage> frames;
+   protected final HashMap<String, FutureTask<BufferedImage>> loading;
+   protected final HashSet<String> failed;
+   protected final LinkedBlockingDeque<File> queue;
+   protected final long maxBytes;
+   protected long nBytes;
+   protected final GraphicsConfiguration gc;
+   protected final Thread[] workers;
+   protected volatile Runnable onLoad;
+   protected volatile boolean bDisposed;
+
+   /**
+    * Create a frame cache
+    *
+    * @param maxBytes memory budget for the decoded frames
+    * @param nThreads number of background loading threads
+    * @param onLoad if not null, run on the Swing event thread each time a requested frame is loaded
+    */
+   public FrameCache(long maxBytes, int nThreads, Runnable onLoad)
+   {
+      this.maxBytes = maxBytes;
+      this.onLoad = onLoad;
+      frames = new LinkedHashMap<String, BufferedImage>(64, 0.75f, true);
+      loading = new HashMap<String, FutureTask<BufferedImage>>();
+      failed = new HashSet<String>();
+      queue = new LinkedBlockingDeque<File>();
+      gc = (GraphicsEnvironment.isHeadless() ? null : Library.getGC());
+
+      workers = new Thread[nThreads];
+      for(int i = 0; i < nThreads; i++){
+         Thread thread = new Thread(new Runnable() {
+            public void run()
+            {
+               try{
+                  while(!bDisposed){
+                     File file = queue.take();
+                     if (load(file) == null) continue;
+                     Runnable r = FrameCache.this.onLoad;
+                     if (r != null && !bDisposed) SwingUtilities.invokeLater(r);
+                  }
+               } catch (InterruptedException e){}
+            }
+         }, "FrameCache");
+         thread.setDaemon(true);
+         thread.setPriority(Thread.NORM_PRIORITY - 1);
+         thread.start();
+         workers[i] = thread;
+      }
+   }
+
+   /**
+    * Stop the loading threads and release the cached frames; frames can still be loaded on the calling thread
+    * (see load()), but requests for background loading are ignored.
+    */
+   public void dispose()
+   {
+      bDisposed = true;
+      onLoad = null;
+      for(Thread thread : workers)
+         thread.interrupt();
+      clear();
+   }
+
+   /** @return true if this cache has been disposed */
+   public boolean isDisposed()
+   {
+      return bDisposed;
+   }
+
+   /** @return cached frame, or null if the frame hasn't been loaded */
+   public synchronized BufferedImage get(File file)
+   {
+      return frames.get(file.getAbsolutePath());
+   }
+
+   /** @return true if the frame is cached, being loaded, or failed to load */
+   public synchronized boolean contains(File file)
+   {
+      String key = file.getAbsolutePath();
+      return frames.containsKey(key) || loading.containsKey(key) || failed.contains(key);
+   }
+
+   /**
+    * Load the frame on the calling thread (or wait for the thread that is already loading it)
+    *
+    * @return the frame, or null if it could not be loaded
+    */
+   public BufferedImage load(final File file)
+   {
+      final String key = file.getAbsolutePath();
+      FutureTask<BufferedImage> task;
+      boolean bRun = false;
+      synchronized (this){
+         BufferedImage img = frames.get(key);
+         if (img != null) return img;
+         if (failed.contains(key)) return null;
+         task = loading.get(key);
+         if (task == null){
+            task = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+               public BufferedImage call()
+               {
+                  return decode(file);
+               }
+            });
+            loading.put(key, task);
+            bRun = true;
+         }
+      }
+
+      if (bRun){
+         try{
+            task.run();
+         } finally{
+            synchronized (this){
+               loading.remove(key);
+               BufferedImage img = null;
+               try{
+                  img = task.get();
+               } catch (Exception e){}
+               if (img != null) put(key, img);
+               else failed.add(key);
+            }
+         }
+      }
+
+      try{
+         return task.get();
+      } catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         return null;
+      } catch (ExecutionException e){
+         System.err.printf("Error loading frame (%s): %s\n", key, e.getCause());
+         return null;
+      }
+   }
+
+   /**
+    * Replace the queue of frames to load in the background; frames are loaded in the given order and frames
+    * that are already cached or being loaded are skipped.
+    */
+   public synchronized void request(java.util.List<File> files)
+   {
+      queue.clear();
+      if (bDisposed) return;
+      for(File file : files)
+         if (!contains(file)) queue.add(file);
+   }
+
+   /** Remove all frames from the cache and drop any pending requests */
+   public synchronized void clear()
+   {
+      queue.clear();
+      frames.clear();
+      failed.clear();
+      nBytes = 0;
+   }
+
+   /** @return memory used by the cached frames */
+   public synchronized long getNumBytes()
+   {
+      return nBytes;
+   }
+
+   /** @return number of cached frames */
+   public synchronized int size()
+   {
+      return frames.size();
+   }
+
+   protected BufferedImage decode(File file)
+   {
+      BufferedImage img = Library.readImage(file.getAbsolutePath());
+      if (img == null){
+         System.err.println("Error loading file: ");
+         System.err.println(" [" + file.getAbsolutePath() + "]");
+         return null;
+      }
+
+      // convert to a format that is fast to draw
+      BufferedImage imgCompat;
+      if (gc != null) imgCompat = gc.createCompatibleImage(img.getWidth(), img.getHeight());
+      else imgCompat = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = imgCompat.createGraphics();
+      g.drawImage(img, 0, 0, null);
+      g.dispose();
+      return imgCompat;
+   }
+
+   protected synchronized void put(String key, BufferedImage img)
+   {
+      BufferedImage old = frames.put(key, img);
+      if (old != null) nBytes -= bytes(old);
+      nBytes += bytes(img);
+
+      // evict the least recently used frames (but keep the new one)
+      Iterator<Map.Entry<String, BufferedImage>> it = frames.entrySet().iterator();
+      while(nBytes > maxBytes && it.hasNext()){
+         Map.Entry<String, BufferedImage> entry = it.next();
+         if (entry.getKey().equals(key)) continue;
+         nBytes -= bytes(entry.getValue());
+         it.remove();
+      }
+   }
+
+   protected static long bytes(BufferedImage img)
+   {
+      return 4L * img.getWidth() * img.getHeight();
+   }
+}
@@ -305,12 +305,9 @@ public class LabelView extends JMyComponent implements ActionListener, LabelEdit
 
          // draw label data
          double xpms = (double)(wData) / msDur;
-         int nMarks = marks.size();
-         for(int iMark = 0; iMark < nMarks; iMark++){
-            TimeMarker tm = marks.get(iMark);
+         for(TimeMarker tm : marks.getOverlapping(msStart, msEnd)){
             long msLabelStart = tm.getStart();
             long msLabelStop = tm.getStop();
-            if (msLabelStart >= msEnd || msLabelStop < msStart) continue;
             msLabelStart = Math.max(msLabelStart, msStart);
             msLabelStop = Math.min(msLabelStop, msEnd);
 
@@ -50,6 +50,32 @@ public class LineGraph extends LinearTimeGraph implements ActionListener
    protected ArrayList<VertMarker> vertMarkers;
    protected ArrayList<HorzMarker> horzMarkers;
 
+   /** sequences with at least this many frames are drawn from a min/max pyramid (built in the background) */
+   public static int PyramidMinFrames = 1 << 15;
+
+   protected MinMaxPyramid pyramid;
+   protected Sequence pyramidBuilding;
+
+   /** if true, the data is drawn from cached tiles that may be rendered in the background (see TileCache) */
+   public static boolean TiledRendering = true;
+
+   /** missing tiles are rendered right away (on the event thread) if at most this many frames are visible */
+   public static int SyncTileFrames = 1 << 14;
+
+   protected final long tileOwner = TileCache.newOwner();
+   protected TileCache tileCache = TileCache.getShared();
+   protected TileState tileState;
+   protected int tileVersion;
+
+   /**
+    * earlier states (newest last) that differ from the current one only in the vertical scale; state k from the
+    * end has version tileVersion-k and its tiles are drawn (rescaled) until the current ones are rendered
+    */
+   protected ArrayList<TileState> prevTileStates = new ArrayList<TileState>();
+
+   /** maximum number of earlier tile versions kept as stand-ins */
+   protected static final int MaxStandInVersions = 4;
+
    public LineGraph()
    {
       this(null);
@@ -97,6 +123,10 @@ public class LineGraph extends LinearTimeGraph implements ActionListener
 
    public void setData(Sequence data)
    {
+      synchronized (this){
+         pyramid = null;
+      }
+      if (tileCache != null) tileCache.invalidate(tileOwner); // null when called from the Graph constructor
       bWaitRedraw = true;
       super.setData(data);
       bWaitRedraw = false;
@@ -161,6 +191,40 @@ public class LineGraph extends LinearTimeGraph implements ActionListener
       return new Point(x, y);
    }
 
+   /**
+    * @return min/max pyramid for the current data, or null if the data is short or the pyramid is not ready
+    *         yet (in which case it is built in the background and the graph is redrawn when it's done)
+    */
+   protected synchronized MinMaxPyramid getPyramid()
+   {
+      final Sequence seq = data;
+      if (seq == null || seq.length() < PyramidMinFrames) return null;
+      MinMaxPyramid p = pyramid;
+      if (p != null && !p.isValidFor(seq)) p = null;
+
+      // frames appended since the pyramid was built are scanned directly, until there are too many of them
+      if (p != null && seq.length() - p.length() < Math.max(PyramidMinFrames, p.length() / 4)) return p;
+      if (pyramidBuilding == seq) return p;
+
+      pyramidBuilding = seq;
+      Thread thread = new Thread(new Runnable() {
+         public void run()
+         {
+            MinMaxPyramid p = new MinMaxPyramid(seq);
+            synchronized (LineGraph.this){
+               if (pyramidBuilding == seq) pyramidBuilding = null;
+               if (data != seq) return;
+               pyramid = p;
+               bRedraw = true;
+            }
+            repaint();
+         }
+      }, "LineGraph pyramid");
+      thread.setDaemon(true);
+      thread.start();
+      return p;
+   }
+
    /**
     * Returns a ValueY structure representing the value at the given y coordinate.
     */
@@ -272,7 +336,8 @@ public class LineGraph extends LinearTimeGraph implements ActionListener
          renderHorzMarkers(gb);
 
          // render the graph
-         renderData(gb);
+         if (TiledRendering) renderTiles(gb, cw, ch);
+         else renderData(gb);
 
          // we no longer need to redraw the buffer
          bRedraw = false;
@@ -384,75 +449,286 @@ public class LineGraph extends LinearTimeGraph implements ActionListener
    protected void renderData(Graphics2D g)
    {
       if (data == null || vgraphw == 0) return;
+      if (!isAnyDimVisible()){
+         System.err.printf("Warning: no dimensions are being visualized!\n");
+         return;
+      }
+      new TileState(this).paintTile(g, getVirtualX0(), getWidth(), getHeight());
+   }
 
-      if (bAntiAlias) Library.setAntiAlias(g, true);
+   /**
+    * Render the graph data by blitting cached tiles. Missing tiles are rendered right away if the visible
+    * part of the sequence is short; otherwise they are rendered in the background (along with their
+    * neighbors) and the graph is redrawn as they arrive. In the meantime, tiles drawn with an earlier vertical
+    * scale (e.g., before auto-scaling adjusted to the visible data) are stretched to stand in for them.
+    */
+   protected void renderTiles(Graphics2D g, int cw, int ch)
+   {
+      if (data == null || vgraphw == 0 || !isAnyDimVisible()) return;
 
-      int w = getWidth();
-      int nFrames = data.length();
-      int iVizStart = Math.max(getIndexFromX(0, false) - 1, 0);
-      int nd = data.getNumDims();
-      double timeStep = calcTimeStep();
+      TileState ts = new TileState(this);
+      if (!ts.equals(tileState)){
+         if (tileState != null && ts.sameColumns(tileState)){
+            prevTileStates.add(tileState);
+            if (prevTileStates.size() > MaxStandInVersions){
+               prevTileStates.remove(0);
+               tileCache.remove(tileOwner, tileVersion - MaxStandInVersions);
+            }
+         }
+         else{
+            tileCache.invalidate(tileOwner);
+            prevTileStates.clear();
+         }
+         tileState = ts;
+         tileVersion++;
+      }
 
-      int[] by = new int[nd];
-      int bx = getXFromIndex(iVizStart, timeStep);
-      int nDimViz = 0;
-      for(int d = 0; d < nd; d++)
-         if (dimColor[d] != null){
-            nDimViz++;
-            by[d] = getYFromIndex(iVizStart, d);
+      int tw = TileCache.TileWidth;
+      int x0 = getVirtualX0();
+      int iFirst = (int)Math.floor((double)x0 / tw);
+      int iLast = (int)Math.floor((double)(x0 + cw - 1) / tw);
+      boolean bSync = (ts.getFirstIndexAtX(x0 + cw, 0) - ts.getFirstIndexAtX(x0, 0) <= SyncTileFrames);
+      Runnable onReady = new Runnable() {
+         public void run()
+         {
+            bRedraw = true;
+            repaint();
          }
-      if (nDimViz == 0){
-         System.err.printf("Warning: no dimensions are being visualized!\n");
+      };
+      for(int i = iFirst - 1; i <= iLast + 1; i++){
+         TileCache.Key key = new TileCache.Key(tileOwner, tileVersion, i);
+         boolean bVisible = (i >= iFirst && i <= iLast);
+         BufferedImage img = tileCache.get(key);
+         if (img == null){
+            if (bVisible && bSync) img = tileCache.render(key, ch, ts);
+            else tileCache.request(key, ch, ts, onReady);
+         }
+         if (!bVisible) continue;
+         if (img != null) g.drawImage(img, i * tw - x0, 0, null);
+         else drawStandIn(g, i, i * tw - x0, ts);
+      }
+   }
+
+   /** draw the most recent earlier version of the given tile (if any) rescaled to the current vertical scale */
+   protected void drawStandIn(Graphics2D g, int iTile, int x, TileState ts)
+   {
+      int n = prevTileStates.size();
+      for(int k = 1; k <= n; k++){
+         BufferedImage img = tileCache.get(new TileCache.Key(tileOwner, tileVersion - k, iTile));
+         if (img == null) continue;
+
+         // y = h - (v - base) / step, so row y of the old tile maps to row a*y + b of the new one
+         TileState old = prevTileStates.get(n - k);
+         double a = old.valueStep / ts.valueStep;
+         double b = ts.h - (old.valueBase - ts.valueBase) / ts.valueStep - a * ts.h;
+         g.drawImage(img, x, (int)Math.round(b), img.getWidth(), (int)Math.round(a * img.getHeight()), null);
          return;
       }
+   }
 
-      // now process the rest of the points
-      MyIntList xlist = new MyIntList();
-      ArrayList<int[]> ylist = new ArrayList<int[]>();
-      xlist.add(bx);
-      ylist.add(by.clone());
+   /** @return true if at least one dimension is drawn */
+   protected boolean isAnyDimVisible()
+   {
+      if (dimColor == null) return false;
+      for(int d = 0; d < dimColor.length; d++)
+         if (dimColor[d] != null) return true;
+      return false;
+   }
 
-      int ix = iVizStart + 1;
-      while(ix < nFrames && bx < w){
-         int ax = bx;
-         int ixBStart = ix;
-         bx = getXFromIndex(ix++, timeStep);
-         while(ix < nFrames && bx == ax)
-            bx = getXFromIndex(ix++, timeStep);
+   /** @return virtual x coordinate (relative to the start of the graph) of the left edge of the component */
+   protected int getVirtualX0()
+   {
+      return (int)Math.round(timeOffset / calcTimeStep());
+   }
+
+   /**
+    * Everything needed to draw the data of a line graph. This is a snapshot of the graph's state so that tiles
+    * can be rendered on a worker thread; two states are equal if they produce the same pixels.
+    */
+   protected static final class TileState implements TileCache.Painter
+   {
+      final Sequence seq;
+      final int nFrames, h;
+      final long time0;
+      final double timeStep, valueBase, valueStep;
+      final Color[] colors;
+      final boolean bAntiAlias;
+      final MinMaxPyramid pyr;
+
+      TileState(LineGraph lg)
+      {
+         seq = lg.data;
+         nFrames = seq.length();
+         h = lg.getHeight();
+         time0 = lg.timeCompStart;
+         timeStep = lg.calcTimeStep();
+         valueBase = lg.valueBase;
+         valueStep = lg.valueStep;
+         colors = Arrays.copyOf(lg.dimColor, Math.min(lg.dimColor.length, seq.getNumDims()));
+         bAntiAlias = lg.bAntiAlias;
+         pyr = lg.getPyramid();
+      }
+
+      /** @return virtual x coordinate of the given frame */
+      int getX(int ix)
+      {
+         return (int)Math.round((seq.getTimeMS(ix) - time0) / timeStep);
+      }
+
+      int getY(double value)
+      {
+         return h - (int)Math.round((value - valueBase) / valueStep);
+      }
+
+      /** @return first index >= iMin whose x coordinate is at least x (nFrames if there is no such index) */
+      int getFirstIndexAtX(int x, int iMin)
+      {
+         int lo = iMin, hi = nFrames;
+         while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if (getX(mid) < x) lo = mid + 1;
+            else hi = mid;
+         }
+         return lo;
+      }
+
+      public void paintTile(Graphics2D g, int x0, int w, int hTile)
+      {
+         if (nFrames == 0) return;
+         if (bAntiAlias) Library.setAntiAlias(g, true);
+         int iStart = Math.max(getFirstIndexAtX(x0, 0) - 1, 0);
+
+         // when there are many frames per pixel, draw each column from the min/max pyramid
+         if (pyr != null && getFirstIndexAtX(x0 + w, iStart) - iStart > 2 * w) paintColumns(g, x0, w, iStart);
+         else paintFrames(g, x0, w, iStart);
+         if (bAntiAlias) Library.setAntiAlias(g, false);
+      }
+
+      /** draw a line through every frame, with a vertical line covering frames that fall in the same column */
+      protected void paintFrames(Graphics2D g, int x0, int w, int iStart)
+      {
+         int nd = colors.length;
+         int[] by = new int[nd];
+         int bx = getX(iStart);
+         FeatureVec fv = seq.get(iStart);
+         for(int d = 0; d < nd; d++)
+            if (colors[d] != null) by[d] = getY(fv.get(d));
+
+         // now process the rest of the points
+         MyIntList xlist = new MyIntList();
+         ArrayList<int[]> ylist = new ArrayList<int[]>();
+         xlist.add(bx - x0);
+         ylist.add(by.clone());
+
+         int ix = iStart + 1;
+         while(ix < nFrames && bx < x0 + w){
+            int ax = bx;
+            int ixBStart = ix;
+            bx = getX(ix++);
+            while(ix < nFrames && bx == ax)
+               bx = getX(ix++);
+
+            // calc y value of each dimension
+            for(int d = 0; d < nd; d++){
+               if (colors[d] == null) continue;
+               if (ix - ixBStart > 1){
+                  int ymin, ymax;
+                  ymin = ymax = getY(seq.get(ixBStart).get(d));
+                  for(int i = ixBStart + 1; i < ix; i++){
+                     int y = getY(seq.get(i).get(d));
+                     if (y < ymin) ymin = y;
+                     else if (y > ymax) ymax = y;
+                  }
+                  g.setColor(colors[d]);
+                  g.drawLine(ax - x0, ymin, ax - x0, ymax);
+               }
+               by[d] = getY(seq.get(ix - 1).get(d));
+            }
+            xlist.add(bx - x0);
+            ylist.add(by.clone());
+         }
 
-         // calc y value of each dimension
+         // now we actually render the lines
+         int nPoints = xlist.size();
+         int[] yy = new int[nPoints];
+         int[] xx = xlist.toArray();
          for(int d = 0; d < nd; d++){
-            if (dimColor[d] == null) continue;
-            if (ix - ixBStart > 1){
-               int ymin, ymax;
-               ymin = ymax = getYFromIndex(ixBStart, d);
-               for(int i = ixBStart + 1; i < ix; i++){
-                  int y = getYFromIndex(i, d);
-                  if (y < ymin) ymin = y;
-                  else if (y > ymax) ymax = y;
+            if (colors[d] == null) continue;
+            g.setColor(colors[d]);
+            for(int i = 0; i < nPoints; i++)
+               yy[i] = ylist.get(i)[d];
+            g.drawPolyline(xx, yy, nPoints);
+         }
+      }
+
+      /**
+       * Draw the data one pixel column at a time: a vertical line covers the range of values in each column
+       * (found with the pyramid) and a polyline connects the last frame of each column, so the cost depends on
+       * the width of the tile rather than the number of frames.
+       */
+      protected void paintColumns(Graphics2D g, int x0, int w, int iStart)
+      {
+         int nd = colors.length;
+         double[] vmin = new double[pyr.getNumDims()];
+         double[] vmax = new double[pyr.getNumDims()];
+         MyIntList xlist = new MyIntList();
+         int[][] ylist = new int[nd][w + 2];
+
+         int ix = iStart;
+         int x = getX(ix);
+         while(ix < nFrames){
+            int ixNext = (x < x0 + w ? getFirstIndexAtX(x + 1, ix + 1) : ix + 1);
+            if (ixNext - ix > 1){
+               pyr.getMinMax(ix, ixNext, vmin, vmax);
+               for(int d = 0; d < nd; d++){
+                  if (colors[d] == null) continue;
+                  g.setColor(colors[d]);
+                  g.drawLine(x - x0, getY(vmax[d]), x - x0, getY(vmin[d]));
                }
-               g.setColor(dimColor[d]);
-               g.drawLine(ax, ymin, ax, ymax);
             }
-            by[d] = getYFromIndex(ix - 1, d);
+            int iPoint = xlist.size();
+            if (iPoint == ylist[0].length){
+               for(int d = 0; d < nd; d++)
+                  ylist[d] = Arrays.copyOf(ylist[d], iPoint * 2);
+            }
+            xlist.add(x - x0);
+            FeatureVec fv = seq.get(ixNext - 1);
+            for(int d = 0; d < nd; d++)
+               if (colors[d] != null) ylist[d][iPoint] = getY(fv.get(d));
+            if (x >= x0 + w) break;
+            ix = ixNext;
+            if (ix < nFrames) x = getX(ix);
+         }
+
+         int nPoints = xlist.size();
+         int[] xx = xlist.toArray();
+         for(int d = 0; d < nd; d++){
+            if (colors[d] == null) continue;
+            g.setColor(colors[d]);
+            g.drawPolyline(xx, ylist[d], nPoints);
          }
-         xlist.add(bx);
-         ylist.add(by.clone());
       }
 
-      // now we actually render the lines
-      int nPoints = xlist.size();
-      int[] yy = new int[nPoints];
-      int[] xx = xlist.toArray();
-      for(int d = 0; d < nd; d++){
-         if (dimColor[d] == null) continue;
-         g.setColor(dimColor[d]);
-         for(int i = 0; i < nPoints; i++)
-            yy[i] = ylist.get(i)[d];
-         g.drawPolyline(xx, yy, nPoints);
+      /** @return true if the given state puts the same frames in the same columns (the vertical scale may differ) */
+      boolean sameColumns(TileState ts)
+      {
+         return seq == ts.seq && nFrames == ts.nFrames && h == ts.h && time0 == ts.time0
+               && timeStep == ts.timeStep && bAntiAlias == ts.bAntiAlias && Arrays.equals(colors, ts.colors);
       }
 
-      if (bAntiAlias) Library.setAntiAlias(g, false);
+      @Override
+      public boolean equals(Object o)
+      {
+         if (!(o instanceof TileState)) return false;
+         TileState ts = (TileState)o;
+         return sameColumns(ts) && valueBase == ts.valueBase && valueStep == ts.valueStep;
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return System.identityHashCode(seq) * 31 + nFrames;
+      }
    }
 
    /**
@@ -504,8 +780,17 @@ public class LineGraph extends LinearTimeGraph implements ActionListener
       if (d < nd){ // we might not render any of the dimensions
          double vMin, vMax;
          if (bFixedScale){
-            FeatureVec fvMin = data.getMin();
-            FeatureVec fvMax = data.getMax();
+            MinMaxPyramid pyr = getPyramid();
+            FeatureVec fvMin, fvMax;
+            if (pyr != null){
+               fvMin = new FeatureVec(nd);
+               fvMax = new FeatureVec(nd);
+               pyr.getMinMax(0, data.length(), fvMin.get(), fvMax.get());
+            }
+            else{
+               fvMin = data.getMin();
+               fvMax = data.getMax();
+            }
             globalMin = fvMin.get(d);
             globalMax = fvMax.get(d);
             for(; d < nd; d++){
@@ -522,12 +807,25 @@ public class LineGraph extends LinearTimeGraph implements ActionListener
             vMax = vMin;
 
             // now find the real min/max
-            for(; d < nd; d++){
-               if (dimColor[d] == null) continue;
-               for(int i = iVizStart; i <= iVizStop; i++){
-                  double v = data.get(i).get(d);
-                  if (v < vMin) vMin = v;
-                  if (v > vMax) vMax = v;
+            MinMaxPyramid pyr = getPyramid();
+            if (pyr != null){
+               double[] vmin = new double[nd];
+               double[] vmax = new double[nd];
+               pyr.getMinMax(iVizStart, iVizStop + 1, vmin, vmax);
+               for(; d < nd; d++){
+                  if (dimColor[d] == null) continue;
+                  if (vmin[d] < vMin) vMin = vmin[d];
+                  if (vmax[d] > vMax) vMax = vmax[d];
+               }
+            }
+            else{
+               for(; d < nd; d++){
+                  if (dimColor[d] == null) continue;
+                  for(int i = iVizStart; i <= iVizStop; i++){
+                     double v = data.get(i).get(d);
+                     if (v < vMin) vMin = v;
+                     if (v > vMax) vMax = v;
+                  }
                }
             }
          }
@@ -0,0 +1,273 @@
+package kdm.gui;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
+
+import javax.swing.*;
+
+import kdm.data.*;
+
+/**
+ * Zoomable view of a large matrix (e.g., a 20k x 20k similarity matrix) stored in a MatrixPyramid. The view
+ * draws the pyramid level with about one cell per pixel, split into square tiles that are rendered in the
+ * background and kept in the shared TileCache, so panning and zooming only touch the cells that are visible.
+ * While a tile is being rendered, the matching part of a coarser level is drawn in its place.
+ *
+ * Use the mouse wheel to zoom, drag to pan, and double click to fit the matrix to the window. Values are mapped
+ * linearly from c0 (at vmin) to c1 (at vmax); non-finite values show the background color.
+ */
+public class MatrixPyramidView extends JMyComponent implements MouseMotionListener, MouseWheelListener
+{
+   private static final long serialVersionUID = 1L;
+
+   /** max number of pixels per matrix cell */
+   public static double MaxScale = 64.0;
+
+   protected MatrixPyramid mp;
+   protected Color c0, c1;
+   protected double vmin, vmax;
+
+   /** pixels per matrix cell and matrix coordinates of the upper-left corner of the view */
+   protected double scale = 1.0, vx, vy;
+   protected boolean bFit = true;
+   protected Point dragStart;
+   protected double dragVx, dragVy;
+
+   protected final long tileOwner = TileCache.newOwner();
+   protected TileCache tileCache = TileCache.getShared();
+   protected int tileVersion = 0;
+
+   /** create a grayscale view with the color range set to the range of the matrix */
+   public MatrixPyramidView(MatrixPyramid mp)
+   {
+      this(mp, Color.black, Color.white);
+   }
+
+   /** create a view using the given colors with the color range set to the range of the matrix */
+   public MatrixPyramidView(MatrixPyramid mp, Color c0, Color c1)
+   {
+      this.mp = mp;
+      this.c0 = c0;
+      this.c1 = c1;
+      vmin = mp.getMin();
+      vmax = mp.getMax();
+      setBackground(Color.darkGray);
+      setPreferredSize(new Dimension(400, 400));
+      setToolTipText("");
+      addMouseMotionListener(this);
+      addMouseWheelListener(this);
+   }
+
+   /** set the values that map to the first and last color */
+   public void setColorRange(double vmin, double vmax)
+   {
+      this.vmin = vmin;
+      this.vmax = vmax;
+      invalidateTiles();
+   }
+
+   /** set the colors that correspond to the min and max values */
+   public void setColors(Color c0, Color c1)
+   {
+      this.c0 = c0;
+      this.c1 = c1;
+      invalidateTiles();
+   }
+
+   /** zoom and pan so that the whole matrix is visible */
+   public void fitToWindow()
+   {
+      bFit = true;
+      repaint();
+   }
+
+   protected void invalidateTiles()
+   {
+      tileVersion++;
+      tileCache.invalidate(tileOwner);
+      repaint();
+   }
+
+   /** @return pyramid level drawn at the current zoom (the finest level with at most one cell per pixel) */
+   protected int getLevel()
+   {
+      int k = 0;
+      while(k < mp.getNumLevels() - 1 && (1 << k) * scale < 1.0)
+         k++;
+      return k;
+   }
+
+   @Override
+   public void paintComponent(Graphics2D g, int cw, int ch)
+   {
+      g.setColor(getBackground());
+      g.fillRect(0, 0, cw, ch);
+      int nRows = mp.getRows(0);
+      int nCols = mp.getCols(0);
+      if (nRows == 0 || nCols == 0) return;
+
+      if (bFit){
+         scale = Math.min((double)cw / nCols, (double)ch / nRows);
+         vx = vy = 0;
+      }
+
+      // printing or saving the view shouldn't leave holes
+      boolean bWait = (g.getDeviceConfiguration().getDevice().getType() != GraphicsDevice.TYPE_RASTER_SCREEN);
+      int k = getLevel();
+      int tw = TileCache.TileWidth;
+      double cellPx = (1 << k) * scale;
+      double lx0 = vx / (1 << k), ly0 = vy / (1 << k);
+      int tx0 = Math.max(0, (int)Math.floor(lx0 / tw));
+      int ty0 = Math.max(0, (int)Math.floor(ly0 / tw));
+      int tx1 = Math.min((mp.getCols(k) - 1) / tw, (int)Math.floor((lx0 + cw / cellPx) / tw));
+      int ty1 = Math.min((mp.getRows(k) - 1) / tw, (int)Math.floor((ly0 + ch / cellPx) / tw));
+
+      Runnable onReady = new Runnable() {
+         public void run()
+         {
+            repaint();
+         }
+      };
+      for(int ty = ty0; ty <= ty1; ty++){
+         for(int tx = tx0; tx <= tx1; tx++){
+            int x1 = (int)Math.round((tx * tw - lx0) * cellPx);
+            int y1 = (int)Math.round((ty * tw - ly0) * cellPx);
+            int x2 = (int)Math.round(((tx + 1) * tw - lx0) * cellPx);
+            int y2 = (int)Math.round(((ty + 1) * tw - ly0) * cellPx);
+            TileCache.Key key = getKey(k, tx, ty);
+            BufferedImage img = tileCache.get(key);
+            if (img == null && bWait) img = tileCache.render(key, new TilePainter(k));
+            if (img != null){
+               g.drawImage(img, x1, y1, x2, y2, 0, 0, tw, tw, null);
+               continue;
+            }
+
+            // draw part of a coarser tile until this one is ready
+            tileCache.request(key, new TilePainter(k), onReady);
+            for(int j = 1; k + j < mp.getNumLevels() && j <= 4; j++){
+               BufferedImage imgc = tileCache.get(getKey(k + j, tx >> j, ty >> j));
+               if (imgc == null) continue;
+               int sub = tw >> j;
+               int sx = (tx & ((1 << j) - 1)) * sub;
+               int sy = (ty & ((1 << j) - 1)) * sub;
+               g.drawImage(imgc, x1, y1, x2, y2, sx, sy, sx + sub, sy + sub, null);
+               break;
+            }
+         }
+      }
+   }
+
+   protected TileCache.Key getKey(int level, int tx, int ty)
+   {
+      return new TileCache.Key(tileOwner, tileVersion * 64 + level, tx, ty);
+   }
+
+   /** Renders the tiles of one level with the current colors (one pixel per cell) */
+   protected class TilePainter implements TileCache.GridPainter
+   {
+      final int level;
+      final double vmin, vmax;
+      final float[] f0, fr;
+
+      TilePainter(int level)
+      {
+         this.level = level;
+         vmin = MatrixPyramidView.this.vmin;
+         vmax = MatrixPyramidView.this.vmax;
+         f0 = c0.getRGBComponents(null);
+         float[] f1 = c1.getRGBComponents(null);
+         fr = new float[4];
+         for(int i = 0; i < 4; i++)
+            fr[i] = f1[i] - f0[i];
+      }
+
+      public void paintTile(Graphics2D g, int x0, int y0, int w, int h)
+      {
+         int nr = Math.min(h, mp.getRows(level) - y0);
+         int nc = Math.min(w, mp.getCols(level) - x0);
+         if (nr <= 0 || nc <= 0) return;
+         int[] argb = new int[nr * nc];
+         double range = (vmax > vmin ? vmax - vmin : 1.0);
+         for(int r = 0; r < nr; r++){
+            for(int c = 0; c < nc; c++){
+               float v = mp.get(level, y0 + r, x0 + c);
+               if (Float.isNaN(v) || Float.isInfinite(v)) continue;
+               double f = Math.max(0, Math.min(1, (v - vmin) / range));
+               int a = (int)Math.round(255 * (f0[3] + f * fr[3]));
+               int red = (int)Math.round(255 * (f0[0] + f * fr[0]));
+               int green = (int)Math.round(255 * (f0[1] + f * fr[1]));
+               int blue = (int)Math.round(255 * (f0[2] + f * fr[2]));
+               argb[r * nc + c] = (a << 24) | (red << 16) | (green << 8) | blue;
+            }
+         }
+         BufferedImage img = new BufferedImage(nc, nr, BufferedImage.TYPE_INT_ARGB);
+         img.setRGB(0, 0, nc, nr, argb, 0, nc);
+         g.drawImage(img, 0, 0, null);
+      }
+   }
+
+   @Override
+   public String getToolTipText(MouseEvent e)
+   {
+      int k = getLevel();
+      int r = (int)Math.floor((vy + e.getY() / scale) / (1 << k));
+      int c = (int)Math.floor((vx + e.getX() / scale) / (1 << k));
+      if (r < 0 || c < 0 || r >= mp.getRows(k) || c >= mp.getCols(k)) return null;
+      float v = mp.get(k, r, c);
+      if (k == 0) return String.format("(%d, %d): %.4g", r, c, v);
+      int n = 1 << k;
+      return String.format("rows %d-%d, cols %d-%d: %s %.4g", r * n, Math.min((r + 1) * n, mp.getRows(0)) - 1,
+            c * n, Math.min((c + 1) * n, mp.getCols(0)) - 1, mp.getReduce().toString().toLowerCase(), v);
+   }
+
+   public void mouseWheelMoved(MouseWheelEvent e)
+   {
+      // zoom around the mouse
+      double s = scale * Math.pow(2.0, -0.5 * e.getWheelRotation());
+      s = Math.min(MaxScale, s);
+      double mx = vx + e.getX() / scale;
+      double my = vy + e.getY() / scale;
+      scale = s;
+      vx = mx - e.getX() / scale;
+      vy = my - e.getY() / scale;
+      bFit = false;
+      repaint();
+   }
+
+   @Override
+   public void mousePressed(MouseEvent e)
+   {
+      super.mousePressed(e);
+      if (SwingUtilities.isLeftMouseButton(e)){
+         dragStart = e.getPoint();
+         dragVx = vx;
+         dragVy = vy;
+      }
+   }
+
+   @Override
+   public void mouseReleased(MouseEvent e)
+   {
+      super.mouseReleased(e);
+      dragStart = null;
+   }
+
+   @Override
+   public void mouseClicked(MouseEvent e)
+   {
+      if (e.getClickCount() == 2) fitToWindow();
+   }
+
+   public void mouseDragged(MouseEvent e)
+   {
+      if (dragStart == null) return;
+      vx = dragVx - (e.getX() - dragStart.x) / scale;
+      vy = dragVy - (e.getY() - dragStart.y) / scale;
+      bFit = false;
+      repaint();
+   }
+
+   public void mouseMoved(MouseEvent e)
+   {}
+}
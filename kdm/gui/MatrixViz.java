@@ -4,14 +4,19 @@ import java.awt.*;
 
 import javax.swing.*;
 
+import kdm.data.*;
 import kdm.models.*;
 import kdm.util.*;
 
 /**
- * Displays a matrix with optional labels and color span (default: black -> white)
+ * Displays a matrix with optional labels and color span (default: black -> white). Large matrices are shown
+ * with a zoomable MatrixPyramidView (without labels) instead of one component per cell.
  */
 public class MatrixViz extends JPanel
 {
+   /** matrices with more rows than this are shown with a MatrixPyramidView */
+   public static int MaxCellRows = 64;
+
    protected GridFlexLayout gfl;
    protected Color c0, c1;
    
@@ -34,6 +39,16 @@ public class MatrixViz extends JPanel
       removeAll();
       
       int n = m.length;      
+      if (n > MaxCellRows)
+      {
+         gfl = null;
+         setLayout(new BorderLayout());
+         MatrixPyramidView view = new MatrixPyramidView(buildPyramid(m), c0, c1);
+         view.setColorRange(0, 1);
+         add(view, BorderLayout.CENTER);
+         revalidate();
+         return;
+      }
 
       gfl = new GridFlexLayout(n + 1, n + 1, 1, 1);
       gfl.setColumn(0, GridFlexLayout.Style.pref);
@@ -65,9 +80,24 @@ public class MatrixViz extends JPanel
       revalidate();
    }
    
+   /** @return pyramid of the probabilities (the matrix holds log-probs) scaled to match the cell colors */
+   protected static MatrixPyramid buildPyramid(double[][] m)
+   {
+      MatrixPyramid mp = new MatrixPyramid(m.length, m.length, MatrixPyramid.Reduce.Mean);
+      for(int i = 0; i < m.length; i++)
+         for(int j = 0; j < m.length; j++)
+         {
+            double prob = (m[i][j] > Library.LOG_ZERO ? Math.exp(m[i][j]) : 0);
+            mp.set(i, j, prob * 0.8 + 0.2);
+         }
+      mp.build();
+      return mp;
+   }
+   
    /** show or hide the matrix labels */
    public void showLabels(boolean b)
    {
+      if (gfl == null) return;
       if (b)
       {
          gfl.setColumn(0, GridFlexLayout.Style.pref);
@@ -0,0 +1,112 @@
+package kdm.gui;
+
+import kdm.data.*;
+
+/**
+ * Uniform grid index over the (first two dimensions of the) frames of a sequence, used to find the point
+ * closest to the mouse in a scatter plot without scanning every point. The grid has about eight points per
+ * cell on average and stores the frame indices sorted by cell, so it takes one int per point plus one int per
+ * cell.
+ *
+ * The index is a snapshot: it only covers the frames that existed when it was built.
+ */
+public final class PointGrid
+{
+   protected final Sequence seq;
+   protected final int nPoints, nx, ny;
+   protected final double xmin, ymin, cellw, cellh;
+
+   /** frame indices sorted by cell; the points in cell c are order[cellStart[c] .. cellStart[c+1]) */
+   protected final int[] order, cellStart;
+
+   public PointGrid(Sequence seq)
+   {
+      this.seq = seq;
+      nPoints = seq.length();
+
+      double x0 = Double.POSITIVE_INFINITY, x1 = Double.NEGATIVE_INFINITY;
+      double y0 = Double.POSITIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+      for(int i = 0; i < nPoints; i++){
+         FeatureVec fv = seq.get(i);
+         double x = fv.get(0), y = fv.get(1);
+         if (x < x0) x0 = x;
+         if (x > x1) x1 = x;
+         if (y < y0) y0 = y;
+         if (y > y1) y1 = y;
+      }
+      if (nPoints == 0) x0 = x1 = y0 = y1 = 0;
+
+      int side = (int)Math.max(1, Math.min(4096, Math.sqrt(nPoints / 8.0)));
+      nx = ny = side;
+      xmin = x0;
+      ymin = y0;
+      cellw = Math.max(x1 - x0, 1e-12) / nx;
+      cellh = Math.max(y1 - y0, 1e-12) / ny;
+
+      // counting sort of the points by cell
+      int[] cell = new int[nPoints];
+      cellStart = new int[nx * ny + 1];
+      for(int i = 0; i < nPoints; i++){
+         FeatureVec fv = seq.get(i);
+         cell[i] = getCell(fv.get(0), fv.get(1));
+         cellStart[cell[i] + 1]++;
+      }
+      for(int c = 0; c < nx * ny; c++)
+         cellStart[c + 1] += cellStart[c];
+      order = new int[nPoints];
+      int[] next = new int[nx * ny];
+      System.arraycopy(cellStart, 0, next, 0, nx * ny);
+      for(int i = 0; i < nPoints; i++)
+         order[next[cell[i]]++] = i;
+   }
+
+   /** @return index of the cell containing the given point (clipped to the grid) */
+   protected int getCell(double x, double y)
+   {
+      int cx = (int)Math.max(0, Math.min(nx - 1, Math.floor((x - xmin) / cellw)));
+      int cy = (int)Math.max(0, Math.min(ny - 1, Math.floor((y - ymin) / cellh)));
+      return cy * nx + cx;
+   }
+
+   /** @return number of indexed points */
+   public int size()
+   {
+      return nPoints;
+   }
+
+   /**
+    * Find the point closest to (x,y) within the axis-aligned ellipse with radii rx and ry, where distance is
+    * measured in units of the radii (so that it corresponds to pixel distance when the radii correspond to the
+    * same number of pixels).
+    *
+    * @param dRet if not null, dRet[0] receives the (scaled) distance to the point found
+    * @return index of the closest point, or -1 if there is no point within the ellipse
+    */
+   public int findNearest(double x, double y, double rx, double ry, double[] dRet)
+   {
+      if (nPoints == 0) return -1;
+      int c0 = getCell(x - rx, y - ry);
+      int c1 = getCell(x + rx, y + ry);
+      int cx0 = c0 % nx, cy0 = c0 / nx;
+      int cx1 = c1 % nx, cy1 = c1 / nx;
+
+      int iBest = -1;
+      double dBest = 1.0;
+      for(int cy = cy0; cy <= cy1; cy++){
+         for(int c = cy * nx + cx0; c <= cy * nx + cx1; c++){
+            for(int j = cellStart[c]; j < cellStart[c + 1]; j++){
+               FeatureVec fv = seq.get(order[j]);
+               double dx = (fv.get(0) - x) / rx;
+               double dy = (fv.get(1) - y) / ry;
+               double d = dx * dx + dy * dy;
+               if (d <= dBest){
+                  dBest = d;
+                  iBest = order[j];
+               }
+            }
+         }
+      }
+      if (dRet != null) dRet[0] = Math.sqrt(dBest);
+      return iBest;
+   }
+}
@@ -2,8 +2,10 @@ package kdm.gui;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import javax.swing.*;
 
 import kdm.util.*;
@@ -37,6 +39,28 @@ public class ScatterPlot extends JMyComponent implements MouseMotionListener, Ac
    public static final String sBGColor = "Background";
    public static final String sGridColor = "Grid Color";
    public static final String sAxisColor = "Axis Color";
+   public static final String sDensity = "Density Plot";
+
+   /** how to draw the data points */
+   public static enum RenderMode {
+      /** draw each point (and line) individually */
+      Points,
+      /** draw a color-mapped 2D histogram of the points (lines are not drawn) */
+      Density,
+      /** use Density if the plot holds at least DensityMinPoints points, otherwise Points */
+      Auto
+   }
+
+   /** in Auto mode, density rendering is used if the plot holds at least this many points */
+   public static int DensityMinPoints = 250000;
+
+   /** series with at least this many points are indexed (in the background) for mouse queries */
+   public static int IndexMinPoints = 50000;
+
+   /** max distance (in pixels) between the mouse and a point for the point to be selected */
+   public static int HoverRadius = 6;
+
+   protected static ExecutorService binPool;
 
    /** list of data sets to display */
    protected ArrayList<DataInfo> data = new ArrayList<DataInfo>();
@@ -85,6 +109,17 @@ public class ScatterPlot extends JMyComponent implements MouseMotionListener, Ac
    /** which key must be pressed to pan plot with mouse (0 for none) */
    protected int vkPanKey = 0;
 
+   protected RenderMode renderMode = RenderMode.Auto;
+
+   /** latest density image and the view it shows; the view that should be rendered next */
+   protected BufferedImage densityImage;
+   protected DensityView densityView, densityWanted;
+   protected boolean bDensityBusy = false;
+
+   /** point under the mouse (hoverData is null if there isn't one) */
+   protected DataInfo hoverData;
+   protected int hoverIndex;
+
    /** create an empty scatter plot */
    public ScatterPlot()
    {
@@ -141,6 +176,30 @@ public class ScatterPlot extends JMyComponent implements MouseMotionListener, Ac
       return di;
    }
 
+   /** set how the data points are drawn */
+   public void setRenderMode(RenderMode mode)
+   {
+      if (mode == renderMode) return;
+      renderMode = mode;
+      repaint();
+   }
+
+   public RenderMode getRenderMode()
+   {
+      return renderMode;
+   }
+
+   /** @return true if the data should be drawn as a density image */
+   protected boolean isDensityMode()
+   {
+      if (renderMode == RenderMode.Density) return true;
+      if (renderMode == RenderMode.Points) return false;
+      long n = 0;
+      for(DataInfo di : data)
+         n += di.data.length();
+      return n >= DensityMinPoints;
+   }
+
    /** set the axes to the specified values */
    public void setAxes(double xmin, double xmax, double ymin, double ymax)
    {
@@ -245,7 +304,9 @@ public class ScatterPlot extends JMyComponent implements MouseMotionListener, Ac
       g.setClip(plotMargin.left, plotMargin.top, wPlot, hPlot);
       if (bRenderGrid) renderGrid(g, plotMargin.left, plotMargin.top, wPlot, hPlot);
       renderShapes(g, plotMargin.left, plotMargin.top, wPlot, hPlot);
-      renderData(g, plotMargin.left, plotMargin.top, wPlot, hPlot);
+      if (isDensityMode()) renderDensity(g, plotMargin.left, plotMargin.top, wPlot, hPlot);
+      else renderData(g, plotMargin.left, plotMargin.top, wPlot, hPlot);
+      renderHover(g, plotMargin.left, plotMargin.top, wPlot, hPlot);
       
       // clear the background (exterior) -- we do this after rendering the plot because
       // some SVG renderers don't support clipping regions properly
@@ -306,6 +367,137 @@ public class ScatterPlot extends JMyComponent implements MouseMotionListener, Ac
       Library.setAntiAlias(g, false);
    }
 
+   /**
+    * Render the data as a density image. The image is computed in the background (unless the plot is being
+    * drawn to something other than the screen, e.g., when it's saved); until it's ready, the previous image is
+    * drawn, moved and scaled to match the current axes.
+    */
+   protected void renderDensity(Graphics2D g, int cx, int cy, int cw, int ch)
+   {
+      if (cw <= 0 || ch <= 0) return;
+      DensityView view = new DensityView(this, cw, ch);
+      if (densityImage != null && view.equals(densityView)){
+         g.drawImage(densityImage, cx, cy, null);
+         return;
+      }
+
+      if (g.getDeviceConfiguration().getDevice().getType() != GraphicsDevice.TYPE_RASTER_SCREEN){
+         g.drawImage(view.render(), cx, cy, null);
+         return;
+      }
+
+      if (densityImage != null && view.hasSameData(densityView)){
+         DensityView old = densityView;
+         int x1 = transformx(old.xmin, cx, cw);
+         int x2 = transformx(old.xmax, cx, cw);
+         int y1 = transformy(old.ymax, cy, ch);
+         int y2 = transformy(old.ymin, cy, ch);
+         g.drawImage(densityImage, x1, y1, x2, y2, 0, 0, old.w, old.h, null);
+      }
+      requestDensity(view);
+   }
+
+   /** compute the density image for the given view in the background (one image at a time) */
+   protected void requestDensity(final DensityView view)
+   {
+      densityWanted = view;
+      if (bDensityBusy) return;
+      bDensityBusy = true;
+      Thread thread = new Thread(new Runnable() {
+         public void run()
+         {
+            final BufferedImage img = view.render();
+            SwingUtilities.invokeLater(new Runnable() {
+               public void run()
+               {
+                  bDensityBusy = false;
+                  densityView = view;
+                  densityImage = img;
+                  if (!view.equals(densityWanted)) requestDensity(densityWanted);
+                  repaint();
+               }
+            });
+         }
+      }, "ScatterPlot density");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /** @return shared pool used to bin points for density images */
+   protected static synchronized ExecutorService getBinPool()
+   {
+      if (binPool == null){
+         binPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+               new ThreadFactory() {
+                  public Thread newThread(Runnable r)
+                  {
+                     Thread thread = new Thread(r, "ScatterPlot bin");
+                     thread.setDaemon(true);
+                     return thread;
+                  }
+               });
+      }
+      return binPool;
+   }
+
+   /** mark the point under the mouse (if any) and show its value */
+   protected void renderHover(Graphics2D g, int cx, int cy, int cw, int ch)
+   {
+      if (hoverData == null || hoverIndex >= hoverData.data.length()) return;
+      FeatureVec fv = hoverData.data.get(hoverIndex);
+      Point p = transform(fv, cx, cy, cw, ch);
+      Library.setAntiAlias(g, true);
+      g.setColor(cAxes);
+      g.drawOval(p.x - HoverRadius, p.y - HoverRadius, 2 * HoverRadius, 2 * HoverRadius);
+      Library.setAntiAlias(g, false);
+
+      String s = String.format("%s[%d]: (%.4g, %.4g)", hoverData.data.getName(), hoverIndex, fv.get(0), fv
+            .get(1));
+      g.setFont(Library.smallSansFont);
+      FontMetrics fm = g.getFontMetrics();
+      int sw = fm.stringWidth(s) + 4;
+      int sh = fm.getHeight();
+      int x = Math.min(p.x + HoverRadius + 2, cx + cw - sw);
+      int y = Math.max(p.y - HoverRadius - sh - 2, cy);
+      g.setColor(cPlotBG);
+      g.fillRect(x, y, sw, sh);
+      g.setColor(cAxes);
+      g.drawRect(x, y, sw, sh);
+      g.drawString(s, x + 2, y + sh - fm.getDescent());
+   }
+
+   /**
+    * Find the data point closest to the given location (in component coordinates)
+    * 
+    * @param r max distance (pixels) to the point
+    * @param ixRet ixRet[0] receives the index of the point in its data set
+    * @return data set holding the point, or null if there is no point within r pixels (or the points have not
+    *         been indexed yet)
+    */
+   public DataInfo findPoint(int x, int y, int r, int[] ixRet)
+   {
+      int cw = getPlotWidth();
+      int ch = getPlotHeight();
+      if (cw <= 0 || ch <= 0) return null;
+      double vx = untransformx(x, plotMargin.left, cw);
+      double vy = untransformy(y, plotMargin.top, ch);
+      double rx = r * (xmax - xmin) / cw;
+      double ry = r * (ymax - ymin) / ch;
+
+      DataInfo best = null;
+      double dBest = Library.INF;
+      double[] d = new double[1];
+      for(DataInfo di : data){
+         int i = di.findNearest(vx, vy, rx, ry, d);
+         if (i >= 0 && d[0] < dBest){
+            best = di;
+            dBest = d[0];
+            ixRet[0] = i;
+         }
+      }
+      return best;
+   }
+
    /** render a particular shape: .ox+*sdv^<> */
    protected void renderPoint(Graphics2D g, int x, int y, Color color, char shape, int r)
    {
@@ -514,11 +706,11 @@ public class ScatterPlot extends JMyComponent implements MouseMotionListener, Ac
       xmax = ymax = Library.NEGINF;
       int n = 0;
       for(DataInfo di : data){
-         FeatureVec fv = di.data.getMin();
+         FeatureVec fv = di.getMin();
          xmin = Math.min(xmin, fv.get(0));
          ymin = Math.min(ymin, fv.get(1));
 
-         fv = di.data.getMax();
+         fv = di.getMax();
          xmax = Math.max(xmax, fv.get(0));
          ymax = Math.max(ymax, fv.get(1));
          n += di.data.length();
@@ -629,6 +821,230 @@ public class ScatterPlot extends JMyComponent implements MouseMotionListener, Ac
          this.stroke = stroke;
       }
 
+      /** bounds of the data (cached, since the plot may hold millions of points) */
+      protected FeatureVec vmin, vmax;
+      protected int nBounds = -1;
+
+      /** spatial index for mouse queries (null until built) */
+      protected PointGrid index;
+      protected boolean bIndexing = false;
+
+      protected void updateBounds()
+      {
+         int n = data.length();
+         if (n == nBounds) return;
+         vmin = data.getMin();
+         vmax = data.getMax();
+         nBounds = n;
+      }
+
+      public FeatureVec getMin()
+      {
+         updateBounds();
+         return vmin;
+      }
+
+      public FeatureVec getMax()
+      {
+         updateBounds();
+         return vmax;
+      }
+
+      /**
+       * Find the closest point within the ellipse with radii (rx,ry) around (x,y). Small data sets are scanned;
+       * larger ones are indexed in the background and no point is found until the index is ready.
+       * 
+       * @param dRet dRet[0] receives the distance to the point in units of the radii
+       * @return index of the closest point or -1
+       */
+      public int findNearest(double x, double y, double rx, double ry, double[] dRet)
+      {
+         int n = data.length();
+         if (n < IndexMinPoints){
+            int iBest = -1;
+            double dBest = 1.0;
+            for(int i = 0; i < n; i++){
+               FeatureVec fv = data.get(i);
+               double dx = (fv.get(0) - x) / rx;
+               double dy = (fv.get(1) - y) / ry;
+               double d = dx * dx + dy * dy;
+               if (d <= dBest){
+                  dBest = d;
+                  iBest = i;
+               }
+            }
+            dRet[0] = Math.sqrt(dBest);
+            return iBest;
+         }
+
+         PointGrid grid = getIndex();
+         if (grid == null) return -1;
+         return grid.findNearest(x, y, rx, ry, dRet);
+      }
+
+      /** @return spatial index of the data, or null if it is not ready (it's then built in the background) */
+      protected synchronized PointGrid getIndex()
+      {
+         if (index != null && index.size() == data.length()) return index;
+         if (!bIndexing){
+            bIndexing = true;
+            Thread thread = new Thread(new Runnable() {
+               public void run()
+               {
+                  PointGrid grid = new PointGrid(data);
+                  synchronized (DataInfo.this){
+                     index = grid;
+                     bIndexing = false;
+                  }
+               }
+            }, "ScatterPlot index");
+            thread.setDaemon(true);
+            thread.start();
+         }
+         return null;
+      }
+   }
+
+   /**
+    * Everything needed to render a density image: the axes, the size of the plot, and the data sets. Two views
+    * are equal if they produce the same image.
+    */
+   protected static final class DensityView
+   {
+      final double xmin, xmax, ymin, ymax;
+      final int w, h;
+      final Sequence[] seqs;
+      final int[] lengths;
+      final Color[] colors;
+
+      DensityView(ScatterPlot plot, int w, int h)
+      {
+         xmin = plot.xmin;
+         xmax = plot.xmax;
+         ymin = plot.ymin;
+         ymax = plot.ymax;
+         this.w = w;
+         this.h = h;
+         int n = plot.data.size();
+         seqs = new Sequence[n];
+         lengths = new int[n];
+         colors = new Color[n];
+         for(int i = 0; i < n; i++){
+            DataInfo di = plot.data.get(i);
+            seqs[i] = di.data;
+            lengths[i] = di.data.length();
+            colors[i] = di.color;
+         }
+      }
+
+      /** @return true if the given view shows the same data (perhaps with different axes or size) */
+      boolean hasSameData(DensityView view)
+      {
+         return view != null && Arrays.equals(seqs, view.seqs) && Arrays.equals(lengths, view.lengths)
+               && Arrays.equals(colors, view.colors);
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (!(o instanceof DensityView)) return false;
+         DensityView view = (DensityView)o;
+         return xmin == view.xmin && xmax == view.xmax && ymin == view.ymin && ymax == view.ymax
+               && w == view.w && h == view.h && hasSameData(view);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return Arrays.hashCode(lengths) * 31 + w * 17 + h;
+      }
+
+      /**
+       * Bin the points of each data set into a 2D histogram (one pixel per bin, chunks of points in parallel)
+       * and color map the result: the opacity of a pixel grows with the log of the number of points, and its
+       * color is the average of the data set colors weighted by their counts.
+       */
+      BufferedImage render()
+      {
+         final int nPix = w * h;
+         final double sx = w / (xmax - xmin);
+         final double sy = h / (ymax - ymin);
+         int nSeries = seqs.length;
+         int[][] counts = new int[nSeries][];
+         ExecutorService pool = getBinPool();
+         int nThreads = Runtime.getRuntime().availableProcessors();
+
+         for(int iSeries = 0; iSeries < nSeries; iSeries++){
+            final Sequence seq = seqs[iSeries];
+            int n = lengths[iSeries];
+            int nChunks = Math.max(1, Math.min(nThreads, n / 65536));
+            ArrayList<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+            for(int iChunk = 0; iChunk < nChunks; iChunk++){
+               final int a = (int)((long)iChunk * n / nChunks);
+               final int b = (int)((long)(iChunk + 1) * n / nChunks);
+               futures.add(pool.submit(new Callable<int[]>() {
+                  public int[] call()
+                  {
+                     int[] hist = new int[nPix];
+                     for(int i = a; i < b; i++){
+                        FeatureVec fv = seq.get(i);
+                        int px = (int)Math.round((fv.get(0) - xmin) * sx);
+                        int py = h - (int)Math.round((fv.get(1) - ymin) * sy);
+                        if (px < 0 || px >= w || py < 0 || py >= h) continue;
+                        hist[py * w + px]++;
+                     }
+                     return hist;
+                  }
+               }));
+            }
+            try{
+               int[] hist = futures.get(0).get();
+               for(int iChunk = 1; iChunk < nChunks; iChunk++){
+                  int[] part = futures.get(iChunk).get();
+                  for(int i = 0; i < nPix; i++)
+                     hist[i] += part[i];
+               }
+               counts[iSeries] = hist;
+            } catch (InterruptedException e){
+               Thread.currentThread().interrupt();
+               return new BufferedImage(Math.max(1, w), Math.max(1, h), BufferedImage.TYPE_INT_ARGB);
+            } catch (ExecutionException e){
+               Throwable cause = e.getCause();
+               if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+               if (cause instanceof Error) throw (Error)cause;
+               throw new RuntimeException(cause);
+            }
+         }
+
+         // color map the histograms
+         int maxCount = 0;
+         int[] total = new int[nPix];
+         for(int iSeries = 0; iSeries < nSeries; iSeries++)
+            for(int i = 0; i < nPix; i++)
+               total[i] += counts[iSeries][i];
+         for(int i = 0; i < nPix; i++)
+            if (total[i] > maxCount) maxCount = total[i];
+         double logMax = Math.log1p(maxCount);
+
+         int[] argb = new int[nPix];
+         for(int i = 0; i < nPix; i++){
+            int c = total[i];
+            if (c == 0) continue;
+            double r = 0, g = 0, b = 0;
+            for(int iSeries = 0; iSeries < nSeries; iSeries++){
+               int k = counts[iSeries][i];
+               if (k == 0) continue;
+               r += k * colors[iSeries].getRed();
+               g += k * colors[iSeries].getGreen();
+               b += k * colors[iSeries].getBlue();
+            }
+            int alpha = 64 + (int)Math.round(191 * Math.log1p(c) / logMax);
+            argb[i] = (alpha << 24) | ((int)(r / c) << 16) | ((int)(g / c) << 8) | (int)(b / c);
+         }
+         BufferedImage img = new BufferedImage(Math.max(1, w), Math.max(1, h), BufferedImage.TYPE_INT_ARGB);
+         if (nPix > 0) img.setRGB(0, 0, w, h, argb, 0, w);
+         return img;
+      }
    }
 
    /** abstract base class of all shapes */
@@ -852,6 +1268,9 @@ public class ScatterPlot extends JMyComponent implements MouseMotionListener, Ac
       item = new JCheckBoxMenuItem(sFixedGrid, bFixedGrid);
       item.addActionListener(this);
       sub.add(item);
+      item = new JCheckBoxMenuItem(sDensity, isDensityMode());
+      item.addActionListener(this);
+      sub.add(item);
       
       sub = new JMenu("Color");
       menu.add(sub);
@@ -906,7 +1325,15 @@ public class ScatterPlot extends JMyComponent implements MouseMotionListener, Ac
    }
 
    public void mouseMoved(MouseEvent e)
-   {}
+   {
+      int[] ix = new int[1];
+      DataInfo di = findPoint(e.getX(), e.getY(), HoverRadius, ix);
+      if (di != hoverData || (di != null && ix[0] != hoverIndex)){
+         hoverData = di;
+         hoverIndex = ix[0];
+         repaint();
+      }
+   }
 
    public void actionPerformed(ActionEvent e)
    {
@@ -925,6 +1352,9 @@ public class ScatterPlot extends JMyComponent implements MouseMotionListener, Ac
       else if (cmd.equals(sRenderGrid)){
          showGrid(!bRenderGrid);
       }
+      else if (cmd.equals(sDensity)){
+         setRenderMode(isDensityMode() ? RenderMode.Points : RenderMode.Density);
+      }
       else if (cmd.equals(sPlotColor)){
          Color color = JColorChooser.showDialog(this, "Choose Plot Color", cPlotBG);
          if (color != null) setPlotBGColor(color);
@@ -0,0 +1,338 @@
+package kdm.gui;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.swing.*;
+
+import kdm.util.*;
+
+/**
+ * Cache of rendered graph tiles. A graph splits its virtual (zoomed) width into fixed-width tiles, each of
+ * which is rendered once into an image and then blitted on every repaint. Missing tiles can be rendered on the
+ * calling thread or requested from a pool of background workers, which serves the most recent requests first
+ * (i.e., the tiles that are currently on screen). The cache is bounded by a memory budget and evicts the least
+ * recently used tiles first.
+ *
+ * Tiles are identified by the graph that owns them, a version number that the graph changes whenever anything
+ * that affects the rendering changes (data, zoom, scale, colors, size), and the index of the tile. Views that
+ * scroll in two dimensions use square tiles identified by their column (index) and row.
+ *
+ * Invalidating an owner also cancels its queued renders, and tiles that were already being rendered when the
+ * owner was invalidated are dropped instead of being added to the cache.
+ */
+public class TileCache
+{
+   /** width of a tile in pixels */
+   public static final int TileWidth = 256;
+
+   /** Renders the contents of one tile; may be called on a worker thread */
+   public static interface Painter
+   {
+      /**
+       * Draw the part of the graph whose virtual x coordinates are [x0, x0+w); virtual x0 maps to x=0 in the
+       * given graphics context.
+       */
+      public void paintTile(Graphics2D g, int x0, int w, int h);
+   }
+
+   /** Renders the contents of one square tile (TileWidth x TileWidth); may be called on a worker thread */
+   public static interface GridPainter
+   {
+      /** Draw the part of the view at virtual coordinates [x0, x0+w) x [y0, y0+h) with (x0,y0) at (0,0) */
+      public void paintTile(Graphics2D g, int x0, int y0, int w, int h);
+   }
+
+   /** Identifies a tile */
+   public static final class Key
+   {
+      public final long owner;
+      public final int version, index, row;
+
+      public Key(long owner, int version, int index)
+      {
+         this(owner, version, index, 0);
+      }
+
+      public Key(long owner, int version, int index, int row)
+      {
+         this.owner = owner;
+         this.version = version;
+         this.index = index;
+         this.row = row;
+      }
+
+      @Override
+      public boolean equals(Object o)
+      {
+         if (!(o instanceof Key)) return false;
+         Key k = (Key)o;
+         return owner == k.owner && version == k.version && index == k.index && row == k.row;
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return ((int)(owner ^ (owner >>> 32)) * 31 * 31 + version * 31 + index) * 31 + row;
+      }
+   }
+
+   protected static TileCache shared;
+   protected static long nextOwner = 1;
+
+   protected final LinkedHashMap<Key, BufferedImage> tiles;
+   protected final HashMap<Key, Future<?>> pending;
+
+   /** number of times each owner has been invalidated; renders started before the last one are dropped */
+   protected final LongIntMap epochs;
+   protected final long maxBytes;
+   protected long nBytes;
+   protected final ExecutorService pool;
+
+   /**
+    * Create a tile cache
+    *
+    * @param maxBytes memory budget for the cached tiles
+    * @param nThreads number of background rendering threads
+    */
+   public TileCache(long maxBytes, int nThreads)
+   {
+      this.maxBytes = maxBytes;
+      tiles = new LinkedHashMap<Key, BufferedImage>(64, 0.75f, true);
+      pending = new HashMap<Key, Future<?>>();
+      epochs = new LongIntMap();
+      epochs.setNoEntryValue(0);
+
+      // the queue is a stack so that the tiles requested by the latest repaint are rendered first
+      BlockingQueue<Runnable> queue = new LinkedBlockingDeque<Runnable>() {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         public boolean offer(Runnable r)
+         {
+            return super.offerFirst(r);
+         }
+      };
+      pool = new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, queue, new ThreadFactory() {
+         public Thread newThread(Runnable r)
+         {
+            Thread thread = new Thread(r, "TileCache");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+         }
+      });
+   }
+
+   /**
+    * @return cache shared by all graphs; the budget (in MB) is taken from the "kdm.tileCacheMB" property
+    */
+   public static synchronized TileCache getShared()
+   {
+      if (shared == null){
+         int nThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+         shared = new TileCache(Long.getLong("kdm.tileCacheMB", 64) << 20, nThreads);
+      }
+      return shared;
+   }
+
+   /** @return a new owner id (each graph that uses the cache needs one) */
+   public static synchronized long newOwner()
+   {
+      return nextOwner++;
+   }
+
+   /** @return cached tile, or null if the tile isn't available */
+   public synchronized BufferedImage get(Key key)
+   {
+      return tiles.get(key);
+   }
+
+   /** @return true if the tile is cached or being rendered */
+   public synchronized boolean contains(Key key)
+   {
+      return tiles.containsKey(key) || pending.containsKey(key);
+   }
+
+   /** @return current epoch of the given owner (see invalidate()) */
+   protected synchronized int getEpoch(long owner)
+   {
+      return epochs.get(owner);
+   }
+
+   /**
+    * Render the tile on the calling thread and add it to the cache
+    *
+    * @return the rendered tile
+    */
+   public BufferedImage render(Key key, int h, Painter painter)
+   {
+      int epoch = getEpoch(key.owner);
+      BufferedImage img = paint(key, h, painter);
+      put(key, img, epoch);
+      return img;
+   }
+
+   /**
+    * Render the square tile (column key.index, row key.row) on the calling thread and add it to the cache
+    *
+    * @return the rendered tile
+    */
+   public BufferedImage render(Key key, GridPainter painter)
+   {
+      int epoch = getEpoch(key.owner);
+      BufferedImage img = paint(key, painter);
+      put(key, img, epoch);
+      return img;
+   }
+
+   /** @return new image of the given tile */
+   protected static BufferedImage paint(Key key, int h, Painter painter)
+   {
+      BufferedImage img = new BufferedImage(TileWidth, Math.max(1, h), BufferedImage.TYPE_INT_ARGB_PRE);
+      Graphics2D g = img.createGraphics();
+      painter.paintTile(g, key.index * TileWidth, TileWidth, h);
+      g.dispose();
+      return img;
+   }
+
+   /** @return new image of the given square tile */
+   protected static BufferedImage paint(Key key, GridPainter painter)
+   {
+      BufferedImage img = new BufferedImage(TileWidth, TileWidth, BufferedImage.TYPE_INT_ARGB_PRE);
+      Graphics2D g = img.createGraphics();
+      painter.paintTile(g, key.index * TileWidth, key.row * TileWidth, TileWidth, TileWidth);
+      g.dispose();
+      return img;
+   }
+
+   /**
+    * Render the tile in the background (unless it is already cached or pending). When it is done, onReady is
+    * run on the Swing event thread.
+    */
+   public void request(final Key key, final int h, final Painter painter, final Runnable onReady)
+   {
+      submit(key, new Callable<BufferedImage>() {
+         public BufferedImage call()
+         {
+            return paint(key, h, painter);
+         }
+      }, onReady);
+   }
+
+   /**
+    * Render the square tile in the background (unless it is already cached or pending). When it is done,
+    * onReady is run on the Swing event thread.
+    */
+   public void request(final Key key, final GridPainter painter, final Runnable onReady)
+   {
+      submit(key, new Callable<BufferedImage>() {
+         public BufferedImage call()
+         {
+            return paint(key, painter);
+         }
+      }, onReady);
+   }
+
+   protected synchronized void submit(final Key key, final Callable<BufferedImage> job, final Runnable onReady)
+   {
+      if (tiles.containsKey(key) || pending.containsKey(key)) return;
+      final int epoch = getEpoch(key.owner);
+      pending.put(key, pool.submit(new Runnable() {
+         public void run()
+         {
+            boolean bAdded = false;
+            try{
+               bAdded = put(key, job.call(), epoch);
+            } catch (Exception e){
+               e.printStackTrace();
+            } finally{
+               synchronized (TileCache.this){
+                  // if the owner was invalidated, the entry is gone (and may have been replaced by a new request)
+                  if (epoch == epochs.get(key.owner)) pending.remove(key);
+               }
+            }
+            if (bAdded && onReady != null) SwingUtilities.invokeLater(onReady);
+         }
+      }));
+   }
+
+   /**
+    * Add a tile to the cache unless its owner has been invalidated since the tile was requested
+    *
+    * @param epoch epoch of the owner when the tile was requested
+    * @return true if the tile was added
+    */
+   protected synchronized boolean put(Key key, BufferedImage img, int epoch)
+   {
+      if (img == null || epoch != epochs.get(key.owner)) return false;
+      BufferedImage old = tiles.put(key, img);
+      if (old != null) nBytes -= bytes(old);
+      nBytes += bytes(img);
+
+      // evict the least recently used tiles (but keep the new one)
+      Iterator<Map.Entry<Key, BufferedImage>> it = tiles.entrySet().iterator();
+      while(nBytes > maxBytes && it.hasNext()){
+         Map.Entry<Key, BufferedImage> entry = it.next();
+         if (entry.getKey().equals(key)) continue;
+         nBytes -= bytes(entry.getValue());
+         it.remove();
+      }
+      return true;
+   }
+
+   /**
+    * Remove all of the tiles that belong to the given owner and cancel its pending renders; renders that are
+    * already running finish, but their tiles are not cached.
+    */
+   public synchronized void invalidate(long owner)
+   {
+      epochs.adjust(owner, 1);
+      Iterator<Map.Entry<Key, BufferedImage>> it = tiles.entrySet().iterator();
+      while(it.hasNext()){
+         Map.Entry<Key, BufferedImage> entry = it.next();
+         if (entry.getKey().owner != owner) continue;
+         nBytes -= bytes(entry.getValue());
+         it.remove();
+      }
+      Iterator<Map.Entry<Key, Future<?>>> itPending = pending.entrySet().iterator();
+      while(itPending.hasNext()){
+         Map.Entry<Key, Future<?>> entry = itPending.next();
+         if (entry.getKey().owner != owner) continue;
+         entry.getValue().cancel(false);
+         itPending.remove();
+      }
+   }
+
+   /** Remove the tiles of one version of the given owner and cancel its pending renders */
+   public synchronized void remove(long owner, int version)
+   {
+      Iterator<Map.Entry<Key, BufferedImage>> it = tiles.entrySet().iterator();
+      while(it.hasNext()){
+         Map.Entry<Key, BufferedImage> entry = it.next();
+         if (entry.getKey().owner != owner || entry.getKey().version != version) continue;
+         nBytes -= bytes(entry.getValue());
+         it.remove();
+      }
+      Iterator<Map.Entry<Key, Future<?>>> itPending = pending.entrySet().iterator();
+      while(itPending.hasNext()){
+         Map.Entry<Key, Future<?>> entry = itPending.next();
+         if (entry.getKey().owner != owner || entry.getKey().version != version) continue;
+         entry.getValue().cancel(false);
+         itPending.remove();
+      }
+   }
+
+   /** @return memory used by the cached tiles */
+   public synchronized long getNumBytes()
+   {
+      return nBytes;
+   }
+
+   protected static long bytes(BufferedImage img)
+   {
+      return 4L * img.getWidth() * img.getHeight();
+   }
+}
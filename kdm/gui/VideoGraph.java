@@ -31,8 +31,13 @@ public class VideoGraph extends LinearTimeGraph implements ActionListener, Chang
    public static final String sImgName = "Show Image Name";
    public static final int hControl = 40;
 
+   /** prefetch enough frames to cover this many seconds of scrolling at the current speed */
+   public static double PrefetchSec = 1.0;
+
    protected double aspectRatio = 4.0 / 3.0;
-   protected int nCache = 16;
+   /** number of frames to prefetch ahead of the view (more when scrolling quickly) */
+   protected int nPrefetch = 16;
+   protected long cacheBytes = Long.getLong("kdm.frameCacheMB", 256) << 20;
    protected String sPath = Library.ensurePathSep(".");
    protected String sOrigPath = null;
    protected String sFormatStr = null;
@@ -41,8 +46,12 @@ public class VideoGraph extends LinearTimeGraph implements ActionListener, Chang
    protected double vidPerData = 1.0;
    protected long offset = 0;
    protected TreeMap<Integer, Integer> syncs; // map from data to video frames
-   protected LinkedList<String> imgNameCache;
-   protected HashMap<String, BufferedImage> imgCache;
+   protected FrameCache frameCache;
+
+   /** first frame drawn by the last paint, when it was painted, and the smoothed scroll speed (frames/sec) */
+   protected int iPrevFirst = -1;
+   protected long msPrevPaint;
+   protected double scrollSpeed = 0;
    protected final JPopupMenu menu = new JPopupMenu();
    protected boolean bShowControlStrip = false;
    protected boolean bShowFrameNum = false;
@@ -101,7 +110,10 @@ public class VideoGraph extends LinearTimeGraph implements ActionListener, Chang
    public boolean config(ConfigHelper chelp, String sKey, String sVal)
    {
       if (Library.stricmp(sKey, "cache")){
-         nCache = Integer.parseInt(sVal);
+         nPrefetch = Integer.parseInt(sVal);
+      }
+      else if (Library.stricmp(sKey, "cache-mb")){
+         cacheBytes = Long.parseLong(sVal) << 20;
       }
       else if (Library.stricmp(sKey, "date-extracter")){
          try{
@@ -144,12 +156,39 @@ public class VideoGraph extends LinearTimeGraph implements ActionListener, Chang
       return true;
    }
 
+   /** @return new frame cache that repaints this graph as frames arrive */
+   protected FrameCache createFrameCache()
+   {
+      return new FrameCache(cacheBytes, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)),
+            new Runnable() {
+               public void run()
+               {
+                  repaint();
+               }
+            });
+   }
+
+   @Override
+   public void addNotify()
+   {
+      super.addNotify();
+      if (frameCache != null && frameCache.isDisposed()) frameCache = createFrameCache();
+   }
+
+   @Override
+   public void removeNotify()
+   {
+      // stop the loading threads (they hold on to this graph) and release the frames
+      if (frameCache != null) frameCache.dispose();
+      super.removeNotify();
+   }
+
    @Override
    public boolean finalSetup()
    {
-      // create the caches
-      imgNameCache = new LinkedList<String>();
-      imgCache = new HashMap<String, BufferedImage>(nCache);
+      // create the cache
+      if (frameCache != null) frameCache.dispose();
+      frameCache = createFrameCache();
 
       if (sFormatStr == null){
          ArrayList<File> afiles = new ArrayList<File>();
@@ -311,50 +350,89 @@ public class VideoGraph extends LinearTimeGraph implements ActionListener, Chang
       return SyncPoint.getSyncData(iData, syncs, vidPerData);
    }
 
+   /** @return file that holds the given video frame, or null if there is no such frame */
+   protected File getFrameFile(int iFrame)
+   {
+      if (iFrame < 0) return null;
+      if (fFrames != null){
+         if (iFrame >= fFrames.length) return null;
+         return fFrames[iFrame];
+      }
+      return new File(Library.qualifyPath(sPath, String.format(sFormatStr, iFrame)));
+   }
+
    /**
-    * Returns the image corresponding to the given video frame index.
+    * Returns the image corresponding to the given video frame index (loads the image if necessary).
     */
    protected BufferedImage getFrame(int iFrame)
    {
-      if (iFrame < 0) return null;
+      return getFrame(iFrame, true);
+   }
 
-      // construct the image name
-      File file;
-      if (fFrames != null){
-         if (iFrame < 0 || iFrame >= fFrames.length) return null;
-         file = fFrames[iFrame];
-      }
-      else file = new File(Library.qualifyPath(sPath, String.format(sFormatStr, iFrame)));
-
-      // check to see if we've already cached this image
-      BufferedImage img = imgCache.get(file.getAbsolutePath());
-      // System.err.printf("(%s) size: %d in cache? %b free mem: %.2f\n", file.getName(), imgCache.size(),
-      // img!=null, Runtime.getRuntime().freeMemory()/(1024.0*1024));
-      if (img != null) return img;
-
-      // not cached, so load it
-      img = Library.readImage(file.getAbsolutePath());
-      if (img == null){
-         // System.err.println("Failed");
-         System.err.println("Error loading file: ");
-         System.err.println(" [" + file.getAbsolutePath() + "]");
-         return null;
-      }
-
-      // remove oldest element from cache if necessary
-      if (imgNameCache.size() >= nCache){
-         String sRemove = imgNameCache.removeFirst();
-         imgCache.remove(sRemove);
-      }
-
-      // add new image to cache
-      imgNameCache.addLast(file.getAbsolutePath());
-      BufferedImage imgCompat = Library.getGC().createCompatibleImage(img.getWidth(), img.getHeight());
-      Graphics2D g = imgCompat.createGraphics();
-      g.drawImage(img, 0, 0, null);
-      g.dispose();
-      imgCache.put(file.getAbsolutePath(), imgCompat);
-      return imgCompat;
+   /**
+    * Returns the image corresponding to the given video frame index.
+    * 
+    * @param bWait if true, load the image if it isn't cached; otherwise return null for frames that haven't
+    *           been loaded yet
+    */
+   protected BufferedImage getFrame(int iFrame, boolean bWait)
+   {
+      File file = getFrameFile(iFrame);
+      if (file == null) return null;
+      if (bWait) return frameCache.load(file);
+      return frameCache.get(file);
+   }
+
+   /**
+    * Ask the frame cache to load the visible frames that aren't loaded yet, followed by the frames that will
+    * probably be visible next given the scroll direction and speed.
+    * 
+    * @param vis indices of the visible frames (in order)
+    * @param iMouseFrame index of the frame shown under the mouse (-1 for none)
+    */
+   protected void prefetch(MyIntList vis, int iMouseFrame)
+   {
+      int n = vis.size();
+      if (n == 0) return;
+      int iFirst = vis.get(0);
+      int iLast = vis.get(n - 1);
+      int stride = (n > 1 ? Math.max(1, (iLast - iFirst) / (n - 1)) : 1);
+
+      // update the scroll speed estimate
+      long ms = System.currentTimeMillis();
+      if (iPrevFirst >= 0 && ms > msPrevPaint){
+         double v = (iFirst - iPrevFirst) * 1000.0 / (ms - msPrevPaint);
+         if (ms - msPrevPaint > 500) scrollSpeed = v;
+         else scrollSpeed = 0.5 * scrollSpeed + 0.5 * v;
+      }
+      iPrevFirst = iFirst;
+      msPrevPaint = ms;
+
+      // frames beyond the view are spaced like the visible ones
+      int nAhead = nPrefetch + (int)Math.min(4 * nPrefetch, Math.abs(scrollSpeed) * PrefetchSec / stride);
+      int nBehind = Math.max(1, nPrefetch / 4);
+      int dir = (scrollSpeed < 0 ? -1 : 1);
+
+      ArrayList<File> files = new ArrayList<File>();
+      File fMouse = getFrameFile(iMouseFrame);
+      if (fMouse != null) files.add(fMouse);
+      for(int i = 0; i < n; i++){
+         File file = getFrameFile(vis.get(i));
+         if (file != null) files.add(file);
+      }
+      int iAhead = (dir > 0 ? iLast : iFirst);
+      int iBehind = (dir > 0 ? iFirst : iLast);
+      for(int i = 1; i <= Math.max(nAhead, nBehind); i++){
+         if (i <= nAhead){
+            File file = getFrameFile(iAhead + dir * i * stride);
+            if (file != null) files.add(file);
+         }
+         if (i <= nBehind){
+            File file = getFrameFile(iBehind - dir * i * stride);
+            if (file != null) files.add(file);
+         }
+      }
+      frameCache.request(files);
    }
 
    public int getFrameWidth()
@@ -393,6 +471,11 @@ public class VideoGraph extends LinearTimeGraph implements ActionListener, Chang
       int xmin = -imgw + 1;
       double timeStep = calcTimeStep();
 
+      // frames are loaded in the background unless we're printing or saving the component
+      boolean bWait = (g.getDeviceConfiguration().getDevice().getType() != GraphicsDevice.TYPE_RASTER_SCREEN);
+      MyIntList vis = new MyIntList();
+      int iMouseFrame = -1;
+
       while(true){
          int iNext = getNextFullFrame(iFrame, xmin, w2);
          if (iNext < 0 || iNext >= nFrames) break;
@@ -405,7 +488,8 @@ public class VideoGraph extends LinearTimeGraph implements ActionListener, Chang
 
          if (xNext >= cw) break;
          xmin = xNext + imgw;
-         drawFrame(g, iNext, xNext, imgw);
+         drawFrame(g, iNext, xNext, imgw, bWait);
+         vis.add(iNext);
 
          // go to the next frame
          iFrame = iNext + 1;
@@ -419,7 +503,8 @@ public class VideoGraph extends LinearTimeGraph implements ActionListener, Chang
 
          if (mouseTime.x >= xLeft && mouseTime.x < xLeft + imgw){
             if (bShowStaticMouseFrame) xLeft = cw / 2 - w2;
-            drawFrame(g, index, xLeft, imgw);
+            drawFrame(g, index, xLeft, imgw, bWait);
+            iMouseFrame = index;
             g.setColor(Color.black);
             g.drawLine(xLeft, 0, xLeft, ch);
             g.drawLine(xLeft + imgw, 0, xLeft + imgw, ch);
@@ -428,11 +513,29 @@ public class VideoGraph extends LinearTimeGraph implements ActionListener, Chang
             g.drawLine(xLeft + imgw + 1, 0, xLeft + imgw + 1, ch);
          }
       }
+
+      if (!bWait) prefetch(vis, iMouseFrame);
    }
 
    protected void drawFrame(Graphics2D g, int iFrame, int x, int imgw)
    {
-      BufferedImage img = getFrame(iFrame);
+      drawFrame(g, iFrame, x, imgw, true);
+   }
+
+   /**
+    * Draw the given frame; if bWait is false and the frame isn't loaded, an empty box is drawn instead
+    */
+   protected void drawFrame(Graphics2D g, int iFrame, int x, int imgw, boolean bWait)
+   {
+      BufferedImage img = getFrame(iFrame, bWait);
+      if (img == null && !bWait){
+         int imgh = (int)Math.round(imgw / aspectRatio);
+         int y = (getHeight() - imgh) / 2;
+         g.setColor(Color.darkGray);
+         g.fillRect(x, y, imgw, imgh);
+         g.setColor(Color.gray);
+         g.drawRect(x, y, imgw - 1, imgh - 1);
+      }
       if (img != null){
          final FontMetrics fm = g.getFontMetrics();
          int imgh = img.getHeight() * imgw / img.getWidth();
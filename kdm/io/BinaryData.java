@@ -4,6 +4,7 @@ import java.io.*;
 import java.nio.*;
 import java.nio.channels.*;
 import java.util.*;
+import java.util.zip.*;
 import kdm.data.*;
 import kdm.io.DataLoader.*;
 import kdm.io.DataSaver.*;
@@ -11,10 +12,367 @@ import kdm.io.Def.*;
 import kdm.util.*;
 
 /**
- * Utility class to save and load binary data
+ * Utility class to save and load binary data.
+ * 
+ * Two formats are supported. Version 1 is a simple stream of sequences. Version 2 starts with a header and ends
+ * with a directory that holds the metadata and (64-bit) file offset of each sequence, so that a single sequence
+ * can be read without scanning the file. Sequences in a v2 file are stored as float64, float32 (lossy), or
+ * delta (XOR of consecutive values in each dimension stored as varints; lossless) and can have a CRC32
+ * checksum. Loading a v2 file only reads the directory; each sequence is backed by a lazy list that maps its
+ * frames on demand. Blocks are verified against their checksum whenever they're read in full.
  */
 public class BinaryData
 {
+   /** how sequence values are stored in a v2 file */
+   public static enum Encoding {
+      float64, float32, delta
+   }
+
+   /** magic number at the start of a v2 file ("KDB2") */
+   public static final int Magic2 = 0x4B444232;
+   public static final int Version2 = 2;
+   protected static final int HeaderSize = 24;
+   protected static final int FlagDates = 1, FlagChecksum = 2;
+
+   /** description of one sequence in a v2 file */
+   public static class Entry
+   {
+      public File file;
+      public String name, origFile;
+      public int nFrames, nDims;
+      public Encoding encoding;
+      public boolean bDates, bChecksum;
+      public double freq;
+      public long msStart;
+      public int parentIndex, parentOffset;
+
+      /** location and checksum of the data block */
+      public long offset, nBytes, crc;
+
+      /** @return number of bytes per frame record (float encodings only) */
+      protected int getRecordSize()
+      {
+         return (bDates ? 8 : 0) + nDims * (encoding == Encoding.float32 ? 4 : 8);
+      }
+
+      /** @return a sequence backed by a lazy list that reads frames from the file on demand */
+      public Sequence getSequence()
+      {
+         Sequence seq = new Sequence(name, freq, msStart, new MappedFrames(this));
+         seq.setOrigFile(Library.getCanonical(file.getAbsolutePath()));
+         if (parentIndex >= 0) seq.setParent(parentIndex, parentOffset);
+         return seq;
+      }
+
+      /** @return true if the data block matches its checksum (or has no checksum) */
+      public boolean verify()
+      {
+         if (!bChecksum) return true;
+         try{
+            decodeAll(this, new FeatureVec[nFrames]);
+            return true;
+         } catch (IOException e){
+            return false;
+         }
+      }
+
+      public String toString()
+      {
+         return String.format("%s  %dD, %d frames  (%s%s%s)", name, nDims, nFrames, encoding, bDates ? ", dates"
+               : "", bChecksum ? ", crc" : "");
+      }
+   }
+
+   /** lazy list of frames backed by (segments of) a memory mapped data block */
+   protected static class MappedFrames extends LazyFrameList
+   {
+      private static final long serialVersionUID = 1L;
+
+      protected Entry entry;
+      protected int recSize, framesPerSeg;
+      protected ByteBuffer[] segs;
+
+      public MappedFrames(Entry entry)
+      {
+         super(entry.nFrames);
+         this.entry = entry;
+         if (entry.encoding != Encoding.delta){
+            recSize = entry.getRecordSize();
+            framesPerSeg = Math.max(1, (1 << 30) / Math.max(1, recSize));
+            segs = new ByteBuffer[(int)((nFrames + (long)framesPerSeg - 1) / framesPerSeg)];
+         }
+      }
+
+      @Override
+      protected boolean isRandomAccess()
+      {
+         return entry.encoding != Encoding.delta;
+      }
+
+      protected synchronized ByteBuffer getSegment(int iSeg)
+      {
+         if (segs[iSeg] == null){
+            try{
+               FileChannel fc = new FileInputStream(entry.file).getChannel();
+               try{
+                  long a = (long)iSeg * framesPerSeg;
+                  long n = Math.min(framesPerSeg, nFrames - a);
+                  segs[iSeg] = fc.map(FileChannel.MapMode.READ_ONLY, entry.offset + a * recSize, n * recSize);
+               } finally{
+                  fc.close();
+               }
+            } catch (IOException e){
+               throw new RuntimeException(String.format("failed to map binary data (%s)", entry.file), e);
+            }
+         }
+         return segs[iSeg];
+      }
+
+      @Override
+      protected FeatureVec loadFrame(int i)
+      {
+         ByteBuffer bb = getSegment(i / framesPerSeg);
+         int p = (i % framesPerSeg) * recSize;
+         int D = entry.nDims;
+         FeatureVec fv = new FeatureVec(D);
+         double[] x = fv.get();
+         if (entry.bDates){
+            fv.setTime(bb.getLong(p));
+            p += 8;
+         }
+         if (entry.encoding == Encoding.float32){
+            for(int d = 0; d < D; d++, p += 4)
+               x[d] = bb.getFloat(p);
+         }
+         else{
+            for(int d = 0; d < D; d++, p += 8)
+               x[d] = bb.getDouble(p);
+         }
+         return fv;
+      }
+
+      @Override
+      protected void loadAll(FeatureVec[] frames)
+      {
+         try{
+            decodeAll(entry, frames);
+         } catch (IOException e){
+            throw new RuntimeException(e.getMessage(), e);
+         }
+      }
+
+      @Override
+      protected void release()
+      {
+         segs = null;
+      }
+   }
+
+   /**
+    * Read an entire data block sequentially, verify its checksum, and decode frames that aren't already loaded
+    * 
+    * @throws IOException if the file can't be read or the checksum doesn't match
+    */
+   protected static void decodeAll(Entry e, FeatureVec[] frames) throws IOException
+   {
+      FileInputStream fis = new FileInputStream(e.file);
+      try{
+         fis.getChannel().position(e.offset);
+         CRC32 crc = new CRC32();
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new CheckedInputStream(
+               new BoundedInputStream(fis, e.nBytes), crc), 1 << 16));
+         int T = e.nFrames, D = e.nDims;
+         long[] prev = new long[D];
+         long msPrev = 0;
+         for(int t = 0; t < T; t++){
+            FeatureVec fv = frames[t];
+            if (fv == null) frames[t] = fv = new FeatureVec(D);
+            double[] x = fv.get();
+            if (e.encoding == Encoding.delta){
+               if (e.bDates){
+                  msPrev += unzigzag(readVarLong(in));
+                  fv.setTime(msPrev);
+               }
+               for(int d = 0; d < D; d++){
+                  prev[d] ^= readVarLong(in);
+                  x[d] = Double.longBitsToDouble(prev[d]);
+               }
+            }
+            else{
+               if (e.bDates) fv.setTime(in.readLong());
+               if (e.encoding == Encoding.float32) for(int d = 0; d < D; d++)
+                  x[d] = in.readFloat();
+               else for(int d = 0; d < D; d++)
+                  x[d] = in.readDouble();
+            }
+         }
+         if (e.bChecksum && crc.getValue() != e.crc)
+            throw new IOException(String.format("checksum mismatch in binary data: \"%s\" (%s)", e.name, e.file));
+      } finally{
+         fis.close();
+      }
+   }
+
+   /** input stream that ends after a fixed number of bytes (so buffering doesn't read past a block) */
+   protected static class BoundedInputStream extends FilterInputStream
+   {
+      protected long nLeft;
+
+      public BoundedInputStream(InputStream in, long nBytes)
+      {
+         super(in);
+         nLeft = nBytes;
+      }
+
+      public int read() throws IOException
+      {
+         if (nLeft <= 0) return -1;
+         int b = in.read();
+         if (b >= 0) nLeft--;
+         return b;
+      }
+
+      public int read(byte[] b, int off, int len) throws IOException
+      {
+         if (nLeft <= 0) return -1;
+         int n = in.read(b, off, (int)Math.min(len, nLeft));
+         if (n > 0) nLeft -= n;
+         return n;
+      }
+
+      public long skip(long n) throws IOException
+      {
+         long k = in.skip(Math.min(n, nLeft));
+         nLeft -= k;
+         return k;
+      }
+
+      public int available() throws IOException
+      {
+         return (int)Math.min(in.available(), nLeft);
+      }
+   }
+
+   protected static long readVarLong(DataInputStream in) throws IOException
+   {
+      long x = 0;
+      for(int shift = 0;; shift += 7){
+         int b = in.readUnsignedByte();
+         x |= (long)(b & 0x7F) << shift;
+         if ((b & 0x80) == 0) return x;
+      }
+   }
+
+   protected static long zigzag(long x)
+   {
+      return (x << 1) ^ (x >> 63);
+   }
+
+   protected static long unzigzag(long x)
+   {
+      return (x >>> 1) ^ -(x & 1);
+   }
+
+   /** buffered writer for a file channel that tracks the 64-bit position and an optional block checksum */
+   protected static class BlockWriter
+   {
+      protected FileChannel fc;
+      protected ByteBuffer bb;
+      protected CRC32 crc;
+      protected long pos;
+
+      public BlockWriter(FileChannel fc, long pos)
+      {
+         this.fc = fc;
+         this.pos = pos;
+         bb = ByteBuffer.allocate(1 << 20);
+      }
+
+      public long position()
+      {
+         return pos + bb.position();
+      }
+
+      public void flush() throws IOException
+      {
+         bb.flip();
+         if (crc != null) crc.update(bb.array(), 0, bb.limit());
+         while(bb.hasRemaining())
+            pos += fc.write(bb, pos);
+         bb.clear();
+      }
+
+      protected void ensure(int n) throws IOException
+      {
+         if (bb.remaining() < n) flush();
+      }
+
+      public void beginBlock(boolean bChecksum) throws IOException
+      {
+         flush();
+         crc = (bChecksum ? new CRC32() : null);
+      }
+
+      /** @return checksum of the block (0 if none) */
+      public long endBlock() throws IOException
+      {
+         flush();
+         long x = (crc == null ? 0 : crc.getValue());
+         crc = null;
+         return x;
+      }
+
+      public void putInt(int x) throws IOException
+      {
+         ensure(4);
+         bb.putInt(x);
+      }
+
+      public void putLong(long x) throws IOException
+      {
+         ensure(8);
+         bb.putLong(x);
+      }
+
+      public void putFloat(float x) throws IOException
+      {
+         ensure(4);
+         bb.putFloat(x);
+      }
+
+      public void putDouble(double x) throws IOException
+      {
+         ensure(8);
+         bb.putDouble(x);
+      }
+
+      public void putVarLong(long x) throws IOException
+      {
+         ensure(10);
+         while((x & ~0x7FL) != 0){
+            bb.put((byte)((x & 0x7F) | 0x80));
+            x >>>= 7;
+         }
+         bb.put((byte)x);
+      }
+
+      public void putString(String s) throws IOException
+      {
+         if (s == null){
+            putInt(-1);
+            return;
+         }
+         byte[] b = s.getBytes("UTF-8");
+         putInt(b.length);
+         for(int i = 0; i < b.length;){
+            ensure(1);
+            int n = Math.min(bb.remaining(), b.length - i);
+            bb.put(b, i, n);
+            i += n;
+         }
+      }
+   }
+
    /**
     * Save the data by writing it to file (metadata is lost)
     * 
@@ -28,19 +386,132 @@ public class BinaryData
       list.add(tseries);
       return save(file, list);
    }
-   
+
    /**
-    * Save the data by writing it to file (metadata is lost)
+    * Save the data in the v2 format (float64 with checksums)
     * 
     * @param file file to write
     * @param tseries data to save
     * @return true if successful
     */
-   public static boolean save(File file, ArrayList<Sequence> tseries)
+   public static boolean save(File file, List<Sequence> tseries)
+   {
+      return save(file, tseries, Encoding.float64, true);
+   }
+
+   /**
+    * Save the data in the v2 format
+    * 
+    * @param file file to write
+    * @param tseries data to save
+    * @param encoding how to store the values
+    * @param bChecksum compute a checksum for each sequence?
+    * @return true if successful
+    */
+   public static boolean save(File file, List<Sequence> tseries, Encoding encoding, boolean bChecksum)
+   {
+      try{
+         RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         FileChannel fc = raf.getChannel();
+         try{
+            raf.setLength(0);
+            BlockWriter out = new BlockWriter(fc, HeaderSize);
+            int nSeqs = tseries.size();
+            long[] offsets = new long[nSeqs];
+            long[] crcs = new long[nSeqs];
+            long[] sizes = new long[nSeqs];
+            boolean[] bDates = new boolean[nSeqs];
+
+            // data blocks
+            for(int iSeq = 0; iSeq < nSeqs; iSeq++){
+               Sequence seq = tseries.get(iSeq);
+               int T = seq.length();
+               int D = seq.getNumDims();
+               MyLongList dates = seq.getDates(false);
+               bDates[iSeq] = (dates != null);
+               out.beginBlock(bChecksum);
+               offsets[iSeq] = out.position();
+               long[] prev = new long[D];
+               long msPrev = 0;
+               for(int t = 0; t < T; t++){
+                  double[] x = seq.get(t).get();
+                  if (encoding == Encoding.delta){
+                     if (dates != null){
+                        long ms = dates.get(t);
+                        out.putVarLong(zigzag(ms - msPrev));
+                        msPrev = ms;
+                     }
+                     for(int d = 0; d < D; d++){
+                        long bits = Double.doubleToRawLongBits(x[d]);
+                        out.putVarLong(bits ^ prev[d]);
+                        prev[d] = bits;
+                     }
+                  }
+                  else{
+                     if (dates != null) out.putLong(dates.get(t));
+                     if (encoding == Encoding.float32) for(int d = 0; d < D; d++)
+                        out.putFloat((float)x[d]);
+                     else for(int d = 0; d < D; d++)
+                        out.putDouble(x[d]);
+                  }
+               }
+               crcs[iSeq] = out.endBlock();
+               sizes[iSeq] = out.position() - offsets[iSeq];
+            }
+
+            // directory
+            long dirOffset = out.position();
+            for(int iSeq = 0; iSeq < nSeqs; iSeq++){
+               Sequence seq = tseries.get(iSeq);
+               out.putLong(offsets[iSeq]);
+               out.putLong(sizes[iSeq]);
+               out.putInt(seq.length());
+               out.putInt(seq.getNumDims());
+               out.putInt(encoding.ordinal());
+               out.putInt((bDates[iSeq] ? FlagDates : 0) | (bChecksum ? FlagChecksum : 0));
+               out.putDouble(seq.getFreq());
+               out.putLong(seq.getStartMS() == Library.AppStartTime ? 0 : seq.getStartMS());
+               out.putInt(seq.getParentIndex());
+               out.putInt(seq.getParentOffset());
+               out.putLong(crcs[iSeq]);
+               out.putString(seq.getName());
+               out.putString(seq.getOrigFile());
+            }
+            out.flush();
+
+            // header (written last so that a partial file is never mistaken for a complete one)
+            ByteBuffer bb = ByteBuffer.allocate(HeaderSize);
+            bb.putInt(Magic2);
+            bb.putInt(Version2);
+            bb.putInt(nSeqs);
+            bb.putInt(0);
+            bb.putLong(dirOffset);
+            bb.flip();
+            long p = 0;
+            while(bb.hasRemaining())
+               p += fc.write(bb, p);
+         } finally{
+            fc.close();
+         }
+      } catch (Exception e){
+         e.printStackTrace();
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Save the data in the (old) v1 format (metadata is lost)
+    * 
+    * @param file file to write
+    * @param tseries data to save
+    * @return true if successful
+    */
+   public static boolean saveV1(File file, List<Sequence> tseries)
    {
       try
       {
-         DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
          out.writeInt(tseries.size());
          for(Sequence seq : tseries)
          {
@@ -74,6 +545,87 @@ public class BinaryData
       return true;
    }
 
+   /** @return true if the given file is in the v2 format */
+   public static boolean isV2(File file)
+   {
+      try{
+         DataInputStream in = new DataInputStream(new FileInputStream(file));
+         try{
+            return file.length() >= HeaderSize && in.readInt() == Magic2;
+         } finally{
+            in.close();
+         }
+      } catch (IOException e){
+         return false;
+      }
+   }
+
+   /**
+    * Read the directory of a v2 file
+    * 
+    * @param file v2 binary file
+    * @return description of each sequence in the file, null on error (or if the file isn't v2)
+    */
+   public static Entry[] readDirectory(File file)
+   {
+      try{
+         FileChannel fc = new FileInputStream(file).getChannel();
+         try{
+            long size = fc.size();
+            if (size < HeaderSize) return null;
+            ByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, HeaderSize);
+            if (bb.getInt() != Magic2) return null;
+            int ver = bb.getInt();
+            if (ver != Version2){
+               System.err.printf("Warning: unsupported binary data version (%d)\n (%s)\n", ver, file.getAbsolutePath());
+               return null;
+            }
+            int nSeqs = bb.getInt();
+            bb.getInt(); // reserved
+            long dirOffset = bb.getLong();
+            if (dirOffset < HeaderSize || dirOffset > size) return null;
+
+            bb = fc.map(FileChannel.MapMode.READ_ONLY, dirOffset, size - dirOffset);
+            Entry[] entries = new Entry[nSeqs];
+            for(int i = 0; i < nSeqs; i++){
+               Entry e = new Entry();
+               e.file = file;
+               e.offset = bb.getLong();
+               e.nBytes = bb.getLong();
+               e.nFrames = bb.getInt();
+               e.nDims = bb.getInt();
+               e.encoding = Encoding.values()[bb.getInt()];
+               int flags = bb.getInt();
+               e.bDates = (flags & FlagDates) != 0;
+               e.bChecksum = (flags & FlagChecksum) != 0;
+               e.freq = bb.getDouble();
+               e.msStart = bb.getLong();
+               if (e.msStart == 0) e.msStart = Library.AppStartTime;
+               e.parentIndex = bb.getInt();
+               e.parentOffset = bb.getInt();
+               e.crc = bb.getLong();
+               e.name = getString(bb);
+               e.origFile = getString(bb);
+               entries[i] = e;
+            }
+            return entries;
+         } finally{
+            fc.close();
+         }
+      } catch (Exception e){
+         return null;
+      }
+   }
+
+   protected static String getString(ByteBuffer bb) throws UnsupportedEncodingException
+   {
+      int n = bb.getInt();
+      if (n < 0) return null;
+      byte[] b = new byte[n];
+      bb.get(b);
+      return new String(b, "UTF-8");
+   }
+
    /**
     * Load the sequences from the given file
     * 
@@ -90,61 +642,99 @@ public class BinaryData
    }
    
    /**
-    * Load the sequences from the given file
+    * Load the sequences from the given file (v1 or v2 format). Sequences from a v2 file are loaded lazily.
     * 
     * @param file source of data
     * @return array of sequences from file
     */
    public static Sequence[] load(File file)
+   {
+      if (isV2(file)){
+         Entry[] entries = readDirectory(file);
+         if (entries == null){
+            System.err.printf("Warning: Failed to load binary data\n (%s)\n", file.getAbsolutePath());
+            return null;
+         }
+         Sequence[] tseries = new Sequence[entries.length];
+         for(int i = 0; i < entries.length; i++)
+            tseries[i] = entries[i].getSequence();
+         return tseries;
+      }
+      return loadV1(file);
+   }
+
+   /**
+    * Load a single sequence from the given file
+    * 
+    * @param file source of data
+    * @param iSeq index of the sequence to load
+    * @return the requested sequence, null on error
+    */
+   public static Sequence load(File file, int iSeq)
+   {
+      if (isV2(file)){
+         Entry[] entries = readDirectory(file);
+         if (entries == null || iSeq < 0 || iSeq >= entries.length) return null;
+         return entries[iSeq].getSequence();
+      }
+      Sequence[] tseries = loadV1(file);
+      if (tseries == null || iSeq < 0 || iSeq >= tseries.length) return null;
+      return tseries[iSeq];
+   }
+
+   /**
+    * Load the sequences from a v1 file
+    * 
+    * @param file source of data
+    * @return array of sequences from file
+    */
+   protected static Sequence[] loadV1(File file)
    {
       Sequence[] tseries = null;
       try
       {
-         FileChannel fc = new FileInputStream(file).getChannel();
-
-         // Get the file's size and then map it into memory
-         int sz = (int)fc.size();
-         MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, sz);
-
-         int nSeqs = bb.getInt();
-         tseries = new Sequence[nSeqs];
-         for(int iSeq = 0; iSeq < nSeqs; iSeq++)
-         {
-            int T = bb.getInt();
-            int D = bb.getInt();
-            int nDates = bb.getInt();
-            double freq = bb.getDouble();
-            long msStart = bb.getLong();            
-            if (msStart == 0) msStart = Library.AppStartTime;
-            int lenName = bb.getInt();
-            StringBuffer sb = new StringBuffer();
-            for(int i=0; i<lenName; i++) sb.append(bb.getChar());
-            String sName = lenName>0 ? sb.toString() : null;
-            int lenOrig = bb.getInt();
-            sb = new StringBuffer();
-            for(int i=0; i<lenOrig; i++) sb.append(bb.getChar());
-            String sOrig = lenOrig>0 ? sb.toString() : null;
-            int parIndex = bb.getInt();
-            int parOffset = bb.getInt();
-            
-            Sequence seq = new Sequence(sName, freq, msStart);
-            //if (sOrig!=null) seq.setOrigFile(sOrig); // TODO param to choose embedded orig file?
-            seq.setOrigFile(Library.getCanonical(file.getAbsolutePath()));
-            for(int t = 0; t < T; t++)
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+         try{
+            int nSeqs = in.readInt();
+            tseries = new Sequence[nSeqs];
+            for(int iSeq = 0; iSeq < nSeqs; iSeq++)
             {
-               FeatureVec fv = new FeatureVec(D);
-               for(int d = 0; d < D; d++)
-                  fv.set(d, bb.getDouble());
-               seq.add(fv);               
+               int T = in.readInt();
+               int D = in.readInt();
+               int nDates = in.readInt();
+               double freq = in.readDouble();
+               long msStart = in.readLong();
+               if (msStart == 0) msStart = Library.AppStartTime;
+               int lenName = in.readInt();
+               StringBuffer sb = new StringBuffer();
+               for(int i=0; i<lenName; i++) sb.append(in.readChar());
+               String sName = lenName>0 ? sb.toString() : null;
+               int lenOrig = in.readInt();
+               sb = new StringBuffer();
+               for(int i=0; i<lenOrig; i++) sb.append(in.readChar());
+               String sOrig = lenOrig>0 ? sb.toString() : null;
+               int parIndex = in.readInt();
+               int parOffset = in.readInt();
+               
+               Sequence seq = new Sequence(sName, freq, msStart);
+               //if (sOrig!=null) seq.setOrigFile(sOrig); // TODO param to choose embedded orig file?
+               seq.setOrigFile(Library.getCanonical(file.getAbsolutePath()));
+               for(int t = 0; t < T; t++)
+               {
+                  FeatureVec fv = new FeatureVec(D);
+                  double[] x = fv.get();
+                  for(int d = 0; d < D; d++)
+                     x[d] = in.readDouble();
+                  seq.add(fv);
+               }
+               
+               for(int i=0; i<nDates; i++) seq.setDate(i, in.readLong());
+               
+               tseries[iSeq] = seq;
             }
-            
-            for(int i=0; i<nDates; i++) seq.setDate(i, bb.getLong());
-            
-            tseries[iSeq] = seq;
+         } finally{
+            in.close();
          }
-
-         // Close the channel and the stream
-         fc.close();
       } catch (Exception e)
       {
          System.err.printf("Warning: Failed to load binary data\n (%s)\n", file.getAbsolutePath());
@@ -153,15 +743,16 @@ public class BinaryData
       return tseries;
    }
 
-   
    public static void main(String args[]) throws Exception
    {
-      if (args.length<1 || args.length>2)
+      if (args.length<1 || args.length>3)
       {
          System.err.println();
          System.err.println("USAGE:");
-         System.err.println(" ~.BinaryData <data def> <binary save file>   (create bin file)");
-         System.err.println(" ~.BinaryData <binary file>                   (dump info about bin file)");
+         System.err.println(" ~.BinaryData <data def> <binary save file> [encoding]   (create bin file)");
+         System.err.println(" ~.BinaryData <binary file>                              (dump info about bin file)");
+         System.err.println();
+         System.err.println(" encoding: float64 (default), float32, delta, or v1 (old format)");
          System.err.println();
          System.exit(1);
       }
@@ -173,10 +764,12 @@ public class BinaryData
             System.err.printf("Error: unable to load binary data\n (%s)\n", args[0]);
             System.exit(1);
          }
-         System.err.printf("%s: %d series\n", args[0], seqs.length);
+         Entry[] entries = readDirectory(new File(args[0]));
+         System.err.printf("%s: %d series (v%d)\n", args[0], seqs.length, entries==null ? 1 : Version2);
          for(int i=0; i<seqs.length; i++)
          {
-            System.err.printf(" %d) %s  %dD, %d frames\n", i+1, seqs[i].getName(), seqs[i].getNumDims(), seqs[i].length());
+            if (entries != null) System.err.printf(" %d) %s%s\n", i+1, entries[i], entries[i].verify() ? "" : "  ** CHECKSUM MISMATCH **");
+            else System.err.printf(" %d) %s  %dD, %d frames\n", i+1, seqs[i].getName(), seqs[i].getNumDims(), seqs[i].length());
             System.err.printf("     [%s] -> [%s]  (%s)\n", Library.formatTime(seqs[i].getStartMS()), Library.formatTime(seqs[i].getEndMS()), Library.formatDuration(seqs[i].getLengthMS()));
          }
       }
@@ -195,7 +788,9 @@ public class BinaryData
          // save the data
          System.err.print("Saving binary data... ");
          timer.reset();
-         save(new File(args[1]), tseries);
+         if (args.length < 3) save(new File(args[1]), tseries);
+         else if (args[2].equals("v1")) saveV1(new File(args[1]), tseries);
+         else save(new File(args[1]), tseries, Encoding.valueOf(args[2]), true);
          System.err.printf("done (%dms).\n", timer.time());
       }
    }
@@ -1,18 +1,22 @@
 package kdm.io.DataLoader;
 
 import kdm.data.*;
+import kdm.io.*;
 import kdm.util.*;
 import java.util.*;
 import java.io.*;
 
 /**
  * Loads data from a raw file with one time step per line. The data is assumed to be
- * sampled at 1Hz.
+ * sampled at 1Hz. In parallel mode, the file is memory mapped and parsed in chunks by
+ * several threads (see ParallelTextReader).
  */
 public class DLRaw extends DataLoader
 {
    protected String delims;
    protected double freq = 1.0;
+   protected boolean bParallel = false;
+   protected int nThreads = Runtime.getRuntime().availableProcessors();
 
    public DLRaw()
    {
@@ -34,12 +38,29 @@ public class DLRaw extends DataLoader
       {
          freq = Double.parseDouble(val);
       }
+      else if (Library.stricmp(key, "parallel"))
+      {
+         bParallel = ConfigHelper.isTrueString(val);
+      }
+      else if (Library.stricmp(key, "threads"))
+      {
+         nThreads = Integer.parseInt(val);
+         bParallel = true;
+      }
       else super.config(chelp, key, val);
       return true;
    }
 
+   /** enable or disable the parallel (memory mapped) loader */
+   public void setParallel(boolean bParallel)
+   {
+      this.bParallel = bParallel;
+   }
+
    public Sequence load(String path)
    {
+      if (bParallel) return loadParallel(path);
+
       LineNumberReader in = null;
       try
       {
@@ -97,4 +118,54 @@ public class DLRaw extends DataLoader
          return null;
       }
    }
+
+   /** load the file with a ParallelTextReader; same semantics as the sequential loader */
+   protected Sequence loadParallel(String path)
+   {
+      try
+      {
+         ParallelTextReader reader = new ParallelTextReader(delims);
+         reader.setNumThreads(nThreads);
+         ArrayList<ParallelTextReader.Chunk> chunks = reader.read(new File(path));
+         Sequence data = null;
+         double v[] = null;
+         int nBadLines = 0;
+         for(ParallelTextReader.Chunk chunk : chunks)
+         {
+            for(int i = 0; i < chunk.nRows; i++)
+            {
+               if (v == null) v = new double[chunk.nTokens[i]];
+               else if (chunk.nTokens[i] < v.length)
+               {
+                  nBadLines++;
+                  if (nBadLines > 1)
+                  {
+                     System.err.printf("Error: too many incomplete lines (%d)\n (%s)\n", nBadLines, path);
+                     return null;
+                  }
+                  else continue;
+               }
+               System.arraycopy(chunk.vals, chunk.rowStart[i], v, 0, v.length);
+
+               if (data == null)
+               {
+                  if (calStart != null) data = new Sequence(path+" (Raw)", freq, calStart.getTimeInMillis());
+                  else data = new Sequence(path+" (Raw)", freq);
+               }
+               data.add(new FeatureVec(v));
+            }
+         }
+         if (data == null)
+         {
+            System.err.println("Error: no data found\n (" + path + ")");
+            return null;
+         }
+         data.setOrigFile(path);
+         return data;
+      } catch (Exception e)
+      {
+         System.err.println("Error: unable to load data file\n (" + path + ")\n " + e);
+         return null;
+      }
+   }
 }
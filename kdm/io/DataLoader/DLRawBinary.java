@@ -5,16 +5,24 @@ import kdm.io.*;
 import kdm.data.*;
 import java.io.*;
 
-/** Loads a sequence from a raw binary file */
+/** Loads a sequence from a raw binary file (v1 or v2; see BinaryData) */
 public class DLRawBinary extends DataLoader
 {
+   /** index of the sequence to load from the file */
+   protected int iSeries = 0;
+
+   @Override
+   public boolean config(ConfigHelper chelp, String sKey, String sVal)
+   {
+      if (Library.stricmp(sKey, "series") || Library.stricmp(sKey, "index")) iSeries = Integer.parseInt(sVal);
+      else return super.config(chelp, sKey, sVal);
+      return true;
+   }
 
    @Override
    public Sequence load(String path)
    {
-      Sequence[] seqs = BinaryData.load(new File(path));
-      if (seqs==null || seqs.length==0) return null;
-      return seqs[0];
+      return BinaryData.load(new File(path), iSeries);
    }
    
    public static void main(String args[])
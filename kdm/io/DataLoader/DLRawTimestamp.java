@@ -1,6 +1,7 @@
 package kdm.io.DataLoader;
 
 import kdm.data.*;
+import kdm.io.*;
 import kdm.util.*;
 import java.util.*;
 import java.io.*;
@@ -9,7 +10,8 @@ import java.text.*;
 /**
  * Loads data from a raw file with one time step per line; each line has a timestamp in
  * either the first or last position, or the loader can auto-detect where it is (based on
- * failure to parse a double).
+ * failure to parse a double). In parallel mode, the file is memory mapped and parsed in
+ * chunks by several threads (see ParallelTextReader).
  */
 public class DLRawTimestamp extends DataLoader
 {
@@ -31,6 +33,9 @@ public class DLRawTimestamp extends DataLoader
    protected long offset = 0;
    protected TimeFormat timeFormat = TimeFormat.auto; 
    protected String sDateFormat = "yyyyMMdd-HHmmss";
+   protected boolean bParallel = false;
+   protected int nThreads = Runtime.getRuntime().availableProcessors();
+   protected volatile TimestampParser tsParser;
    
    public DLRawTimestamp()
    {}
@@ -54,6 +59,8 @@ public class DLRawTimestamp extends DataLoader
       System.err.println(" offset-ms      ms to add to each timestamp (def: 0ms)");
       System.err.println(" remove-dups    average data with same timestamp?  (def: false)");
       System.err.println(" force-uniform  force uniform sampling according to first time and global fps (def: false)");
+      System.err.println(" parallel       parse the file in parallel chunks (def: false)");
+      System.err.println(" threads        number of threads for parallel parsing (implies parallel; def: #cpus)");
       System.err.println();
    }
    
@@ -106,41 +113,25 @@ public class DLRawTimestamp extends DataLoader
       {
          bForceUniform = ConfigHelper.isTrueString(sVal);
       }
+      else if (Library.stricmp(sKey, "parallel"))
+      {
+         bParallel = ConfigHelper.isTrueString(sVal);
+      }
+      else if (Library.stricmp(sKey, "threads"))
+      {
+         nThreads = Integer.parseInt(sVal);
+         bParallel = true;
+      }
       else super.config(chelp, sKey, sVal);
       return true;
    }
 
-   /** @return ms since epoch of the given time stamp, -1 if error */
+   /** @return ms since epoch of the given time stamp, -1 if error (thread-safe) */
    public long parseTimestamp(String ts)
    {
-      if (ts==null) return -1;
-      
-      if (timeFormat == TimeFormat.ms || timeFormat == TimeFormat.auto)
-      {
-         // could be ms
-         try{
-            long x = Long.parseLong(ts);
-            return x + offset;
-         }
-         catch(NumberFormatException nfe){}
-      }
-      
-      if (timeFormat == TimeFormat.sec || timeFormat == TimeFormat.auto)
-      {
-         // could be seconds
-         try{
-            double x = Double.parseDouble(ts) * 1000.0;
-            return Math.round(x) + offset;
-         }
-         catch(NumberFormatException nfe){}
-      }
-      
-      // or could be a string representation
-      SimpleDateFormat sdf = Library.getSDF(sDateFormat);
-      ParsePosition ppos = new ParsePosition(0);
-      Date date = sdf.parse(ts, ppos);
-      if (date==null) return -1;
-      return date.getTime()+offset;
+      TimestampParser tp = tsParser;
+      if (tp == null) tsParser = tp = new TimestampParser(timeFormat, sDateFormat, offset);
+      return tp.parse(ts);
    }
    
    /**
@@ -210,8 +201,18 @@ public class DLRawTimestamp extends DataLoader
       if (bForceUniform) data.removeDates();
    }
 
+   /** enable or disable the parallel (memory mapped) loader */
+   public void setParallel(boolean bParallel)
+   {
+      this.bParallel = bParallel;
+   }
+
    public Sequence load(String path)
    {      
+      // detect the time stamp format anew for each file
+      tsParser = new TimestampParser(timeFormat, sDateFormat, offset);
+      if (bParallel) return loadParallel(path);
+
       String sTitle = Library.getTitle(path);
       LineNumberReader in = null;
       boolean bAutoFound = false;
@@ -329,6 +330,126 @@ public class DLRawTimestamp extends DataLoader
       }
    }
    
+   /**
+    * Find the column that holds the time stamp in the first non-empty line of the file: the first token that
+    * can't be parsed as a number (or the first token if they're all numeric).
+    * 
+    * @return index of time stamp column, -1 on error
+    */
+   protected int findTimeColumn(File file)
+   {
+      try{
+         BufferedReader in = new BufferedReader(new FileReader(file));
+         try{
+            String line;
+            while((line = in.readLine()) != null)
+            {
+               StringTokenizer st = new StringTokenizer(line, delims);
+               if (!st.hasMoreTokens()) continue;
+               for(int i = 0; st.hasMoreTokens(); i++)
+               {
+                  try{
+                     Double.parseDouble(st.nextToken());
+                  } catch (NumberFormatException e){
+                     return i;
+                  }
+               }
+               return 0;
+            }
+         } finally{
+            in.close();
+         }
+      } catch (IOException e){}
+      return -1;
+   }
+
+   /** load the file with a ParallelTextReader; same semantics as the sequential loader */
+   protected Sequence loadParallel(String path)
+   {
+      String sTitle = Library.getTitle(path);
+      try
+      {
+         File file = new File(path);
+         ParallelTextReader reader = new ParallelTextReader(delims);
+         reader.setNumThreads(nThreads);
+         int iTimeCol;
+         if (tpos == TPos.start) iTimeCol = 0;
+         else if (tpos == TPos.end) iTimeCol = -1;
+         else if ((iTimeCol = findTimeColumn(file)) < 0)
+         {
+            System.err.println("Error (DLRawTS): unable to find timestamp column\n (" + path + ")");
+            return null;
+         }
+         reader.setTimeColumn(iTimeCol, new ParallelTextReader.TimeParser() {
+            public long parseTime(String s)
+            {
+               return parseTimestamp(s);
+            }
+         });
+         ArrayList<ParallelTextReader.Chunk> chunks = reader.read(file);
+
+         Sequence data = null;
+         ArrayList<double[]> prevData = new ArrayList<double[]>();
+         int nd = -1;
+         long prevms = Library.LNAN, ms;
+         int nBadLines = 0;
+         for(ParallelTextReader.Chunk chunk : chunks)
+         {
+            for(int i = 0; i < chunk.nRows; i++)
+            {
+               int nTokens = chunk.nTokens[i];
+               if (nd < 0) nd = nTokens - 1;
+               if (nTokens < nd + 1)
+               {
+                  nBadLines++;
+                  if (nBadLines > 1)
+                  {
+                     System.err.printf("Error: too many incomplete lines (%d)\n (%s)\n", nBadLines, path);
+                     return null;
+                  }
+                  else continue;
+               }
+               ms = chunk.times[i];
+               if (ms < 0)
+               {
+                  System.err.printf("Error: invalid timestamp in chunk starting at byte %d (row %d)\n",
+                        chunk.offset, i + 1);
+                  return null;
+               }
+               double v[] = new double[nd];
+               System.arraycopy(chunk.vals, chunk.rowStart[i], v, 0, nd);
+
+               // do we have new data?
+               if (prevms != ms)
+               {
+                  if (!prevData.isEmpty()) data = addData(prevData, data, sTitle, prevms);
+                  prevData.clear();
+                  prevData.add(v);
+                  prevms = ms;
+               }
+               else prevData.add(v);
+            }
+         }
+
+         // make sure we write out the last bit of data
+         if (!prevData.isEmpty()) data = addData(prevData, data, sTitle, prevms);
+         if (data == null)
+         {
+            System.err.println("Error (DLRawTS): no data found\n (" + path + ")");
+            return null;
+         }
+
+         // calc average freq and interpolate if requested
+         calcAvgFreq(data);
+         return data;
+      } catch (Exception e)
+      {
+         e.printStackTrace();
+         System.err.println("Error (DLRawTS): unable to load data file\n (" + path + ")");
+         return null;
+      }
+   }
+
    public static void main(String args[])
    {
       usage();
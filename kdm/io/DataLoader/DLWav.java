@@ -3,151 +3,156 @@ package kdm.io.DataLoader;
 import java.io.*;
 
 import kdm.data.*;
+import kdm.io.*;
 import kdm.util.*;
 
-/** load a wav (audio) file */
+/**
+ * Load a wav (audio) file. The samples are decoded on demand from the memory mapped file, so long recordings can
+ * be loaded without decoding every sample up front. By default, each frame holds one sample (per channel);
+ * alternatively, frames can be computed over (possibly overlapping) windows of samples:
+ * <ul>
+ * <li>window, hop: length of the window and distance between windows (in samples)
+ * <li>feature=raw: each frame holds all of the samples in the window (channels are interleaved)
+ * <li>feature=energy: each frame holds the RMS energy of each channel over the window
+ * <li>lazy=false: decode all of the frames when the file is loaded
+ * </ul>
+ */
 public class DLWav extends DataLoader
-{  
-   @Override
-   public Sequence load(String path)
+{
+   public enum Feature {
+      raw, energy
+   }
+
+   protected int nWindow = 1, nHop = 1;
+   protected Feature feature = Feature.raw;
+   protected boolean bLazy = true;
+
+   /** frames decoded from a wav file on demand */
+   protected static class WavFrames extends LazyFrameList
    {
-      // TODO should use WavReader class
-      try{
-         DataInputStream in = new DataInputStream(new FileInputStream(path));         
-         Sequence seq = new Sequence(Library.getFileName(path));
-         
-         //System.err.printf("Loading WAV: %s\n", Library.getFileName(path));
-         
-         // read riff header
-         byte[] riff = new byte[4];
-         in.read(riff);
-         if (riff[0]!='R' || riff[1]!='I' || riff[2]!='F' || riff[3]!='F')
-         {
-            System.err.printf("Error: invalid RIFF header\n");
-            return null;
-         }
-         
-         int chunkSize = Library.flipBytes(in.readInt());
-         
-         byte[] wave = new byte[4];
-         in.read(wave);
-         if (wave[0]!='W' || wave[1]!='A' || wave[2]!='V' || wave[3]!='E')
-         {
-            System.err.printf("Error: invalid WAVE header\n");
-            return null;
-         }
-         
-         // read fmt chunk
-         byte[] fmt = new byte[4];
-         in.read(fmt);
-         if (fmt[0]!='f' || fmt[1]!='m' || fmt[2]!='t' || fmt[3]!=' ')
-         {
-            System.err.printf("Error: invalid fmt header\n");
-            return null;
-         }
-         
-         int szChunk1 = Library.flipBytes(in.readInt());
-         if (szChunk1 != 16)
-         {
-            System.err.printf("Error: Invalid chunk1 size for PCM: %d\n", szChunk1);
-            return null;
-         }
-         
-         short format = Library.flipBytes(in.readShort());
-         if (format != 1)
-         {
-            System.err.printf("Error: Invalid format for PCM: %d\n", format);
-            return null;
-         }
-         
-         short nChannels = Library.flipBytes(in.readShort());         
-         //System.err.printf(" nChannels: %d\n", nChannels);
-         
-         int sampleRate = Library.flipBytes(in.readInt());
-         seq.setFreq((double)sampleRate);
-         //System.err.printf(" sample rate: %d\n", sampleRate);
-         
-         int byteRate = Library.flipBytes(in.readInt());
-         //System.err.printf(" byte rate: %d\n", byteRate);
-         
-         short blockAlign = Library.flipBytes(in.readShort());         
-         //System.err.printf(" block align: %d\n", blockAlign);
-         
-         short bps = Library.flipBytes(in.readShort());
-         if (bps!=8 && bps!=16)
-         {
-            System.err.printf("Error: invalid bits per sample (only 8 & 16 are supported): %d\n", bps);
-            return null;
+      private static final long serialVersionUID = 1L;
+
+      protected WavStream wav;
+      protected int nWindow, nHop;
+      protected Feature feature;
+      protected long msFirst;
+
+      public WavFrames(WavStream wav, int nWindow, int nHop, Feature feature, long msFirst)
+      {
+         super((int)Math.min(wav.getNumWindows(nWindow, nHop), Integer.MAX_VALUE));
+         this.wav = wav;
+         this.nWindow = nWindow;
+         this.nHop = nHop;
+         this.feature = feature;
+         this.msFirst = msFirst;
+      }
+
+      @Override
+      protected FeatureVec loadFrame(int i)
+      {
+         int nc = wav.getNumChannels();
+         long iStart = (long)i * nHop;
+         FeatureVec fv;
+         if (feature == Feature.energy){
+            fv = new FeatureVec(nc);
+            wav.energy(iStart, nWindow, new double[nWindow * nc], fv.get());
          }
-         //System.err.printf(" bits per sample: %d\n", bps);
-                 
-         // read data chunk
-         byte[] dat = new byte[4];
-         in.read(dat);
-         if (dat[0]!='d' || dat[1]!='a' || dat[2]!='t' || dat[3]!='a')
-         {
-            System.err.printf("Error: invalid data header\n");
-            return null;
+         else{
+            fv = new FeatureVec(nWindow * nc);
+            wav.read(iStart, nWindow, fv.get());
          }
-         
-         int szChunk2 = Library.flipBytes(in.readInt());
-         int nSamples = szChunk2 / (bps*nChannels/8);
-         //System.err.printf(" data size (bytes): %d  (= %d samples)\n", szChunk2, nSamples);
-         
-         if (bps == 8)
-         {
-            byte[] data = new byte[szChunk2];
-            if (in.read(data) != szChunk2)
-            {
-               System.err.printf("Error: failed to read full wave data section\n");
-               return null;
-            }
-            
-            int ix = 0;
-            for(int i=0; i<nSamples; i++)
-            {
-               FeatureVec fv = new FeatureVec(nChannels);
-               for(int d=0; d<nChannels; d++)
-               {
-                  int x = data[ix++];
-                  if (x < 0) x += 256;
-                  fv.set(d, (double)x);
-               }
-               if (i==0) seq.add(fv, calStart.getTimeInMillis());
-               else seq.add(fv);
-            }
+         if (i == 0) fv.setTime(msFirst);
+         return fv;
+      }
+
+      @Override
+      protected void loadAll(FeatureVec[] frames)
+      {
+         int nc = wav.getNumChannels();
+         if (feature != Feature.raw || nWindow != 1){
+            super.loadAll(frames);
+            return;
          }
-         else{
-            byte[] data = new byte[szChunk2*2];
-            if (in.read(data) != szChunk2)
-            {
-               System.err.printf("Error: failed to read full wave data section\n");
-               return null;
-            }
-            
-            int ix = 0;
-            for(int i=0; i<nSamples; i++)
-            {
-               FeatureVec fv = new FeatureVec(nChannels);
-               for(int d=0; d<nChannels; d++)
-               {
-                  short x = (short)((short)data[ix] | (short)(data[ix+1] << 8));
-                  fv.set(d, (double)x);
-                  ix += 2;
-               }
-               if (i==0) seq.add(fv, calStart.getTimeInMillis());
-               else seq.add(fv);
+
+         // one sample per frame: decode blocks of samples at a time
+         double[] buf = new double[4096 * nc];
+         for(int i = 0; i < frames.length; i += 4096){
+            int n = wav.read(i, Math.min(4096, frames.length - i), buf);
+            for(int j = 0; j < n; j++){
+               if (frames[i + j] != null) continue;
+               FeatureVec fv = new FeatureVec(nc);
+               System.arraycopy(buf, j * nc, fv.get(), 0, nc);
+               frames[i + j] = fv;
             }
          }
-         
-         in.close();
-         return seq;
+         if (frames.length > 0) frames[0].setTime(msFirst);
       }
-      catch(IOException e)
+
+      @Override
+      protected void release()
       {
-         System.err.println("Error: unable to open data file\n ("+path+")");
+         wav.close();
+      }
+   }
+
+   @Override
+   public boolean config(ConfigHelper chelp, String sKey, String sVal)
+   {
+      if (Library.stricmp(sKey, "window")) nWindow = Integer.parseInt(sVal);
+      else if (Library.stricmp(sKey, "hop")) nHop = Integer.parseInt(sVal);
+      else if (Library.stricmp(sKey, "feature")) feature = Feature.valueOf(sVal.toLowerCase());
+      else if (Library.stricmp(sKey, "lazy")) bLazy = ConfigHelper.isTrueString(sVal);
+      else return super.config(chelp, sKey, sVal);
+      return true;
+   }
+
+   /** set the window length and hop size (in samples) */
+   public void setWindow(int nWindow, int nHop)
+   {
+      assert (nWindow > 0 && nHop > 0);
+      this.nWindow = nWindow;
+      this.nHop = nHop;
+   }
+
+   public void setFeature(Feature feature)
+   {
+      this.feature = feature;
+   }
+
+   public void setLazy(boolean bLazy)
+   {
+      this.bLazy = bLazy;
+   }
+
+   @Override
+   public Sequence load(String path)
+   {
+      WavStream wav = WavStream.open(new File(path));
+      if (wav == null){
+         System.err.println("Error: unable to open data file\n (" + path + ")");
          return null;
-      }      
+      }
+      if (wav.getNumWindows(nWindow, nHop) > Integer.MAX_VALUE){
+         System.err.printf("Warning: wav file has too many frames; truncating (%s)\n", path);
+      }
+
+      long msStart = calStart.getTimeInMillis();
+      WavFrames frames = new WavFrames(wav, nWindow, nHop, feature, msStart);
+      Sequence seq = new Sequence(Library.getFileName(path), (double)wav.getFreq() / nHop, msStart, frames);
+      seq.setOrigFile(path);
+      if (!bLazy) frames.materialize();
+      return seq;
    }
 
+   public static void main(String args[])
+   {
+      DLWav loader = new DLWav();
+      if (args.length > 2){
+         loader.setWindow(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+         if (args.length > 3) loader.setFeature(Feature.valueOf(args[3]));
+      }
+      TimerMS timer = new TimerMS();
+      Sequence seq = loader.load(args[0]);
+      System.err.printf("seq: %s (%dms)\n", seq, timer.time());
+   }
 }
@@ -0,0 +1,325 @@
+package kdm.io.DataLoader;
+
+import java.text.*;
+import java.util.*;
+
+import kdm.io.DataLoader.DLRawTimestamp.TimeFormat;
+import kdm.util.*;
+
+/**
+ * Converts time stamp strings to ms since the epoch. Instances are thread-safe so that a single parser can be
+ * shared by the workers of a parallel loader.
+ *
+ * In auto mode, the format (ms, seconds, or date string) is detected from the first time stamp and then used for
+ * the rest of the file; values that don't fit the detected format fall back on the full detection chain. Date
+ * patterns that consist of fixed-width numeric fields (yyyy, MM, dd, HH, mm, ss, S...) and literals are compiled
+ * into a fixed-layout parser. The epoch of the date/hour fields is cached so that consecutive time stamps only
+ * need to parse the fields that change. Other patterns (and strings that don't fit the layout) are handled by a
+ * per-thread SimpleDateFormat.
+ */
+public class TimestampParser
+{
+   protected static final int FieldYear = 0, FieldMonth = 1, FieldDay = 2, FieldHour = 3, FieldMin = 4,
+         FieldSec = 5, FieldMS = 6;
+
+   /** cached epoch of the date/hour fields (immutable so it can be swapped atomically) */
+   protected static final class PrefixCache
+   {
+      final char[] key;
+      final long ms;
+
+      PrefixCache(char[] key, long ms)
+      {
+         this.key = key;
+         this.ms = ms;
+      }
+   }
+
+   protected final TimeFormat format;
+   protected final String sDateFormat;
+   protected final long offset;
+
+   /** format detected from the first time stamp (for auto mode) */
+   protected volatile TimeFormat detected;
+
+   /** fixed layout: -1 for literal chars, else the field of each char in the pattern */
+   protected int[] layout;
+   protected char[] literals;
+
+   /** positions (in the layout) of the date/hour chars that determine the prefix epoch */
+   protected int[] prefixPos;
+
+   protected volatile PrefixCache cache;
+
+   protected final ThreadLocal<SimpleDateFormat> sdf;
+
+   /**
+    * Create a time stamp parser
+    *
+    * @param format format of the time stamps (auto = detect from the first time stamp)
+    * @param sDateFormat SimpleDateFormat pattern for string time stamps (interpreted as UTC)
+    * @param offset ms to add to each time stamp
+    */
+   public TimestampParser(TimeFormat format, final String sDateFormat, long offset)
+   {
+      this.format = format;
+      this.sDateFormat = sDateFormat;
+      this.offset = offset;
+      detected = (format == TimeFormat.auto ? null : format);
+      sdf = new ThreadLocal<SimpleDateFormat>() {
+         protected SimpleDateFormat initialValue()
+         {
+            return Library.getSDF(sDateFormat);
+         }
+      };
+      compile(sDateFormat);
+   }
+
+   /** @return true if the date pattern was compiled into a fixed-layout parser */
+   public boolean isCompiled()
+   {
+      return layout != null;
+   }
+
+   /** try to compile the date pattern into a fixed layout; leaves layout==null if not possible */
+   protected void compile(String sPattern)
+   {
+      ArrayList<Integer> lay = new ArrayList<Integer>();
+      StringBuffer lits = new StringBuffer();
+      int n = sPattern.length();
+      boolean[] bSeen = new boolean[FieldMS + 1];
+      for(int i = 0; i < n;){
+         char c = sPattern.charAt(i);
+         if (c == '\''){
+            // quoted literal ('' is a single quote)
+            if (i + 1 < n && sPattern.charAt(i + 1) == '\''){
+               lay.add(-1);
+               lits.append('\'');
+               i += 2;
+               continue;
+            }
+            int j = i + 1;
+            while(true){
+               if (j >= n) return; // unterminated quote
+               if (sPattern.charAt(j) == '\''){
+                  if (j + 1 < n && sPattern.charAt(j + 1) == '\''){
+                     lay.add(-1);
+                     lits.append('\'');
+                     j += 2;
+                     continue;
+                  }
+                  break;
+               }
+               lay.add(-1);
+               lits.append(sPattern.charAt(j));
+               j++;
+            }
+            i = j + 1;
+            continue;
+         }
+         if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')){
+            int j = i;
+            while(j < n && sPattern.charAt(j) == c)
+               j++;
+            int len = j - i;
+            int field;
+            if (c == 'y' && len == 4) field = FieldYear;
+            else if (c == 'M' && len == 2) field = FieldMonth;
+            else if (c == 'd' && len == 2) field = FieldDay;
+            else if (c == 'H' && len == 2) field = FieldHour;
+            else if (c == 'm' && len == 2) field = FieldMin;
+            else if (c == 's' && len == 2) field = FieldSec;
+            else if (c == 'S') field = FieldMS;
+            else return; // unsupported field
+            if (bSeen[field]) return;
+            bSeen[field] = true;
+            for(int k = 0; k < len; k++){
+               lay.add(field);
+               lits.append('0');
+            }
+            i = j;
+            continue;
+         }
+         lay.add(-1);
+         lits.append(c);
+         i++;
+      }
+
+      // need at least a full date
+      if (!bSeen[FieldYear] || !bSeen[FieldMonth] || !bSeen[FieldDay]) return;
+
+      layout = new int[lay.size()];
+      int nPrefix = 0;
+      for(int i = 0; i < layout.length; i++){
+         layout[i] = lay.get(i);
+         if (layout[i] >= 0 && layout[i] <= FieldHour) nPrefix++;
+      }
+      literals = lits.toString().toCharArray();
+      prefixPos = new int[nPrefix];
+      for(int i = 0, j = 0; i < layout.length; i++)
+         if (layout[i] >= 0 && layout[i] <= FieldHour) prefixPos[j++] = i;
+   }
+
+   /** @return ms since epoch of the given time stamp, -1 if error */
+   public long parse(String ts)
+   {
+      if (ts == null) return -1;
+      TimeFormat fmt = detected;
+      if (fmt == null){
+         fmt = detect(ts);
+         detected = fmt;
+      }
+
+      long ms = parse(ts, fmt);
+      if (ms == Library.LNAN && format == TimeFormat.auto){
+         // doesn't match the detected format, so try them all
+         if (fmt != TimeFormat.ms) ms = parse(ts, TimeFormat.ms);
+         if (ms == Library.LNAN && fmt != TimeFormat.sec) ms = parse(ts, TimeFormat.sec);
+         if (ms == Library.LNAN && fmt != TimeFormat.str) ms = parse(ts, TimeFormat.str);
+      }
+      else if (ms == Library.LNAN && fmt != TimeFormat.str){
+         // numeric formats fall back on the date pattern
+         ms = parse(ts, TimeFormat.str);
+      }
+      if (ms == Library.LNAN) return -1;
+      return ms + offset;
+   }
+
+   /** @return the format of the given time stamp (same priority as the old parse chain: ms, sec, str) */
+   public static TimeFormat detect(String ts)
+   {
+      if (parseMS(ts) != Library.LNAN) return TimeFormat.ms;
+      if (parseSec(ts) != Library.LNAN) return TimeFormat.sec;
+      return TimeFormat.str;
+   }
+
+   /** @return ms for the given time stamp in the given format (no offset), Library.LNAN on error */
+   protected long parse(String ts, TimeFormat fmt)
+   {
+      if (fmt == TimeFormat.ms) return parseMS(ts);
+      if (fmt == TimeFormat.sec) return parseSec(ts);
+      long ms = Library.LNAN;
+      if (layout != null) ms = parseFixed(ts);
+      if (ms == Library.LNAN){
+         Date date = sdf.get().parse(ts, new ParsePosition(0));
+         if (date != null) ms = date.getTime();
+      }
+      return ms;
+   }
+
+   /** @return integer value of the string, Library.LNAN if it isn't a (base 10) long */
+   protected static long parseMS(String ts)
+   {
+      int n = ts.length();
+      int i = 0;
+      boolean bNeg = false;
+      if (n > 0 && (ts.charAt(0) == '-' || ts.charAt(0) == '+')){
+         bNeg = (ts.charAt(0) == '-');
+         i++;
+      }
+      if (i == n || n - i > 18) return (n - i > 18 ? parseLongSlow(ts) : Library.LNAN);
+      long x = 0;
+      for(; i < n; i++){
+         char c = ts.charAt(i);
+         if (c < '0' || c > '9') return Library.LNAN;
+         x = x * 10 + (c - '0');
+      }
+      return bNeg ? -x : x;
+   }
+
+   protected static long parseLongSlow(String ts)
+   {
+      try{
+         return Long.parseLong(ts);
+      } catch (NumberFormatException nfe){
+         return Library.LNAN;
+      }
+   }
+
+   /** @return ms for the given number of seconds, Library.LNAN if the string isn't a number */
+   protected static long parseSec(String ts)
+   {
+      // only call parseDouble on strings that look like numbers so that we don't pay for exceptions
+      int n = ts.length();
+      if (n == 0) return Library.LNAN;
+      boolean bDigit = false;
+      for(int i = 0; i < n; i++){
+         char c = ts.charAt(i);
+         if (c >= '0' && c <= '9') bDigit = true;
+         else if (c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E') return Library.LNAN;
+      }
+      if (!bDigit) return Library.LNAN;
+      try{
+         return Math.round(Double.parseDouble(ts) * 1000.0);
+      } catch (NumberFormatException nfe){
+         return Library.LNAN;
+      }
+   }
+
+   /** @return ms for a string in the compiled layout, Library.LNAN if the string doesn't fit */
+   protected long parseFixed(String ts)
+   {
+      int n = layout.length;
+      if (ts.length() != n) return Library.LNAN;
+
+      // check the literals and digits
+      for(int i = 0; i < n; i++){
+         char c = ts.charAt(i);
+         if (layout[i] < 0){
+            if (c != literals[i]) return Library.LNAN;
+         }
+         else if (c < '0' || c > '9') return Library.LNAN;
+      }
+
+      // date and hour fields: reuse the cached epoch if they haven't changed
+      long msPrefix;
+      PrefixCache pc = cache;
+      if (pc != null && prefixMatches(ts, pc.key)) msPrefix = pc.ms;
+      else{
+         int[] v = new int[FieldMS + 1];
+         for(int i = 0; i < prefixPos.length; i++){
+            int j = prefixPos[i];
+            v[layout[j]] = v[layout[j]] * 10 + (ts.charAt(j) - '0');
+         }
+         // leave out-of-range values to SimpleDateFormat (which is lenient and uses the Julian calendar
+         // before the Gregorian cutover)
+         if (v[FieldYear] < 1583 || v[FieldMonth] < 1 || v[FieldMonth] > 12 || v[FieldDay] < 1 || v[FieldDay] > 31 || v[FieldHour] > 23)
+            return Library.LNAN;
+         msPrefix = daysFromCivil(v[FieldYear], v[FieldMonth], v[FieldDay]) * 86400000L + v[FieldHour]
+               * 3600000L;
+         char[] key = new char[prefixPos.length];
+         for(int i = 0; i < key.length; i++)
+            key[i] = ts.charAt(prefixPos[i]);
+         cache = new PrefixCache(key, msPrefix);
+      }
+
+      // minute, second, and ms fields
+      int min = 0, sec = 0, ms = 0;
+      for(int i = 0; i < n; i++){
+         int f = layout[i];
+         if (f == FieldMin) min = min * 10 + (ts.charAt(i) - '0');
+         else if (f == FieldSec) sec = sec * 10 + (ts.charAt(i) - '0');
+         else if (f == FieldMS) ms = ms * 10 + (ts.charAt(i) - '0');
+      }
+      if (min > 59 || sec > 59) return Library.LNAN;
+      return msPrefix + min * 60000L + sec * 1000L + ms;
+   }
+
+   protected boolean prefixMatches(String ts, char[] key)
+   {
+      for(int i = 0; i < key.length; i++)
+         if (ts.charAt(prefixPos[i]) != key[i]) return false;
+      return true;
+   }
+
+   /** @return number of days since 1970-01-01 of the given (proleptic Gregorian) date */
+   protected static long daysFromCivil(int y, int m, int d)
+   {
+      if (m <= 2) y--;
+      long era = (y >= 0 ? y : y - 399) / 400;
+      long yoe = y - era * 400;
+      long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+      long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+      return era * 146097 + doe - 719468;
+   }
+}
@@ -0,0 +1,102 @@
+package kdm.io.DataSaver;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import kdm.data.*;
+
+/**
+ * Saves data in the background so that the caller can overlap computation with output. Sequences must not be
+ * modified after they're submitted. The number of pending jobs is bounded (submitting blocks until the oldest
+ * job finishes) so that a fast producer can't fill memory with unsaved data. Call finish() when done; the worker
+ * threads are not daemons, so pending output is never dropped.
+ */
+public class AsyncSaver
+{
+   protected ExecutorService pool;
+   protected LinkedList<Future<Boolean>> pending;
+   protected LinkedList<String> pendingPaths;
+   protected int maxPending;
+   protected boolean bOk = true;
+
+   /** create a saver with one worker thread */
+   public AsyncSaver()
+   {
+      this(1, 4);
+   }
+
+   /**
+    * Create a background saver
+    *
+    * @param nThreads number of worker threads
+    * @param maxPending maximum number of jobs that are queued or running
+    */
+   public AsyncSaver(int nThreads, int maxPending)
+   {
+      pool = Executors.newFixedThreadPool(Math.max(1, nThreads));
+      pending = new LinkedList<Future<Boolean>>();
+      pendingPaths = new LinkedList<String>();
+      this.maxPending = Math.max(1, maxPending);
+   }
+
+   /** save the given sequence in the background */
+   public void save(final DataSaver saver, final Sequence seq, final String path)
+   {
+      submit(new Callable<Boolean>() {
+         public Boolean call()
+         {
+            return saver.save(seq, path);
+         }
+      }, path);
+   }
+
+   /**
+    * Run a custom output job in the background
+    *
+    * @param job output job; returns true if successful
+    * @param path path of the output file (for error messages)
+    */
+   public void submit(Callable<Boolean> job, String path)
+   {
+      while(pending.size() >= maxPending)
+         waitOldest();
+      pending.add(pool.submit(job));
+      pendingPaths.add(path);
+   }
+
+   /** wait for the oldest pending job to finish */
+   protected void waitOldest()
+   {
+      Future<Boolean> f = pending.removeFirst();
+      String path = pendingPaths.removeFirst();
+      try{
+         if (!f.get()){
+            System.err.printf("Error: failed to save data\n (%s)\n", path);
+            bOk = false;
+         }
+      } catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         bOk = false;
+      } catch (ExecutionException e){
+         System.err.printf("Error: failed to save data\n (%s)\n", path);
+         e.getCause().printStackTrace();
+         bOk = false;
+      }
+   }
+
+   /**
+    * Wait for all pending jobs and shut down the worker threads
+    *
+    * @return true if all jobs succeeded
+    */
+   public boolean finish()
+   {
+      try{
+         while(!pending.isEmpty())
+            waitOldest();
+      } finally{
+         pool.shutdown();
+      }
+      return bOk;
+   }
+}
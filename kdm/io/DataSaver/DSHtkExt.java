@@ -39,37 +39,48 @@ public class DSHtkExt extends DataSaver
       try{
          File file = new File(path);
          FileChannel fc = new FileOutputStream(file).getChannel();
+         try{
+            nDims = seq.getNumDims();
+            nSamples = seq.length();
+            sampSize = nDims * 4;
+            sz = 12 + nSamples * sampSize;
+            sampPer = (int)Math.round(10000.0 / seq.getFreq());
 
-         // Setup the memory-mapped byte buffer
-         nDims = seq.getNumDims();
-         nSamples = seq.length();
-         sampSize = nDims * 4;
-         sz = 12 + nSamples * sampSize;
-         sampPer = (int)Math.round(10000.0 / seq.getFreq());
-         //ByteBuffer bb = ByteBuffer.allocateDirect(sz);
-         ByteBuffer bb = ByteBuffer.allocate(sz);
-         bb.order(ByteOrder.BIG_ENDIAN);
+            // the data is written in blocks through a float view of a (big endian) direct buffer
+            ByteBuffer bb = ByteBuffer.allocateDirect(Math.max(1 << 20, sampSize + 12));
+            bb.order(ByteOrder.BIG_ENDIAN);
 
-         // write the header
-         bb.putInt(nSamples);
-         bb.putInt(sampPer);
-         bb.putShort((short)sampSize);
-         bb.putShort((short)9);
+            // write the header
+            bb.putInt(nSamples);
+            bb.putInt(sampPer);
+            bb.putShort((short)sampSize);
+            bb.putShort((short)9);
 
-         // write the data
-         for(int i = 0; i < nSamples; i++){
-            FeatureVec fv = seq.get(i);
-            for(int d = 0; d < nDims; d++)
-               bb.putFloat((float)fv.get(d));
+            // write the data
+            float[] row = new float[nDims];
+            FloatBuffer fb = null;
+            for(int i = 0; i < nSamples; i++){
+               if (fb == null || fb.remaining() < nDims){
+                  if (fb != null) bb.position(fb.position() * 4);
+                  bb.flip();
+                  while(bb.hasRemaining())
+                     fc.write(bb);
+                  bb.clear();
+                  fb = bb.asFloatBuffer();
+               }
+               FeatureVec fv = seq.get(i);
+               for(int d = 0; d < nDims; d++)
+                  row[d] = (float)fv.get(d);
+               fb.put(row);
+            }
+            if (fb != null) bb.position(fb.position() * 4);
+            bb.flip();
+            while(bb.hasRemaining())
+               fc.write(bb);
+         } finally{
+            fc.close();
          }
 
-         // write the data to the channel
-         bb.flip();
-         fc.write(bb);
-
-         // Close the channel and the stream
-         fc.close();
-
          return true;
       } catch (Exception e){
          System.err.println(e);
@@ -1,6 +1,7 @@
 package kdm.io.DataSaver;
 
 import kdm.data.*;
+import kdm.io.*;
 import kdm.util.*;
 import java.io.*;
 
@@ -11,6 +12,10 @@ public class DSRaw extends DataSaver
 {
    protected String sFormat = "%.6f ";
    
+   /**
+    * Set the format of each value; fixed formats ("%.Nf") and "shortest" (fewest digits that parse back to the
+    * same value) are written directly to a byte buffer, anything else goes through String.format.
+    */
    public void setFormat(String sFormat)
    {
       char c = sFormat.charAt(sFormat.length()-1);
@@ -18,22 +23,41 @@ public class DSRaw extends DataSaver
       this.sFormat = sFormat;
    }
    
+   @Override
+   public boolean config(ConfigHelper chelp, String sKey, String sVal)
+   {
+      if (Library.stricmp(sKey, "format")) setFormat(sVal);
+      else return super.config(chelp, sKey, sVal);
+      return true;
+   }
+   
    @Override
    public boolean save(Sequence seq, String path)
    {
+      String sValFormat = sFormat.substring(0, sFormat.length() - 1);
+      char cDelim = sFormat.charAt(sFormat.length() - 1);
+      int nDigits = FastTextWriter.parseFormat(sValFormat);
       try
       {
-         PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(path)));
-
-         int T = seq.length();
-         for(int t = 0; t < T; t++)
-         {
-            FeatureVec fv = seq.get(t);
-            int D = fv.getNumDims();
-            for(int d = 0; d < D; d++) out.printf(sFormat, fv.get(d));
-            out.println();
+         FastTextWriter out = new FastTextWriter(new File(path));
+         try{
+            int T = seq.length();
+            for(int t = 0; t < T; t++)
+            {
+               FeatureVec fv = seq.get(t);
+               int D = fv.getNumDims();
+               for(int d = 0; d < D; d++){
+                  double x = fv.get(d);
+                  if (nDigits >= 0) out.append(x, nDigits);
+                  else if (nDigits == -1) out.append(x);
+                  else out.append(String.format(sValFormat, x));
+                  out.append(cDelim);
+               }
+               out.println();
+            }
+         } finally{
+            out.close();
          }
-         out.close();
       } catch (IOException e)
       {
          return false;
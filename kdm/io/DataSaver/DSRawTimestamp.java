@@ -1,13 +1,11 @@
 package kdm.io.DataSaver;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 import kdm.data.FeatureVec;
 import kdm.data.Sequence;
-import kdm.util.PrettyPrint;
+import kdm.io.FastTextWriter;
 
 /**
  * Saves data using a raw format with the timestamp (ms since the epoch) in the first column
@@ -20,17 +18,20 @@ public class DSRawTimestamp extends DataSaver
    {
       try
       {
-         PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(path)));         
-         int T = seq.length();
-         for(int t = 0; t < T; t++)
-         {
-            FeatureVec fv = seq.get(t);
-            out.printf("%d ", seq.getTimeMS(t));
-            int D = fv.getNumDims();            
-            for(int d = 0; d < D; d++) out.printf("%.6f ", fv.get(d));
-            out.println();
+         FastTextWriter out = new FastTextWriter(new File(path));
+         try{
+            int T = seq.length();
+            for(int t = 0; t < T; t++)
+            {
+               FeatureVec fv = seq.get(t);
+               out.append(seq.getTimeMS(t)).append(' ');
+               int D = fv.getNumDims();            
+               for(int d = 0; d < D; d++) out.append(fv.get(d), 6).append(' ');
+               out.println();
+            }
+         } finally{
+            out.close();
          }
-         out.close();
       } catch (IOException e)
       {
          return false;
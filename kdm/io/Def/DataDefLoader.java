@@ -1,6 +1,7 @@
 package kdm.io.Def;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 import org.xml.sax.*;
@@ -24,12 +25,23 @@ public class DataDefLoader extends AbstractDefLoader
    protected DefTransform curTrans;
    public File fBinary = null;
    Sequence[] binData = null;
+   protected boolean bBinaryChecked = false;
    public boolean bLoadData = true;
    public String sSkip = null;
    public HashSet<String> skips;
    public static boolean bVerbose = false;
+
+   /** default cache directory for transformed data (null = no cache unless the def file specifies one) */
+   public static File fDefaultCache = (System.getProperty("kdm.cache") == null ? null : new File(System
+         .getProperty("kdm.cache")));
+   protected SeqCache cache = null;
    protected int iData;
 
+   /** default number of threads used to load data blocks (set with the kdm.loadThreads property) */
+   public static int nDefaultThreads = Math.max(1, Integer.getInteger("kdm.loadThreads", 1));
+   protected int nThreads = nDefaultThreads;
+   protected boolean bLazy = false;
+
    public DataDefLoader()
    {
       skips = new HashSet<String>();
@@ -53,9 +65,56 @@ public class DataDefLoader extends AbstractDefLoader
       return fBinary;
    }
 
-   /** @return list of data sequences */
+   /**
+    * Cache loaded and transformed data in the given directory. Entries are keyed by the source file, data
+    * loader, loader parameters, and transformation chain, and are rebuilt when the source file changes. Note
+    * that files referenced by loader or transform parameters (other than the source file) are not checked.
+    * 
+    * @param dir cache directory (null to disable caching)
+    */
+   public void setCache(File dir)
+   {
+      cache = (dir == null ? null : new SeqCache(dir));
+   }
+
+   public SeqCache getCache()
+   {
+      return cache;
+   }
+
+   /**
+    * Load independent data blocks with the given number of threads. Reading (data loaders, cache, binary file)
+    * runs in parallel, while transformations are applied in order on the calling thread, so the results are the
+    * same as with one thread.
+    */
+   public void setNumThreads(int nThreads)
+   {
+      this.nThreads = Math.max(1, nThreads);
+   }
+
+   public int getNumThreads()
+   {
+      return nThreads;
+   }
+
+   /**
+    * If lazy, only the labels are loaded with the data def file; the data for each block is loaded when it's
+    * first requested through DefData.getData(), collectData(), or collectLabels(true).
+    */
+   public void setLazy(boolean bLazy)
+   {
+      this.bLazy = bLazy;
+   }
+
+   public boolean isLazy()
+   {
+      return bLazy;
+   }
+
+   /** @return list of data sequences (loads any data that hasn't been loaded yet) */
    public ArrayList<Sequence> collectData()
    {
+      loadAll(data, false);
       ArrayList<Sequence> tseries = new ArrayList<Sequence>();
       for(DefData d : data)
          if (d.data != null) tseries.add(d.data);
@@ -65,6 +124,7 @@ public class DataDefLoader extends AbstractDefLoader
    /** @return list of labels from each data component (list may contain null if data has no labels) */
    public ArrayList<MarkupSet> collectLabels(boolean bOnlyIfData)
    {
+      if (bOnlyIfData) loadAll(data, false);
       ArrayList<MarkupSet> marks = new ArrayList<MarkupSet>();
       for(DefData d : data){
          if (bOnlyIfData && d.data == null) continue;
@@ -86,9 +146,15 @@ public class DataDefLoader extends AbstractDefLoader
    }
 
    public DataTransform findTrans(String sTrans)
+   {
+      DefTransform d = findTransDef(sTrans);
+      return d == null ? null : d.trans;
+   }
+
+   public DefTransform findTransDef(String sTrans)
    {
       for(DefTransform d : trans)
-         if (d.name.equals(sTrans)) return d.trans;
+         if (d.name.equals(sTrans)) return d;
       return null;
    }
 
@@ -96,91 +162,239 @@ public class DataDefLoader extends AbstractDefLoader
    {
       data = new ArrayList<DefData>();
       trans = new ArrayList<DefTransform>();
+      if (cache == null && fDefaultCache != null) setCache(fDefaultCache);
       return super.preLoad();
    }
 
-   public boolean loadData(DefData d)
+   /** load the binary data file (if there is one and it hasn't been loaded yet) */
+   protected synchronized void loadBinary()
    {
-      if (bLoadData && hasBinary() && !isBinaryLoaded()) binData = BinaryData.load(fBinary);
+      if (!bLoadData || !hasBinary() || bBinaryChecked) return;
+      binData = BinaryData.load(fBinary);
+      if (binData != null && binData.length != data.size()){
+         System.err.printf("Warning: found binary data, but length not equal to number "
+               + "of data def blocks (%d vs. %d)\n", binData.length, data.size());
+         binData = null;
+      }
+      bBinaryChecked = true;
+   }
 
+   /** load the data and labels for the given data block */
+   public boolean loadData(DefData d)
+   {
+      loadBinary();
       if (d.bIgnore){
          System.err.printf("Ignoring data: \"%s\"\n", d.name);
+         d.bDataLoaded = true;
          return true;
       }
       try{
-         if (binData != null){
-            if (binData.length != data.size()){
-               System.err.printf("Warning: found binary data, but length not equal to number "
-                     + "of data def blocks (%d vs. %d)\n", binData.length, data.size());
-               binData = null;
-            }
-         }
-
-         // load the data
+         boolean bCached = false;
          if (bLoadData){
-            if (binData != null) d.data = binData[d.iSeries];
-            else{
-               Class cls = Library.getClass(d.sDataLoader, "kdm.io.DataLoader");
-               DataLoader loader = (DataLoader)cls.newInstance();
-               if (d.startTime != null) loader.setStarTime(d.startTime);
-               if (!loader.config(fBase, d.sDataParams)){
-                  System.err.println("Error: failed to configure data loader!");
-                  System.err.println(" class = " + d.sDataLoader);
-                  System.err.println(" params = \"" + d.sDataParams + "\"");
-                  System.exit(1);
-               }
-               // System.err.printf("Loading data: %s\n", d.sDataFile);
-               d.data = loader.load(d.sDataFile);
-               // System.err.printf(" %s\n", d.data);
-            }
+            bCached = readData(d);
             if (d.data == null) return false;
-            if (d.data.getOrigFile() == null)
-               d.data.setOrigFile(d.sOrigFile != null ? d.sOrigFile : d.sDataFile);
-            if (bVerbose)
-               System.err.printf(" \"%s\" has %d tranformations; freq=%.2f (%.5f).\n", d.name, d.trans
-                     .size(), d.data.getFreq(), d.data.getPeriod());
-            for(DataTransform tran : d.trans)
-               d.data = tran.transform(d.data);
-            if (bVerbose)
-               System.err.printf(" %dD  #frames=%d  [%s] -> [%s]\n", d.data.getNumDims(), d.data.length(),
-                     Library.formatTime(d.data.getStartMS()), Library.formatTime(d.data.getEndMS()));
-         }
-
-         // load the labels
-         if (d.sLabelFile != null){
-            Class cls = Library.getClass(d.sLabelLoader, "kdm.io");
-            MarkupLoader mloader = (MarkupLoader)cls.newInstance();
-            if (!mloader.config(d.getBasePath(), d.sLabelParams)){
-               System.err.println("Error: failed to configure markup loader!");
-               System.err.println(" class = " + d.sLabelLoader);
-               System.err.println(" params = \"" + d.sLabelParams + "\"");
-               System.exit(1);
-            }
-
-            d.labels = mloader.load(d.sLabelFile);
-            if (d.labels != null){
-               d.labels.setName(d.name);
-               d.labels.setSeq(d.data);
-               d.labels.setFile(new File(d.sLabelFile));
-               d.labels.removeClasses(d.ignoreClasses);
-            }
          }
+         readLabels(d);
+         if (bLoadData) finishData(d, bCached);
       } catch (Exception e){
          e.printStackTrace();
          return false;
+      } finally{
+         d.bDataLoaded = true;
+      }
+      return true;
+   }
+
+   /**
+    * Read the (untransformed) data for the given block from the binary file, the cache, or the data loader.
+    * This function only touches the given block, so blocks can be read concurrently.
+    * 
+    * @return true if the data came from the cache (and so is already transformed)
+    */
+   protected boolean readData(DefData d) throws Exception
+   {
+      if (binData != null){
+         d.data = binData[d.iSeries];
+         return false;
+      }
+      if (cache != null){
+         String sIdent = d.getCacheIdent();
+         if (sIdent != null){
+            d.data = cache.get(sIdent, d.getCacheStamp());
+            if (d.data != null) return true;
+         }
+      }
+      Class cls = Library.getClass(d.sDataLoader, "kdm.io.DataLoader");
+      DataLoader loader = (DataLoader)cls.newInstance();
+      if (d.startTime != null) loader.setStarTime(d.startTime);
+      if (!loader.config(fBase, d.sDataParams)){
+         System.err.println("Error: failed to configure data loader!");
+         System.err.println(" class = " + d.sDataLoader);
+         System.err.println(" params = \"" + d.sDataParams + "\"");
+         System.exit(1);
+      }
+      d.data = loader.load(d.sDataFile);
+      return false;
+   }
+
+   /**
+    * Transform the data of the given block (unless it came from the cache) and fill in the sequence info. The
+    * transformations may keep state between calls, so blocks are finished one at a time, in order.
+    */
+   protected synchronized void finishData(DefData d, boolean bCached)
+   {
+      if (d.data == null) return;
+      if (d.data.getOrigFile() == null) d.data.setOrigFile(d.sOrigFile != null ? d.sOrigFile : d.sDataFile);
+      if (bCached){
+         if (bVerbose) System.err.printf(" \"%s\" loaded from cache.\n", d.name);
       }
+      else{
+         if (bVerbose)
+            System.err.printf(" \"%s\" has %d tranformations; freq=%.2f (%.5f).\n", d.name, d.trans.size(), d.data
+                  .getFreq(), d.data.getPeriod());
+         for(DataTransform tran : d.trans)
+            d.data = tran.transform(d.data);
+         String sIdent;
+         if (binData == null && cache != null && (sIdent = d.getCacheIdent()) != null)
+            cache.put(sIdent, d.getCacheStamp(), d.data);
+      }
+      if (bVerbose)
+         System.err.printf(" %dD  #frames=%d  [%s] -> [%s]\n", d.data.getNumDims(), d.data.length(), Library
+               .formatTime(d.data.getStartMS()), Library.formatTime(d.data.getEndMS()));
+      if (d.labels != null) d.labels.setSeq(d.data);
 
       // set the name of the sequence to the name given in the def file
-      if (d.name != null && d.data!=null) d.data.setName(d.name);
-      return true;
+      if (d.name != null) d.data.setName(d.name);
+   }
+
+   /** load the labels for the given data block */
+   protected void readLabels(DefData d) throws Exception
+   {
+      if (d.sLabelFile == null) return;
+      Class cls = Library.getClass(d.sLabelLoader, "kdm.io");
+      MarkupLoader mloader = (MarkupLoader)cls.newInstance();
+      if (!mloader.config(d.getBasePath(), d.sLabelParams)){
+         System.err.println("Error: failed to configure markup loader!");
+         System.err.println(" class = " + d.sLabelLoader);
+         System.err.println(" params = \"" + d.sLabelParams + "\"");
+         System.exit(1);
+      }
+
+      d.labels = mloader.load(d.sLabelFile);
+      if (d.labels != null){
+         d.labels.setName(d.name);
+         d.labels.setSeq(d.data);
+         d.labels.setFile(new File(d.sLabelFile));
+         d.labels.removeClasses(d.ignoreClasses);
+      }
+   }
+
+   /** load the data for the given block if it hasn't been loaded yet (used for lazy loading) */
+   protected void ensureData(DefData d)
+   {
+      synchronized(d){
+         if (d.bDataLoaded) return;
+         if (d.bIgnore || !bLoadData){
+            d.bDataLoaded = true;
+            return;
+         }
+         loadBinary();
+         try{
+            boolean bCached = readData(d);
+            finishData(d, bCached);
+         } catch (Exception e){
+            e.printStackTrace();
+         } finally{
+            d.bDataLoaded = true;
+         }
+      }
+   }
+
+   /**
+    * Load the data for all of the given blocks that haven't been loaded yet. The data is read by a pool of
+    * threads (see setNumThreads()) while this thread transforms each block, in order, as soon as it's ready.
+    * Each block is read and finished while holding its lock (as in ensureData()), so a block that is
+    * requested concurrently is only transformed once.
+    * 
+    * @param bLabels if true, also load the labels for each block
+    */
+   protected void loadAll(List<DefData> list, final boolean bLabels)
+   {
+      final ArrayList<DefData> todo = new ArrayList<DefData>();
+      for(DefData d : list)
+         if (!d.bDataLoaded) todo.add(d);
+      int nThreads = Math.min(this.nThreads, todo.size());
+      if (nThreads <= 1 || !bLoadData){
+         for(DefData d : todo){
+            synchronized(d){
+               if (d.bDataLoaded) continue;
+               if (bLabels) loadData(d);
+               else ensureData(d);
+            }
+         }
+         return;
+      }
+
+      loadBinary();
+      ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+      try{
+         ArrayList<Future<Boolean>> reads = new ArrayList<Future<Boolean>>();
+         for(final DefData d : todo){
+            reads.add(pool.submit(new Callable<Boolean>() {
+               public Boolean call() throws Exception
+               {
+                  if (d.bIgnore) return false;
+                  synchronized(d){
+                     // the block may have been loaded (e.g., by getData()) since it was queued
+                     if (d.bDataLoaded) return false;
+                     boolean bCached = readData(d);
+                     if (bLabels && d.data != null) readLabels(d);
+                     return bCached;
+                  }
+               }
+            }));
+         }
+         for(int i = 0; i < todo.size(); i++){
+            DefData d = todo.get(i);
+            Boolean bCached = null;
+            try{
+               bCached = reads.get(i).get();
+            } catch (ExecutionException e){
+               e.getCause().printStackTrace();
+            }
+            synchronized(d){
+               if (d.bDataLoaded) continue;
+               try{
+                  if (d.bIgnore) System.err.printf("Ignoring data: \"%s\"\n", d.name);
+                  else if (bCached != null) finishData(d, bCached);
+               } finally{
+                  d.bDataLoaded = true;
+               }
+            }
+         }
+      } catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      } finally{
+         pool.shutdownNow();
+      }
    }
 
    public boolean postLoad()
    {
-      for(int i = 0; i < data.size(); i++){
+      for(int i = 0; i < data.size(); i++)
          assert (data.get(i).iSeries == i);
-         loadData(data.get(i));
+      if (bLazy && bLoadData){
+         // only load the labels now; the data is loaded when it's requested
+         for(DefData d : data){
+            if (d.bIgnore) continue;
+            try{
+               readLabels(d);
+            } catch (Exception e){
+               e.printStackTrace();
+            }
+         }
       }
+      else loadAll(data, true);
       return true;
    }
 
@@ -192,7 +406,8 @@ public class DataDefLoader extends AbstractDefLoader
       else if (Library.stricmp(localName, "transform")){
          curTrans = new DefTransform(fBase);
       }
-      else if (Library.stricmp(localName, "binary")){
+      else if (Library.stricmp(localName, "binary") || Library.stricmp(localName, "cache")
+            || Library.stricmp(localName, "threads") || Library.stricmp(localName, "lazy")){
          // nothing to do until end of tag
       }
       else if (!localName.equals(sXMLRootTag)){
@@ -224,6 +439,15 @@ public class DataDefLoader extends AbstractDefLoader
          else if (Library.stricmp(localName, "binary")){
             fBinary = new File(fBase, sbBlock.toString());
          }
+         else if (Library.stricmp(localName, "cache")){
+            setCache(new File(fBase, sbBlock.toString().trim()));
+         }
+         else if (Library.stricmp(localName, "threads")){
+            setNumThreads(Integer.parseInt(sbBlock.toString().trim()));
+         }
+         else if (Library.stricmp(localName, "lazy")){
+            setLazy(ConfigHelper.isTrueString(sbBlock.toString().trim()));
+         }
          sbBlock = null;
       }
    }
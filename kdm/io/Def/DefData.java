@@ -33,15 +33,35 @@ public class DefData extends AbstractDef
    public TreeMap<Integer, Integer> syncsOrig;
    public TreeMap<Integer, Integer> syncsScaled;
    public ArrayList<DataTransform> trans;
+   public ArrayList<DefTransform> transDefs;
    public ArrayList<String> ignoreClasses;
 
    protected DataDefLoader parent;
 
+   /** true once the data for this block has been loaded (or loading failed) */
+   protected volatile boolean bDataLoaded = false;
+
    public String toString()
    {
       return String.format("Name: %s\nData: %s\nLabels: %s\n", name, sDataFile, sLabelFile);
    }
 
+   /**
+    * @return data for this block; if the data def was loaded lazily (see DataDefLoader.setLazy()), the data is
+    *         loaded now (null if the block is ignored or the data failed to load)
+    */
+   public Sequence getData()
+   {
+      if (!bDataLoaded && parent != null) parent.ensureData(this);
+      return data;
+   }
+
+   /** @return true if the data for this block has been loaded (or loading failed) */
+   public boolean isDataLoaded()
+   {
+      return bDataLoaded;
+   }
+
    public DefData(File fBase, int iSeries, DataDefLoader _parent)
    {
       super(fBase);
@@ -53,6 +73,31 @@ public class DefData extends AbstractDef
       sLabelLoader = "MLGeneral";
       ignoreClasses = new ArrayList<String>();
       trans = new ArrayList<DataTransform>();
+      transDefs = new ArrayList<DefTransform>();
+   }
+
+   /**
+    * @return string that identifies how the data for this block is computed (source file, loader, parameters,
+    *         and transformations), or null if the data can't be cached
+    */
+   public String getCacheIdent()
+   {
+      if (sDataFile == null) return null;
+      StringBuffer sb = new StringBuffer();
+      sb.append("file=").append(Library.getCanonical(sDataFile));
+      sb.append("\nloader=").append(sDataLoader);
+      sb.append("\nparams=").append(sDataParams == null ? "" : sDataParams);
+      sb.append("\nstart=").append(startTime == null ? "" : Long.toString(startTime.getTimeInMillis()));
+      for(DefTransform dt : transDefs)
+         sb.append("\ntrans=").append(dt.getKey());
+      return sb.toString();
+   }
+
+   /** @return string that describes the current state of the source file (size and modification time) */
+   public String getCacheStamp()
+   {
+      File f = new File(sDataFile);
+      return String.format("%d:%d", f.length(), f.lastModified());
    }
 
    public boolean init(String sKey, String sVal)
@@ -104,13 +149,14 @@ public class DefData extends AbstractDef
          while(st.hasMoreTokens())
          {
             String sTrans = st.nextToken().trim();
-            DataTransform tran = parent.findTrans(sTrans);
-            if (tran == null)
+            DefTransform dt = parent.findTransDef(sTrans);
+            if (dt == null)
             {
                System.err.println("Error: failed to find transformation (" + sTrans + ")");
                return false;
             }
-            trans.add(tran);
+            trans.add(dt.trans);
+            transDefs.add(dt);
          }
       }
       else if (Library.stricmp(sKey, "ignore")) bIgnore = ConfigHelper.isTrueString(sVal);
@@ -53,6 +53,12 @@ public class DefTransform extends AbstractDef
       return true;
    }
 
+   /** @return string that identifies this transformation (class and parameters) */
+   public String getKey()
+   {
+      return sClass + "(" + (params == null ? "" : params) + ")";
+   }
+
    public boolean init(String sKey, String sVal)
    {
       if (Library.stricmp(sKey, "name")) name = sVal;
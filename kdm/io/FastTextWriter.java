@@ -0,0 +1,228 @@
+package kdm.io;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Buffered ASCII text writer for large numeric files. Numbers are formatted directly into a reusable byte buffer
+ * (no Formatter, no intermediate strings on the fast paths), which is written to the file through a
+ * FileChannel.
+ *
+ * Two double formats are supported: fixed (same output as printf("%.Nf")) and shortest (the fewest digits that
+ * parse back to the same double; plain notation when reasonable, Double.toString otherwise).
+ */
+public class FastTextWriter implements Closeable
+{
+   protected static final double[] Pow10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+         1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+   protected static final long[] LPow10 = new long[19];
+   static{
+      LPow10[0] = 1;
+      for(int i = 1; i < LPow10.length; i++)
+         LPow10[i] = LPow10[i - 1] * 10;
+   }
+
+   protected FileChannel fc;
+   protected byte[] buf;
+   protected ByteBuffer bb;
+   protected int n;
+
+   /** scratch space for digits */
+   protected final char[] digits = new char[32];
+
+   /** result of the last call to shortest(): value = mant / 10^nDec */
+   protected long mant;
+   protected int nDec;
+
+   public FastTextWriter(File file) throws IOException
+   {
+      this(file, 1 << 16);
+   }
+
+   public FastTextWriter(File file, int bufSize) throws IOException
+   {
+      fc = new FileOutputStream(file).getChannel();
+      buf = new byte[Math.max(64, bufSize)];
+      bb = ByteBuffer.wrap(buf);
+   }
+
+   /** make sure that there is room for at least k more bytes in the buffer */
+   protected final void reserve(int k) throws IOException
+   {
+      if (n + k > buf.length) flush();
+   }
+
+   public void flush() throws IOException
+   {
+      bb.clear();
+      bb.limit(n);
+      while(bb.hasRemaining())
+         fc.write(bb);
+      n = 0;
+   }
+
+   public void close() throws IOException
+   {
+      if (fc == null) return;
+      try{
+         flush();
+      } finally{
+         fc.close();
+         fc = null;
+      }
+   }
+
+   public FastTextWriter append(char c) throws IOException
+   {
+      reserve(1);
+      buf[n++] = (byte)c;
+      return this;
+   }
+
+   public FastTextWriter append(String s) throws IOException
+   {
+      int len = s.length();
+      for(int i = 0; i < len;){
+         reserve(1);
+         int m = Math.min(len - i, buf.length - n);
+         for(int j = 0; j < m; j++)
+            buf[n++] = (byte)s.charAt(i++);
+      }
+      return this;
+   }
+
+   public FastTextWriter println() throws IOException
+   {
+      return append('\n');
+   }
+
+   public FastTextWriter append(long x) throws IOException
+   {
+      reserve(20);
+      if (x < 0){
+         if (x == Long.MIN_VALUE) return append(Long.toString(x));
+         buf[n++] = '-';
+         x = -x;
+      }
+      appendDigits(x, 0);
+      return this;
+   }
+
+   /** append the digits of x (>= 0), zero padded to at least minDigits */
+   protected final void appendDigits(long x, int minDigits)
+   {
+      int k = 0;
+      do{
+         digits[k++] = (char)('0' + (x % 10));
+         x /= 10;
+      } while(x > 0);
+      while(k < minDigits)
+         digits[k++] = '0';
+      while(k > 0)
+         buf[n++] = (byte)digits[--k];
+   }
+
+   /**
+    * Find the shortest decimal (fewest digits after the decimal point) that parses back to x. The result is
+    * stored in mant / 10^nDec.
+    *
+    * @return true if the value has such a representation with a mantissa < 2^53 (else caller must fall back)
+    */
+   protected final boolean shortest(double x)
+   {
+      double ax = Math.abs(x);
+      if (!(ax < 9.007199254740992e15)) return false; // also catches NaN and infinity
+      for(int d = 0; d <= 17; d++){
+         double y = ax * Pow10[d];
+         if (y >= 9.007199254740992e15) return false;
+         double m = Math.rint(y);
+         // m and 10^d are exact, so the division is correctly rounded (same as Double.parseDouble)
+         if (m / Pow10[d] == ax){
+            mant = (long)m;
+            nDec = d;
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /** append the shortest representation of x that parses back to the same value */
+   public FastTextWriter append(double x) throws IOException
+   {
+      if (!shortest(x)) return append(Double.toString(x));
+      reserve(48);
+      if (x < 0 || (x == 0 && 1 / x < 0)) buf[n++] = '-';
+      appendFixed(mant, nDec, nDec);
+      return this;
+   }
+
+   /** append m / 10^d with exactly nDigits digits after the decimal point (d <= nDigits) */
+   protected final void appendFixed(long m, int d, int nDigits)
+   {
+      long scale = LPow10[d];
+      appendDigits(m / scale, 0);
+      if (nDigits > 0){
+         buf[n++] = '.';
+         if (d > 0) appendDigits(m % scale, d);
+         for(int i = d; i < nDigits; i++)
+            buf[n++] = '0';
+      }
+   }
+
+   /**
+    * Append x with a fixed number of digits after the decimal point; the output is the same as
+    * String.format("%.Nf", x), i.e., the shortest representation of x rounded half-up.
+    */
+   public FastTextWriter append(double x, int nDigits) throws IOException
+   {
+      if (nDigits < 0 || nDigits > 17) return append(String.format("%." + Math.max(0, nDigits) + "f", x));
+      long m;
+      int d;
+      double y = Math.abs(x) * Pow10[nDigits];
+      double fl = Math.floor(y);
+      double frac = y - fl;
+      if (y < 4.5e15 && Math.abs(frac - 0.5) > 4 * Math.ulp(y)){
+         // not close to a tie, so rounding the (scaled) value gives the same result as rounding its digits
+         m = (long)fl + (frac > 0.5 ? 1 : 0);
+         d = nDigits;
+      }
+      else if (shortest(x)){
+         m = mant;
+         d = nDec;
+         if (d > nDigits){
+            // round half-up on the decimal digits
+            long scale = LPow10[d - nDigits];
+            long r = m % scale;
+            m /= scale;
+            if (r >= scale / 2) m++;
+            d = nDigits;
+         }
+      }
+      else return append(String.format("%." + nDigits + "f", x));
+      reserve(48);
+      if (x < 0 || (x == 0 && 1 / x < 0)) buf[n++] = '-';
+      appendFixed(m, d, nDigits);
+      return this;
+   }
+
+   /**
+    * Parse a printf-style format for a single floating point value (e.g., "%.6f")
+    *
+    * @return number of decimal digits, -1 for the shortest representation ("shortest"), or Integer.MIN_VALUE if
+    *         the format isn't supported by this class (including "%s", whose output differs from shortest)
+    */
+   public static int parseFormat(String sFormat)
+   {
+      String s = sFormat.trim();
+      if (s.equalsIgnoreCase("shortest")) return -1;
+      if (s.equals("%f")) return 6;
+      if (s.length() >= 4 && s.startsWith("%.") && s.endsWith("f")){
+         try{
+            int nDigits = Integer.parseInt(s.substring(2, s.length() - 1));
+            if (nDigits >= 0 && nDigits <= 17) return nDigits;
+         } catch (NumberFormatException e){}
+      }
+      return Integer.MIN_VALUE;
+   }
+}
@@ -110,7 +110,7 @@ public class LabeledDataLoader
                System.err.printf("tm: %s\n", tm);
             }
 
-            Sequence occ = seq.subseq(iStart, iStop, iSeq);
+            Sequence occ = seq.view(iStart, iStop, iSeq);
             assert (occ != null);
 
             ArrayList<Sequence> list = data.get(tm.getTag());
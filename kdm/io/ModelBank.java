@@ -0,0 +1,689 @@
+package kdm.io;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import kdm.data.*;
+import kdm.models.*;
+import kdm.util.*;
+
+/**
+ * Compact binary store for a bank of trained models. The parameters of every model are stored as flat arrays of
+ * doubles in one data block, followed by a directory that holds the type, size, name, and offset of each model.
+ * Opening a bank only reads the directory and memory maps the data block, so a bank with thousands of models
+ * loads almost instantly. HMMs and observation models are evaluated in place (straight from the mapped data,
+ * without creating model objects); getSeqModel() and getFVModel() rebuild the original objects when needed.
+ *
+ * Supported models: HmmLR, HMM, HmmLRD, HMMD (with diagonal Gaussian, GMM, or multinomial states),
+ * GaussianDiagonal, GMM (of diagonal Gaussians), Multinomial, and OatesModelUSamp (which is stored compactly
+ * but is rebuilt for evaluation).
+ *
+ * File layout (little endian): header (magic, version, #models, dir offset, #doubles), data block, directory.
+ * Each observation model block starts with a type tag:
+ * <ul>
+ * <li>Gaussian: [mean d][var d][min var d][log coef d]
+ * <li>GMM: [#mix][weight #mix][log weight #mix][Gaussian blocks]
+ * <li>Multinomial: [#bins][prob #bins][log prob #bins]
+ * </ul>
+ * An HMM block is [pi start n][pi end n][pi leave n][transitions][state blocks], where the transitions of a
+ * left-right HMM are stored in LR format ([row length n][rows]) and other HMMs store the full n x n matrix.
+ */
+public class ModelBank
+{
+   /** magic number at the start of a model bank ("KDMB") */
+   public static final int Magic = 0x4B444D42;
+   public static final int Version = 1;
+   protected static final int HeaderSize = 32;
+
+   /** type of model stored in an entry */
+   public static enum Kind {
+      HmmLR, HMM, HmmLRD, HMMD, Obs, Oates
+   }
+
+   /** type tags for observation model blocks */
+   protected static final int ObsGauss = 1, ObsGMM = 2, ObsMultinomial = 3;
+
+   /** description of one model in a bank */
+   public static class Entry
+   {
+      public String name;
+      public Kind kind;
+      public int nStates, nDims, nSkip;
+
+      /** offset (in doubles) and length of the parameter block */
+      public long offset;
+      public int nValues;
+
+      /** offsets (in doubles, relative to the start of the data) of the parts of the block */
+      protected int ofsPi, ofsTran;
+      protected int[] ofsRow, ofsObs;
+
+      public boolean isHMM()
+      {
+         return kind != Kind.Obs && kind != Kind.Oates;
+      }
+
+      public boolean isLR()
+      {
+         return kind == Kind.HmmLR || kind == Kind.HmmLRD;
+      }
+
+      public String toString()
+      {
+         return String.format("[%s: %s  states=%d  dims=%d  #values=%d]", kind, name, nStates, nDims, nValues);
+      }
+   }
+
+   protected File file;
+   protected Entry[] entries;
+   protected HashMap<String, Integer> index;
+   protected DoubleBuffer db;
+   protected ProbSeqModel[] rebuilt;
+
+   protected ModelBank()
+   {}
+
+   public File getFile()
+   {
+      return file;
+   }
+
+   /** @return number of models in this bank */
+   public int size()
+   {
+      return entries.length;
+   }
+
+   public Entry getEntry(int i)
+   {
+      return entries[i];
+   }
+
+   /** @return index of the model with the given name, or -1 if there isn't one */
+   public int find(String name)
+   {
+      Integer i = index.get(name);
+      return (i == null ? -1 : i);
+   }
+
+   // ///////////////////////////////////////////////////////////////////////////
+   // writing
+
+   /**
+    * Save a list of models in a bank file
+    *
+    * @param file destination file
+    * @param models list of models (ProbSeqModel or ProbFVModel; see class comment for supported types)
+    * @return true if successful
+    */
+   public static boolean save(File file, List<?> models)
+   {
+      ArrayList<Entry> list = new ArrayList<Entry>();
+      ArrayList<MyDoubleList> blocks = new ArrayList<MyDoubleList>();
+      long nDoubles = 0;
+      for(Object model : models){
+         Entry e = new Entry();
+         MyDoubleList v = new MyDoubleList();
+         if (!encode(model, e, v)){
+            System.err.printf("Error: unsupported model type (%s)\n", model == null ? null : model.getClass()
+                  .getName());
+            return false;
+         }
+         e.offset = nDoubles;
+         e.nValues = v.size();
+         nDoubles += v.size();
+         list.add(e);
+         blocks.add(v);
+      }
+
+      try{
+         FileChannel fc = new FileOutputStream(file).getChannel();
+         try{
+            ByteBuffer bb = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            long dirOffset = HeaderSize + nDoubles * 8;
+            bb.putInt(Magic);
+            bb.putInt(Version);
+            bb.putInt(list.size());
+            bb.putInt(0);
+            bb.putLong(dirOffset);
+            bb.putLong(nDoubles);
+            for(MyDoubleList v : blocks){
+               for(int i = 0; i < v.size(); i++){
+                  if (bb.remaining() < 8) flush(fc, bb);
+                  bb.putDouble(v.get(i));
+               }
+            }
+            for(Entry e : list){
+               int nBytes = 36 + (e.name == null ? 0 : 2 * e.name.length());
+               if (bb.remaining() < nBytes){
+                  flush(fc, bb);
+                  // very long names need a larger buffer
+                  if (bb.capacity() < nBytes) bb = ByteBuffer.allocateDirect(nBytes).order(ByteOrder.LITTLE_ENDIAN);
+               }
+               bb.putInt(e.kind.ordinal());
+               bb.putInt(e.nStates);
+               bb.putInt(e.nDims);
+               bb.putInt(e.nSkip);
+               bb.putLong(e.offset);
+               bb.putInt(e.nValues);
+               SeqCache.putStr(bb, e.name);
+            }
+            flush(fc, bb);
+         } finally{
+            fc.close();
+         }
+      } catch (IOException ex){
+         System.err.printf("Error: failed to write model bank\n (%s)\n", file.getAbsolutePath());
+         ex.printStackTrace();
+         return false;
+      }
+      return true;
+   }
+
+   protected static void flush(FileChannel fc, ByteBuffer bb) throws IOException
+   {
+      bb.flip();
+      while(bb.hasRemaining())
+         fc.write(bb);
+      bb.clear();
+   }
+
+   /** fill in the entry info and parameter block for the given model */
+   protected static boolean encode(Object model, Entry e, MyDoubleList v)
+   {
+      if (model instanceof AbstractHMM){
+         AbstractHMM hmm = (AbstractHMM)model;
+         if (model instanceof HmmLR) e.kind = Kind.HmmLR;
+         else if (model instanceof HmmLRD) e.kind = Kind.HmmLRD;
+         else if (model instanceof HMMD) e.kind = Kind.HMMD;
+         else if (model instanceof HMM) e.kind = Kind.HMM;
+         else return false;
+         int n = hmm.getNumStates();
+         e.name = hmm.getName();
+         e.nStates = n;
+         e.nDims = hmm.getNumDims();
+         for(int i = 0; i < n; i++)
+            v.add(hmm.getPiStart(i));
+         for(int i = 0; i < n; i++)
+            v.add(hmm.getPiEnd(i));
+         for(int i = 0; i < n; i++)
+            v.add(hmm.getPiLeave(i));
+         if (e.isLR()){
+            AbstractHMMLR lr = (AbstractHMMLR)hmm;
+            e.nSkip = lr.getNumSkip();
+            double[][] tran = lr.getTranLR();
+            for(int i = 0; i < n; i++)
+               v.add(tran[i].length);
+            for(int i = 0; i < n; i++)
+               for(int j = 0; j < tran[i].length; j++)
+                  v.add(tran[i][j]);
+         }
+         else{
+            double[][] tran = hmm.getFullTransMatrix();
+            for(int i = 0; i < n; i++)
+               for(int j = 0; j < n; j++)
+                  v.add(tran[i][j]);
+         }
+         for(int i = 0; i < n; i++)
+            if (!encodeObs(hmm.getState(i), v)) return false;
+         return true;
+      }
+      else if (model instanceof OatesModelUSamp){
+         OatesModelUSamp om = (OatesModelUSamp)model;
+         e.kind = Kind.Oates;
+         e.nStates = om.length();
+         e.nDims = om.getNumDims();
+         for(int i = 0; i < e.nStates; i++){
+            v.add(ObsGauss);
+            encodeGauss(om, i, v);
+         }
+         for(int i = 0; i + 1 < e.nStates; i++)
+            encodeObs(om.getDTime(i), v);
+         return true;
+      }
+      else if (model instanceof ProbFVModel){
+         ProbFVModel pm = (ProbFVModel)model;
+         e.kind = Kind.Obs;
+         e.nStates = 1;
+         e.nDims = pm.getNumDims();
+         return encodeObs(pm, v);
+      }
+      return false;
+   }
+
+   protected static boolean encodeObs(ProbFVModel pm, MyDoubleList v)
+   {
+      if (pm instanceof GaussianDiagonal){
+         v.add(ObsGauss);
+         encodeGauss((GaussianDiagonal)pm, v);
+      }
+      else if (pm instanceof GMM){
+         GMM gmm = (GMM)pm;
+         int nMix = gmm.getNumMix();
+         for(int i = 0; i < nMix; i++)
+            if (!(gmm.getComp(i) instanceof GaussianDiagonal)) return false;
+         v.add(ObsGMM);
+         v.add(nMix);
+         for(int i = 0; i < nMix; i++)
+            v.add(gmm.getWeight(i));
+         for(int i = 0; i < nMix; i++)
+            v.add(gmm.getWeights().getll(i));
+         for(int i = 0; i < nMix; i++)
+            encodeGauss((GaussianDiagonal)gmm.getComp(i), v);
+      }
+      else if (pm instanceof Multinomial){
+         Multinomial m = (Multinomial)pm;
+         int nBins = m.getSize();
+         v.add(ObsMultinomial);
+         v.add(nBins);
+         for(int i = 0; i < nBins; i++)
+            v.add(m.get(i));
+         for(int i = 0; i < nBins; i++)
+            v.add(m.getll(i));
+      }
+      else return false;
+      return true;
+   }
+
+   protected static void encodeGauss(GaussianDiagonal g, MyDoubleList v)
+   {
+      int nDims = g.getNumDims();
+      Gaussian1D[] dims = new Gaussian1D[nDims];
+      for(int d = 0; d < nDims; d++)
+         dims[d] = g.getDim(d);
+      encodeGauss(dims, v);
+   }
+
+   protected static void encodeGauss(OatesModelUSamp om, int i, MyDoubleList v)
+   {
+      int nDims = om.getNumDims();
+      Gaussian1D[] dims = new Gaussian1D[nDims];
+      for(int d = 0; d < nDims; d++)
+         dims[d] = om.getModel(i, d);
+      encodeGauss(dims, v);
+   }
+
+   protected static void encodeGauss(Gaussian1D[] dims, MyDoubleList v)
+   {
+      for(Gaussian1D g : dims)
+         v.add(g.getMean());
+      for(Gaussian1D g : dims)
+         v.add(g.getVar());
+      for(Gaussian1D g : dims)
+         v.add(g.getMinVar());
+      // same computation as Gaussian1D.update(), so in-place evaluation matches exactly
+      for(Gaussian1D g : dims)
+         v.add(Math.log(1.0 / (Math.sqrt(g.getVar()) * Gaussian1D.sqrt_2pi)));
+   }
+
+   // ///////////////////////////////////////////////////////////////////////////
+   // reading
+
+   /** @return true if the given file looks like a model bank */
+   public static boolean isBank(File file)
+   {
+      try{
+         DataInputStream in = new DataInputStream(new FileInputStream(file));
+         try{
+            return file.length() >= HeaderSize && Integer.reverseBytes(in.readInt()) == Magic;
+         } finally{
+            in.close();
+         }
+      } catch (IOException e){
+         return false;
+      }
+   }
+
+   /**
+    * Open a model bank; only the directory is read, the parameters are mapped
+    *
+    * @return the bank or null on error
+    */
+   public static ModelBank open(File file)
+   {
+      try{
+         FileChannel fc = new FileInputStream(file).getChannel();
+         try{
+            long size = fc.size();
+            if (size < HeaderSize){
+               System.err.printf("Error: invalid model bank (%s)\n", file.getAbsolutePath());
+               return null;
+            }
+            ByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, HeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+            if (bb.getInt() != Magic){
+               System.err.printf("Error: invalid model bank (%s)\n", file.getAbsolutePath());
+               return null;
+            }
+            int ver = bb.getInt();
+            if (ver != Version){
+               System.err.printf("Error: unsupported model bank version: %d (%s)\n", ver, file.getAbsolutePath());
+               return null;
+            }
+            int nModels = bb.getInt();
+            bb.getInt();
+            long dirOffset = bb.getLong();
+            long nDoubles = bb.getLong();
+            if (nDoubles * 8 > Integer.MAX_VALUE){
+               System.err.printf("Error: model bank is too large to map (%s)\n", file.getAbsolutePath());
+               return null;
+            }
+
+            ModelBank bank = new ModelBank();
+            bank.file = file;
+            bank.db = fc.map(FileChannel.MapMode.READ_ONLY, HeaderSize, nDoubles * 8).order(
+                  ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            bb = fc.map(FileChannel.MapMode.READ_ONLY, dirOffset, size - dirOffset).order(ByteOrder.LITTLE_ENDIAN);
+            bank.entries = new Entry[nModels];
+            bank.index = new HashMap<String, Integer>();
+            Kind[] kinds = Kind.values();
+            for(int i = 0; i < nModels; i++){
+               Entry e = new Entry();
+               e.kind = kinds[bb.getInt()];
+               e.nStates = bb.getInt();
+               e.nDims = bb.getInt();
+               e.nSkip = bb.getInt();
+               e.offset = bb.getLong();
+               e.nValues = bb.getInt();
+               e.name = SeqCache.getStr(bb);
+               bank.layout(e);
+               bank.entries[i] = e;
+               if (e.name != null && !bank.index.containsKey(e.name)) bank.index.put(e.name, i);
+            }
+            bank.rebuilt = new ProbSeqModel[nModels];
+            return bank;
+         } finally{
+            fc.close();
+         }
+      } catch (IOException e){
+         System.err.printf("Error: failed to open model bank (%s)\n", file.getAbsolutePath());
+         e.printStackTrace();
+         return null;
+      }
+   }
+
+   /** compute the offsets of the parts of the given entry's parameter block */
+   protected void layout(Entry e)
+   {
+      int p = (int)e.offset;
+      int n = e.nStates;
+      if (e.isHMM()){
+         e.ofsPi = p;
+         p += 3 * n;
+         if (e.isLR()){
+            e.ofsRow = new int[n];
+            int q = p + n;
+            for(int i = 0; i < n; i++){
+               e.ofsRow[i] = q;
+               q += (int)db.get(p + i);
+            }
+            e.ofsTran = p;
+            p = q;
+         }
+         else{
+            e.ofsTran = p;
+            p += n * n;
+         }
+      }
+      int nObs = (e.kind == Kind.Oates ? 2 * n - 1 : n);
+      e.ofsObs = new int[Math.max(0, nObs)];
+      for(int i = 0; i < e.ofsObs.length; i++){
+         e.ofsObs[i] = p;
+         p += obsSize(p, e.nDims);
+      }
+      assert (p == e.offset + e.nValues) : String.format("bad layout: %s", e);
+   }
+
+   /** @return number of values in the observation block that starts at p */
+   protected int obsSize(int p, int nDims)
+   {
+      int type = (int)db.get(p);
+      if (type == ObsGauss) return 1 + 4 * nDims;
+      if (type == ObsGMM) return 2 + (int)db.get(p + 1) * (2 + 4 * nDims);
+      if (type == ObsMultinomial) return 2 + 2 * (int)db.get(p + 1);
+      throw new IllegalStateException(String.format("unknown observation model type: %d", type));
+   }
+
+   // ///////////////////////////////////////////////////////////////////////////
+   // in-place evaluation
+
+   /** @return loglik of the frame given the (diagonal) Gaussian whose parameters start at p */
+   protected double evalGauss(int p, int nDims, FeatureVec x)
+   {
+      double ret = 0;
+      for(int d = 0; d < nDims; d++){
+         double dx = x.get(d) - db.get(p + d);
+         double ll = db.get(p + 3 * nDims + d) + (dx * dx) / (-2.0 * db.get(p + nDims + d));
+         ret = (d == 0 ? ll : ret + ll);
+      }
+      return ret;
+   }
+
+   /** @return loglik of the frame given the observation model whose block starts at p */
+   protected double evalObs(int p, int nDims, FeatureVec x)
+   {
+      int type = (int)db.get(p);
+      if (type == ObsGauss) return evalGauss(p + 1, nDims, x);
+      if (type == ObsMultinomial) return db.get(p + 2 + (int)db.get(p + 1) + (int)x.get(0));
+      assert (type == ObsGMM);
+      int nMix = (int)db.get(p + 1);
+      int q = p + 2 + 2 * nMix;
+      double loglik = db.get(p + 2 + nMix) + evalGauss(q, nDims, x);
+      for(int i = 1; i < nMix; i++)
+         loglik = Library.logadd(loglik, db.get(p + 2 + nMix + i) + evalGauss(q + i * 4 * nDims, nDims, x));
+      return loglik;
+   }
+
+   /** @return loglik of the frame given the observation model of a state of an HMM (or an observation model) */
+   public double evalState(int iModel, int iState, FeatureVec x)
+   {
+      Entry e = entries[iModel];
+      return evalObs(e.ofsObs[iState], e.nDims, x);
+   }
+
+   /** @return log transition probability from state i to state j of an HMM */
+   public double getTran(int iModel, int i, int j)
+   {
+      Entry e = entries[iModel];
+      assert (e.isHMM());
+      if (e.isLR()){
+         int k = j - i;
+         if (k < 0 || k >= (int)db.get(e.ofsTran + i)) return Library.LOG_ZERO;
+         return db.get(e.ofsRow[i] + k);
+      }
+      return db.get(e.ofsTran + i * e.nStates + j);
+   }
+
+   /**
+    * Compute the log likelihood of a sequence given a model, straight from the mapped parameters. The result
+    * is the same as the model's eval(Sequence) function.
+    */
+   public double eval(int iModel, Sequence seq)
+   {
+      Entry e = entries[iModel];
+      int T = seq.length();
+      if (e.kind == Kind.Obs){
+         double loglik = Library.LOG_ONE;
+         for(int t = 0; t < T; t++)
+            loglik += evalObs(e.ofsObs[0], e.nDims, seq.get(t));
+         return loglik;
+      }
+      if (e.kind == Kind.Oates) return getSeqModel(iModel).eval(seq);
+
+      int n = e.nStates;
+      double[] alpha = new double[n], next = new double[n];
+      Arrays.fill(alpha, Library.LOG_ZERO);
+      FeatureVec fv = seq.get(0);
+      if (e.isLR()) alpha[0] = evalObs(e.ofsObs[0], e.nDims, fv);
+      else for(int i = 0; i < n; i++)
+         alpha[i] = db.get(e.ofsPi + i) + evalObs(e.ofsObs[i], e.nDims, fv);
+
+      for(int t = 1; t < T; t++){
+         fv = seq.get(t);
+         for(int i = 0; i < n; i++){
+            double a = Library.LOG_ZERO;
+            if (e.isLR()){
+               for(int j = 0; j <= i; j++){
+                  int k = i - j;
+                  if (k >= (int)db.get(e.ofsTran + j) || alpha[j] == Library.NEGINF) continue;
+                  double tr = db.get(e.ofsRow[j] + k);
+                  if (tr == Library.NEGINF) continue;
+                  a = Library.logadd(a, alpha[j] + tr);
+               }
+            }
+            else{
+               for(int j = 0; j < n; j++)
+                  a = Library.logadd(a, alpha[j] + db.get(e.ofsTran + j * n + i));
+            }
+            next[i] = (a == Library.LOG_ZERO ? a : a + evalObs(e.ofsObs[i], e.nDims, fv));
+         }
+         double[] tmp = alpha;
+         alpha = next;
+         next = tmp;
+      }
+
+      if (e.isLR()) return alpha[n - 1];
+      double loglik = Library.LOG_ZERO;
+      for(int i = 0; i < n; i++)
+         loglik = Library.logadd(loglik, alpha[i] + db.get(e.ofsPi + n + i));
+      return loglik;
+   }
+
+   /**
+    * Evaluate every model in the bank on the same sequence
+    *
+    * @param ret destination (null to allocate a new array)
+    * @return loglik of the sequence given each model
+    */
+   public double[] evalAll(Sequence seq, double[] ret)
+   {
+      if (ret == null) ret = new double[entries.length];
+      for(int i = 0; i < entries.length; i++)
+         ret[i] = eval(i, seq);
+      return ret;
+   }
+
+   // ///////////////////////////////////////////////////////////////////////////
+   // rebuilding model objects
+
+   protected double[] getArray(int p, int n)
+   {
+      double[] a = new double[n];
+      for(int i = 0; i < n; i++)
+         a[i] = db.get(p + i);
+      return a;
+   }
+
+   protected GaussianDiagonal buildGauss(int p, int nDims)
+   {
+      GaussianDiagonal g = new GaussianDiagonal(nDims);
+      for(int d = 0; d < nDims; d++)
+         setGauss(g.getDim(d), p, nDims, d);
+      return g;
+   }
+
+   protected void setGauss(Gaussian1D g, int p, int nDims, int d)
+   {
+      g.setMinVar(db.get(p + 2 * nDims + d));
+      g.set(db.get(p + d), db.get(p + nDims + d));
+   }
+
+   protected Multinomial buildMultinomial(int p)
+   {
+      int nBins = (int)db.get(p + 1);
+      Multinomial m = new Multinomial(nBins);
+      for(int i = 0; i < nBins; i++)
+         m.set(i, db.get(p + 2 + i));
+      m.setReport(ProbFVModel.Report.loglik);
+      return m;
+   }
+
+   protected ProbFVModel buildObs(int p, int nDims)
+   {
+      int type = (int)db.get(p);
+      if (type == ObsGauss) return buildGauss(p + 1, nDims);
+      if (type == ObsMultinomial) return buildMultinomial(p);
+      int nMix = (int)db.get(p + 1);
+      GMM gmm = new GMM(nDims, nMix);
+      for(int i = 0; i < nMix; i++)
+         gmm.setComp(i, db.get(p + 2 + i), buildGauss(p + 2 + 2 * nMix + i * 4 * nDims, nDims));
+      return gmm;
+   }
+
+   /** @return new observation model object equal to the given (Obs) entry */
+   public ProbFVModel getFVModel(int iModel)
+   {
+      Entry e = entries[iModel];
+      if (e.kind != Kind.Obs) return null;
+      return buildObs(e.ofsObs[0], e.nDims);
+   }
+
+   /** @return new sequence model object equal to the given (HMM or Oates) entry */
+   public ProbSeqModel getSeqModel(int iModel)
+   {
+      Entry e = entries[iModel];
+      int n = e.nStates;
+      if (e.kind == Kind.Obs) return null;
+      if (e.kind == Kind.Oates){
+         synchronized(this){
+            if (rebuilt[iModel] != null) return rebuilt[iModel];
+         }
+         OatesModelUSamp om = new OatesModelUSamp(n, e.nDims);
+         for(int i = 0; i < n; i++)
+            for(int d = 0; d < e.nDims; d++)
+               setGauss(om.getModel(i, d), e.ofsObs[i] + 1, e.nDims, d);
+         for(int i = 0; i + 1 < n; i++){
+            int p = e.ofsObs[n + i];
+            Multinomial m = om.getDTime(i);
+            for(int k = 0; k < m.getSize(); k++)
+               m.set(k, db.get(p + 2 + k));
+         }
+         synchronized(this){
+            rebuilt[iModel] = om;
+         }
+         return om;
+      }
+
+      AbstractHMM hmm;
+      if (e.kind == Kind.HmmLR) hmm = new HmmLR(n, e.nSkip, e.nDims);
+      else if (e.kind == Kind.HmmLRD) hmm = new HmmLRD(n, e.nSkip, e.nDims);
+      else if (e.kind == Kind.HMMD) hmm = new HMMD(n, e.nDims);
+      else hmm = new HMM(n, e.nDims);
+      hmm.setName(e.name);
+      for(int i = 0; i < n; i++){
+         hmm.setPiStart(i, db.get(e.ofsPi + i));
+         hmm.setPiEnd(i, db.get(e.ofsPi + n + i));
+         hmm.setPiLeave(i, db.get(e.ofsPi + 2 * n + i));
+      }
+      if (e.isLR()){
+         double[][] tran = new double[n][];
+         for(int i = 0; i < n; i++)
+            tran[i] = getArray(e.ofsRow[i], (int)db.get(e.ofsTran + i));
+         ((AbstractHMMLR)hmm).setTranLR(tran);
+      }
+      else{
+         double[][] tran = hmm.getFullTransMatrix();
+         for(int i = 0; i < n; i++)
+            for(int j = 0; j < n; j++)
+               tran[i][j] = db.get(e.ofsTran + i * n + j);
+      }
+      for(int i = 0; i < n; i++)
+         hmm.setState(i, buildObs(e.ofsObs[i], e.nDims));
+      return hmm;
+   }
+
+   public static void main(String args[])
+   {
+      if (args.length != 1){
+         System.err.println("USAGE: java kdm.io.ModelBank <bank file>");
+         System.exit(1);
+      }
+      TimerMS timer = new TimerMS();
+      ModelBank bank = open(new File(args[0]));
+      if (bank == null) System.exit(1);
+      System.err.printf("%s: %d models (%dms)\n", args[0], bank.size(), timer.time());
+      for(int i = 0; i < bank.size(); i++)
+         System.err.printf("%4d) %s\n", i + 1, bank.getEntry(i));
+   }
+}
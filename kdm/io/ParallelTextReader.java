@@ -0,0 +1,380 @@
+package kdm.io;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Fast reader for delimited numeric text files (one frame per line). The file is memory mapped and split into
+ * line-aligned chunks that are parsed in parallel; numbers are parsed directly from the bytes into primitive
+ * buffers. The chunks are returned in file order so that the caller can stitch them together.
+ *
+ * Like the sequential loaders, the number of columns is taken from the first non-empty line (unless it is set
+ * explicitly); extra tokens on later lines are ignored and are not parsed.
+ *
+ * A single column can be designated as a time stamp column. Its text is passed to a TimeParser (from the
+ * worker threads, so the parser must be thread-safe) instead of being parsed as a number.
+ */
+public class ParallelTextReader
+{
+   /** converts the text of a time stamp to ms; must be thread-safe; should return -1 on error */
+   public static interface TimeParser
+   {
+      public long parseTime(String s);
+   }
+
+   /** parsed rows from one chunk of the file */
+   public static class Chunk
+   {
+      /** file offset of the first byte in the chunk */
+      public long offset;
+
+      /** number of (non-empty) rows in the chunk */
+      public int nRows;
+
+      /** number of tokens in each row, up to the number of columns (including the time stamp, if any) */
+      public int[] nTokens;
+
+      /** numeric values of row i are vals[rowStart[i]..rowStart[i+1]) */
+      public int[] rowStart;
+
+      public double[] vals;
+
+      /** time stamp of each row (null if there is no time column; -1 if the row has no time stamp) */
+      public long[] times;
+
+      protected int nVals;
+
+      protected Chunk(long offset, boolean bTimes)
+      {
+         this.offset = offset;
+         nTokens = new int[1024];
+         rowStart = new int[1025];
+         vals = new double[8192];
+         if (bTimes) times = new long[1024];
+      }
+
+      protected void addVal(double x)
+      {
+         if (nVals == vals.length) vals = Arrays.copyOf(vals, nVals * 2);
+         vals[nVals++] = x;
+      }
+
+      protected void endRow(int nTok, long ms)
+      {
+         if (nRows == nTokens.length){
+            nTokens = Arrays.copyOf(nTokens, nRows * 2);
+            rowStart = Arrays.copyOf(rowStart, nRows * 2 + 1);
+            if (times != null) times = Arrays.copyOf(times, nRows * 2);
+         }
+         nTokens[nRows] = nTok;
+         if (times != null) times[nRows] = ms;
+         nRows++;
+         rowStart[nRows] = nVals;
+      }
+
+      /** @return number of numeric values in the given row */
+      public int getNumVals(int iRow)
+      {
+         return rowStart[iRow + 1] - rowStart[iRow];
+      }
+   }
+
+   protected boolean[] bDelim;
+   protected int nThreads;
+   protected int chunkSize = 1 << 24;
+   protected int iTimeCol = Integer.MIN_VALUE;
+   protected int nCols = -1;
+   protected TimeParser timeParser;
+
+   /**
+    * Create a reader that splits lines at the given delimiters. Carriage returns are always treated as
+    * delimiters.
+    */
+   public ParallelTextReader(String delims)
+   {
+      bDelim = new boolean[128];
+      for(int i = 0; i < delims.length(); i++){
+         char c = delims.charAt(i);
+         if (c < 128) bDelim[c] = true;
+      }
+      bDelim['\r'] = true;
+      nThreads = Runtime.getRuntime().availableProcessors();
+   }
+
+   /** set the number of threads used to parse chunks */
+   public void setNumThreads(int nThreads)
+   {
+      this.nThreads = Math.max(1, nThreads);
+   }
+
+   /** set the (approximate) number of bytes in each chunk */
+   public void setChunkSize(int nBytes)
+   {
+      chunkSize = Math.max(1, nBytes);
+   }
+
+   /**
+    * Set the number of columns in each row; tokens beyond this are ignored
+    *
+    * @param nCols number of columns (-1 = number of tokens in the first non-empty line)
+    */
+   public void setNumColumns(int nCols)
+   {
+      this.nCols = nCols;
+   }
+
+   /**
+    * Designate a column as a time stamp
+    *
+    * @param iCol index of the column (negative values count from the last column, i.e., -1 = last column)
+    * @param tp converts the time stamp text to ms
+    */
+   public void setTimeColumn(int iCol, TimeParser tp)
+   {
+      iTimeCol = iCol;
+      timeParser = tp;
+   }
+
+   /**
+    * Read and parse the given file
+    *
+    * @return list of parsed chunks in file order
+    */
+   public ArrayList<Chunk> read(File file) throws IOException
+   {
+      final FileChannel fc = new FileInputStream(file).getChannel();
+      try{
+         final long size = fc.size();
+         final int nc = (nCols > 0 ? nCols : countColumns(fc, size));
+         int nChunks = (int)Math.max(1, (size + chunkSize - 1) / chunkSize);
+         ArrayList<Chunk> chunks = new ArrayList<Chunk>(nChunks);
+         int nWorkers = Math.min(nThreads, nChunks);
+         if (nWorkers == 1){
+            for(int i = 0; i < nChunks; i++)
+               chunks.add(parseChunk(fc, size * i / nChunks, size * (i + 1) / nChunks, size, nc));
+            return chunks;
+         }
+
+         ArrayList<Callable<Chunk>> jobs = new ArrayList<Callable<Chunk>>();
+         for(int i = 0; i < nChunks; i++){
+            final long a = size * i / nChunks;
+            final long b = size * (i + 1) / nChunks;
+            jobs.add(new Callable<Chunk>() {
+               public Chunk call() throws IOException
+               {
+                  return parseChunk(fc, a, b, size, nc);
+               }
+            });
+         }
+         ExecutorService pool = Executors.newFixedThreadPool(nWorkers);
+         try{
+            for(Future<Chunk> f : pool.invokeAll(jobs))
+               chunks.add(f.get());
+         } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+         } catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new RuntimeException(cause);
+         } finally{
+            pool.shutdown();
+         }
+         return chunks;
+      } finally{
+         fc.close();
+      }
+   }
+
+   /** @return number of tokens in the first non-empty line of the file (0 if there is none) */
+   protected int countColumns(FileChannel fc, long size) throws IOException
+   {
+      long n = Math.min(size, 1 << 16);
+      while(true){
+         if (n > Integer.MAX_VALUE) throw new IOException("first line too long");
+         byte[] buf = new byte[(int)n];
+         if (buf.length > 0) fc.map(FileChannel.MapMode.READ_ONLY, 0, buf.length).get(buf);
+         int i = 0;
+         while(i < buf.length){
+            int q = i;
+            while(q < buf.length && buf[q] != '\n')
+               q++;
+            if (q == buf.length && n < size) break; // line continues past the buffer
+            int nTok = 0;
+            for(int p = i; p < q; p++)
+               if (!isDelim(buf[p]) && (p == i || isDelim(buf[p - 1]))) nTok++;
+            if (nTok > 0) return nTok;
+            i = q + 1;
+         }
+         if (n >= size) return 0;
+         n = Math.min(size, n * 2);
+      }
+   }
+
+   /**
+    * Parse the lines that start in [a,b) of the file. The line that straddles b is parsed completely, and a
+    * partial line at a is skipped (it belongs to the previous chunk). Only the first nc tokens of each line are
+    * parsed.
+    */
+   protected Chunk parseChunk(FileChannel fc, long a, long b, long size, int nc) throws IOException
+   {
+      Chunk chunk = new Chunk(a, timeParser != null);
+      long slack = 1 << 16;
+      while(true){
+         long ma = Math.max(0, a - 1);
+         long mb = Math.min(size, b + slack);
+         if (mb - ma > Integer.MAX_VALUE) throw new IOException("line too long (near byte " + b + ")");
+         byte[] buf = new byte[(int)(mb - ma)];
+         if (buf.length > 0) fc.map(FileChannel.MapMode.READ_ONLY, ma, buf.length).get(buf);
+
+         // find the start of the first line in this chunk
+         int i = (int)(a - ma);
+         if (a > 0 && buf[0] != '\n'){
+            while(i < buf.length && buf[i] != '\n')
+               i++;
+            i++;
+         }
+         int iStop = (int)(b - ma);
+         if (i >= iStop) return chunk;
+
+         // find the end of the last line that starts in this chunk
+         int k = iStop - 1;
+         while(k < buf.length && buf[k] != '\n')
+            k++;
+         if (k == buf.length && mb < size){
+            slack *= 2;
+            continue;
+         }
+         int iEnd = Math.min(k + 1, buf.length);
+
+         int[] ts = new int[64], te = new int[64];
+         while(i < iEnd){
+            int q = i;
+            while(q < iEnd && buf[q] != '\n')
+               q++;
+
+            // find the tokens in this line (only the first nc are needed)
+            int nTok = 0;
+            int p = i;
+            while(p < q && nTok < nc){
+               while(p < q && isDelim(buf[p]))
+                  p++;
+               if (p == q) break;
+               if (nTok == ts.length){
+                  ts = Arrays.copyOf(ts, nTok * 2);
+                  te = Arrays.copyOf(te, nTok * 2);
+               }
+               ts[nTok] = p;
+               while(p < q && !isDelim(buf[p]))
+                  p++;
+               te[nTok++] = p;
+            }
+
+            if (nTok > 0){
+               int it = (timeParser == null ? -1 : (iTimeCol >= 0 ? iTimeCol : nc + iTimeCol));
+               long ms = -1;
+               for(int j = 0; j < nTok; j++){
+                  if (j == it) ms = timeParser.parseTime(new String(buf, ts[j], te[j] - ts[j], "ISO-8859-1").trim());
+                  else chunk.addVal(parseDouble(buf, ts[j], te[j]));
+               }
+               chunk.endRow(nTok, ms);
+            }
+            i = q + 1;
+         }
+         return chunk;
+      }
+   }
+
+   protected final boolean isDelim(byte c)
+   {
+      return c >= 0 && bDelim[c];
+   }
+
+   protected static final double[] Pow10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+         1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+   /**
+    * Parse a decimal number from ASCII text. Numbers whose mantissa fits in 53 bits and whose decimal exponent is
+    * small are computed directly (exactly as Double.parseDouble would round them); everything else (long
+    * mantissas, large exponents, NaN, Infinity, ...) falls back on Double.parseDouble.
+    *
+    * @param buf text buffer
+    * @param a index of the first character
+    * @param b index after the last character
+    * @return value of the number
+    * @throws NumberFormatException if the text isn't a valid number
+    */
+   public static double parseDouble(byte[] buf, int a, int b)
+   {
+      int i = a;
+      while(i < b && (buf[i] == ' ' || buf[i] == '\t'))
+         i++;
+      int e = b;
+      while(e > i && (buf[e - 1] == ' ' || buf[e - 1] == '\t'))
+         e--;
+
+      boolean bNeg = false;
+      if (i < e && (buf[i] == '-' || buf[i] == '+')){
+         bNeg = (buf[i] == '-');
+         i++;
+      }
+      long m = 0;
+      int nDigits = 0, exp10 = 0;
+      boolean bDigits = false;
+      while(i < e && buf[i] >= '0' && buf[i] <= '9'){
+         bDigits = true;
+         if (nDigits < 18){
+            m = m * 10 + (buf[i] - '0');
+            if (m > 0) nDigits++;
+         }
+         else exp10++;
+         i++;
+      }
+      if (i < e && buf[i] == '.'){
+         i++;
+         while(i < e && buf[i] >= '0' && buf[i] <= '9'){
+            bDigits = true;
+            if (nDigits < 18){
+               m = m * 10 + (buf[i] - '0');
+               if (m > 0) nDigits++;
+               exp10--;
+            }
+            i++;
+         }
+      }
+      if (bDigits && i < e && (buf[i] == 'e' || buf[i] == 'E')){
+         i++;
+         boolean bNegExp = false;
+         if (i < e && (buf[i] == '-' || buf[i] == '+')){
+            bNegExp = (buf[i] == '-');
+            i++;
+         }
+         int x = 0;
+         boolean bExpDigits = false;
+         while(i < e && buf[i] >= '0' && buf[i] <= '9'){
+            bExpDigits = true;
+            if (x < 100000) x = x * 10 + (buf[i] - '0');
+            i++;
+         }
+         if (!bExpDigits) bDigits = false;
+         exp10 += (bNegExp ? -x : x);
+      }
+
+      if (bDigits && i == e && m < (1L << 53) && exp10 >= -22 && exp10 <= 22){
+         double x = m;
+         if (exp10 < 0) x /= Pow10[-exp10];
+         else x *= Pow10[exp10];
+         return bNeg ? -x : x;
+      }
+
+      // slow path: let Java deal with it
+      try{
+         return Double.parseDouble(new String(buf, a, b - a, "ISO-8859-1"));
+      } catch (UnsupportedEncodingException uee){
+         throw new RuntimeException(uee);
+      }
+   }
+}
@@ -0,0 +1,361 @@
+package kdm.io;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.concurrent.atomic.*;
+
+import kdm.data.*;
+import kdm.util.*;
+
+/**
+ * Persistent on-disk cache of (transformed) sequences. Each entry is identified by a string that describes how
+ * the sequence was produced (source file, loader, loader parameters, transformation chain) and is stamped with
+ * the state of the inputs (e.g., file size and modification time). The identity determines the file name (SHA-1
+ * hash), so when the inputs change, the stale entry is detected on lookup and overwritten by the next store.
+ *
+ * Entries are written to a temporary file and renamed so that an interrupted run can't leave a partial entry
+ * behind. Entries are memory mapped in segments (so they can be larger than a single 2GB mapping), and a cache
+ * hit returns a sequence backed by a lazy list that decodes frames from the mapped entry on demand.
+ */
+public class SeqCache
+{
+   public static final int Magic = 0x4B444D43; // "KDMC"
+   public static final int Version = 1;
+   public static final String Ext = ".kdc";
+
+   /** bytes per memory mapped segment of an entry (a single mapping is limited to 2GB) */
+   public static final int SegBytes = 1 << 30;
+   protected static final int DatesPerSeg = SegBytes / 8;
+
+   protected File dir;
+   protected final AtomicInteger nHits = new AtomicInteger(), nMisses = new AtomicInteger(),
+         nStale = new AtomicInteger();
+
+   /**
+    * Create a cache that stores its entries in the given directory
+    *
+    * @param dir cache directory (created if it doesn't exist)
+    */
+   public SeqCache(File dir)
+   {
+      this.dir = dir;
+      if (!dir.exists() && !dir.mkdirs())
+         System.err.printf("Warning: failed to create cache directory\n (%s)\n", dir.getAbsolutePath());
+   }
+
+   public File getDir()
+   {
+      return dir;
+   }
+
+   /** @return file that holds the entry with the given identity */
+   public File getFile(String sIdent)
+   {
+      return new File(dir, hash(sIdent) + Ext);
+   }
+
+   /** @return hex string of the SHA-1 hash of the given string */
+   public static String hash(String s)
+   {
+      try{
+         MessageDigest md = MessageDigest.getInstance("SHA-1");
+         byte[] digest = md.digest(s.getBytes("UTF-8"));
+         StringBuffer sb = new StringBuffer();
+         for(byte b : digest)
+            sb.append(String.format("%02x", b & 0xff));
+         return sb.toString();
+      } catch (Exception e){
+         // SHA-1 and UTF-8 are always available, but fall back on something reasonable just in case
+         return String.format("%08x%08x", s.hashCode(), s.length());
+      }
+   }
+
+   /**
+    * Look up an entry in the cache
+    *
+    * @param sIdent identity of the entry (how the sequence is computed)
+    * @param sStamp state of the inputs (e.g., file size and mtime)
+    * @return cached sequence or null if the entry doesn't exist or is stale
+    */
+   public Sequence get(String sIdent, String sStamp)
+   {
+      File file = getFile(sIdent);
+      if (!file.exists()){
+         nMisses.incrementAndGet();
+         return null;
+      }
+      Sequence seq = read(file, sIdent, sStamp);
+      if (seq == null){
+         nStale.incrementAndGet();
+         file.delete();
+      }
+      else nHits.incrementAndGet();
+      return seq;
+   }
+
+   /**
+    * Store a sequence in the cache (overwrites an existing entry with the same identity)
+    *
+    * @return true if successful
+    */
+   public boolean put(String sIdent, String sStamp, Sequence seq)
+   {
+      File file = getFile(sIdent);
+      File ftmp = new File(dir, file.getName() + ".tmp" + Thread.currentThread().getId());
+      try{
+         write(ftmp, sIdent, sStamp, seq);
+         if (file.exists()) file.delete();
+         if (!ftmp.renameTo(file)){
+            ftmp.delete();
+            return false;
+         }
+      } catch (IOException e){
+         System.err.printf("Warning: failed to write cache entry: %s\n (%s)\n", e.getMessage(), file
+               .getAbsolutePath());
+         ftmp.delete();
+         return false;
+      }
+      return true;
+   }
+
+   /** Remove all entries from the cache */
+   public void clear()
+   {
+      File[] files = dir.listFiles();
+      if (files == null) return;
+      for(File f : files)
+         if (f.getName().endsWith(Ext)) f.delete();
+   }
+
+   /** @return number of successful lookups */
+   public int getNumHits()
+   {
+      return nHits.get();
+   }
+
+   /** @return number of lookups for entries that didn't exist */
+   public int getNumMisses()
+   {
+      return nMisses.get();
+   }
+
+   /** @return number of lookups that found a stale (or corrupt) entry */
+   public int getNumStale()
+   {
+      return nStale.get();
+   }
+
+   protected static long strBytes(String s)
+   {
+      return 4 + (s == null ? 0 : 2L * s.length());
+   }
+
+   /** @return number of bytes in the header of an entry (everything before the frame data) */
+   protected static long headerBytes(String sIdent, String sStamp, String sName, String sOrig)
+   {
+      return 4 + 4 + strBytes(sIdent) + strBytes(sStamp) + 4 + 4 + 4 + 8 + 8 + strBytes(sName) + strBytes(sOrig)
+            + 4 + 4;
+   }
+
+   protected static void putStr(ByteBuffer bb, String s)
+   {
+      if (s == null){
+         bb.putInt(-1);
+         return;
+      }
+      bb.putInt(s.length());
+      for(int i = 0; i < s.length(); i++)
+         bb.putChar(s.charAt(i));
+   }
+
+   protected static String getStr(ByteBuffer bb)
+   {
+      int n = bb.getInt();
+      if (n < 0) return null;
+      char[] c = new char[n];
+      bb.asCharBuffer().get(c);
+      bb.position(bb.position() + 2 * n);
+      return new String(c);
+   }
+
+   /**
+    * @return string read from the stream (written by putStr)
+    * @throws IOException if the string would be longer than the given number of bytes
+    */
+   protected static String readStr(DataInputStream in, long nMaxBytes) throws IOException
+   {
+      int n = in.readInt();
+      if (n < 0) return null;
+      if (2L * n > nMaxBytes) throw new IOException("invalid string length");
+      char[] c = new char[n];
+      for(int i = 0; i < n; i++)
+         c[i] = in.readChar();
+      return new String(c);
+   }
+
+   protected static void write(File file, String sIdent, String sStamp, Sequence seq) throws IOException
+   {
+      int T = seq.length();
+      int D = seq.getNumDims();
+      MyLongList dates = seq.getDates(false);
+      int nDates = (dates == null ? 0 : dates.size());
+      long nHeader = headerBytes(sIdent, sStamp, seq.getName(), seq.getOrigFile());
+      if (nHeader > SegBytes || 8L * D > SegBytes)
+         throw new IOException(String.format("entry can't be mapped (%d header bytes, %d dims)", nHeader, D));
+
+      FileChannel fc = new RandomAccessFile(file, "rw").getChannel();
+      try{
+         fc.truncate(0);
+         MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_WRITE, 0, nHeader);
+         bb.putInt(Magic);
+         bb.putInt(Version);
+         putStr(bb, sIdent);
+         putStr(bb, sStamp);
+         bb.putInt(T);
+         bb.putInt(D);
+         bb.putInt(nDates);
+         bb.putDouble(seq.getFreq());
+         bb.putLong(seq.getStartMS());
+         putStr(bb, seq.getName());
+         putStr(bb, seq.getOrigFile());
+         bb.putInt(seq.getParentIndex());
+         bb.putInt(seq.getParentOffset());
+         bb.force();
+
+         // frames and dates are written one segment at a time
+         int framesPerSeg = SegBytes / Math.max(1, 8 * D);
+         for(int a = 0; a < T; a += framesPerSeg){
+            int n = Math.min(framesPerSeg, T - a);
+            bb = fc.map(FileChannel.MapMode.READ_WRITE, nHeader + 8L * a * D, 8L * n * D);
+            DoubleBuffer db = bb.asDoubleBuffer();
+            for(int t = a; t < a + n; t++)
+               db.put(seq.get(t).get());
+            bb.force();
+         }
+         long offDates = nHeader + 8L * T * D;
+         for(int a = 0; a < nDates; a += DatesPerSeg){
+            int n = Math.min(DatesPerSeg, nDates - a);
+            bb = fc.map(FileChannel.MapMode.READ_WRITE, offDates + 8L * a, 8L * n);
+            LongBuffer lb = bb.asLongBuffer();
+            for(int i = a; i < a + n; i++)
+               lb.put(dates.get(i));
+            bb.force();
+         }
+      } finally{
+         fc.close();
+      }
+   }
+
+   /**
+    * @return sequence stored in the file (backed by a lazy list over the mapped entry) or null if the file is
+    *         invalid or doesn't match the ident/stamp
+    */
+   protected static Sequence read(File file, String sIdent, String sStamp)
+   {
+      try{
+         FileChannel fc = new FileInputStream(file).getChannel();
+         try{
+            long size = fc.size();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(fc), 1 << 12));
+            if (in.readInt() != Magic || in.readInt() != Version) return null;
+            if (!sIdent.equals(readStr(in, size)) || !sStamp.equals(readStr(in, size))) return null;
+            int T = in.readInt();
+            int D = in.readInt();
+            int nDates = in.readInt();
+            double freq = in.readDouble();
+            long msStart = in.readLong();
+            String sName = readStr(in, size);
+            String sOrig = readStr(in, size);
+            int parIndex = in.readInt();
+            int parOffset = in.readInt();
+            if (T < 0 || D < 0 || 8L * D > SegBytes || (nDates != 0 && nDates != T)) return null;
+            long nHeader = headerBytes(sIdent, sStamp, sName, sOrig);
+            if (size < nHeader + 8L * T * D + 8L * nDates) return null;
+
+            CachedFrames frames = new CachedFrames(fc, nHeader, T, D, nDates > 0);
+            if (nDates > 0) msStart = frames.getDate(0);
+            Sequence seq = new Sequence(sName, freq, msStart, frames);
+            seq.setOrigFile(sOrig);
+            if (parIndex >= 0) seq.setParent(parIndex, parOffset);
+            return seq;
+         } finally{
+            fc.close();
+         }
+      } catch (Exception e){
+         System.err.printf("Warning: failed to read cache entry\n (%s)\n", file.getAbsolutePath());
+         return null;
+      }
+   }
+
+   /**
+    * Lazy list of the frames of a cache entry. The whole entry is mapped when it's read (which doesn't load any
+    * data), so the frames stay consistent even if the entry is overwritten later; frames are decoded on demand.
+    */
+   protected static class CachedFrames extends LazyFrameList
+   {
+      private static final long serialVersionUID = 1L;
+
+      protected final int nDims, framesPerSeg;
+      protected transient volatile ByteBuffer[] segs, dateSegs;
+
+      public CachedFrames(FileChannel fc, long offset, int nFrames, int nDims, boolean bDates) throws IOException
+      {
+         super(nFrames);
+         this.nDims = nDims;
+         framesPerSeg = SegBytes / Math.max(1, 8 * nDims);
+         ByteBuffer[] segs = new ByteBuffer[(int)((nFrames + (long)framesPerSeg - 1) / framesPerSeg)];
+         for(int i = 0; i < segs.length; i++){
+            long a = (long)i * framesPerSeg;
+            long n = Math.min(framesPerSeg, nFrames - a);
+            segs[i] = fc.map(FileChannel.MapMode.READ_ONLY, offset + 8L * a * nDims, 8L * n * nDims);
+         }
+         this.segs = segs;
+         if (bDates){
+            long offDates = offset + 8L * nFrames * nDims;
+            ByteBuffer[] dateSegs = new ByteBuffer[(int)((nFrames + (long)DatesPerSeg - 1) / DatesPerSeg)];
+            for(int i = 0; i < dateSegs.length; i++){
+               long a = (long)i * DatesPerSeg;
+               long n = Math.min(DatesPerSeg, nFrames - a);
+               dateSegs[i] = fc.map(FileChannel.MapMode.READ_ONLY, offDates + 8L * a, 8L * n);
+            }
+            this.dateSegs = dateSegs;
+         }
+      }
+
+      /** @return date stored for the given frame */
+      protected long getDate(int i)
+      {
+         return getDate(dateSegs, i);
+      }
+
+      protected static long getDate(ByteBuffer[] dateSegs, int i)
+      {
+         return dateSegs[i / DatesPerSeg].getLong(8 * (i % DatesPerSeg));
+      }
+
+      @Override
+      protected FeatureVec loadFrame(int i)
+      {
+         // release() clears segs before dateSegs, so read them in the opposite order
+         ByteBuffer[] dateSegs = this.dateSegs, segs = this.segs;
+         if (segs == null) return get(i); // materialized by another thread
+         ByteBuffer bb = segs[i / framesPerSeg];
+         int p = 8 * nDims * (i % framesPerSeg);
+         FeatureVec fv = new FeatureVec(nDims);
+         double[] x = fv.get();
+         for(int d = 0; d < nDims; d++, p += 8)
+            x[d] = bb.getDouble(p);
+         if (dateSegs != null) fv.setTime(getDate(dateSegs, i));
+         return fv;
+      }
+
+      @Override
+      protected void release()
+      {
+         segs = null;
+         dateSegs = null;
+      }
+   }
+}
@@ -2,11 +2,9 @@ package kdm.io;
 
 import java.io.*;
 import java.nio.*;
-import java.nio.channels.*;
 import javax.sound.sampled.*;
 import java.awt.*;
 
-import kdm.data.*;
 import kdm.util.*;
 import kdm.gui.*;
 
@@ -15,10 +13,9 @@ import kdm.gui.*;
  */
 public class WavReader
 {
-   protected FileChannel fc;
-   protected MappedByteBuffer bb;   
+   protected WavStream stream;
    protected PlayThread playThread;   
-   protected int nChannels, sampleRate, byteRate, blockAlign, bps, nSamples, headerLen;
+   protected int nChannels, sampleRate, byteRate, blockAlign, bps, nSamples;
 
    protected WavReader()
    {}
@@ -28,6 +25,9 @@ public class WavReader
    public int getNumChannels(){ return nChannels; }
    public int getBitsPerSec(){ return bps; }   
 
+   /** @return underlying stream (for windowed access to the samples) */
+   public WavStream getStream(){ return stream; }
+
    public static WavReader construct(File file)
    {
       WavReader wav = new WavReader();
@@ -46,116 +46,25 @@ public class WavReader
          playThread = null;
       }
       
-      // Close the channel and the stream
-      if (fc != null)
+      // release the mapped data
+      if (stream != null)
       {         
-         try
-         {
-            
-            fc.close();
-         } catch (IOException e)
-         {}
-         fc = null;
-         bb = null;
+         stream.close();
+         stream = null;
       }
    }
 
    protected boolean load(File file)
    {
-      try
-      {
-         fc = new FileInputStream(file).getChannel();
-
-         // Get the file's size and then map it into memory
-         int szFile = (int)fc.size();
-         // System.err.printf(" file size: %d\n", szFile);
-         bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, szFile);
-         bb.order(ByteOrder.LITTLE_ENDIAN);
-
-         // read riff header
-         byte[] riff = new byte[4];
-         bb.get(riff);
-         if (riff[0] != 'R' || riff[1] != 'I' || riff[2] != 'F' || riff[3] != 'F')
-         {
-            System.err.printf("Error: invalid RIFF header\n");
-            return false;
-         }
-
-         int chunkSize = bb.getInt();
-
-         byte[] wave = new byte[4];
-         bb.get(wave);
-         if (wave[0] != 'W' || wave[1] != 'A' || wave[2] != 'V' || wave[3] != 'E')
-         {
-            System.err.printf("Error: invalid WAVE header\n");
-            return false;
-         }
-
-         // read fmt chunk
-         byte[] fmt = new byte[4];
-         bb.get(fmt);
-         if (fmt[0] != 'f' || fmt[1] != 'm' || fmt[2] != 't' || fmt[3] != ' ')
-         {
-            System.err.printf("Error: invalid fmt header\n");
-            return false;
-         }
-
-         int szChunk1 = bb.getInt();
-         if (szChunk1 != 16)
-         {
-            System.err.printf("Error: Invalid chunk1 size for PCM: %d\n", szChunk1);
-            return false;
-         }
-
-         short format = bb.getShort();
-         if (format != 1)
-         {
-            System.err.printf("Error: Invalid format for PCM: %d\n", format);
-            return false;
-         }
-
-         nChannels = bb.getShort();
-         // System.err.printf(" nChannels: %d\n", nChannels);
-
-         sampleRate = bb.getInt();
-         // System.err.printf(" sample rate: %d\n", sampleRate);
-
-         byteRate = bb.getInt();
-         // System.err.printf(" byte rate: %d\n", byteRate);
-
-         blockAlign = bb.getShort();
-         // System.err.printf(" block align: %d\n", blockAlign);
-
-         bps = bb.getShort();
-         if (bps != 8 && bps != 16)
-         {
-            System.err.printf("Error: invalid bits per sample (only 8 & 16 are supported): %d\n", bps);
-            return false;
-         }
-         // System.err.printf(" bits per sample: %d\n", bps);
-
-         // read data chunk
-         byte[] dat = new byte[4];
-         bb.get(dat);
-         if (dat[0] != 'd' || dat[1] != 'a' || dat[2] != 't' || dat[3] != 'a')
-         {
-            System.err.printf("Error: invalid data header\n");
-            return false;
-         }
-
-         int szChunk2 = bb.getInt();
-         nSamples = szChunk2 / (bps * nChannels / 8);
-         // System.err.printf(" data size (bytes): %d (= %d samples)\n", szChunk2, nSamples);
-
-         headerLen = bb.position();
-         // System.err.printf(" headerLen: %d\n", headerLen);
-
-         return true;
-      } catch (Exception e)
-      {
-         e.printStackTrace();
-         return false;
-      }
+      stream = WavStream.open(file);
+      if (stream == null) return false;
+      nChannels = stream.getNumChannels();
+      sampleRate = stream.getFreq();
+      byteRate = stream.getByteRate();
+      blockAlign = stream.getBlockAlign();
+      bps = stream.getBitsPerSample();
+      nSamples = (int)Math.min(stream.length(), Integer.MAX_VALUE);
+      return true;
    }
 
    public void stop()
@@ -171,30 +80,16 @@ public class WavReader
    public short[] getData16(int iStartSample, int iStopSample)
    {
       assert(bps == 16);      
-      AudioFormat audioFormat = getAudioFormat();
-      int bytesPerSample = audioFormat.getFrameSize();
-      int nPlaySamples = iStopSample - iStartSample;
-      int nPlayBytes = nPlaySamples * bytesPerSample;
-      int nFrameSize = audioFormat.getFrameSize();
-      byte[] audioData = new byte[nPlayBytes];
-      bb.position(headerLen + iStartSample*bytesPerSample);
-      bb.get(audioData);
-      ShortBuffer sb = bb.asShortBuffer();
-      return sb.array();
+      byte[] audioData = stream.readBytes(iStartSample, iStopSample - iStartSample);
+      short[] data = new short[audioData.length / 2];
+      ByteBuffer.wrap(audioData).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(data);
+      return data;
    }
    
    public byte[] getData8(int iStartSample, int iStopSample)
    {
       assert(bps == 8);      
-      AudioFormat audioFormat = getAudioFormat();
-      int bytesPerSample = audioFormat.getFrameSize();
-      int nPlaySamples = iStopSample - iStartSample;
-      int nPlayBytes = nPlaySamples * bytesPerSample;
-      int nFrameSize = audioFormat.getFrameSize();
-      byte[] audioData = new byte[nPlayBytes];
-      bb.position(headerLen + iStartSample*bytesPerSample);
-      bb.get(audioData);
-      return bb.array();
+      return stream.readBytes(iStartSample, iStopSample - iStartSample);
    }
    
    
@@ -213,10 +108,7 @@ public class WavReader
          System.err.printf("play %d -> %d (%d)\n", iStartSample, iStopSample, nPlaySamples);
          //System.err.printf(" #bytes=%d  bytesPerSample=%d\n", nPlayBytes, bytesPerSample);
          
-         int nFrameSize = audioFormat.getFrameSize();
-         byte[] audioData = new byte[nPlayBytes];
-         bb.position(headerLen + iStartSample*bytesPerSample);
-         bb.get(audioData);
+         byte[] audioData = stream.readBytes(iStartSample, nPlaySamples);
          DataLine.Info dataLineInfo = new DataLine.Info(SourceDataLine.class, audioFormat);
          SourceDataLine sourceDataLine = (SourceDataLine)AudioSystem.getLine(dataLineInfo);
          playThread = new PlayThread(graph, audioFormat, iStartSample, audioData, sourceDataLine);
@@ -0,0 +1,311 @@
+package kdm.io;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Random access and streaming reader for (8 or 16 bit PCM) .wav files of any size. The data section is memory
+ * mapped in segments as it's accessed, so files larger than 2GB can be processed. Samples (or windows of
+ * samples) are decoded straight into primitive buffers. Reads use absolute buffer access, so a single stream can
+ * be shared by several threads.
+ */
+public class WavStream
+{
+   /** approximate number of bytes in each mapped segment */
+   public static final int SegmentBytes = 1 << 28;
+
+   protected File file;
+   protected int nChannels, sampleRate, byteRate, blockAlign, bps, bytesPerSample;
+   protected long dataOffset, dataBytes, nSamples;
+   protected int segFrames;
+   protected MappedByteBuffer[] segs;
+
+   protected WavStream()
+   {}
+
+   /**
+    * Open the given wav file
+    *
+    * @return stream for the file, or null on error
+    */
+   public static WavStream open(File file)
+   {
+      WavStream wav = new WavStream();
+      if (!wav.init(file)) return null;
+      return wav;
+   }
+
+   /** @return number of samples (per channel) */
+   public long length()
+   {
+      return nSamples;
+   }
+
+   public int getNumChannels()
+   {
+      return nChannels;
+   }
+
+   public int getFreq()
+   {
+      return sampleRate;
+   }
+
+   public int getByteRate()
+   {
+      return byteRate;
+   }
+
+   public int getBlockAlign()
+   {
+      return blockAlign;
+   }
+
+   /** @return number of bits in each sample */
+   public int getBitsPerSample()
+   {
+      return bps;
+   }
+
+   public File getFile()
+   {
+      return file;
+   }
+
+   /** release the mapped segments (they are re-mapped if the stream is accessed again) */
+   public synchronized void close()
+   {
+      if (segs != null) Arrays.fill(segs, null);
+   }
+
+   protected boolean init(File file)
+   {
+      this.file = file;
+      try{
+         FileChannel fc = new FileInputStream(file).getChannel();
+         try{
+            return parseHeader(fc);
+         } finally{
+            fc.close();
+         }
+      } catch (IOException e){
+         e.printStackTrace();
+         return false;
+      }
+   }
+
+   /** read the RIFF header and find the fmt and data chunks */
+   protected boolean parseHeader(FileChannel fc) throws IOException
+   {
+      long szFile = fc.size();
+      ByteBuffer hdr = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(fc, hdr, 0);
+      if (hdr.get(0) != 'R' || hdr.get(1) != 'I' || hdr.get(2) != 'F' || hdr.get(3) != 'F'){
+         System.err.printf("Error: invalid RIFF header\n");
+         return false;
+      }
+      if (hdr.get(8) != 'W' || hdr.get(9) != 'A' || hdr.get(10) != 'V' || hdr.get(11) != 'E'){
+         System.err.printf("Error: invalid WAVE header\n");
+         return false;
+      }
+
+      // walk the chunks until we find the data (skipping anything we don't know about)
+      boolean bFmt = false;
+      long pos = 12;
+      ByteBuffer ch = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      while(pos + 8 <= szFile){
+         ch.clear();
+         readFully(fc, ch, pos);
+         String id = new String(new byte[] { ch.get(0), ch.get(1), ch.get(2), ch.get(3) }, "US-ASCII");
+         long sz = ch.getInt(4) & 0xFFFFFFFFL;
+         pos += 8;
+         if (id.equals("fmt ")){
+            if (sz < 16){
+               System.err.printf("Error: Invalid fmt chunk size for PCM: %d\n", sz);
+               return false;
+            }
+            ByteBuffer fmt = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(fc, fmt, pos);
+            short format = fmt.getShort(0);
+            if (format != 1){
+               System.err.printf("Error: Invalid format for PCM: %d\n", format);
+               return false;
+            }
+            nChannels = fmt.getShort(2);
+            sampleRate = fmt.getInt(4);
+            byteRate = fmt.getInt(8);
+            blockAlign = fmt.getShort(12);
+            bps = fmt.getShort(14);
+            if (bps != 8 && bps != 16){
+               System.err.printf("Error: invalid bits per sample (only 8 & 16 are supported): %d\n", bps);
+               return false;
+            }
+            bytesPerSample = bps / 8;
+            if (blockAlign < nChannels * bytesPerSample) blockAlign = nChannels * bytesPerSample;
+            bFmt = true;
+         }
+         else if (id.equals("data")){
+            if (!bFmt){
+               System.err.printf("Error: data chunk before fmt chunk\n");
+               return false;
+            }
+            dataOffset = pos;
+            // streaming writers often leave the size at 0 or -1, so trust the file length in that case
+            dataBytes = (sz == 0 || sz == 0xFFFFFFFFL || pos + sz > szFile ? szFile - pos : sz);
+            nSamples = dataBytes / blockAlign;
+            segFrames = Math.max(1, SegmentBytes / blockAlign);
+            segs = new MappedByteBuffer[(int)((nSamples + segFrames - 1) / segFrames)];
+            return true;
+         }
+         pos += sz + (sz & 1); // chunks are word aligned
+      }
+      System.err.printf("Error: no data chunk found\n");
+      return false;
+   }
+
+   protected static void readFully(FileChannel fc, ByteBuffer bb, long pos) throws IOException
+   {
+      while(bb.hasRemaining()){
+         int n = fc.read(bb, pos);
+         if (n < 0) throw new EOFException();
+         pos += n;
+      }
+   }
+
+   /** @return mapped segment with the given index */
+   protected synchronized ByteBuffer getSegment(int iSeg)
+   {
+      if (segs[iSeg] == null){
+         long a = (long)iSeg * segFrames;
+         long n = Math.min(segFrames, nSamples - a);
+         try{
+            FileChannel fc = new FileInputStream(file).getChannel();
+            try{
+               MappedByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, dataOffset + a * blockAlign, n * blockAlign);
+               bb.order(ByteOrder.LITTLE_ENDIAN);
+               segs[iSeg] = bb;
+            } finally{
+               fc.close();
+            }
+         } catch (IOException e){
+            throw new RuntimeException(String.format("failed to map wav data (%s)", file), e);
+         }
+      }
+      return segs[iSeg];
+   }
+
+   /** @return value of one sample (8 bit data is unsigned: 0..255; 16 bit data is signed) */
+   public double getSample(long iSample, int iChannel)
+   {
+      ByteBuffer bb = getSegment((int)(iSample / segFrames));
+      int p = (int)(iSample % segFrames) * blockAlign + iChannel * bytesPerSample;
+      if (bps == 8) return bb.get(p) & 0xFF;
+      return bb.getShort(p);
+   }
+
+   /**
+    * Read interleaved samples (all channels) into a buffer
+    *
+    * @param iStart index of the first sample
+    * @param n number of samples to read
+    * @param buf destination (length >= n * #channels)
+    * @return number of samples read (less than n at the end of the file)
+    */
+   public int read(long iStart, int n, double[] buf)
+   {
+      n = (int)Math.max(0, Math.min(n, nSamples - iStart));
+      int k = 0;
+      for(int i = 0; i < n;){
+         long ii = iStart + i;
+         ByteBuffer bb = getSegment((int)(ii / segFrames));
+         int j0 = (int)(ii % segFrames);
+         int m = Math.min(n - i, segFrames - j0);
+         for(int j = 0; j < m; j++){
+            int p = (j0 + j) * blockAlign;
+            if (bps == 8) for(int c = 0; c < nChannels; c++, p++)
+               buf[k++] = bb.get(p) & 0xFF;
+            else for(int c = 0; c < nChannels; c++, p += 2)
+               buf[k++] = bb.getShort(p);
+         }
+         i += m;
+      }
+      return n;
+   }
+
+   /**
+    * Read samples from one channel into a buffer (e.g., FFT input)
+    *
+    * @param iStart index of the first sample
+    * @param n number of samples to read
+    * @param iChannel channel to read
+    * @param buf destination
+    * @param off offset in the destination buffer
+    * @return number of samples read (less than n at the end of the file)
+    */
+   public int readChannel(long iStart, int n, int iChannel, double[] buf, int off)
+   {
+      n = (int)Math.max(0, Math.min(n, nSamples - iStart));
+      for(int i = 0; i < n;){
+         long ii = iStart + i;
+         ByteBuffer bb = getSegment((int)(ii / segFrames));
+         int j0 = (int)(ii % segFrames);
+         int m = Math.min(n - i, segFrames - j0);
+         int p = j0 * blockAlign + iChannel * bytesPerSample;
+         if (bps == 8) for(int j = 0; j < m; j++, p += blockAlign)
+            buf[off++] = bb.get(p) & 0xFF;
+         else for(int j = 0; j < m; j++, p += blockAlign)
+            buf[off++] = bb.getShort(p);
+         i += m;
+      }
+      return n;
+   }
+
+   /**
+    * Read the raw (little endian PCM) bytes of a range of samples (e.g., for playback)
+    *
+    * @return raw data (length = #samples read * block align)
+    */
+   public byte[] readBytes(long iStart, int n)
+   {
+      n = (int)Math.max(0, Math.min(n, nSamples - iStart));
+      byte[] buf = new byte[n * blockAlign];
+      for(int i = 0, k = 0; i < n;){
+         long ii = iStart + i;
+         ByteBuffer bb = getSegment((int)(ii / segFrames)).duplicate();
+         int j0 = (int)(ii % segFrames);
+         int m = Math.min(n - i, segFrames - j0);
+         bb.position(j0 * blockAlign);
+         bb.get(buf, k, m * blockAlign);
+         k += m * blockAlign;
+         i += m;
+      }
+      return buf;
+   }
+
+   /** @return number of windows of the given length and hop that fit in the file */
+   public long getNumWindows(int nWindow, int nHop)
+   {
+      return (nSamples < nWindow ? 0 : (nSamples - nWindow) / nHop + 1);
+   }
+
+   /**
+    * Compute the RMS energy of each channel over a window of samples
+    *
+    * @param iStart index of the first sample
+    * @param n number of samples in the window
+    * @param buf scratch buffer (length >= n * #channels)
+    * @param energy destination (length >= #channels)
+    */
+   public void energy(long iStart, int n, double[] buf, double[] energy)
+   {
+      n = read(iStart, n, buf);
+      for(int c = 0; c < nChannels; c++){
+         double sum = 0;
+         for(int i = 0, k = c; i < n; i++, k += nChannels)
+            sum += buf[k] * buf[k];
+         energy[c] = (n > 0 ? Math.sqrt(sum / n) : 0);
+      }
+   }
+}
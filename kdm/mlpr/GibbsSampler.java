@@ -14,6 +14,14 @@ public class GibbsSampler
     public static double[][] estimateDist(ArrayList<Sequence> data, int nMarkers, 
                                           ProbSeqModel modelClass, double prior,
                                           int nMinPatLen)
+    {
+        return estimateDist(data, nMarkers, modelClass, prior, nMinPatLen, Library.rng);
+    }
+
+    /** same as above, but all random choices come from the given stream */
+    public static double[][] estimateDist(ArrayList<Sequence> data, int nMarkers, 
+                                          ProbSeqModel modelClass, double prior,
+                                          int nMinPatLen, RandomStream rng)
     {
         int nSeqs = data.size();
         int nTotalValues ;
@@ -45,7 +53,7 @@ public class GibbsSampler
             int nMix = 8;
             GMM1D mix2 = new GMM1D(nMix); // TODO: determine best mixture size?
             mix2.setReport(Report.loglik);
-            mix2.learn(vals);
+            mix2.learn(vals, rng);
             double v = mix2.eval(vals);
             if (v > bestv)
             {
@@ -75,7 +83,7 @@ public class GibbsSampler
         // pick initial marker locations
         for(int i=0; i<nMarkers; i++)
         {
-            markers[i] = Library.sample(dist);
+            markers[i] = Library.sample(rng, dist);
             assert (markers[i] != null);
         }
 
@@ -86,14 +94,14 @@ public class GibbsSampler
             // pick a marker to move
             int iMarker;
             do{
-                iMarker = (int)(Library.random() * nMarkers);
+                iMarker = Library.random(rng, nMarkers);
             } while(iMarker == iLastMarker);
             iLastMarker = iMarker;
             
             // choose a base marker to init the model
             int iBaseMarker;
             do{
-                iBaseMarker = (int)(Library.random() * nMarkers);
+                iBaseMarker = Library.random(rng, nMarkers);
             } while(iBaseMarker == iMarker);
             int iBaseSeries = markers[iBaseMarker][0];
             int iBaseEnd = markers[iBaseMarker][1];
@@ -55,7 +55,7 @@ public class KMeans implements ClusteringAlgo
    }
 
    /**
-    * Cluster the given data
+    * Cluster the given data using the shared Library.rng (don't call this from pool tasks)
     * 
     * @param k number of clusters
     * @param data points to cluster
@@ -63,6 +63,20 @@ public class KMeans implements ClusteringAlgo
     *         locations)
     */
    public int[] cluster(int k, Sequence data)
+   {
+      return cluster(k, data, Library.rng);
+   }
+
+   /**
+    * Cluster the given data; the initial centers are chosen using the given random stream
+    * 
+    * @param k number of clusters
+    * @param data points to cluster
+    * @param rng random stream used to pick the initial centers
+    * @return cluster membership (use getCenters() to find cluster center
+    *         locations)
+    */
+   public int[] cluster(int k, Sequence data, RandomStream rng)
    {
       int n = data.length();
       centers = new FeatureVec[k];
@@ -79,7 +93,7 @@ public class KMeans implements ClusteringAlgo
 
       // randomly initialize cluster centers
       // TODO: better to init cluster membership and compute cluster center?
-      int ic[] = Library.selectRandomIndices(k, n);
+      int ic[] = Library.selectRandomIndices(rng, k, n);
       for(int i = 0; i < k; i++){
          centers[i] = data.get(ic[i]);
          oldCenters[i] = new FeatureVec(centers[i]);
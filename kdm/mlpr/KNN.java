@@ -40,6 +40,19 @@ public class KNN extends SPTree
         return iknn;
     }
 
+    /**
+     * Locates the k-nearest-neighbors (k = nn.length) to the specified data point without
+     * allocating; the list must keep the k smallest keys with the newest first on ties, i.e.,
+     * new TopKHeap(k, false, true), and is reused for each query, so parallel searches should
+     * give each thread its own list.
+     *
+     * @return true if k neighbors were found (unused entries of nn are set to -1)
+     */
+    public boolean findi(double x[], TopKHeap top, int nn[])
+    {
+        return ((KnnNode)root).find(x, top, nn);
+    }
+
     /**
      * Locates the k-nearest-neighbors to ix^th data point.
      */
@@ -119,16 +132,28 @@ class KnnNode extends SPNode
 
     public boolean find(double x[], int nn[])
     {
-        int k = nn.length;
-        AugKNN aug = new AugKNN(k);
-
-        find(x, aug);
+        return find(x, new TopKHeap(nn.length, false, true), nn);
+    }
 
-        for(int i=0; i<k; i++) nn[i] = aug.index[i];
-        return (aug.getMaxDist() < Double.POSITIVE_INFINITY);
+    /**
+     * Locates the k-nearest-neighbors (k = nn.length) using the given list, which is cleared first
+     * so that it can be reused across queries (one list per thread for parallel searches).
+     *
+     * @return true if k neighbors were found; unused entries of nn are set to -1
+     */
+    public boolean find(double x[], TopKHeap top, int nn[])
+    {
+        assert(top.getK() == nn.length && !top.keepsLargest() && top.keepsNewestFirst());
+        top.clear();
+        find(x, top);
+
+        int n = top.size();
+        top.getSorted(null, nn);
+        for(int i=n; i<nn.length; i++) nn[i] = -1;
+        return top.isFull();
     }
 
-    protected boolean find(double x[], AugKNN aug)
+    protected boolean find(double x[], TopKHeap top)
     {
         // if this is a leaf node, check all points
         if (left==null && right==null)
@@ -137,13 +162,17 @@ class KnnNode extends SPNode
             while(points.itMore())
             {
                 int i = points.itNext();
-                aug.update(i, x, data);
+                double d = Library.dist2(x, data[i]);
+
+                // spill nodes overlap, so the same point may be seen twice; a point that ties
+                // the kth distance is kept and the oldest point at that distance is dropped
+                if (top.accepts(d) && !top.containsValue(i)) top.offer(d, i);
             }
             return true;
         }
 
         // not a leaf node, so see if we can prune
-        double maxd = aug.getMaxDist();  // dist to kth nearest neighbor
+        double maxd = Math.sqrt(top.getBound());  // dist to kth nearest neighbor
         double d = Library.dist2(c, x);  // dist to node center
         double d2 = r + maxd;            // maxd + radius must be > dist to centroid
         if (d <= d2*d2)
@@ -151,21 +180,22 @@ class KnnNode extends SPNode
             if (type == Type.metric)
             {
                 // this is the easy case, just recurse for both children
-                ((KnnNode)left).find(x, aug);
-                ((KnnNode)right).find(x, aug);
+                ((KnnNode)left).find(x, top);
+                ((KnnNode)right).find(x, top);
             }
             else{
                 // only recurse for one child based on projection
-                if (z.length != x.length) z = new double[x.length];
-                Library.sub(z, x, c);
-                if (Library.dot(z,v) >= 0)
+                // (computed in place since the shared temp vector isn't safe for parallel searches)
+                double proj = 0;
+                for(int i=0; i<x.length; i++) proj += (x[i] - c[i]) * v[i];
+                if (proj >= 0)
                 {
-                    ((KnnNode)right).find(x, aug);
-                    if (aug.nFound < aug.k) ((KnnNode)left).find(x, aug);
+                    ((KnnNode)right).find(x, top);
+                    if (!top.isFull()) ((KnnNode)left).find(x, top);
                 }
                 else{
-                    ((KnnNode)left).find(x, aug);
-                    if (aug.nFound < aug.k) ((KnnNode)right).find(x, aug);
+                    ((KnnNode)left).find(x, top);
+                    if (!top.isFull()) ((KnnNode)right).find(x, top);
                 }
             }
         }
@@ -174,64 +204,3 @@ class KnnNode extends SPNode
         return false;
     }
 }
-
-//////////////////////////////////////////////////////////////////////
-
-class AugKNN
-{
-    public int k;
-    public int index[];
-    public double dist[];
-    public double maxd;
-    public int nFound;
-
-    public AugKNN(int _k)
-    {
-        k = _k;
-        nFound = 0;
-        index = new int[k];
-        dist = new double[k];
-        for(int i=0; i<k; i++)
-        {
-            index[i] = -1;
-            dist[i] = Library.INF;
-        }
-        maxd = Library.INF;
-    }
-
-    public final double getMaxDist(){ return maxd; }
-
-    public final boolean update(int ix, double x[], double data[][])
-    {
-        int i, j;
-
-        // TODO: this is a linear implementation
-        //      we could use binary search
-        //      and a linked list to improve efficiency
-
-        // ensure no dup insertions
-        for(i=0; i<k; i++) if (index[i] == ix) return false;
-
-        // determine appropriate position in list
-        double d = Library.dist2(x, data[ix]);
-        i = 0;
-        while(i<k && d>dist[i]) i++;
-        if (i >= k) return false; // off the list
-
-        // move everything down one slot
-        for(j=k-1; j>i; j--)
-        {
-            index[j] = index[j-1];
-            dist[j] = dist[j-1];
-        }
-
-        // fill in the new point
-        index[i] = ix;
-        dist[i] = d;
-        nFound++;
-
-        // update max distance
-        maxd = Math.sqrt(dist[k-1]);
-        return true;
-    }
-}
@@ -0,0 +1,545 @@
+package kdm.mlpr;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import kdm.data.*;
+import kdm.util.*;
+
+/**
+ * Computes the (self-join) matrix profile of a sequence: for every window of length m, the z-normalized
+ * Euclidean distance to its nearest non-trivial neighbor. The dot products for the first window are computed
+ * via FFT and then each diagonal of the distance matrix is swept with an O(1) update per cell (STOMP/SCRIMP).
+ * Diagonals are independent, so they are distributed across worker threads and can be processed in random
+ * order to support an anytime (approximate) result.
+ *
+ * Multidimensional sequences are handled in the style of mSTAMP: for each pair of windows, the per-dimension
+ * distances are sorted and the k-dimensional profile holds the average of the k smallest.
+ */
+public class MatrixProfile
+{
+   /** window length */
+   protected int m;
+
+   /** number of windows (T-m+1) */
+   protected int nw;
+
+   /** diagonals closer to the main diagonal than this are trivial matches and are skipped */
+   protected int nExcl;
+
+   /** number of worker threads */
+   protected int nThreads;
+
+   /** dimensions (in the original sequence) that are included in the profile */
+   protected int[] dims;
+
+   /** series index and offset used when reporting window locations */
+   protected int iSeries, iOffset;
+
+   /** mean-centered data for each selected dimension [nd][T] */
+   protected double[][] x;
+
+   /** mean of each window [nd][nw] */
+   protected double[][] mu;
+
+   /** 1/sdev of each window, or zero for a flat window [nd][nw] */
+   protected double[][] isig;
+
+   /** dot product of the first window with every window [nd][nw] */
+   protected double[][] qt0;
+
+   /** profile (distance) and profile index for k+1 dimensions [nd][nw] */
+   protected double[][] prof;
+   protected int[][] index;
+
+   /** order in which diagonals are processed and the number processed so far */
+   protected int[] diagOrder;
+   protected int nDiagDone;
+   protected boolean bShuffled;
+
+   /**
+    * Create a matrix profile over all dimensions of the given sequence.
+    *
+    * @param seq sequence to analyze
+    * @param m window length
+    */
+   public MatrixProfile(Sequence seq, int m)
+   {
+      this(seq, null, m);
+   }
+
+   /**
+    * Create a matrix profile over the specified dimensions of the given sequence. The profile is not computed
+    * until compute() (or one of the anytime methods) is called.
+    *
+    * @param seq sequence to analyze
+    * @param dims dimensions to use (null for all)
+    * @param m window length
+    */
+   public MatrixProfile(Sequence seq, int[] dims, int m)
+   {
+      if (dims == null){
+         dims = new int[seq.getNumDims()];
+         for(int d = 0; d < dims.length; d++)
+            dims[d] = d;
+      }
+      this.dims = dims;
+      this.m = m;
+      nw = seq.length() - m + 1;
+      assert (m > 2 && nw > 1) : String.format("invalid window length: %d (seq len=%d)", m, seq.length());
+      nExcl = Math.max(1, (m + 3) / 4);
+      nThreads = Runtime.getRuntime().availableProcessors();
+      if (seq.hasParent()){
+         iSeries = seq.getParentIndex();
+         iOffset = seq.getParentOffset();
+      }
+      else{
+         iSeries = -1;
+         iOffset = 0;
+      }
+
+      int nd = dims.length;
+      x = new double[nd][];
+      mu = new double[nd][nw];
+      isig = new double[nd][nw];
+      qt0 = new double[nd][];
+      for(int d = 0; d < nd; d++){
+         // centering doesn't change z-normalized distances but keeps the running dot products well conditioned
+         x[d] = seq.extractDim(dims[d]);
+         Library.add(x[d], -Library.sum(x[d]) / x[d].length);
+         calcWindowStats(x[d], mu[d], isig[d]);
+         qt0[d] = FFT.slidingDotProduct(Library.extract(x[d], 0, m), x[d]);
+      }
+
+      prof = Library.allocMatrixDouble(nd, nw, Library.INF);
+      index = Library.allocMatrixInt(nd, nw, -1);
+      diagOrder = new int[nw - nExcl];
+      for(int i = 0; i < diagOrder.length; i++)
+         diagOrder[i] = nExcl + i;
+      nDiagDone = 0;
+      bShuffled = false;
+   }
+
+   /** compute the mean and inverse standard deviation of every window */
+   protected void calcWindowStats(double[] v, double[] wmu, double[] wisig)
+   {
+      double sx = 0, sx2 = 0;
+      for(int i = 0; i < m; i++){
+         sx += v[i];
+         sx2 += v[i] * v[i];
+      }
+      for(int i = 0; i < nw; i++){
+         if (i > 0){
+            double a = v[i - 1], b = v[i + m - 1];
+            sx += b - a;
+            sx2 += b * b - a * a;
+         }
+         double mean = sx / m;
+         double var = sx2 / m - mean * mean;
+         wmu[i] = mean;
+         wisig[i] = (var < Library.MINV_ABS ? 0.0 : 1.0 / Math.sqrt(var));
+      }
+   }
+
+   /** set the number of worker threads used by subsequent calls to compute() */
+   public void setNumThreads(int n)
+   {
+      nThreads = Math.max(1, n);
+   }
+
+   /**
+    * Set the exclusion zone; matches between windows that start fewer than this many frames apart are
+    * considered trivial. Must be called before any diagonals are processed.
+    */
+   public void setExclusionZone(int n)
+   {
+      assert (nDiagDone == 0);
+      nExcl = Math.max(1, Math.min(n, nw - 1));
+      diagOrder = new int[nw - nExcl];
+      for(int i = 0; i < diagOrder.length; i++)
+         diagOrder[i] = nExcl + i;
+      bShuffled = false;
+   }
+
+   /** @return window length */
+   public int getWindowLength()
+   {
+      return m;
+   }
+
+   /** @return number of windows (i.e., length of the profile) */
+   public int getNumWindows()
+   {
+      return nw;
+   }
+
+   /** @return number of dimensions included in the profile */
+   public int getNumDims()
+   {
+      return dims.length;
+   }
+
+   /** @return fraction of the distance matrix that has been processed */
+   public double getFractionDone()
+   {
+      return (double)nDiagDone / diagOrder.length;
+   }
+
+   /** @return true if the profile is exact (i.e., all diagonals have been processed) */
+   public boolean isExact()
+   {
+      return nDiagDone == diagOrder.length;
+   }
+
+   /**
+    * Compute the exact matrix profile (processing any remaining diagonals).
+    *
+    * @return this matrix profile
+    */
+   public MatrixProfile compute()
+   {
+      run(diagOrder.length, -1);
+      return this;
+   }
+
+   /**
+    * Compute an approximate profile by processing diagonals in random order until the given fraction of the
+    * distance matrix has been covered. Calls can be repeated with increasing fractions to refine the result.
+    *
+    * @param fraction fraction of diagonals to process in total (0..1]
+    * @return this matrix profile
+    */
+   public MatrixProfile computeAnytime(double fraction)
+   {
+      shuffleDiags();
+      int nLimit = (int)Math.ceil(Math.min(1.0, fraction) * diagOrder.length);
+      run(nLimit, -1);
+      return this;
+   }
+
+   /**
+    * Compute an approximate profile by processing diagonals in random order until the time budget expires (or
+    * the profile is exact). Calls can be repeated to refine the result.
+    *
+    * @param ms time budget in milliseconds
+    * @return this matrix profile
+    */
+   public MatrixProfile computeFor(long ms)
+   {
+      shuffleDiags();
+      run(diagOrder.length, System.currentTimeMillis() + ms);
+      return this;
+   }
+
+   /** randomize the order of the unprocessed diagonals */
+   protected void shuffleDiags()
+   {
+      if (bShuffled) return;
+      int n = diagOrder.length;
+      for(int i = nDiagDone; i < n; i++){
+         int j = i + Library.random(n - i);
+         int t = diagOrder[i];
+         diagOrder[i] = diagOrder[j];
+         diagOrder[j] = t;
+      }
+      bShuffled = true;
+   }
+
+   /**
+    * Process diagonals [nDiagDone..nLimit) of diagOrder using the worker pool. If the calling thread is
+    * interrupted (or a worker fails), the running workers are allowed to finish and a RuntimeException is
+    * thrown without changing the profile, so the same diagonals are processed again by the next call.
+    *
+    * @param nLimit process diagonals up to (but not including) this position in diagOrder
+    * @param msDeadline stop pulling new diagonals after this time (-1 for no deadline)
+    */
+   protected void run(final int nLimit, final long msDeadline)
+   {
+      if (nDiagDone >= nLimit) return;
+      final AtomicInteger next = new AtomicInteger(nDiagDone);
+      final AtomicBoolean bAbort = new AtomicBoolean();
+      int nWorkers = Math.min(nThreads, nLimit - nDiagDone);
+
+      ArrayList<Worker> workers = new ArrayList<Worker>();
+      for(int i = 0; i < nWorkers; i++)
+         workers.add(new Worker(next, nLimit, msDeadline, bAbort));
+
+      if (nWorkers == 1) workers.get(0).call();
+      else{
+         ExecutorService pool = Executors.newFixedThreadPool(nWorkers);
+         try{
+            for(Future<Worker> f : pool.invokeAll(workers))
+               f.get();
+         } catch (InterruptedException e){
+            // the profile and nDiagDone are left as they were: claimed diagonals may not have been finished
+            abort(pool, bAbort);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+         } catch (ExecutionException e){
+            abort(pool, bAbort);
+            throw new RuntimeException(e.getCause());
+         } finally{
+            pool.shutdown();
+         }
+      }
+
+      // merge the per-thread profiles
+      int nd = dims.length;
+      for(Worker w : workers)
+         for(int k = 0; k < nd; k++)
+            for(int i = 0; i < nw; i++)
+               if (w.prof[k][i] < prof[k][i]){
+                  prof[k][i] = w.prof[k][i];
+                  index[k][i] = w.index[k][i];
+               }
+      nDiagDone = Math.min(next.get(), nLimit);
+   }
+
+   /** stop the workers from claiming more diagonals and wait for the running ones to finish */
+   protected static void abort(ExecutorService pool, AtomicBoolean bAbort)
+   {
+      bAbort.set(true);
+      pool.shutdown();
+      boolean bInterrupted = false;
+      while(true){
+         try{
+            if (pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)) break;
+         } catch (InterruptedException e){
+            bInterrupted = true;
+         }
+      }
+      if (bInterrupted) Thread.currentThread().interrupt();
+   }
+
+   /** Sweeps diagonals and maintains a private profile that is merged once all workers finish */
+   protected class Worker implements Callable<Worker>
+   {
+      protected AtomicInteger next;
+      protected int nLimit;
+      protected long msDeadline;
+      protected AtomicBoolean bAbort;
+      protected double[][] prof;
+      protected int[][] index;
+
+      public Worker(AtomicInteger next, int nLimit, long msDeadline, AtomicBoolean bAbort)
+      {
+         this.next = next;
+         this.nLimit = nLimit;
+         this.msDeadline = msDeadline;
+         this.bAbort = bAbort;
+         prof = Library.allocMatrixDouble(dims.length, nw, Library.INF);
+         index = Library.allocMatrixInt(dims.length, nw, -1);
+      }
+
+      public Worker call()
+      {
+         int nd = dims.length;
+         double[] qt = new double[nd];
+         double[] dist = new double[nd];
+         while(true){
+            if (msDeadline >= 0 && System.currentTimeMillis() > msDeadline) break;
+            if (bAbort.get()) break;
+            int iOrder = next.getAndIncrement();
+            if (iOrder >= nLimit) break;
+            int k = diagOrder[iOrder];
+            if (nd == 1) sweep1D(k);
+            else sweep(k, qt, dist);
+         }
+         return this;
+      }
+
+      /** sweep the k-th diagonal of a 1D profile */
+      protected void sweep1D(int k)
+      {
+         double[] v = x[0], wmu = mu[0], wisig = isig[0];
+         double[] p = prof[0];
+         int[] ip = index[0];
+         double qt = qt0[0][k];
+         int n = nw - k;
+         for(int i = 0; i < n; i++){
+            int j = i + k;
+            if (i > 0) qt += v[i + m - 1] * v[j + m - 1] - v[i - 1] * v[j - 1];
+            double d = calcDist(qt, wmu[i], wmu[j], wisig[i], wisig[j]);
+            if (d < p[i]){
+               p[i] = d;
+               ip[i] = j;
+            }
+            if (d < p[j]){
+               p[j] = d;
+               ip[j] = i;
+            }
+         }
+      }
+
+      /** sweep the k-th diagonal of a multidimensional (mSTAMP) profile */
+      protected void sweep(int k, double[] qt, double[] dist)
+      {
+         int nd = dims.length;
+         for(int d = 0; d < nd; d++)
+            qt[d] = qt0[d][k];
+         int n = nw - k;
+         for(int i = 0; i < n; i++){
+            int j = i + k;
+            for(int d = 0; d < nd; d++){
+               double[] v = x[d];
+               if (i > 0) qt[d] += v[i + m - 1] * v[j + m - 1] - v[i - 1] * v[j - 1];
+               dist[d] = calcDist(qt[d], mu[d][i], mu[d][j], isig[d][i], isig[d][j]);
+            }
+
+            // insertion sort is fine for the small number of dimensions we typically see
+            for(int a = 1; a < nd; a++){
+               double t = dist[a];
+               int b = a;
+               for(; b > 0 && dist[b - 1] > t; b--)
+                  dist[b] = dist[b - 1];
+               dist[b] = t;
+            }
+
+            double sum = 0;
+            for(int kd = 0; kd < nd; kd++){
+               sum += dist[kd];
+               double dk = sum / (kd + 1);
+               if (dk < prof[kd][i]){
+                  prof[kd][i] = dk;
+                  index[kd][i] = j;
+               }
+               if (dk < prof[kd][j]){
+                  prof[kd][j] = dk;
+                  index[kd][j] = i;
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Compute the z-normalized Euclidean distance between two windows given their dot product. Two flat windows
+    * have zero distance, while a flat window is sqrt(m) away from any non-flat window.
+    */
+   protected final double calcDist(double qt, double mua, double mub, double isiga, double isigb)
+   {
+      if (isiga == 0.0 || isigb == 0.0) return (isiga == isigb ? 0.0 : Math.sqrt(m));
+      double corr = (qt / m - mua * mub) * isiga * isigb;
+      if (corr > 1.0) corr = 1.0;
+      return Math.sqrt(2.0 * m * (1.0 - corr));
+   }
+
+   /** @return profile (distance to nearest neighbor) using all dimensions; not a copy! */
+   public double[] getProfile()
+   {
+      return getProfile(dims.length);
+   }
+
+   /**
+    * @param k number of dimensions (1..nd) in the mSTAMP sense
+    * @return k-dimensional profile; not a copy!
+    */
+   public double[] getProfile(int k)
+   {
+      return prof[k - 1];
+   }
+
+   /** @return index of the nearest neighbor of each window using all dimensions; not a copy! */
+   public int[] getIndex()
+   {
+      return getIndex(dims.length);
+   }
+
+   /** @return index of the nearest neighbor of each window in the k-dimensional profile; not a copy! */
+   public int[] getIndex(int k)
+   {
+      return index[k - 1];
+   }
+
+   /** @return location of the i-th window */
+   public WindowLocation getWindow(int i)
+   {
+      return new WindowLocation(iSeries, iOffset + i, m);
+   }
+
+   /** @return location and distance of the nearest neighbor of the i-th window in the k-dimensional profile */
+   public ScoredWindow getNeighbor(int i, int k)
+   {
+      int j = index[k - 1][i];
+      if (j < 0) return null;
+      return new ScoredWindow(iSeries, iOffset + j, m, prof[k - 1][i]);
+   }
+
+   /**
+    * Find the best motif pairs in the k-dimensional profile. After a pair is selected, all windows that
+    * overlap either member (within the exclusion zone) are ignored.
+    *
+    * @param nMotifs maximum number of motif pairs to find
+    * @param k number of dimensions (1..nd)
+    * @return list of motif occurrences; entries 2i and 2i+1 form the i-th pair and are scored by their distance
+    */
+   public ArrayList<ScoredWindow> findMotifs(int nMotifs, int k)
+   {
+      double[] p = prof[k - 1];
+      int[] ip = index[k - 1];
+      boolean[] bUsed = new boolean[nw];
+      ArrayList<ScoredWindow> ret = new ArrayList<ScoredWindow>();
+      int[] ii = sortIndices(p);
+      for(int a = 0; a < nw && ret.size() < 2 * nMotifs; a++){
+         int i = ii[a];
+         int j = ip[i];
+         if (j < 0 || Double.isInfinite(p[i])) break;
+         if (bUsed[i] || bUsed[j]) continue;
+         ret.add(new ScoredWindow(iSeries, iOffset + i, m, p[i]));
+         ret.add(new ScoredWindow(iSeries, iOffset + j, m, p[i]));
+         markUsed(bUsed, i);
+         markUsed(bUsed, j);
+      }
+      return ret;
+   }
+
+   /**
+    * Find the top discords (windows farthest from their nearest neighbor) in the k-dimensional profile.
+    *
+    * @param nDiscords maximum number of discords to find
+    * @param k number of dimensions (1..nd)
+    * @return list of discords ordered by decreasing distance
+    */
+   public ArrayList<ScoredWindow> findDiscords(int nDiscords, int k)
+   {
+      double[] p = prof[k - 1];
+      boolean[] bUsed = new boolean[nw];
+      ArrayList<ScoredWindow> ret = new ArrayList<ScoredWindow>();
+      int[] ii = sortIndices(p);
+      for(int a = nw - 1; a >= 0 && ret.size() < nDiscords; a--){
+         int i = ii[a];
+         if (Double.isInfinite(p[i]) || bUsed[i]) continue;
+         ret.add(new ScoredWindow(iSeries, iOffset + i, m, p[i]));
+         markUsed(bUsed, i);
+      }
+      return ret;
+   }
+
+   /** @return indices of the given profile sorted by increasing distance */
+   protected int[] sortIndices(final double[] p)
+   {
+      Integer[] ii = new Integer[nw];
+      for(int i = 0; i < nw; i++)
+         ii[i] = i;
+      Arrays.sort(ii, new Comparator<Integer>() {
+         public int compare(Integer a, Integer b)
+         {
+            return Double.compare(p[a], p[b]);
+         }
+      });
+      int[] ret = new int[nw];
+      for(int i = 0; i < nw; i++)
+         ret[i] = ii[i];
+      return ret;
+   }
+
+   /** mark all windows that trivially match window i */
+   protected void markUsed(boolean[] bUsed, int i)
+   {
+      int a = Math.max(0, i - nExcl + 1);
+      int b = Math.min(nw, i + nExcl);
+      for(int j = a; j < b; j++)
+         bUsed[j] = true;
+   }
+}
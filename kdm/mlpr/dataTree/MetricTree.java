@@ -16,6 +16,7 @@ public class MetricTree extends VectorTree
    public static final String KeyNumData = "MT.numData";
    public static final String KeyParent = "MT.parent";
    public static final String KeyMaxNeighbor = "MT.maxNeighbor";
+   public static final String KeyIds = "MT.ids";
 
    protected MetricFV metric;
 
@@ -26,12 +27,55 @@ public class MetricTree extends VectorTree
       return null;
    }
 
+   /** nearest neighbor found so far for each data point (points are numbered leaf by leaf) */
+   protected static class NNInfo
+   {
+      final FeatureVec[] fv;
+      final int[] nn;
+      final double[] dist;
+
+      NNInfo(int n)
+      {
+         fv = new FeatureVec[n];
+         nn = new int[n];
+         dist = new double[n];
+         Arrays.fill(nn, -1);
+         Arrays.fill(dist, Library.INF);
+      }
+
+      /** make b the neighbor of a if a has none yet (even if d is INF or NaN) or b is closer */
+      void update(int a, int b, double d)
+      {
+         if (nn[a] < 0 || d < dist[a]){
+            dist[a] = d;
+            nn[a] = b;
+         }
+      }
+   }
+
    /** @return nearest neighbor for each data point in this tree */
    public HashMap<FeatureVec, Pair<MutableDouble, FeatureVec>> calcAllPairsNN()
    {
       boolean bDataComp = FeatureVec.bDataComp;
       FeatureVec.bDataComp = false;
-      final HashMap<FeatureVec, Pair<MutableDouble, FeatureVec>> map = new HashMap<FeatureVec, Pair<MutableDouble, FeatureVec>>();
+
+      // number the points in each leaf so that the search can use primitive arrays
+      final ArrayList<FeatureVec> all = new ArrayList<FeatureVec>();
+      root.apply(new DataTreeApply() {
+         public void apply(DataTreeNode node, Object param)
+         {
+            VectorTreeNode v = (VectorTreeNode)node;
+            if (v.hasKids()) return;
+            int[] ids = new int[v.data.size()];
+            for(int i = 0; i < ids.length; i++){
+               ids[i] = all.size();
+               all.add(v.data.get(i));
+            }
+            v.meta.put(KeyIds, ids);
+         }
+      }, null);
+      final NNInfo nn = new NNInfo(all.size());
+      all.toArray(nn.fv);
 
       // calc all within-leaf distances
       root.apply(new DataTreeApply() {
@@ -39,28 +83,65 @@ public class MetricTree extends VectorTree
          {
             VectorTreeNode v = (VectorTreeNode)node;
             if (v.hasKids()) return;
+            int[] ids = (int[])v.meta.get(KeyIds);
 
             // hack to get inside leaf plus nearest other leaf 
-            VectorTreeNode w = ((VectorTreeNode)v.meta.get(KeyParent)).getOtherKid(v);
-            FeatureVec mean = (FeatureVec)v.meta.get(KeyMean);
-            while(w.hasKids()){                  
-               double d1 = metric.dist(mean, (FeatureVec)w.kids[0].meta.get(KeyMean));
-               double d2 = metric.dist(mean, (FeatureVec)w.kids[1].meta.get(KeyMean));
-               if (d1 < d2) w = w.kids[0];
-               else w = w.kids[1];
+            VectorTreeNode parent = (VectorTreeNode)v.meta.get(KeyParent);
+            if (parent != null){
+               VectorTreeNode w = parent.getOtherKid(v);
+               FeatureVec mean = (FeatureVec)v.meta.get(KeyMean);
+               while(w.hasKids()){                  
+                  double d1 = metric.dist(mean, (FeatureVec)w.kids[0].meta.get(KeyMean));
+                  double d2 = metric.dist(mean, (FeatureVec)w.kids[1].meta.get(KeyMean));
+                  if (d1 < d2) w = w.kids[0];
+                  else w = w.kids[1];
+               }
+               calcAllPairsNN(ids, (int[])w.meta.get(KeyIds), nn);
             }
-            calcAllPairsNN(v.data, w.data, map);            
-            calcAllPairsNN(v.data, map);
+            calcAllPairsNN(ids, nn);
          }
-      }, map);
+      }, null);
 
       // TODO !! what's wrong with dual-tree implementation?
       //if (root.hasKids()) calcAllPairsNN(root.kids[0], root.kids[1], map);
 
+      HashMap<FeatureVec, Pair<MutableDouble, FeatureVec>> map = new HashMap<FeatureVec, Pair<MutableDouble, FeatureVec>>();
+      for(int i = 0; i < nn.fv.length; i++)
+         if (nn.nn[i] >= 0)
+            map.put(nn.fv[i], new Pair<MutableDouble, FeatureVec>(new MutableDouble(nn.dist[i]), nn.fv[nn.nn[i]]));
       FeatureVec.bDataComp = bDataComp;
       return map;
    }
 
+   /** update the nearest neighbors with all pairs of points in one set */
+   protected void calcAllPairsNN(int[] ids, NNInfo nn)
+   {
+      int N = ids.length;
+      for(int i = 0; i < N; i++){
+         int a = ids[i];
+         for(int j = i + 1; j < N; j++){
+            int b = ids[j];
+            double d = metric.dist(nn.fv[a], nn.fv[b]);
+            nn.update(a, b, d);
+            nn.update(b, a, d);
+         }
+      }
+   }
+
+   /** update the nearest neighbors with all pairs of points across two sets */
+   protected void calcAllPairsNN(int[] ids1, int[] ids2, NNInfo nn)
+   {
+      for(int i = 0; i < ids1.length; i++){
+         int a = ids1[i];
+         for(int j = 0; j < ids2.length; j++){
+            int b = ids2[j];
+            double d = metric.dist(nn.fv[a], nn.fv[b]);
+            nn.update(a, b, d);
+            nn.update(b, a, d);
+         }
+      }
+   }
+
    protected void calcAllPairsNN(VectorTreeNode node1, VectorTreeNode node2,
          HashMap<FeatureVec, Pair<MutableDouble, FeatureVec>> map)
    {
@@ -3,6 +3,7 @@ package kdm.mlpr.htk;
 import java.io.*;
 import java.util.*;
 import kdm.data.*;
+import kdm.models.misc.*;
 import kdm.util.*;
 
 /** return object for continuous recognition via HTK */
@@ -47,6 +48,27 @@ public class ContRecRet
       return map;
    }
    
+   /**
+    * Convert the recognized words into word spots for scoring
+    * 
+    * @param names name of each class (the index is used as the class of the spot; unknown tags are skipped)
+    * @param nTrueClasses number of true classes (see ContRecInfo(int))
+    * @return info object that holds one spot per recognized word
+    */
+   public ContRecInfo getContRecInfo(List<String> names, int nTrueClasses)
+   {
+      ContRecInfo cri = new ContRecInfo(nTrueClasses);
+      for(int iSeq = 0; iSeq < markupSets.size(); iSeq++){
+         for(TimeMarker tm : markupSets.get(iSeq).getList()){
+            int iClass = names.indexOf(tm.getTag());
+            if (iClass < 0) continue;
+            double score = (tm.getMeta() instanceof Double ? (Double)tm.getMeta() : 0.0);
+            cri.add(new WordSpot(iSeq, tm.getStartIndex(), (int)tm.length(), score, iClass));
+         }
+      }
+      return cri;
+   }
+
    public class MotifInfo{
       public double loglik;
       public ArrayList<WindowLocation> wlocs;
@@ -13,6 +13,9 @@ import kdm.util.*;
 public class HTK
 {
    public static final boolean bDeleteFiles = true;
+
+   /** if true, contRec(hmms, seqs) runs HVite instead of the in-process recognizer (TokenPassRec) */
+   public static boolean bUseHVite = false;
    public static final String subdir;
    public static File fTmpDir;
    
@@ -210,16 +213,18 @@ public class HTK
    }
    
    /**
-    * perform continuous recognition (via HVite) using the given HMMs and data sequences; note that an
-    * uninformative grammar will be used (any word can follow any word). Also, all intermediate files will are
-    * set to "delete on exit", including the MLF result file.
+    * perform continuous recognition using the given HMMs and data sequences; note that an uninformative
+    * grammar will be used (any word can follow any word). Recognition runs in-process (see TokenPassRec)
+    * unless bUseHVite is set, in which case all intermediate files are set to "delete on exit", including
+    * the MLF result file.
     * 
     * @param hmms "word" models used for recognition
     * @param seqs sequences to recognize
-    * @return resulting MLF file or null on error
+    * @return recognition results or null on error
     */
    public static ContRecRet contRec(ArrayList<AbstractHMM> hmms, ArrayList<Sequence> seqs)
    {
+      if (!bUseHVite) return TokenPassRec.contRec(hmms, seqs);
       HtkSetupInfo si = setupContRec(null, hmms, seqs);
       if (si == null) return null;
       return contRecAfterSetup(si);
@@ -0,0 +1,317 @@
+package kdm.mlpr.htk;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import kdm.data.*;
+import kdm.models.*;
+import kdm.util.*;
+
+/**
+ * Continuous recognition with a set of "word" HMMs via Viterbi token passing. This is the in-process
+ * equivalent of HTK.contRec(): the word network is a loop in which any word can follow any word ( < $W > ),
+ * the transitions into and out of each word follow the same conventions as HtkHmm (enter via piStart, leave
+ * via piLeave), and the result is returned as a ContRecRet with one marker (index units, meta = loglik) per
+ * recognized word.
+ *
+ * Tokens whose score falls more than the beam width below the best token are pruned (observation likelihoods
+ * are only computed for states that hold a live token), and the insertion penalty is added each time a token
+ * enters a word. Sequences are recognized in parallel; the observation models must be safe to evaluate from
+ * several threads (true for the Gaussian and mixture models).
+ */
+public class TokenPassRec
+{
+   protected String[] names;
+   protected int nStates;
+
+   /** word and observation model of each (global) state */
+   protected int[] wordOf;
+   protected ProbFVModel[] obs;
+
+   /** loglik of entering a word at each state and of leaving the word from each state */
+   protected double[] llEnter, llLeave;
+
+   /** predecessors of each state (within its word) and the loglik of the transition */
+   protected int[][] predFrom;
+   protected double[][] predLL;
+
+   protected double beam = Library.INF;
+   protected double insPenalty = 0.0;
+   protected int nThreads;
+
+   /** word-link records for one sequence: the best word that ended at each frame */
+   protected static class WordLinks
+   {
+      int n;
+      int[] word = new int[64], start = new int[64], stop = new int[64], prev = new int[64];
+      double[] score = new double[64];
+
+      int add(int iWord, int iStart, int iStop, double ll, int iPrev)
+      {
+         if (n == word.length){
+            word = Arrays.copyOf(word, n * 2);
+            start = Arrays.copyOf(start, n * 2);
+            stop = Arrays.copyOf(stop, n * 2);
+            prev = Arrays.copyOf(prev, n * 2);
+            score = Arrays.copyOf(score, n * 2);
+         }
+         word[n] = iWord;
+         start[n] = iStart;
+         stop[n] = iStop;
+         score[n] = ll;
+         prev[n] = iPrev;
+         return n++;
+      }
+   }
+
+   /**
+    * Create a recognizer for the given word models; the name of each HMM is used as the label of the word
+    */
+   public TokenPassRec(List<? extends AbstractHMM> hmms)
+   {
+      int nWords = hmms.size();
+      names = new String[nWords];
+      nStates = 0;
+      for(int iWord = 0; iWord < nWords; iWord++){
+         names[iWord] = hmms.get(iWord).getName();
+         nStates += hmms.get(iWord).getNumStates();
+      }
+
+      wordOf = new int[nStates];
+      obs = new ProbFVModel[nStates];
+      llEnter = new double[nStates];
+      llLeave = new double[nStates];
+      predFrom = new int[nStates][];
+      predLL = new double[nStates][];
+      int iBase = 0;
+      for(int iWord = 0; iWord < nWords; iWord++){
+         AbstractHMM hmm = hmms.get(iWord);
+         int n = hmm.getNumStates();
+         double[][] tran = hmm.getFullTransMatrix();
+
+         // staying in the word means not leaving it (see HtkHmm.save)
+         double[] llStay = new double[n];
+         for(int i = 0; i < n; i++){
+            double ll = hmm.getPiLeave(i);
+            llStay[i] = (ll == Library.LOG_ZERO ? Library.LOG_ONE : (ll >= 0 ? Library.LOG_ZERO : Math.log1p(-Math
+                  .exp(ll))));
+         }
+
+         for(int j = 0; j < n; j++){
+            int k = iBase + j;
+            wordOf[k] = iWord;
+            obs[k] = hmm.getState(j);
+            llEnter[k] = hmm.getPiStart(j);
+            llLeave[k] = hmm.getPiLeave(j);
+            int nPred = 0;
+            for(int i = 0; i < n; i++)
+               if (tran[i][j] > Library.LOG_ZERO && llStay[i] > Library.LOG_ZERO) nPred++;
+            predFrom[k] = new int[nPred];
+            predLL[k] = new double[nPred];
+            nPred = 0;
+            for(int i = 0; i < n; i++){
+               if (tran[i][j] > Library.LOG_ZERO && llStay[i] > Library.LOG_ZERO){
+                  predFrom[k][nPred] = iBase + i;
+                  predLL[k][nPred] = tran[i][j] + llStay[i];
+                  nPred++;
+               }
+            }
+         }
+         iBase += n;
+      }
+      nThreads = Runtime.getRuntime().availableProcessors();
+   }
+
+   /** set the beam width (in log-likelihood); tokens this far below the best token are dropped */
+   public void setBeam(double beam)
+   {
+      assert (beam > 0);
+      this.beam = beam;
+   }
+
+   /** set the loglik added each time a word is entered (negative values discourage short words) */
+   public void setInsertionPenalty(double insPenalty)
+   {
+      this.insPenalty = insPenalty;
+   }
+
+   /** set the number of worker threads */
+   public void setNumThreads(int n)
+   {
+      nThreads = Math.max(1, n);
+   }
+
+   /**
+    * Recognize the words in a sequence
+    *
+    * @param seq data to recognize
+    * @param llRet if not null, llRet[0] receives the loglik of the best path (LOG_ZERO if there is no path)
+    * @return recognized words (index units, meta = loglik of the word)
+    */
+   public MarkupSet recognize(Sequence seq, double[] llRet)
+   {
+      int T = seq.length();
+      double[] score = new double[nStates], next = new double[nStates];
+      int[] start = new int[nStates], nextStart = new int[nStates];
+      int[] link = new int[nStates], nextLink = new int[nStates];
+      WordLinks wl = new WordLinks();
+
+      // the first frame can be explained by entering any word
+      int iLink = -1;
+      double llExit = Library.LOG_ONE;
+      Arrays.fill(score, Library.LOG_ZERO);
+      for(int t = 0; t < T; t++){
+         FeatureVec fv = seq.get(t);
+         double llEntry = (llExit == Library.LOG_ZERO ? Library.LOG_ZERO : llExit + insPenalty);
+         double best = Library.LOG_ZERO;
+         for(int j = 0; j < nStates; j++){
+            // best way to get to state j: from a predecessor in the same word or by entering the word
+            double ll = Library.LOG_ZERO;
+            int iFrom = -1;
+            int[] from = predFrom[j];
+            double[] fromLL = predLL[j];
+            for(int k = 0; k < from.length; k++){
+               double x = score[from[k]] + fromLL[k];
+               if (x > ll){
+                  ll = x;
+                  iFrom = from[k];
+               }
+            }
+            double x = llEntry + llEnter[j];
+            if (x > ll){
+               ll = x;
+               iFrom = -1;
+            }
+            if (ll == Library.LOG_ZERO){
+               next[j] = Library.LOG_ZERO;
+               continue;
+            }
+
+            ll += obs[j].eval(fv);
+            next[j] = ll;
+            if (iFrom < 0){
+               nextStart[j] = t;
+               nextLink[j] = iLink;
+            }
+            else{
+               nextStart[j] = start[iFrom];
+               nextLink[j] = link[iFrom];
+            }
+            if (ll > best) best = ll;
+         }
+
+         // prune tokens that fall outside of the beam
+         if (beam < Library.INF){
+            double thresh = best - beam;
+            for(int j = 0; j < nStates; j++)
+               if (next[j] < thresh) next[j] = Library.LOG_ZERO;
+         }
+
+         double[] ta = score;
+         score = next;
+         next = ta;
+         int[] ia = start;
+         start = nextStart;
+         nextStart = ia;
+         ia = link;
+         link = nextLink;
+         nextLink = ia;
+
+         // the best word that ends with this frame (all words share the same successors)
+         llExit = Library.LOG_ZERO;
+         int jExit = -1;
+         for(int j = 0; j < nStates; j++){
+            double ll = score[j] + llLeave[j];
+            if (ll > llExit){
+               llExit = ll;
+               jExit = j;
+            }
+         }
+         if (jExit >= 0) iLink = wl.add(wordOf[jExit], start[jExit], t + 1, llExit, link[jExit]);
+         else iLink = -1;
+      }
+
+      // trace back from the best word that ends with the last frame
+      MarkupSet marks = new MarkupSet();
+      marks.setName(seq.getName());
+      if (llRet != null) llRet[0] = (iLink < 0 ? Library.LOG_ZERO : llExit);
+      ArrayList<TimeMarker> words = new ArrayList<TimeMarker>();
+      for(int i = iLink; i >= 0; i = wl.prev[i]){
+         double llPrev = (wl.prev[i] < 0 ? Library.LOG_ONE : wl.score[wl.prev[i]]);
+         words.add(new TimeMarker(names[wl.word[i]], TimeMarker.Units.Index, wl.start[i], wl.stop[i], wl.score[i]
+               - llPrev));
+      }
+      for(int i = words.size() - 1; i >= 0; i--)
+         marks.add(words.get(i));
+      return marks;
+   }
+
+   /**
+    * Recognize the words in each of the given sequences (in parallel)
+    *
+    * @return recognition results (sOut and sErr are empty), or null on error
+    */
+   public ContRecRet recognize(final List<? extends Sequence> seqs)
+   {
+      int nSeqs = seqs.size();
+      final MarkupSet[] marks = new MarkupSet[nSeqs];
+      final double[] ll = new double[nSeqs];
+      int nt = Math.min(nThreads, nSeqs);
+      if (nt <= 1){
+         double[] llRet = new double[1];
+         for(int i = 0; i < nSeqs; i++){
+            marks[i] = recognize(seqs.get(i), llRet);
+            ll[i] = llRet[0];
+         }
+      }
+      else{
+         ExecutorService pool = Executors.newFixedThreadPool(nt);
+         try{
+            ArrayList<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+            for(int i = 0; i < nSeqs; i++){
+               final int iSeq = i;
+               jobs.add(new Callable<Object>() {
+                  public Object call()
+                  {
+                     double[] llRet = new double[1];
+                     marks[iSeq] = recognize(seqs.get(iSeq), llRet);
+                     ll[iSeq] = llRet[0];
+                     return null;
+                  }
+               });
+            }
+            for(Future<Object> f : pool.invokeAll(jobs))
+               f.get();
+         } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return null;
+         } catch (ExecutionException e){
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new RuntimeException(cause);
+         } finally{
+            pool.shutdown();
+         }
+      }
+
+      ArrayList<MarkupSet> markupSets = new ArrayList<MarkupSet>(nSeqs);
+      MyDoubleList llSeq = new MyDoubleList();
+      double llTotal = Library.LOG_ONE;
+      for(int i = 0; i < nSeqs; i++){
+         markupSets.add(marks[i]);
+         llSeq.add(ll[i]);
+         llTotal += ll[i];
+      }
+      return new ContRecRet(markupSets, llSeq, llTotal, "", "");
+   }
+
+   /**
+    * Convenience method: perform continuous recognition with the given HMMs and data sequences (any word can
+    * follow any word; no pruning or insertion penalty)
+    */
+   public static ContRecRet contRec(ArrayList<AbstractHMM> hmms, ArrayList<Sequence> seqs)
+   {
+      return new TokenPassRec(hmms).recognize(seqs);
+   }
+}
@@ -4,6 +4,7 @@ import java.util.*;
 
 import kdm.data.*;
 import kdm.util.Library;
+import kdm.util.RandomStream;
 
 /** abstract base class for unconstrained (full transition matrix) HMMs */
 public abstract class AbstractHMMFullTran extends AbstractHMM
@@ -153,7 +154,7 @@ public abstract class AbstractHMMFullTran extends AbstractHMM
    }
 
    @Override
-   public Sequence sample()
+   public Sequence sample(RandomStream rng)
    {
       assert false : "nyi";
       return null;
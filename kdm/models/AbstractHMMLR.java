@@ -95,6 +95,19 @@ public abstract class AbstractHMMLR extends AbstractHMM
       return tran;
    }
 
+   /** set the transition data in LR format (not a copy!) */
+   public void setTranLR(double[][] tran)
+   {
+      assert (tran.length == getNumStates());
+      this.tran = tran;
+   }
+
+   /** @return max number of states that can be skipped by a single transition */
+   public int getNumSkip()
+   {
+      return nSkip;
+   }
+
    @Override
    public double[][] getFullTransMatrix()
    {
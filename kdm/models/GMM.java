@@ -93,10 +93,10 @@ public class GMM extends ProbFVModel
    }
 
    @Override
-   public void sample(FeatureVec fv)
+   public void sample(FeatureVec fv, RandomStream rng)
    {
-      int iComp = weights.samplei();
-      models[iComp].sample(fv);
+      int iComp = weights.samplei(rng);
+      models[iComp].sample(fv, rng);
    }
 
    /** @return number of components in this mixture model */
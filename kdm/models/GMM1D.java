@@ -64,8 +64,14 @@ public class GMM1D extends ProbFVModel
       return learn(adata.toArray());
    }   
 
-   /** @return likelihood of data given learned model */
+   /** @return likelihood of data given learned model; uses the shared Library.rng, so not for pool tasks */
    public double learn(double data[])
+   {
+      return learn(data, Library.rng);
+   }
+
+   /** @return likelihood of data given learned model; the initial components are chosen with the given stream */
+   public double learn(double data[], RandomStream rng)
    {
       double xMin = StatUtils.min(data);
       double xMax = StatUtils.max(data);
@@ -77,11 +83,11 @@ public class GMM1D extends ProbFVModel
       // initialize the model
       models = new Gaussian1D[nMix];
       for(int i = 0; i < nMix; i++){
-         int j = (int)(Library.random() * n);
+         int j = Library.random(rng, n);
          // add noise to variance to ensure each component has different starting params
          // TODO is this enough? (+/- 1/2%)
          double varnoise = initWidth / 100.0;
-         double var = initWidth + Library.random() * varnoise/2 - varnoise;
+         double var = initWidth + rng.raw() * varnoise/2 - varnoise;
          models[i] = new Gaussian1D(data[j], var, minVar);
          models[i].setReport(Report.prob);
       }
@@ -143,10 +149,10 @@ public class GMM1D extends ProbFVModel
       return eval(x.get(0));
    }
 
-   public void sample(FeatureVec fv)
+   public void sample(FeatureVec fv, RandomStream rng)
    {
-      int iMix = w.samplei();
-      models[iMix].sample(fv);
+      int iMix = w.samplei(rng);
+      models[iMix].sample(fv, rng);
    }
 
    public String toString()
@@ -4,7 +4,6 @@ import kdm.data.*;
 import kdm.util.*;
 import kdm.io.*;
 import org.apache.commons.math.stat.*;
-import eduni.distributions.*;
 import java.util.*;
 import java.io.*;
 
@@ -18,7 +17,6 @@ public class Gaussian1D extends ProbFVModel
    protected double sdev;
    protected double probCoef, loglikCoef;
    protected double minVar = 1e-9;
-   transient protected Normal normal = null;
 
    public final static double sqrt_2pi = Math.sqrt(2.0 * Math.PI);
 
@@ -286,7 +284,6 @@ public class Gaussian1D extends ProbFVModel
       sdev = Math.sqrt(var);
       probCoef = 1.0 / (sdev * sqrt_2pi);
       loglikCoef = Math.log(probCoef);
-      normal = null;
    }
 
    /**
@@ -328,13 +325,17 @@ public class Gaussian1D extends ProbFVModel
 
    public double sample1()
    {
-      if (normal == null) normal = new Normal(mean, var);
-      return normal.sample();
+      return sample1(Library.rng);
    }
 
-   public void sample(FeatureVec fv)
+   public double sample1(RandomStream rng)
    {
-      fv.set(0, sample1());
+      return mean + sdev * rng.gaussian();
+   }
+
+   public void sample(FeatureVec fv, RandomStream rng)
+   {
+      fv.set(0, sample1(rng));
    }
 
    @Override
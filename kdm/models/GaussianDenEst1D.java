@@ -94,14 +94,14 @@ public class GaussianDenEst1D extends ProbFVModel
       return eval(x.get(0));
    }
 
-   public FeatureVec sample()
+   public FeatureVec sample(RandomStream rng)
    {
       FeatureVec fv = new FeatureVec(1);
-      sample(fv);
+      sample(fv, rng);
       return fv;
    }
 
-   public void sample(FeatureVec fv)
+   public void sample(FeatureVec fv, RandomStream rng)
    {
       // TODO
       fv.set(0, Double.NEGATIVE_INFINITY);
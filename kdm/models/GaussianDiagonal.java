@@ -1,6 +1,7 @@
 package kdm.models;
 
 import kdm.data.*;
+import kdm.util.RandomStream;
 
 import static kdm.models.Gaussian1D.*;
 
@@ -111,6 +112,12 @@ public class GaussianDiagonal extends GaussianAbstract
       return fv;
    }
 
+   /** @return 1D Gaussian that models the given dimension (not a copy!) */
+   public Gaussian1D getDim(int i)
+   {
+      return g[i];
+   }
+
    @Override
    public FeatureVec getCovDiag()
    {
@@ -139,11 +146,11 @@ public class GaussianDiagonal extends GaussianAbstract
    /**
     * Sets the given feature vector to a random sample from this distribution.
     */
-   public void sample(FeatureVec fv)
+   public void sample(FeatureVec fv, RandomStream rng)
    {
       assert (fv.getNumDims() == nDims);
       for(int i = 0; i < nDims; i++)
-         fv.set(i, g[i].sample1());
+         fv.set(i, g[i].sample1(rng));
    }
 
    public boolean learn(Sequence seq)
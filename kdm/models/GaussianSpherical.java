@@ -3,7 +3,6 @@ package kdm.models;
 import kdm.data.*;
 import kdm.models.ProbFVModel.Report;
 import kdm.util.*;
-import eduni.distributions.*;
 import org.apache.commons.math.stat.*;
 
 /**
@@ -100,12 +99,12 @@ public class GaussianSpherical extends GaussianAbstract
    /**
     * Sets the given feature vector to a random sample from this distribution.
     */
-   public void sample(FeatureVec fv)
+   public void sample(FeatureVec fv, RandomStream rng)
    {
       assert (fv.getNumDims() == nDims);
-      Normal normal = new Normal(0, var);
+      double sdev = Math.sqrt(var);
       for(int i = 0; i < nDims; i++)
-         fv.set(i, normal.sample() + mean.get(i));
+         fv.set(i, sdev * rng.gaussian() + mean.get(i));
    }
    
    @Override
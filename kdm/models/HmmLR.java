@@ -531,7 +531,7 @@ public class HmmLR extends AbstractHMMLR
    }
 
    @Override
-   public Sequence sample()
+   public Sequence sample(RandomStream rng)
    {
       assert false : "nyi";
       return null;
@@ -431,7 +431,7 @@ public class HmmLRD extends AbstractHMMLR
       return sb.toString();
    }
 
-   public Sequence sample()
+   public Sequence sample(RandomStream rng)
    {
       assert false : "not yet implemented"; // TODO
       return null;
@@ -101,7 +101,7 @@ public class MetricModel extends ProbSeqModel
    }
 
    @Override
-   public Sequence sample()
+   public Sequence sample(RandomStream rng)
    {
       assert false : "can't sample from a metric model";
       return null;
@@ -93,7 +93,7 @@ public class MultiIndep extends ProbFVModel
    }
 
    @Override
-   public void sample(FeatureVec fv)
+   public void sample(FeatureVec fv, RandomStream rng)
    {
       // TODO Auto-generated method stub
       assert false;
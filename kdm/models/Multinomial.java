@@ -197,13 +197,18 @@ public class Multinomial extends ProbFVModel
 
    public int samplei()
    {
-      return Library.sample(bins);
+      return samplei(Library.rng);
+   }
+
+   public int samplei(RandomStream rng)
+   {
+      return Library.sample(rng, bins);
    }
    
-   public void sample(FeatureVec fv)
+   public void sample(FeatureVec fv, RandomStream rng)
    {
       assert (fv.getNumDims() == 1);
-      fv.set(0, samplei());
+      fv.set(0, samplei(rng));
    }
 
    /**
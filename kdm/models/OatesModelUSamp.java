@@ -55,6 +55,12 @@ public class OatesModelUSamp extends ProbSeqModel implements Configurable
       return nLength;
    }
 
+   /** @return dimensionality of the data modeled by this model */
+   public int getNumDims()
+   {
+      return nDims;
+   }
+
    public Gaussian1D getModel(int i)
    {
       return model[i][0];
@@ -695,27 +701,27 @@ public class OatesModelUSamp extends ProbSeqModel implements Configurable
     * Create a new feature vector from the distribution represented by the <code>iPat</code> pattern element
     * (zero-based).
     */
-   protected FeatureVec sample(int iPat)
+   protected FeatureVec sample(int iPat, RandomStream rng)
    {
       FeatureVec fv = new FeatureVec(nDims);
       for(int d = 0; d < nDims; d++)
-         fv.set(d, model[iPat][d].sample().get(0));
+         fv.set(d, model[iPat][d].sample(rng).get(0));
       return fv;
    }
 
    /**
     * Create a new sequence from the distribution represented by this model.
     */
-   public Sequence sample()
+   public Sequence sample(RandomStream rng)
    {
       Sequence seq = new Sequence("Oates Sample", 1);
-      FeatureVec prevFV = sample(0);
+      FeatureVec prevFV = sample(0, rng);
       seq.add(prevFV, Library.AppStartTime);
       for(int iPat = 1; iPat < nLength; iPat++){
-         FeatureVec fv = sample(iPat);
+         FeatureVec fv = sample(iPat, rng);
 
          // figure out when the next sample is
-         int dt = (int)Math.max(1, dtime[iPat - 1].samplei());
+         int dt = (int)Math.max(1, dtime[iPat - 1].samplei(rng));
 
          // fill in any gaps using linear interpolation
          for(int i = 1; i < dt; i++){
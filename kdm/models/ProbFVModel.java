@@ -59,9 +59,18 @@ public abstract class ProbFVModel
    }
 
    /**
-    * Sets the given feature vector to a random sample from this distribution.
+    * Sets the given feature vector to a random sample from this distribution (using the shared random
+    * stream).
     */
-   public abstract void sample(FeatureVec fv);
+   public void sample(FeatureVec fv)
+   {
+      sample(fv, Library.rng);
+   }
+
+   /**
+    * Sets the given feature vector to a random sample from this distribution using the given random stream.
+    */
+   public abstract void sample(FeatureVec fv, RandomStream rng);
 
    public Report getReport()
    {
@@ -86,9 +95,17 @@ public abstract class ProbFVModel
     * @return sample taken from this distribution.
     */
    public FeatureVec sample()
+   {
+      return sample(Library.rng);
+   }
+
+   /**
+    * @return sample taken from this distribution using the given random stream.
+    */
+   public FeatureVec sample(RandomStream rng)
    {
       FeatureVec fv = new FeatureVec(nDims);
-      sample(fv);
+      sample(fv, rng);
       return fv;
    }
 
@@ -19,9 +19,17 @@ public abstract class ProbSeqModel implements Configurable
    public abstract double eval(Sequence seq);
 
    /**
-    * Returns a sample sequence taken from this distribution.
+    * Returns a sample sequence taken from this distribution (using the shared random stream).
     */
-   public abstract Sequence sample();
+   public Sequence sample()
+   {
+      return sample(Library.rng);
+   }
+
+   /**
+    * Returns a sample sequence taken from this distribution using the given random stream.
+    */
+   public abstract Sequence sample(RandomStream rng);
 
    /**
     * Returns the start index of the best mapping of this model to the given sequence.
@@ -456,6 +456,21 @@ public class ContRecInfo
       SpanList[] spanTrue = new SpanList[nTrueClasses];
       SpanList spanFound = new SpanList(0, nSpots - 1, true);
 
+      // index the spots by series and class so that we only look at the ones that overlap a label
+      HashMap<Long, MarkupSet> spotIndex = new HashMap<Long, MarkupSet>();
+      for(int iSpot = 0; iSpot < nSpots; iSpot++){
+         WordSpot spot = getSpot(iSpot);
+         Long key = indexKey(spot.iSeries, spot.iClass);
+         MarkupSet marks = spotIndex.get(key);
+         if (marks == null){
+            marks = new MarkupSet();
+            spotIndex.put(key, marks);
+         }
+         marks.getList().add(new TimeMarker(null, TimeMarker.Units.Index, spot.getFirstIndex(),
+               spot.getLastIndex() + 1, iSpot));
+      }
+      boolean[] bSpotUsed = new boolean[nSpots];
+
       // match correct spots first
       Iterator<String> itClass = labData.keySet().iterator();
       for(int iClass = 0; iClass < nTrueClasses; iClass++){
@@ -464,7 +479,6 @@ public class ContRecInfo
 
          // iterate over all subseqs in this class
          Iterator<Sequence> itExamples = labData.get(sClass).iterator();
-         SpanList spotMatched = new SpanList(0, nSpots - 1, false);
          for(int iExample = 0; iExample < nExamples[iClass]; iExample++){
             Sequence seq = itExamples.next();
             Range rSeq = new Range(seq.getParentOffset(), seq.getParentOffset() + seq.length() - 1);
@@ -472,15 +486,10 @@ public class ContRecInfo
             // find the best (unmatched) spot that overlaps with this labeled subseq
             int iBestSpot = -1;
             int bestScore = Integer.MIN_VALUE;
-            SpanIterator itFound = spanFound.iterator();
-            while(itFound.hasNext()){
-               int iSpot = itFound.next();
+            for(int iSpot : getOverlapping(spotIndex.get(indexKey(seq.getParentIndex(), iClass)), rSeq)){
+               if (bSpotUsed[iSpot]) continue;
                WordSpot spot = getSpot(iSpot);
-               if (spot.iSeries != seq.getParentIndex()) continue;
-               if (spot.iClass != iClass) continue;
-
                Range rSpot = spot.getRange();
-               if (!rSpot.intersects(rSeq)) continue;
 
                // score of a spot is # overlap - # not overlap
                // ties go to the spot closest in length to the labeled subseq
@@ -500,6 +509,7 @@ public class ContRecInfo
                nWordCorrect++;
                classStats[iClass][CORRECT]++;
                spanFound.sub(iBestSpot);
+               bSpotUsed[iBestSpot] = true;
                spanTrue[iClass].sub(iExample);
                WordSpot spot = spots.get(iBestSpot);
                spot.errorType = WordSpot.ERROR_CORRECT;
@@ -508,6 +518,35 @@ public class ContRecInfo
          }
       }
 
+      // index the remaining labels by series; meta = iClass * nMaxExamples + iExample, so that sorting the
+      // overlapping labels by their meta value visits them in the same order as looping over class and example
+      int nMaxExamples = 1;
+      for(int iClass = 0; iClass < nTrueClasses; iClass++)
+         nMaxExamples = Math.max(nMaxExamples, nExamples[iClass]);
+      ArrayList<ArrayList<Sequence>> classExamples = new ArrayList<ArrayList<Sequence>>(nTrueClasses);
+      HashMap<Long, MarkupSet> labelIndex = new HashMap<Long, MarkupSet>();
+      itClass = labData.keySet().iterator();
+      for(int iClass = 0; iClass < nTrueClasses; iClass++){
+         classExamples.add(labData.get(itClass.next()));
+         SpanIterator itTrue = spanTrue[iClass].iterator();
+         while(itTrue.hasMore()){
+            int iExample = itTrue.next();
+            Sequence seq = classExamples.get(iClass).get(iExample);
+            Long key = indexKey(seq.getParentIndex(), 0);
+            MarkupSet marks = labelIndex.get(key);
+            if (marks == null){
+               marks = new MarkupSet();
+               labelIndex.put(key, marks);
+            }
+            marks.getList().add(new TimeMarker(null, TimeMarker.Units.Index, seq.getParentOffset(), seq
+                  .getParentOffset()
+                  + seq.length(), iClass * nMaxExamples + iExample));
+         }
+      }
+      boolean[][] bTrueUsed = new boolean[nTrueClasses][];
+      for(int iClass = 0; iClass < nTrueClasses; iClass++)
+         bTrueUsed[iClass] = new boolean[nExamples[iClass]];
+
       // now we can search for substitution errors
       SpanList spotMatched = new SpanList(0, nSpots - 1, false);
       SpanIterator itFound = spanFound.iterator();
@@ -516,38 +555,32 @@ public class ContRecInfo
          WordSpot spot = getSpot(iSpot);
          Range rSpot = spot.getRange();
 
-         String sBestClass = null;
          Range rBestSeq = null;
          int iBestClass = -1;
          int iBestExample = -1;
          int bestScore = Integer.MIN_VALUE;
 
          // find the best match (if there is one) for this spot
-         itClass = labData.keySet().iterator();
-         for(int iClass = 0; iClass < nTrueClasses; iClass++){
-            String sClass = itClass.next();
+         for(int iLabel : getOverlapping(labelIndex.get(indexKey(spot.iSeries, 0)), rSpot)){
+            int iClass = iLabel / nMaxExamples;
+            int iExample = iLabel % nMaxExamples;
             if (iClass == spot.iClass) continue; // we've already found all the correct matches
-            SpanIterator itTrue = spanTrue[iClass].iterator();
-            while(itTrue.hasMore()){
-               int iExample = itTrue.next();
-               Sequence seq = labData.get(sClass).get(iExample);
-               if (spot.iSeries != seq.getParentIndex()) continue;
-               Range rSeq = new Range(seq.getParentOffset(), seq.getParentOffset() + seq.length() - 1);
+            if (bTrueUsed[iClass][iExample]) continue;
+            Sequence seq = classExamples.get(iClass).get(iExample);
+            Range rSeq = new Range(seq.getParentOffset(), seq.getParentOffset() + seq.length() - 1);
 
-               // score of a spot is # overlap - # not overlap
-               // ties go to the spot closest in length to the labeled subseq
-               // ties from this go to the first spot
-               if (!rSeq.intersects(rSpot)) continue;
-               int score = rSeq.getNumOverlap(rSpot) - rSeq.getNumNotOverlap(rSpot);
-               if (score > bestScore
-                     || (score == bestScore && (Math.abs(rSpot.length() - rSeq.length()) < Math.abs(rSpot
-                           .length()
-                           - rBestSeq.length())))){
-                  rBestSeq = rSeq;
-                  iBestClass = iClass;
-                  iBestExample = iExample;
-                  bestScore = score;
-               }
+            // score of a spot is # overlap - # not overlap
+            // ties go to the spot closest in length to the labeled subseq
+            // ties from this go to the first spot
+            int score = rSeq.getNumOverlap(rSpot) - rSeq.getNumNotOverlap(rSpot);
+            if (score > bestScore
+                  || (score == bestScore && (Math.abs(rSpot.length() - rSeq.length()) < Math.abs(rSpot
+                        .length()
+                        - rBestSeq.length())))){
+               rBestSeq = rSeq;
+               iBestClass = iClass;
+               iBestExample = iExample;
+               bestScore = score;
             }
          }
 
@@ -561,6 +594,7 @@ public class ContRecInfo
             spot.errorType = WordSpot.ERROR_SUBSTITUTION;
             spotMatched.add(iSpot);
             spanTrue[iBestClass].sub(iBestExample);
+            bTrueUsed[iBestClass][iBestExample] = true;
          }
       }
       spanFound.sub(spotMatched); // remove the subs errors from the spot list
@@ -588,6 +622,27 @@ public class ContRecInfo
       return conf;
    }
 
+   /** @return key for indexing spots and labels by series and class */
+   protected static Long indexKey(int iSeries, int iClass)
+   {
+      return ((long)iSeries << 32) | (iClass & 0xFFFFFFFFL);
+   }
+
+   /**
+    * @return meta values (sorted) of the markers in the given set that overlap the given (inclusive) range; empty
+    *         if the set is null
+    */
+   protected static int[] getOverlapping(MarkupSet marks, Range r)
+   {
+      if (marks == null) return new int[0];
+      ArrayList<TimeMarker> list = marks.getOverlapping(r.a, r.b + 1);
+      int[] ret = new int[list.size()];
+      for(int i = 0; i < ret.length; i++)
+         ret[i] = (Integer)list.get(i).getMeta();
+      Arrays.sort(ret);
+      return ret;
+   }
+
    /**
     * perform the full (exponential) search for the best matching between found and true instances of a
     * particular class
@@ -0,0 +1,237 @@
+package kdm.tools;
+
+import java.util.*;
+
+import kdm.util.*;
+
+/**
+ * Micro-benchmark that compares the primitive collections in kdm.util with the boxed java.util versions that
+ * they replace: IntIntMap vs. HashMap&lt;Integer,Integer&gt; (symbol remapping), LongIntMap vs.
+ * HashMap&lt;String,Integer&gt; (SAX word ids), IntDoubleMap vs. HashMap&lt;Integer,Double&gt;,
+ * DoubleIntMinHeap vs. PriorityQueue, and TopKHeap vs. sorting. Each test is repeated so that the JIT has
+ * warmed up before the reported (best) time, and the results of both versions are checked against each other.
+ *
+ * Usage: java kdm.tools.PrimitiveBench [n (1000000)] [#reps (5)]
+ */
+public class PrimitiveBench
+{
+   protected static int n, nReps;
+   protected static long sink;
+
+   /** one benchmark: run() returns a checksum so the work can't be optimized away */
+   protected static abstract class Test
+   {
+      final String name;
+
+      Test(String name)
+      {
+         this.name = name;
+      }
+
+      abstract long run();
+   }
+
+   /** run both tests and report the best time of each */
+   protected static void compare(Test boxed, Test prim)
+   {
+      double msBoxed = Library.INF, msPrim = Library.INF;
+      long sumBoxed = 0, sumPrim = 0;
+      for(int iRep = 0; iRep < nReps; iRep++){
+         TimerNS timer = new TimerNS();
+         sumBoxed = boxed.run();
+         msBoxed = Math.min(msBoxed, timer.timeMS());
+         timer.reset();
+         sumPrim = prim.run();
+         msPrim = Math.min(msPrim, timer.timeMS());
+      }
+      sink += sumBoxed + sumPrim;
+      System.err.printf("%-28s %9.2fms   %-28s %9.2fms   x%.1f %s\n", boxed.name, msBoxed, prim.name, msPrim,
+            msBoxed / msPrim, sumBoxed == sumPrim ? "" : "  (MISMATCH)");
+   }
+
+   public static void main(String[] args)
+   {
+      n = (args.length > 0 ? Integer.parseInt(args[0]) : 1000000);
+      nReps = (args.length > 1 ? Integer.parseInt(args[1]) : 5);
+      Random rng = new Random(1);
+
+      // symbols with a small alphabet (e.g., quantized data)
+      final int[] symbols = new int[n];
+      for(int i = 0; i < n; i++)
+         symbols[i] = rng.nextInt(1000) * 7919;
+
+      // SAX words: 8 symbols from an alphabet of 6
+      final int nPaa = 8, nSax = 6;
+      final int[][] words = new int[n][nPaa];
+      for(int i = 0; i < n; i++){
+         int x = rng.nextInt(20000);
+         for(int j = 0; j < nPaa; j++){
+            words[i][j] = x % nSax;
+            x /= nSax;
+         }
+      }
+
+      final double[] keys = new double[n];
+      for(int i = 0; i < n; i++)
+         keys[i] = rng.nextDouble();
+      final int k = 100;
+
+      System.err.printf("n=%d  reps=%d\n", n, nReps);
+
+      compare(new Test("HashMap<Integer,Integer>") {
+         long run()
+         {
+            HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
+            long sum = 0;
+            for(int i = 0; i < n; i++){
+               Integer id = map.get(symbols[i]);
+               if (id == null){
+                  id = map.size();
+                  map.put(symbols[i], id);
+               }
+               sum += id;
+            }
+            return sum;
+         }
+      }, new Test("IntIntMap") {
+         long run()
+         {
+            IntIntMap map = new IntIntMap();
+            long sum = 0;
+            for(int i = 0; i < n; i++){
+               int id = map.get(symbols[i]);
+               if (id < 0){
+                  id = map.size();
+                  map.put(symbols[i], id);
+               }
+               sum += id;
+            }
+            return sum;
+         }
+      });
+
+      compare(new Test("HashMap<String,Integer>") {
+         long run()
+         {
+            HashMap<String, Integer> map = new HashMap<String, Integer>();
+            long sum = 0;
+            for(int i = 0; i < n; i++){
+               StringBuffer sb = new StringBuffer();
+               for(int j = 0; j < nPaa; j++)
+                  sb.append((char)(words[i][j] + 'a'));
+               String s = sb.toString();
+               Integer id = map.get(s);
+               if (id == null){
+                  id = map.size();
+                  map.put(s, id);
+               }
+               sum += id;
+            }
+            return sum;
+         }
+      }, new Test("LongIntMap (packed)") {
+         long run()
+         {
+            LongIntMap map = new LongIntMap();
+            long sum = 0;
+            for(int i = 0; i < n; i++){
+               long code = 0;
+               for(int j = 0; j < nPaa; j++)
+                  code = code * nSax + words[i][j];
+               int id = map.get(code);
+               if (id < 0){
+                  id = map.size();
+                  map.put(code, id);
+               }
+               sum += id;
+            }
+            return sum;
+         }
+      });
+
+      compare(new Test("HashMap<Integer,Double>") {
+         long run()
+         {
+            HashMap<Integer, Double> map = new HashMap<Integer, Double>();
+            for(int i = 0; i < n; i++){
+               Double x = map.get(symbols[i]);
+               map.put(symbols[i], (x == null ? 0 : x) + keys[i]);
+            }
+            double sum = 0;
+            for(double x : map.values())
+               sum += x;
+            return Math.round(sum * 1000);
+         }
+      }, new Test("IntDoubleMap") {
+         long run()
+         {
+            IntDoubleMap map = new IntDoubleMap();
+            for(int i = 0; i < n; i++)
+               map.adjust(symbols[i], keys[i]);
+            double sum = 0;
+            for(double x : map.values())
+               sum += x;
+            return Math.round(sum * 1000);
+         }
+      });
+
+      compare(new Test("PriorityQueue<Double>") {
+         long run()
+         {
+            PriorityQueue<Double> pq = new PriorityQueue<Double>();
+            for(int i = 0; i < n; i++)
+               pq.add(keys[i]);
+            long sum = 0;
+            while(!pq.isEmpty())
+               sum = sum * 31 + Double.doubleToLongBits(pq.poll());
+            return sum;
+         }
+      }, new Test("DoubleIntMinHeap") {
+         long run()
+         {
+            DoubleIntMinHeap heap = new DoubleIntMinHeap();
+            for(int i = 0; i < n; i++)
+               heap.add(keys[i], i);
+            long sum = 0;
+            while(!heap.isEmpty()){
+               sum = sum * 31 + Double.doubleToLongBits(heap.peekKey());
+               heap.poll();
+            }
+            return sum;
+         }
+      });
+
+      compare(new Test("top-k via PriorityQueue") {
+         long run()
+         {
+            PriorityQueue<Double> pq = new PriorityQueue<Double>();
+            for(int i = 0; i < n; i++){
+               if (pq.size() < k) pq.add(keys[i]);
+               else if (keys[i] > pq.peek()){
+                  pq.poll();
+                  pq.add(keys[i]);
+               }
+            }
+            long sum = 0;
+            while(!pq.isEmpty())
+               sum += Double.doubleToLongBits(pq.poll());
+            return sum;
+         }
+      }, new Test("TopKHeap") {
+         long run()
+         {
+            TopKHeap top = new TopKHeap(k);
+            for(int i = 0; i < n; i++)
+               top.offer(keys[i], i);
+            double[] best = new double[top.size()];
+            top.getSorted(best, new int[best.length]);
+            long sum = 0;
+            for(double x : best)
+               sum += Double.doubleToLongBits(x);
+            return sum;
+         }
+      });
+
+      if (sink == 42) System.err.println();
+   }
+}
@@ -4,16 +4,18 @@ import kdm.data.*;
 import kdm.data.transform.*;
 import kdm.io.*;
 import kdm.io.DataLoader.*;
-import kdm.io.DataSaver.DSRaw;
+import kdm.io.DataSaver.*;
 import kdm.io.Def.DataDefLoader;
 import kdm.mlpr.*;
 import kdm.util.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import gnu.getopt.*;
 import java.io.*;
 import org.apache.commons.math.stat.*;
+import no.uib.cipr.matrix.NotConvergedException;
 
 /**
  * Transforms an input data file into a discretized (quantized) output file
@@ -27,6 +29,7 @@ public class Quantize
    protected static PrintWriter out = null;
    protected static boolean bVerbose = false;
    protected static boolean bWhiten = false;
+   protected static boolean bAsync = false;
    protected static double sdev[];
    protected static ArrayList<Sequence> tseries;
    protected static Sequence input;
@@ -55,6 +58,7 @@ public class Quantize
       System.err.println("  -centers-out <file>    Write clusters to this file");
       System.err.println("  -centers-in <file>     Reads clusters instead of computing from data");
       System.err.println("  -loader <load class>   Specify which class to use to load data (def = DLRaw)");
+      System.err.println("  -async                 Save output files in the background (for SAX)");
       System.err.println();
    }
 
@@ -159,74 +163,99 @@ public class Quantize
          System.err.printf("Using PCA to convert from %dD to 1D... ", nDims);
          timer.reset();
 
-         // concatenate all data
-         Sequence seqAll = new Sequence();
-         for(Sequence seq : tseries)
-            seqAll.append(seq, false, false);
+         // accumulate statistics over all data (no need to concatenate)
          TransformPCA pca = new TransformPCA(1);
-         Sequence seqPCA = pca.transform(seqAll);
-         data1 = new ArrayList<Sequence>(nSeqs);
-         int ix = 0;
-         for(Sequence inseq : tseries){
-            int len = inseq.length();
-            Sequence seq1 = seqPCA.subseq(ix, ix + len, inseq.getParentIndex());
-            data1.add(seq1);
-            ix += len;
+         try{
+            pca.pca(PCAStats.compute(tseries, Runtime.getRuntime().availableProcessors()));
+         } catch (NotConvergedException e){
+            e.printStackTrace();
+            return false;
          }
+         data1 = new ArrayList<Sequence>(nSeqs);
+         for(Sequence inseq : tseries)
+            data1.add(pca.project(inseq, pca.getMean()));
          System.err.printf("done (%dms).\n", timer.time());
       }
 
-      // determine the SAX string for each position
+      // determine the SAX string for each position; we can use the hash table to assign a unique symbol to
+      // each string as soon as a sequence is done, so its output can be written while we process the rest.
+      // Strings are packed into a long (base nSax) unless they are too long to fit.
       timer.reset();
       int iBS = 0;
-      HashMap<String, Integer> hash = new HashMap<String, Integer>();
-      String[][] saxData = new String[nSeqs][];
+      boolean bPack = (nPaa * Math.log(nSax) < 63 * Math.log(2));
+      LongIntMap codes = new LongIntMap();
+      HashMap<String, Integer> hash = (bPack ? null : new HashMap<String, Integer>());
       TransformSAX sax = new TransformSAX(nPaa, nSax, 0, wlen);
+      AsyncSaver async = (bAsync ? new AsyncSaver() : null);
       for(int iSeq = 0; iSeq < nSeqs; iSeq++){
          Sequence seq = data1.get(iSeq);
          int len = seq.length();
          int nwin = Library.getNumSlidingWindowSites(len, wlen, 1);
-         saxData[iSeq] = new String[nwin];
+         final int[] bsData = new int[nwin];
 
          for(int t = 0; t < nwin; t++){
             sax.setStart(t);
             DiscreteSeq dseq = (DiscreteSeq)sax.transform(seq);
-            StringBuffer sb = new StringBuffer();
-            for(int i = 0; i < nPaa; i++)
-               sb.append((char)(dseq.geti(i) + 'a'));
-            String s = sb.toString();
-            saxData[iSeq][t] = s;
-            if (!hash.containsKey(s)) hash.put(s, iBS++);
+            if (bPack){
+               long code = 0;
+               for(int i = 0; i < nPaa; i++)
+                  code = code * nSax + dseq.geti(i);
+               int id = codes.get(code);
+               if (id < 0){
+                  id = iBS++;
+                  codes.put(code, id);
+               }
+               bsData[t] = id;
+            }
+            else{
+               StringBuffer sb = new StringBuffer();
+               for(int i = 0; i < nPaa; i++)
+                  sb.append((char)(dseq.geti(i) + 'a'));
+               String s = sb.toString();
+               Integer id = hash.get(s);
+               if (id == null){
+                  id = iBS++;
+                  hash.put(s, id);
+               }
+               bsData[t] = id;
+            }
          }
-      }
 
-      // now we can use the hash table to assign a unique symbol to each string
-      int[][] bsData = new int[nSeqs][];
-      for(int iSeq = 0; iSeq < nSeqs; iSeq++){
-         int len = saxData[iSeq].length;
-         bsData[iSeq] = new int[len];
-         for(int i = 0; i < len; i++)
-            bsData[iSeq][i] = hash.get(saxData[iSeq][i]);
+         // output results
+         final String sOut = convFileAuto(tseries.get(iSeq).getOrigFile());
+         Callable<Boolean> job = new Callable<Boolean>() {
+            public Boolean call()
+            {
+               return saveSymbols(bsData, sOut);
+            }
+         };
+         if (async != null) async.submit(job, sOut);
+         else saveSymbols(bsData, sOut);
       }
-      int nSymbols = hash.size();
+      if (async != null) async.finish();
+      int nSymbols = iBS;
       System.err.printf("Found %d unique strings (wlen=%d,#paa=%d,#sax=%d,%dms)\n", nSymbols, wlen, nPaa,
             nSax, timer.time());
 
-      // output results
-      for(int i = 0; i < bsData.length; i++){
-         Sequence seqOrig = tseries.get(i);
-         String sOut = convFileAuto(seqOrig.getOrigFile());
+      return true;
+   }
+
+   /** save a sequence of symbols (one per line) */
+   protected static boolean saveSymbols(int[] data, String sOut)
+   {
+      try{
+         FastTextWriter out = new FastTextWriter(new File(sOut));
          try{
-            PrintWriter out = new PrintWriter(new FileWriter(sOut));
-            for(int t = 0; t < bsData[i].length; t++)
-               out.println(bsData[i][t]);
+            for(int t = 0; t < data.length; t++)
+               out.append(data[t]).println();
+         } finally{
             out.close();
-         } catch (Exception e){
-            System.err.printf("Warning: failed to save quantized data file:\n %s\n", sOut);
          }
+         return true;
+      } catch (IOException e){
+         System.err.printf("Warning: failed to save quantized data file:\n %s\n", sOut);
+         return false;
       }
-
-      return true;
    }
 
    /**
@@ -286,7 +315,8 @@ public class Quantize
             new LongOpt("method", LongOpt.REQUIRED_ARGUMENT, null, 1010),
             new LongOpt("wlen", LongOpt.REQUIRED_ARGUMENT, null, 1011),
             new LongOpt("paa", LongOpt.REQUIRED_ARGUMENT, null, 1012),
-            new LongOpt("sax", LongOpt.REQUIRED_ARGUMENT, null, 1013) };
+            new LongOpt("sax", LongOpt.REQUIRED_ARGUMENT, null, 1013),
+            new LongOpt("async", LongOpt.NO_ARGUMENT, null, 1014) };
 
       Getopt g = new Getopt("Quantize", args, "?", longopts, true);
       while((c = g.getopt()) != -1){
@@ -332,6 +362,9 @@ public class Quantize
          case 1013: // sax
             nSax = Integer.parseInt(g.getOptarg());
             break;
+         case 1014: // async
+            bAsync = true;
+            break;
          }
       }
 
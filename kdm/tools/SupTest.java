@@ -11,6 +11,7 @@ import kdm.models.misc.*;
 import kdm.metrics.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 import gnu.getopt.*;
@@ -58,10 +59,12 @@ public class SupTest
    public static int splitW = 0, splitG = 0, splitO = 0;
    public static double splitT = 1e-3;
    public static int nFolds = 5;
+   public static int nThreads = Runtime.getRuntime().availableProcessors();
    public static Op op = Op.conf;
    public static Per per = Per.cls;
    public static Model model = Model.hmm;
    public static String sOutPath = "./";
+   public static String sSimPyramid = null;
    public static ArrayList<DataTransform> trans = new ArrayList<DataTransform>();
    public static FeatureVec initv, minv;
    public static double rBand = Double.NaN;
@@ -102,6 +105,8 @@ public class SupTest
       System.err.println("  -v                      enable verbose output");
       System.err.println("  -nfolds                 number of folds for cross-val (" + nFolds + ")");
       System.err.println("  -seed                   seed for rng (def from clock)");
+      System.err.printf("  -threads <n>            number of worker threads (%d)\n", nThreads);
+      System.err.println("  -simpyr <file>          also save the similarity matrix as a pyramid (for op=sim)");
       System.err.println("  -output <human|comp>    Generate output for human or computer? (human)");
       System.err.println("  -norm                   normalize scores by model length (false)");
       System.err.println("  -showerr                show individual errors (for op=conf)");
@@ -459,7 +464,170 @@ public class SupTest
    // ////////////////////////////////////////////////////////////////////
 
    /**
-    * Compute the confusion matrix for isolated recognition
+    * Immutable snapshot of the (static) model configuration. Training and evaluation tasks run on worker
+    * threads, so they read the configuration from a snapshot taken when the tasks are created rather than from
+    * the static fields.
+    */
+   protected static final class Config
+   {
+      final Model model;
+      final MetricFV fvm;
+      final double rBand;
+      final MetricSeq.LengthPrep lenPrep;
+      final MetricModel.Method mmTrain;
+      final FeatureVec initv, minv;
+      final int nDims, nHmmStates, nHmmSkip, nSymbols;
+      final HmmTrain hmmTrain;
+      final HmmEval hmmEval;
+      final boolean bNorm;
+
+      Config()
+      {
+         model = SupTest.model;
+         fvm = SupTest.fvm;
+         rBand = SupTest.rBand;
+         lenPrep = SupTest.lenPrep;
+         mmTrain = SupTest.mmTrain;
+         initv = (SupTest.initv == null ? null : new FeatureVec(SupTest.initv));
+         minv = (SupTest.minv == null ? null : new FeatureVec(SupTest.minv));
+         nDims = SupTest.nDims;
+         nHmmStates = SupTest.nHmmStates;
+         nHmmSkip = SupTest.nHmmSkip;
+         nSymbols = SupTest.nSymbols;
+         hmmTrain = SupTest.hmmTrain;
+         hmmEval = SupTest.hmmEval;
+         bNorm = SupTest.bNorm;
+      }
+
+      /** @return true if this configuration describes a model that can be used for isolated recognition */
+      boolean canClassify()
+      {
+         return model == Model.oates || model == Model.erp || model == Model.dtw || model == Model.euc
+               || model == Model.absdist || model == Model.hmm || model == Model.dhmm;
+      }
+
+      /**
+       * Train a model for the given examples. The random stream belongs to the calling task so that stochastic
+       * trainers are reproducible regardless of scheduling; any trainer that draws random numbers must use it
+       * rather than Library.rng (none of the current trainers draw random numbers).
+       */
+      Object train(ArrayList<Sequence> train, RandomStream rng)
+      {
+         if (model == Model.oates) return new OatesModelUSamp(train, 0, initv, minv);
+         if (model == Model.erp) return new MetricModel(new ERP(fvm, rBand, lenPrep), train, mmTrain);
+         if (model == Model.dtw) return new MetricModel(new DTW(fvm, rBand, lenPrep), train, mmTrain);
+         if (model == Model.euc) return new MetricModel(new SumSeqDist(new EuclideanFV(false), false, lenPrep),
+               train, mmTrain);
+         if (model == Model.absdist) return new MetricModel(new SumSeqDist(new AbsoluteDistFV(), false,
+               lenPrep), train, mmTrain);
+         if (model == Model.hmm){
+            HmmLR hmm = new HmmLR(nHmmStates, nHmmSkip, nDims);
+            hmm.init_segk(train);
+            if (hmmTrain == HmmTrain.viterbi) hmm.train_viterbi(train);
+            else hmm.train_bw(train);
+            return hmm;
+         }
+         if (model == Model.dhmm){
+            ArrayList<Sequence> dtrain = DiscreteSeq.convert(train, nSymbols);
+            HmmLRD dhmm = new HmmLRD(nHmmStates, nHmmSkip, nSymbols);
+            dhmm.init_segk(dtrain);
+            if (hmmTrain == HmmTrain.viterbi) dhmm.train_viterbi(dtrain);
+            else dhmm.train_bw(dtrain);
+            return dhmm;
+         }
+         assert false : "unsupported model: " + model;
+         return null;
+      }
+
+      /** @return raw score (loglik or distance) of the sequence under the given model */
+      double eval(Object m, Sequence seq)
+      {
+         if (model == Model.oates) return ((OatesModelUSamp)m).eval(seq);
+         if (model == Model.hmm){
+            HmmLR hmm = (HmmLR)m;
+            return (hmmEval == HmmEval.viterbi ? hmm.viterbi(seq) : hmm.eval(seq));
+         }
+         if (model == Model.dhmm){
+            HmmLRD dhmm = (HmmLRD)m;
+            DiscreteSeq dseq = DiscreteSeq.wrap(seq, nSymbols);
+            return (hmmEval == HmmEval.viterbi ? dhmm.viterbi(dseq) : dhmm.eval(dseq));
+         }
+         return ((MetricModel)m).eval(seq);
+      }
+
+      /** @return score derived from the raw score such that larger is always better */
+      double rank(Object m, Sequence seq, double score)
+      {
+         if (model == Model.oates) return bNorm ? score / ((OatesModelUSamp)m).size() : score;
+         if (model == Model.hmm || model == Model.dhmm) return bNorm ? score / seq.length() : score;
+         if (bNorm) score /= Math.max(((MetricModel)m).length(), seq.length());
+         return -score;
+      }
+   }
+
+   /** Scores of every example under the model trained for one (fold, class) pair */
+   protected static class FoldScores
+   {
+      /** raw score and rank (larger is better) of each example (in data order) */
+      double[] score, rank;
+      long msTrain, msEval;
+   }
+
+   /**
+    * Run the given tasks on a pool of nThreads workers. Progress is reported on stderr as the tasks finish (in
+    * task order).
+    * 
+    * @return results in task order, or null if interrupted
+    */
+   protected static <T> ArrayList<T> runTasks(List<? extends Callable<T>> tasks)
+   {
+      int nTasks = tasks.size();
+      ArrayList<T> ret = new ArrayList<T>(nTasks);
+      int nt = Math.min(nThreads, nTasks);
+      if (nt <= 1){
+         try{
+            for(int i = 0; i < nTasks; i++){
+               ret.add(tasks.get(i).call());
+               System.err.print(i > 0 ? " " + (i + 1) : "" + (i + 1));
+            }
+         } catch (RuntimeException e){
+            throw e;
+         } catch (Exception e){
+            throw new RuntimeException(e);
+         }
+         return ret;
+      }
+
+      ExecutorService pool = Executors.newFixedThreadPool(nt);
+      try{
+         ArrayList<Future<T>> futures = new ArrayList<Future<T>>(nTasks);
+         for(Callable<T> task : tasks)
+            futures.add(pool.submit(task));
+         for(int i = 0; i < nTasks; i++){
+            ret.add(futures.get(i).get());
+            System.err.print(i > 0 ? " " + (i + 1) : "" + (i + 1));
+         }
+      } catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         return null;
+      } catch (ExecutionException e){
+         Throwable cause = e.getCause();
+         if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+         if (cause instanceof Error) throw (Error)cause;
+         throw new RuntimeException(cause);
+      } finally{
+         pool.shutdownNow();
+      }
+      return ret;
+   }
+
+   /**
+    * Compute the confusion matrix for isolated recognition.
+    * 
+    * Each (fold, class) pair is an independent task that trains the model for the class on the fold's
+    * training set and then scores every example with that model, so nFolds x nClasses tasks can run at once
+    * and no model is shared between threads. The confusion matrices are assembled from the scores once all of
+    * the tasks have finished.
     */
    public static void calcConfMatrix(TreeMap<String, ArrayList<Sequence>> data)
    {
@@ -467,183 +635,122 @@ public class SupTest
 
       // shuffle the data
       int[][] indices = getShuffledDataIndices(data);
+      final RandomStream rng = Library.rng.split();
 
       // now we can run the tests
-      int nClasses = data.size();
+      final int nClasses = data.size();
       int confTrain[][] = Library.allocMatrixInt(nClasses, nClasses);
       int confTest[][] = Library.allocMatrixInt(nClasses, nClasses);
 
-      OatesModelUSamp om[] = new OatesModelUSamp[nClasses];
-      MetricModel metmod[] = new MetricModel[nClasses];
-      HmmLR hmm[] = new HmmLR[nClasses];
-      HmmLRD dhmm[] = new HmmLRD[nClasses];
-      double scores[] = new double[nClasses];
-
-      // extract the class names from the data tree
-      TimerMS timer = new TimerMS();
+      // extract the class names from the data tree and lay out all of the examples in one list
       String classes[] = new String[nClasses];
-      int[] nClass = new int[nClasses];
+      int[] iFirst = new int[nClasses + 1];
+      final ArrayList<Sequence> examples = new ArrayList<Sequence>();
       Set<String> labels = data.keySet();
       Iterator<String> it = labels.iterator();
       for(int i = 0; i < nClasses; i++){
          classes[i] = it.next();
-         nClass[i] = data.get(classes[i]).size();
+         iFirst[i] = examples.size();
+         ArrayList<Sequence> all = data.get(classes[i]);
+         for(int j = 0; j < indices[i].length; j++)
+            examples.add(all.get(indices[i][j]));
       }
+      iFirst[nClasses] = examples.size();
 
+      final Config config = new Config();
+      if (!config.canClassify()){
+         System.err.printf("\n\nError: mode (%s) not supported for computing a confusion matrix.\n", model);
+         return;
+      }
+      if (model == Model.dhmm && nSymbols < 2){
+         System.err.printf("\nError: invalid number of symbols (%d)\n", nSymbols);
+         return;
+      }
+
+      // one task per (fold, class): train the model and score all of the examples
+      ArrayList<Callable<FoldScores>> tasks = new ArrayList<Callable<FoldScores>>();
       for(int iFold = 0; iFold < nFolds; iFold++){
-         // build the models
-         System.err.print("Building models for fold " + (iFold + 1) + " / " + nFolds + "...\n[");
          for(int i = 0; i < nClasses; i++){
-            if (i > 0) System.err.print(" " + (i + 1));
-            else System.err.print(i + 1);
-            ArrayList<Sequence> train = new ArrayList<Sequence>();
-            ArrayList<Sequence> dtrain = null;
-            ArrayList<Sequence> all = data.get(classes[i]);
-            int n = indices[i].length;
+            final ArrayList<Sequence> train = new ArrayList<Sequence>();
+            int n = iFirst[i + 1] - iFirst[i];
             int a = iFold * n / nFolds;
             int b = (iFold + 1) * n / nFolds;
             for(int j = 0; j < n; j++){
                if (j == a) j = b; // skip [a,b)
                if (j == n) break;
-               train.add(all.get(indices[i][j]));
-            }
-            timer.reset();
-            if (model == Model.oates) om[i] = new OatesModelUSamp(train, 0, initv, minv);
-            else if (model == Model.erp) metmod[i] = new MetricModel(new ERP(fvm, rBand, lenPrep), train,
-                  mmTrain);
-            else if (model == Model.dtw) metmod[i] = new MetricModel(new DTW(fvm, rBand, lenPrep), train,
-                  mmTrain);
-            else if (model == Model.euc) metmod[i] = new MetricModel(new SumSeqDist(new EuclideanFV(false),
-                  false, lenPrep), train, mmTrain);
-            else if (model == Model.absdist) metmod[i] = new MetricModel(new SumSeqDist(
-                  new AbsoluteDistFV(), false, lenPrep), train, mmTrain);
-            else if (model == Model.hmm){
-               hmm[i] = new HmmLR(nHmmStates, nHmmSkip, nDims);
-               hmm[i].init_segk(train);
-               if (hmmTrain == HmmTrain.viterbi) hmm[i].train_viterbi(train);
-               else hmm[i].train_bw(train);
+               train.add(examples.get(iFirst[i] + j));
             }
-            else if (model == Model.dhmm){
-               if (nSymbols < 2){
-                  System.err.printf("\nError: invalid number of symbols (%d)\n", nSymbols);
-                  return;
+            final RandomStream taskRng = rng.stream(tasks.size());
+            tasks.add(new Callable<FoldScores>() {
+               public FoldScores call()
+               {
+                  FoldScores fs = new FoldScores();
+                  TimerMS timer = new TimerMS();
+                  Object m = config.train(train, taskRng);
+                  fs.msTrain = timer.time();
+                  timer.reset();
+                  int nEx = examples.size();
+                  fs.score = new double[nEx];
+                  fs.rank = new double[nEx];
+                  for(int j = 0; j < nEx; j++){
+                     Sequence seq = examples.get(j);
+                     fs.score[j] = config.eval(m, seq);
+                     fs.rank[j] = config.rank(m, seq, fs.score[j]);
+                  }
+                  fs.msEval = timer.time();
+                  return fs;
                }
-               dhmm[i] = new HmmLRD(nHmmStates, nHmmSkip, nSymbols);
-               if (dtrain == null) dtrain = DiscreteSeq.convert(train, nSymbols);
-               dhmm[i].init_segk(dtrain);
-               if (hmmTrain == HmmTrain.viterbi) dhmm[i].train_viterbi(dtrain);
-               else dhmm[i].train_bw(dtrain);
-            }
-            else{
-               System.err.printf("\n\nError: mode (%s) not supported for computing a confusion matrix.\n",
-                     model);
-               return;
-            }
-            System.err.print("(" + timer.time() + ")");
+            });
          }
-         System.err.println("]");
+      }
 
-         // now run the classifier
-         System.err.print("Classifying for fold " + (iFold + 1) + "...\n[");
+      System.err.printf("Training and evaluating %d models (%d folds x %d classes, %d threads)...\n[",
+            tasks.size(), nFolds, nClasses, Math.max(1, Math.min(nThreads, tasks.size())));
+      ArrayList<FoldScores> results = runTasks(tasks);
+      System.err.println("]");
+      if (results == null) return;
 
-         // loop through all classes
+      // merge the per-task scores into the confusion matrices
+      long msTrain = 0, msEval = 0;
+      for(int iFold = 0; iFold < nFolds; iFold++){
+         List<FoldScores> fold = results.subList(iFold * nClasses, (iFold + 1) * nClasses);
          for(int i = 0; i < nClasses; i++){
-            if (i > 0) System.err.print(" " + (i + 1));
-            else System.err.print(i + 1);
-            ArrayList<Sequence> all = data.get(classes[i]);
-            int n = indices[i].length;
+            msTrain += fold.get(i).msTrain;
+            msEval += fold.get(i).msEval;
+            int n = iFirst[i + 1] - iFirst[i];
             int a = iFold * n / nFolds;
             int b = (iFold + 1) * n / nFolds;
-            timer.reset();
-            // loop through each example of this class
             for(int j = 0; j < n; j++){
-               // classify this example
-               Sequence seq = all.get(indices[i][j]);
+               int ix = iFirst[i] + j;
                int iBest = 0;
-
-               if (model == Model.oates){
-                  double bestScore = om[0].eval(seq);
-                  if (bNorm) bestScore = bestScore / om[0].size();
-                  for(int k = 1; k < nClasses; k++){
-                     double score = om[k].eval(seq);
-                     if (bNorm) score = score / om[k].size();
-                     if (score > bestScore){
-                        iBest = k;
-                        bestScore = score;
-                     }
+               double bestRank = fold.get(0).rank[ix];
+               for(int k = 1; k < nClasses; k++){
+                  if (fold.get(k).rank[ix] > bestRank){
+                     iBest = k;
+                     bestRank = fold.get(k).rank[ix];
                   }
                }
-               else if (model == Model.erp || model == Model.dtw || model == Model.euc
-                     || model == Model.absdist){
-                  double bestScore = metmod[0].eval(seq);
-                  if (bNorm) bestScore = bestScore / Math.max(metmod[0].length(), seq.length());
-                  for(int k = 1; k < nClasses; k++){
-                     double score = metmod[k].eval(seq);
-                     if (bNorm) score = score / Math.max(metmod[k].length(), seq.length());
-                     if (score < bestScore){
-                        iBest = k;
-                        bestScore = score;
-                     }
-                  }
-               }
-               else if (model == Model.hmm){
-                  double bestScore = (hmmEval == HmmEval.viterbi ? hmm[0].viterbi(seq) : hmm[0].eval(seq));
-                  scores[0] = bestScore;
-
-                  if (bNorm) bestScore /= seq.length();
-                  for(int k = 1; k < nClasses; k++){
-                     double score = (hmmEval == HmmEval.viterbi ? hmm[k].viterbi(seq) : hmm[k].eval(seq));
-                     scores[k] = score;
-                     if (bNorm) score /= seq.length();
-                     if (score > bestScore){
-                        iBest = k;
-                        bestScore = score;
-                     }
-                  }
-               }
-               else if (model == Model.dhmm){
-                  DiscreteSeq dseq = DiscreteSeq.wrap(seq, nSymbols);
-                  double bestScore = (hmmEval == HmmEval.viterbi ? dhmm[0].viterbi(dseq) : dhmm[0]
-                        .eval(dseq));
-                  scores[0] = bestScore;
-
-                  if (bNorm) bestScore /= seq.length();
-                  for(int k = 1; k < nClasses; k++){
-                     double score = (hmmEval == HmmEval.viterbi ? dhmm[k].viterbi(dseq) : dhmm[k].eval(dseq));
-                     scores[k] = score;
-                     if (bNorm) score /= seq.length();
-                     if (score > bestScore){
-                        iBest = k;
-                        bestScore = score;
-                     }
-                  }
-               }
-               else{
-                  System.err.printf("Unknown/unsupported model type: %s\n", model);
-                  assert false;
-                  System.exit(1);
-               }
 
                // display error info if requested
                if (bShowErr && i != iBest){
+                  Sequence seq = examples.get(ix);
                   int ip = seq.getParentIndex() + 1;
                   int x = seq.getParentOffset();
                   int y = x + seq.length();
-                  System.err.printf("\n - Error: %s (%d.%d->%d |%s) as %s (%.4f vs. %.4f) - ", classes[i],
-                        ip, x, y, seq.getName(), classes[iBest], scores[i], scores[iBest]);
+                  System.err.printf(" - Error (fold %d): %s (%d.%d->%d |%s) as %s (%.4f vs. %.4f)\n", iFold + 1,
+                        classes[i], ip, x, y, seq.getName(), classes[iBest], fold.get(i).score[ix],
+                        fold.get(iBest).score[ix]);
                }
 
                // record this result in the test or train confusion matrix
                if (j >= a && j < b) confTest[i][iBest]++;
                else confTrain[i][iBest]++;
             }
-            System.err.print("(" + n + ":" + timer.time() + ")");
          }
-         System.err.println("]");
-         System.err.println();
       }
 
-      System.err.println("Total time: " + tmtot.time());
+      System.err.printf("Total time: %d (train: %d, eval: %d, summed over tasks)\n", tmtot.time(), msTrain,
+            msEval);
 
       // output the confusion matrices to stdout
       dumpConfMatrix(confTrain, "Training", classes, null, false);
@@ -665,140 +772,123 @@ public class SupTest
 
       // extract the class names from the data tree
       String classes[] = new String[nClasses];
+      final ArrayList<Sequence> examples = new ArrayList<Sequence>();
       Set<String> labels = data.keySet();
       Iterator<String> it = labels.iterator();
-      for(int i = 0; i < nClasses; i++)
+      for(int i = 0; i < nClasses; i++){
          classes[i] = it.next();
+         examples.addAll(data.get(classes[i]));
+      }
 
-      OatesModelUSamp m1 = null, m2 = null;
-      ERP erp = new ERP(rBand);
-      DTW dtw = new DTW(rBand);
-      CompressDist compd = new CompressDist();
-
-      double vmin = Double.POSITIVE_INFINITY;
-      double vmax = Double.NEGATIVE_INFINITY;
+      final Config config = new Config();
+      ArrayList<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
       if (per == Per.ex) // each model is initialized from a single example
       {
-         int jsim, isim = 0;
-         for(int ic1 = 0; ic1 < nClasses; ic1++){
-            ArrayList<Sequence> exs1 = data.get(classes[ic1]);
-            for(int ix1 = 0; ix1 < exs1.size(); ix1++){
-               System.err.println((isim + 1) + " / " + nEx);
-               Sequence seq1 = exs1.get(ix1);
-               if (model == Model.oates) m1 = new OatesModelUSamp(seq1, initv, minv);
-               jsim = 0;
-               for(int ic2 = 0; ic2 < nClasses; ic2++){
-                  ArrayList<Sequence> exs2 = data.get(classes[ic2]);
-                  for(int ix2 = 0; ix2 < exs2.size(); ix2++){
-                     Sequence seq2 = exs2.get(ix2);
-                     double vsim = Double.NEGATIVE_INFINITY;
-
-                     if (model == Model.oates){
+         if (model != Model.oates && model != Model.erp && model != Model.dtw && model != Model.zip){
+            System.err.println("Can't compute similarity matrix per example"
+                  + "with the specified distance metric.");
+            assert false;
+            System.exit(0);
+         }
+
+         // one task per row; each task uses its own metric objects
+         for(int i = 0; i < examples.size(); i++){
+            final Sequence seq1 = examples.get(i);
+            tasks.add(new Callable<double[]>() {
+               public double[] call()
+               {
+                  OatesModelUSamp m1 = null, m2 = null;
+                  ERP erp = new ERP(config.rBand);
+                  DTW dtw = new DTW(config.rBand);
+                  CompressDist compd = new CompressDist();
+                  if (config.model == Model.oates) m1 = new OatesModelUSamp(seq1, config.initv, config.minv);
+                  double[] row = new double[examples.size()];
+                  for(int j = 0; j < row.length; j++){
+                     Sequence seq2 = examples.get(j);
+                     if (config.model == Model.oates){
                         double v1 = m1.eval(seq2);
                         double v2 = m2.eval(seq1);
-                        if (bNorm){
+                        if (config.bNorm){
                            v1 /= m1.length();
                            v2 /= m2.length();
                         }
-                        vsim = v1 + v2;
-                     }
-                     else if (model == Model.erp){
-                        vsim = erp.dist(seq1, seq2);
-                        if (bNorm) vsim /= Math.max(seq1.length(), seq2.length());
-                     }
-                     else if (model == Model.dtw){
-                        vsim = dtw.dist(seq1, seq2);
-                        if (bNorm) vsim /= Math.max(seq1.length(), seq2.length());
+                        row[j] = v1 + v2;
                      }
-                     else if (model == Model.zip){
-                        vsim = compd.dist(seq1, seq2);
+                     else if (config.model == Model.erp){
+                        row[j] = erp.dist(seq1, seq2);
+                        if (config.bNorm) row[j] /= Math.max(seq1.length(), seq2.length());
                      }
-                     else{
-                        System.err.println("Can't compute similarity matrix per example"
-                              + "with the specified distance metric.");
-                        assert false;
-                        System.exit(0);
+                     else if (config.model == Model.dtw){
+                        row[j] = dtw.dist(seq1, seq2);
+                        if (config.bNorm) row[j] /= Math.max(seq1.length(), seq2.length());
                      }
-
-                     if (vsim == Double.NEGATIVE_INFINITY) vsim = -(1e99);
-                     else{
-                        if (vsim < vmin) vmin = vsim;
-                        if (vsim > vmax) vmax = vsim;
-                     }
-                     sim[isim][jsim] = vsim;
-                     jsim++;
+                     else row[j] = compd.dist(seq1, seq2);
                   }
+                  return row;
                }
-               isim++;
-            }
+            });
          }
       }
       else if (per == Per.cls) // each model initialized from entire class
       {
-         int jsim, isim = 0;
-         MetricModel metmod[] = null;
-         OatesModelUSamp om[] = null;
-
-         // train all models
-         if (model == Model.oates){
-            om = new OatesModelUSamp[nClasses];
-            for(int i = 0; i < nClasses; i++){
-               System.err.printf("Training Oates model %d / %d\n", i + 1, nClasses);
-               om[i] = new OatesModelUSamp(data.get(classes[i]), 0, initv, minv);
-            }
-         }
-         else if (model == Model.erp){
-            metmod = new MetricModel[nClasses];
-            for(int i = 0; i < nClasses; i++){
-               System.err.printf("Training ERP model %d / %d\n", i + 1, nClasses);
-               metmod[i] = new MetricModel(new ERP(fvm, rBand, lenPrep), data.get(classes[i]), mmTrain);
-            }
-         }
-         else if (model == Model.dtw){
-            metmod = new MetricModel[nClasses];
-            for(int i = 0; i < nClasses; i++){
-               System.err.printf("Training DTW model %d / %d\n", i + 1, nClasses);
-               metmod[i] = new MetricModel(new DTW(fvm, rBand, lenPrep), data.get(classes[i]), mmTrain);
-            }
+         if (model != Model.oates && model != Model.erp && model != Model.dtw){
+            System.err.println("Can't compute similarity matrix per example"
+                  + "with the specified distance metric.");
+            assert false;
+            System.exit(0);
          }
 
-         for(int ic1 = 0; ic1 < nClasses; ic1++){
-            ArrayList<Sequence> exs1 = data.get(classes[ic1]);
-            System.err.println((ic1 + 1) + " / " + nClasses);
-            jsim = 0;
-            for(int ic2 = 0; ic2 < nClasses; ic2++){
-               ArrayList<Sequence> exs2 = data.get(classes[ic2]);
-               for(int ix2 = 0; ix2 < exs2.size(); ix2++){
-                  double vsim = Library.NEGINF;
-                  Sequence seq2 = exs2.get(ix2);
-                  if (model == Model.oates){
-                     vsim = om[ic1].eval(seq2);
-                     if (bNorm) vsim /= om[ic1].length();
-                  }
-                  else if (model == Model.erp || model == Model.dtw){
-                     vsim = metmod[ic1].eval(seq2);
-                     if (bNorm) vsim /= Math.max(metmod[ic1].length(), seq2.length());
-                  }
-                  else{
-                     System.err.println("Can't compute similarity matrix per example"
-                           + "with the specified distance metric.");
-                     assert false;
-                     System.exit(0);
+         // one task per class: train the model and score every example (the same row for each example)
+         RandomStream rng = Library.rng.split();
+         for(int i = 0; i < nClasses; i++){
+            final ArrayList<Sequence> train = data.get(classes[i]);
+            final RandomStream taskRng = rng.stream(i);
+            tasks.add(new Callable<double[]>() {
+               public double[] call()
+               {
+                  Object m = config.train(train, taskRng);
+                  double[] row = new double[examples.size()];
+                  for(int j = 0; j < row.length; j++){
+                     Sequence seq2 = examples.get(j);
+                     if (config.model == Model.oates){
+                        row[j] = ((OatesModelUSamp)m).eval(seq2);
+                        if (config.bNorm) row[j] /= ((OatesModelUSamp)m).length();
+                     }
+                     else{
+                        MetricModel metmod = (MetricModel)m;
+                        row[j] = metmod.eval(seq2);
+                        if (config.bNorm) row[j] /= Math.max(metmod.length(), seq2.length());
+                     }
                   }
+                  return row;
+               }
+            });
+         }
+      }
 
-                  if (vsim == Double.NEGATIVE_INFINITY) vsim = -(1e99);
-                  else{
-                     if (vsim < vmin) vmin = vsim;
-                     if (vsim > vmax) vmax = vsim;
-                  }
+      System.err.printf("Computing similarity matrix (%d rows)...\n[", tasks.size());
+      ArrayList<double[]> rows = runTasks(tasks);
+      System.err.println("]");
+      if (rows == null) return;
 
-                  for(int i = 0; i < exs1.size(); i++)
-                     sim[isim + i][jsim] = vsim;
-                  jsim++;
-               }
+      double vmin = Double.POSITIVE_INFINITY;
+      double vmax = Double.NEGATIVE_INFINITY;
+      int isim = 0;
+      for(int iRow = 0; iRow < rows.size(); iRow++){
+         double[] row = rows.get(iRow);
+         for(int j = 0; j < row.length; j++){
+            double vsim = row[j];
+            if (vsim == Double.NEGATIVE_INFINITY) row[j] = -(1e99);
+            else{
+               if (vsim < vmin) vmin = vsim;
+               if (vsim > vmax) vmax = vsim;
             }
-            isim += exs1.size();
          }
+         // per class, every example of the class gets the row of the class model
+         int nRep = (per == Per.cls ? data.get(classes[iRow]).size() : 1);
+         for(int i = 0; i < nRep; i++)
+            System.arraycopy(row, 0, sim[isim + i], 0, row.length);
+         isim += nRep;
       }
 
       System.err.println("Time to compute similarity matrix: " + timer.time() + "ms");
@@ -812,6 +902,20 @@ public class SupTest
          }
       }
 
+      // save a pyramid for interactive viewing (MatrixPyramidView)
+      if (sSimPyramid != null){
+         try{
+            MatrixPyramid mp = new MatrixPyramid(sim.length, sim.length, MatrixPyramid.Reduce.Max, new File(
+                  sSimPyramid));
+            for(int i = 0; i < sim.length; i++)
+               mp.setRow(i, sim[i]);
+            mp.build();
+         } catch (IOException e){
+            System.err.printf("Error: failed to save similarity pyramid (%s)\n", sSimPyramid);
+            e.printStackTrace();
+         }
+      }
+
       // output the similarity matrix to stdout
       dumpSimMatrix(sim, classes);
    }
@@ -1095,86 +1199,104 @@ public class SupTest
       int nSeries = tseries.length;
       int nClasses = trainData.size();
       int[] tindices = Library.permute(nSeries); // shuffle the time series
+      RandomStream rng = Library.rng.split();
 
-      for(int iFold = 0; iFold < nFolds; iFold++){
-         System.err.printf("Word Spot Fold: %d / %d\n", iFold + 1, nFolds);
+      if (model != Model.oates && model != Model.hmm){
+         // TODO: other models!
+         System.err.println("\n\nError: mode (" + model + ") not supported for word spotting.\n");
+         return;
+      }
 
-         ProbSeqModel models[];
-         if (model == Model.oates) models = new OatesModelUSamp[nClasses];
-         else if (model == Model.hmm) models = new HmmLR[nClasses];
-         else{
-            // TODO: other models!
-            System.err.println("\n\nError: mode (" + model + ") not supported for word spotting.\n");
-            return;
-         }
-         GaussianDyn1D pScore[] = new GaussianDyn1D[nClasses];
+      // storage for results/info about each run
+      ContRecInfo[] criTrain = new ContRecInfo[nFolds];
+      ContRecInfo[] criTest = new ContRecInfo[nFolds];
 
-         // the test sequences are time series
+      // the models for all folds are independent, so train them all up front (one task per fold x class)
+      final Config config = new Config();
+      ArrayList<Callable<Object[]>> tasks = new ArrayList<Callable<Object[]>>();
+      for(int iFold = 0; iFold < nFolds; iFold++){
          int a = iFold * nSeries / nFolds;
          int b = (iFold + 1) * nSeries / nFolds;
-
-         // create the training/test sets
-         ArrayList<Sequence> trainSet = new ArrayList<Sequence>();
-         ArrayList<Sequence> testSet = new ArrayList<Sequence>();
-         for(int iSeries = 0; iSeries < nSeries; iSeries++){
-            if (iSeries < a || iSeries >= b) trainSet.add(tseries[iSeries]);
-            else testSet.add(tseries[iSeries]);
-         }
-
-         // storage for results/info about run
-         ContRecInfo criTrain = new ContRecInfo(nClasses);
-         ContRecInfo criTest = new ContRecInfo(nClasses);
+         criTrain[iFold] = new ContRecInfo(nClasses);
+         criTest[iFold] = new ContRecInfo(nClasses);
 
          // pull out the relevant examples for training
-         System.err.print(" Training models... (");
-         TimerMS timer = new TimerMS();
          Iterator<ArrayList<Sequence>> it = trainData.values().iterator();
          for(int iClass = 0; iClass < nClasses; iClass++){
-            System.err.printf("%d%s", iClass + 1, iClass + 1 == nClasses ? "" : " ");
-            ArrayList<Sequence> examples = new ArrayList<Sequence>();
-
+            final ArrayList<Sequence> examples = new ArrayList<Sequence>();
             for(Sequence seq : it.next()){
                if (isTest(seq.getParentIndex(), tindices, a, b)){
-                  criTest.nLabeledWords++;
-                  criTest.nLabeledFrames += seq.length();
+                  criTest[iFold].nLabeledWords++;
+                  criTest[iFold].nLabeledFrames += seq.length();
                }
                else{
                   examples.add(seq);
-                  criTrain.nLabeledWords++;
-                  criTrain.nLabeledFrames += seq.length();
+                  criTrain[iFold].nLabeledWords++;
+                  criTrain[iFold].nLabeledFrames += seq.length();
                }
             }
 
-            // train model
-            if (model == Model.oates) models[iClass] = new OatesModelUSamp(examples, 0, initv, minv);
-            else if (model == Model.hmm){
-               HmmLR hmm = new HmmLR(nHmmStates, nHmmSkip, nDims);
-               hmm.init_segk(examples);
-               if (hmmTrain == HmmTrain.viterbi) hmm.train_viterbi(examples);
-               else hmm.train_bw(examples);
-               models[iClass] = hmm;
-            }
+            final RandomStream taskRng = rng.stream(tasks.size());
+            tasks.add(new Callable<Object[]>() {
+               public Object[] call()
+               {
+                  // train model
+                  ProbSeqModel m = (ProbSeqModel)config.train(examples, taskRng);
+
+                  // build distribution over training data scores
+                  GaussianDyn1D pScore = new GaussianDyn1D();
+                  for(Sequence seq : examples)
+                     pScore.add(m.eval(seq) / (config.bNorm ? seq.length() : 1.0), false);
+                  pScore.update();
+                  return new Object[] { m, pScore };
+               }
+            });
+         }
+      }
+
+      System.err.print("Training word spotting models... [");
+      TimerMS timer = new TimerMS();
+      ArrayList<Object[]> trained = runTasks(tasks);
+      if (trained == null) return;
+      System.err.printf("] done (%dms).\n", timer.time());
 
-            // build distribution over training data scores
-            pScore[iClass] = new GaussianDyn1D();
-            for(Sequence seq : examples)
-               pScore[iClass].add(models[iClass].eval(seq) / (bNorm ? seq.length() : 1.0), false);
-            pScore[iClass].update();
+      for(int iFold = 0; iFold < nFolds; iFold++){
+         System.err.printf("Word Spot Fold: %d / %d\n", iFold + 1, nFolds);
+
+         ProbSeqModel models[];
+         if (model == Model.oates) models = new OatesModelUSamp[nClasses];
+         else models = new HmmLR[nClasses];
+         GaussianDyn1D pScore[] = new GaussianDyn1D[nClasses];
+         for(int iClass = 0; iClass < nClasses; iClass++){
+            Object[] mp = trained.get(iFold * nClasses + iClass);
+            models[iClass] = (ProbSeqModel)mp[0];
+            pScore[iClass] = (GaussianDyn1D)mp[1];
+         }
+
+         // the test sequences are time series
+         int a = iFold * nSeries / nFolds;
+         int b = (iFold + 1) * nSeries / nFolds;
+
+         // create the training/test sets
+         ArrayList<Sequence> trainSet = new ArrayList<Sequence>();
+         ArrayList<Sequence> testSet = new ArrayList<Sequence>();
+         for(int iSeries = 0; iSeries < nSeries; iSeries++){
+            if (iSeries < a || iSeries >= b) trainSet.add(tseries[iSeries]);
+            else testSet.add(tseries[iSeries]);
          }
-         System.err.printf(") done (%dms).\n", timer.time());
 
          // now run the word spotting
          System.err.print(" Evaluating on training set... ");
-         runWordSpot(models, pScore, trainSet, labData, criTrain);
+         runWordSpot(models, pScore, trainSet, labData, criTrain[iFold]);
          System.err.println("done.");
-         criTrain.dump();
-         criTrain.showResults("Training set results...", null); // TODO: pass class name array
+         criTrain[iFold].dump();
+         criTrain[iFold].showResults("Training set results...", null); // TODO: pass class name array
 
          System.err.print(" Evaluating on test set... ");
-         runWordSpot(models, pScore, testSet, labData, criTest);
+         runWordSpot(models, pScore, testSet, labData, criTest[iFold]);
          System.err.println("done.");
-         criTest.dump();
-         criTest.showResults("Test set results...", null); // TODO: pass class name array
+         criTest[iFold].dump();
+         criTest[iFold].showResults("Test set results...", null); // TODO: pass class name array
 
       }
    }
@@ -1561,7 +1683,9 @@ public class SupTest
             new LongOpt("noclean", LongOpt.NO_ARGUMENT, null, 1014),
             new LongOpt("mmtrain", LongOpt.REQUIRED_ARGUMENT, null, 1015),
             new LongOpt("lenprep", LongOpt.REQUIRED_ARGUMENT, null, 1016),
-            new LongOpt("trans", LongOpt.REQUIRED_ARGUMENT, null, 1017) };
+            new LongOpt("trans", LongOpt.REQUIRED_ARGUMENT, null, 1017),
+            new LongOpt("threads", LongOpt.REQUIRED_ARGUMENT, null, 1018),
+            new LongOpt("simpyr", LongOpt.REQUIRED_ARGUMENT, null, 1019) };
 
       Getopt g = new Getopt("SupTest", args, "?", longopts, true);
       while((c = g.getopt()) != -1){
@@ -1736,6 +1860,12 @@ public class SupTest
                e.printStackTrace();
                System.exit(1);
             }
+         case 1018: // threads
+            nThreads = Math.max(1, Integer.parseInt(sArg));
+            break;
+         case 1019: // simpyr
+            sSimPyramid = sArg;
+            break;
          default:
             System.err.println("unrecognized command line option: " + c);
             System.exit(1);
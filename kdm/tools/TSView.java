@@ -145,7 +145,7 @@ public class TSView
             graph = (Graph)cls.newInstance();
             allGraphs.add(graph);
             if (compdef.name != null) graph.setGraphName(compdef.name);
-            if (compdef.data != null) graph.setData(compdef.data.data);
+            if (compdef.data != null) graph.setData(compdef.data.getData());
             if (!graph.config(gdef.getBasePath(), compdef.params)){
                System.err.println("Error: graph failed to config");
                return false;
@@ -15,6 +15,7 @@ import kdm.util.*;
 public class Transform
 {
    protected static boolean bVerbose = false;
+   protected static boolean bAsync = false;
 
    /**
     * Usage info for this tool
@@ -28,6 +29,7 @@ public class Transform
       System.err.println("  -tran <class>          transformation to apply");
       System.err.println("  -params <params>       list of params for prev transform (key=\"val\" ...)");
       System.err.println("  -v                     output verbose information");
+      System.err.println("  -async                 save output in the background while transforming");
       System.err.println();
       System.err.println(" Note: output files will have \".tran\" extension");
       System.err.println();
@@ -45,7 +47,8 @@ public class Transform
       LongOpt[] longopts = new LongOpt[] { new LongOpt("help", LongOpt.NO_ARGUMENT, null, 1001),
             new LongOpt("v", LongOpt.NO_ARGUMENT, null, 1002),
             new LongOpt("tran", LongOpt.REQUIRED_ARGUMENT, null, 1003),
-            new LongOpt("params", LongOpt.REQUIRED_ARGUMENT, null, 1004) };
+            new LongOpt("params", LongOpt.REQUIRED_ARGUMENT, null, 1004),
+            new LongOpt("async", LongOpt.NO_ARGUMENT, null, 1005) };
 
       Getopt g = new Getopt("Transform", args, "?", longopts, true);
       while((c = g.getopt()) != -1){
@@ -86,6 +89,9 @@ public class Transform
             tran.config(new File("."), sArg);
          }
             break;
+         case 1005: // async
+            bAsync = true;
+            break;
          }
       }
 
@@ -139,6 +145,7 @@ public class Transform
       }
 
       // transform the data
+      AsyncSaver async = (bAsync ? new AsyncSaver() : null);
       for(Sequence seqin : tseries){
          String sOutput = seqin.getOrigFile()+".tran";
          Sequence seqout = seqin;
@@ -151,10 +158,12 @@ public class Transform
 
          // save the data
          DataSaver saver = new DSRaw();
-         if (!saver.save(seqout, sOutput)){
+         if (async != null) async.save(saver, seqout, sOutput);
+         else if (!saver.save(seqout, sOutput)){
             System.err.printf("Error: failed to save tranformed data\n (%s)\n", sOutput);
             System.exit(1);
          }
       }
+      if (async != null && !async.finish()) System.exit(1);
    }
 }
@@ -0,0 +1,550 @@
+package kdm.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import kdm.util.Library.MatrixOrder;
+
+/**
+ * Sparse matrix of doubles in compressed sparse row (CSR, RowMajor) or compressed sparse column (CSC,
+ * ColumnMajor) form: the non-zero entries of each row (or column) are stored contiguously and sorted by column
+ * (or row) in primitive arrays. The structure is fixed once the matrix is built (e.g., from triplets), but the
+ * values can be changed in place.
+ *
+ * Products with dense vectors and matrices run on a shared pool of daemon threads once the matrix has enough
+ * non-zero entries to make it worthwhile. The work is split into the same chunks and summed in the same order
+ * regardless of scheduling, so results are repeatable.
+ */
+public class CompressedMatrix
+{
+   /** matrices with fewer non-zero entries than this are processed on the calling thread */
+   public static int ParallelMinNonZero = 1 << 15;
+
+   protected static ExecutorService pool;
+   protected static int nThreads = Runtime.getRuntime().availableProcessors();
+
+   protected final int nRows, nCols;
+   protected final MatrixOrder order;
+
+   /** entries of major line i (row for CSR, column for CSC) are at [ptr[i], ptr[i+1]) */
+   protected final int[] ptr;
+
+   /** minor index (column for CSR, row for CSC) of each entry */
+   protected final int[] idx;
+
+   /** value of each entry */
+   protected final double[] val;
+
+   /** work on a block of major lines [a,b); iChunk identifies the block */
+   protected interface LineKernel
+   {
+      public void apply(int iChunk, int a, int b);
+   }
+
+   protected CompressedMatrix(int nRows, int nCols, MatrixOrder order, int[] ptr, int[] idx, double[] val)
+   {
+      this.nRows = nRows;
+      this.nCols = nCols;
+      this.order = order;
+      this.ptr = ptr;
+      this.idx = idx;
+      this.val = val;
+      assert (ptr.length == getNumMajor() + 1);
+   }
+
+   /** Create a compressed version of the given dense matrix (zeros are not stored) */
+   public static CompressedMatrix fromDense(double[][] m, MatrixOrder order)
+   {
+      int nRows = m.length;
+      int nCols = (nRows == 0 ? 0 : m[0].length);
+      int n = 0;
+      for(int i = 0; i < nRows; i++)
+         for(int j = 0; j < nCols; j++)
+            if (m[i][j] != 0) n++;
+      int[] rows = new int[n];
+      int[] cols = new int[n];
+      double[] vals = new double[n];
+      n = 0;
+      for(int i = 0; i < nRows; i++)
+         for(int j = 0; j < nCols; j++)
+            if (m[i][j] != 0){
+               rows[n] = i;
+               cols[n] = j;
+               vals[n++] = m[i][j];
+            }
+      return fromTriplets(nRows, nCols, rows, cols, vals, n, order);
+   }
+
+   /**
+    * Build a compressed matrix from (row, column, value) triplets. The triplets can be in any order, and the
+    * values of duplicate (row, column) pairs are summed. Runs in O(n + nRows + nCols) time.
+    *
+    * @param n number of triplets to use from the arrays
+    */
+   public static CompressedMatrix fromTriplets(int nRows, int nCols, int[] rows, int[] cols, double[] vals,
+         int n, MatrixOrder order)
+   {
+      boolean bRowMajor = (order == MatrixOrder.RowMajor);
+      int[] major = bRowMajor ? rows : cols;
+      int[] minor = bRowMajor ? cols : rows;
+      int nMajor = bRowMajor ? nRows : nCols;
+      int nMinor = bRowMajor ? nCols : nRows;
+
+      // counting sort by minor index, then a stable counting sort by major index
+      int[] byMinor = countingSort(minor, nMinor, n, null);
+      int[] ptr = new int[nMajor + 1];
+      int[] sorted = countingSort(major, nMajor, n, byMinor, ptr);
+
+      // copy the entries, summing duplicates
+      int[] idx = new int[n];
+      double[] val = new double[n];
+      int k = 0;
+      for(int i = 0; i < nMajor; i++){
+         int a = ptr[i], b = ptr[i + 1];
+         ptr[i] = k;
+         for(int t = a; t < b; t++){
+            int e = sorted[t];
+            if (k > ptr[i] && idx[k - 1] == minor[e]) val[k - 1] += vals[e];
+            else{
+               assert (minor[e] >= 0 && minor[e] < nMinor);
+               idx[k] = minor[e];
+               val[k++] = vals[e];
+            }
+         }
+      }
+      ptr[nMajor] = k;
+      if (k < n){
+         idx = Arrays.copyOf(idx, k);
+         val = Arrays.copyOf(val, k);
+      }
+      return new CompressedMatrix(nRows, nCols, order, ptr, idx, val);
+   }
+
+   /** @return entry indices ordered by key (stable w.r.t. the given order, or 0..n-1 if null) */
+   protected static int[] countingSort(int[] key, int nKeys, int n, int[] order)
+   {
+      return countingSort(key, nKeys, n, order, new int[nKeys + 1]);
+   }
+
+   /**
+    * @param start on return, start[i] is the position of the first entry with key i (length nKeys+1)
+    * @return entry indices ordered by key (stable w.r.t. the given order, or 0..n-1 if null)
+    */
+   protected static int[] countingSort(int[] key, int nKeys, int n, int[] order, int[] start)
+   {
+      Arrays.fill(start, 0);
+      for(int e = 0; e < n; e++){
+         assert (key[e] >= 0 && key[e] < nKeys) : String.format("key=%d  nKeys=%d", key[e], nKeys);
+         start[key[e] + 1]++;
+      }
+      for(int i = 0; i < nKeys; i++)
+         start[i + 1] += start[i];
+      int[] next = Arrays.copyOf(start, nKeys);
+      int[] ret = new int[n];
+      for(int t = 0; t < n; t++){
+         int e = (order == null ? t : order[t]);
+         ret[next[key[e]]++] = e;
+      }
+      return ret;
+   }
+
+   public int getNumRows()
+   {
+      return nRows;
+   }
+
+   public int getNumCols()
+   {
+      return nCols;
+   }
+
+   /** @return number of stored (non-zero) entries */
+   public int getNumNonZero()
+   {
+      return ptr[getNumMajor()];
+   }
+
+   /** @return RowMajor for CSR, ColumnMajor for CSC */
+   public MatrixOrder getOrder()
+   {
+      return order;
+   }
+
+   public boolean isRowMajor()
+   {
+      return order == MatrixOrder.RowMajor;
+   }
+
+   /** @return number of rows (CSR) or columns (CSC) */
+   protected int getNumMajor()
+   {
+      return isRowMajor() ? nRows : nCols;
+   }
+
+   /** @return pointer array: entries of row (CSR) or column (CSC) i are at [ptr[i], ptr[i+1]) */
+   public int[] getPointers()
+   {
+      return ptr;
+   }
+
+   /** @return column (CSR) or row (CSC) index of each entry */
+   public int[] getIndices()
+   {
+      return idx;
+   }
+
+   /** @return value of each entry (can be changed in place) */
+   public double[] getValues()
+   {
+      return val;
+   }
+
+   /** @return value at (i,j); zero if not stored. O(log(entries in row/column)) */
+   public double get(int i, int j)
+   {
+      int major = isRowMajor() ? i : j;
+      int minor = isRowMajor() ? j : i;
+      int k = Arrays.binarySearch(idx, ptr[major], ptr[major + 1], minor);
+      return (k < 0 ? 0 : val[k]);
+   }
+
+   /** @return transpose of this matrix; shares the arrays with this matrix (CSR <-> CSC), so it's O(1) */
+   public CompressedMatrix transpose()
+   {
+      return new CompressedMatrix(nCols, nRows, isRowMajor() ? MatrixOrder.ColumnMajor : MatrixOrder.RowMajor, ptr,
+            idx, val);
+   }
+
+   /** @return this matrix stored in the given order (this matrix if it already is) */
+   public CompressedMatrix convert(MatrixOrder order)
+   {
+      if (order == this.order) return this;
+      int nMajor = getNumMajor();
+      int nMinor = isRowMajor() ? nCols : nRows;
+      int nnz = getNumNonZero();
+
+      // entries are already sorted by major index, so a stable sort by minor index gives the other order
+      int[] ptr2 = new int[nMinor + 1];
+      int[] sorted = countingSort(idx, nMinor, nnz, null, ptr2);
+      int[] major = new int[nnz];
+      for(int i = 0; i < nMajor; i++)
+         for(int k = ptr[i]; k < ptr[i + 1]; k++)
+            major[k] = i;
+      int[] idx2 = new int[nnz];
+      double[] val2 = new double[nnz];
+      for(int t = 0; t < nnz; t++){
+         idx2[t] = major[sorted[t]];
+         val2[t] = val[sorted[t]];
+      }
+      return new CompressedMatrix(nRows, nCols, order, ptr2, idx2, val2);
+   }
+
+   /** @return y = A x */
+   public double[] mul(double[] x)
+   {
+      double[] y = new double[nRows];
+      mul(x, y);
+      return y;
+   }
+
+   /** compute y = A x (y is overwritten) */
+   public void mul(double[] x, double[] y)
+   {
+      assert (x.length == nCols && y.length == nRows);
+      if (isRowMajor()) gather(x, y);
+      else scatter(x, y);
+   }
+
+   /** @return y = A' x */
+   public double[] mulTranspose(double[] x)
+   {
+      double[] y = new double[nCols];
+      mulTranspose(x, y);
+      return y;
+   }
+
+   /** compute y = A' x (y is overwritten) */
+   public void mulTranspose(double[] x, double[] y)
+   {
+      assert (x.length == nRows && y.length == nCols);
+      if (isRowMajor()) scatter(x, y);
+      else gather(x, y);
+   }
+
+   /** @return Y = A X for a dense [nCols x m] matrix X */
+   public double[][] mul(double[][] x)
+   {
+      assert (x.length == nCols);
+      int m = (nCols == 0 ? 0 : x[0].length);
+      double[][] y = new double[nRows][m];
+      if (isRowMajor()) gather(x, y);
+      else scatter(x, y);
+      return y;
+   }
+
+   /** @return Y = A' X for a dense [nRows x m] matrix X */
+   public double[][] mulTranspose(double[][] x)
+   {
+      assert (x.length == nRows);
+      int m = (nRows == 0 ? 0 : x[0].length);
+      double[][] y = new double[nCols][m];
+      if (isRowMajor()) scatter(x, y);
+      else gather(x, y);
+      return y;
+   }
+
+   /** @return sum of each row */
+   public double[] getRowSums()
+   {
+      double[] ones = new double[nCols];
+      Arrays.fill(ones, 1.0);
+      return mul(ones);
+   }
+
+   /**
+    * Scale each row so that it sums to one (e.g., turn transition counts into transition probabilities); rows
+    * that sum to zero are left alone.
+    */
+   public void normalizeRows()
+   {
+      final double[] sum = getRowSums();
+      final boolean bRowMajor = isRowMajor();
+      forChunks(new LineKernel() {
+         public void apply(int iChunk, int a, int b)
+         {
+            for(int i = a; i < b; i++)
+               for(int k = ptr[i]; k < ptr[i + 1]; k++){
+                  double s = sum[bRowMajor ? i : idx[k]];
+                  if (s != 0) val[k] /= s;
+               }
+         }
+      });
+   }
+
+   /** @return dense version of this matrix */
+   public double[][] toDense()
+   {
+      double[][] m = new double[nRows][nCols];
+      int nMajor = getNumMajor();
+      for(int i = 0; i < nMajor; i++)
+         for(int k = ptr[i]; k < ptr[i + 1]; k++){
+            if (isRowMajor()) m[i][idx[k]] = val[k];
+            else m[idx[k]][i] = val[k];
+         }
+      return m;
+   }
+
+   /** y[i] = sum_k val[k] * x[idx[k]] over major line i */
+   protected void gather(final double[] x, final double[] y)
+   {
+      forChunks(new LineKernel() {
+         public void apply(int iChunk, int a, int b)
+         {
+            for(int i = a; i < b; i++){
+               double s = 0;
+               for(int k = ptr[i]; k < ptr[i + 1]; k++)
+                  s += val[k] * x[idx[k]];
+               y[i] = s;
+            }
+         }
+      });
+   }
+
+   /** y[idx[k]] += val[k] * x[i] over major line i; each chunk accumulates privately and the sums are merged */
+   protected void scatter(final double[] x, final double[] y)
+   {
+      int nChunks = getNumChunks();
+      final double[][] part = new double[nChunks][];
+      part[0] = y;
+      Arrays.fill(y, 0);
+      for(int i = 1; i < nChunks; i++)
+         part[i] = new double[y.length];
+      forChunks(new LineKernel() {
+         public void apply(int iChunk, int a, int b)
+         {
+            double[] z = part[iChunk];
+            for(int i = a; i < b; i++){
+               double xi = x[i];
+               if (xi == 0) continue;
+               for(int k = ptr[i]; k < ptr[i + 1]; k++)
+                  z[idx[k]] += val[k] * xi;
+            }
+         }
+      });
+      for(int iChunk = 1; iChunk < nChunks; iChunk++)
+         Library.add(y, y, part[iChunk]);
+   }
+
+   /** Y[i] = sum_k val[k] * X[idx[k]] over major line i */
+   protected void gather(final double[][] x, final double[][] y)
+   {
+      forChunks(new LineKernel() {
+         public void apply(int iChunk, int a, int b)
+         {
+            for(int i = a; i < b; i++){
+               double[] yi = y[i];
+               for(int k = ptr[i]; k < ptr[i + 1]; k++){
+                  double v = val[k];
+                  double[] xk = x[idx[k]];
+                  for(int c = 0; c < yi.length; c++)
+                     yi[c] += v * xk[c];
+               }
+            }
+         }
+      });
+   }
+
+   /** Y[idx[k]] += val[k] * X[i] over major line i; split by output column so that chunks don't collide */
+   protected void scatter(final double[][] x, final double[][] y)
+   {
+      final int m = (y.length == 0 ? 0 : y[0].length);
+      final int nChunks = Math.min(getNumChunks(), m);
+      if (nChunks == 0) return;
+      ArrayList<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+      for(int iChunk = 0; iChunk < nChunks; iChunk++){
+         final int c0 = (int)((long)m * iChunk / nChunks);
+         final int c1 = (int)((long)m * (iChunk + 1) / nChunks);
+         jobs.add(new Callable<Object>() {
+            public Object call()
+            {
+               int nMajor = getNumMajor();
+               for(int i = 0; i < nMajor; i++){
+                  double[] xi = x[i];
+                  for(int k = ptr[i]; k < ptr[i + 1]; k++){
+                     double v = val[k];
+                     double[] yk = y[idx[k]];
+                     for(int c = c0; c < c1; c++)
+                        yk[c] += v * xi[c];
+                  }
+               }
+               return null;
+            }
+         });
+      }
+      run(jobs);
+   }
+
+   /** @return number of chunks (threads) to use for this matrix */
+   protected int getNumChunks()
+   {
+      if (getNumNonZero() < ParallelMinNonZero) return 1;
+      return Math.max(1, Math.min(nThreads, getNumMajor()));
+   }
+
+   /** apply the kernel to blocks of major lines with (roughly) the same number of entries */
+   protected void forChunks(final LineKernel kernel)
+   {
+      int nChunks = getNumChunks();
+      int nMajor = getNumMajor();
+      if (nChunks == 1){
+         kernel.apply(0, 0, nMajor);
+         return;
+      }
+
+      long nnz = getNumNonZero();
+      ArrayList<Callable<Object>> jobs = new ArrayList<Callable<Object>>();
+      int a = 0;
+      for(int iChunk = 0; iChunk < nChunks; iChunk++){
+         int b = nMajor;
+         if (iChunk + 1 < nChunks){
+            // first line that starts at or after this chunk's share of the entries
+            int target = (int)(nnz * (iChunk + 1) / nChunks);
+            b = Arrays.binarySearch(ptr, a, nMajor, target);
+            if (b < 0) b = -b - 1;
+            else while(b > a && ptr[b - 1] == target)
+               b--; // first of a run of empty lines
+         }
+         final int ia = a, ib = b, ic = iChunk;
+         jobs.add(new Callable<Object>() {
+            public Object call()
+            {
+               kernel.apply(ic, ia, ib);
+               return null;
+            }
+         });
+         a = b;
+      }
+      run(jobs);
+   }
+
+   /**
+    * Run the jobs on the shared pool and wait for them to finish. If a job fails or the calling thread is
+    * interrupted, the jobs that haven't started are skipped and the running ones are allowed to finish (so that
+    * nothing changes the matrix after this function returns) before an exception is thrown.
+    */
+   protected static void run(List<Callable<Object>> jobs)
+   {
+      if (jobs.size() == 1){
+         try{
+            jobs.get(0).call();
+         } catch (RuntimeException e){
+            throw e;
+         } catch (Exception e){
+            throw new RuntimeException(e);
+         }
+         return;
+      }
+
+      final CountDownLatch done = new CountDownLatch(jobs.size());
+      final AtomicBoolean bAbort = new AtomicBoolean();
+      ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+      ExecutorService pool = getPool();
+      for(final Callable<Object> job : jobs){
+         futures.add(pool.submit(new Callable<Object>() {
+            public Object call() throws Exception
+            {
+               try{
+                  return bAbort.get() ? null : job.call();
+               } finally{
+                  done.countDown();
+               }
+            }
+         }));
+      }
+
+      try{
+         for(Future<Object> f : futures)
+            f.get();
+      } catch (InterruptedException e){
+         abort(bAbort, done);
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e){
+         abort(bAbort, done);
+         throw new RuntimeException(e.getCause());
+      }
+   }
+
+   /** keep the remaining jobs from starting and wait for the running ones to finish */
+   protected static void abort(AtomicBoolean bAbort, CountDownLatch done)
+   {
+      bAbort.set(true);
+      boolean bInterrupted = false;
+      while(true){
+         try{
+            done.await();
+            break;
+         } catch (InterruptedException e){
+            bInterrupted = true;
+         }
+      }
+      if (bInterrupted) Thread.currentThread().interrupt();
+   }
+
+   /** @return shared pool of daemon threads for the parallel kernels */
+   protected static synchronized ExecutorService getPool()
+   {
+      if (pool == null){
+         pool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+               Thread t = new Thread(r, "CompressedMatrix");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+      }
+      return pool;
+   }
+}
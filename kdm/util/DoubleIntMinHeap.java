@@ -0,0 +1,124 @@
+package kdm.util;
+
+import java.util.*;
+
+/**
+ * Binary min-heap of (double key, int value) entries stored in parallel primitive arrays; useful as a priority
+ * queue of indices (e.g., data points ordered by distance) without boxing.
+ */
+public class DoubleIntMinHeap
+{
+   protected double[] keys;
+   protected int[] vals;
+   protected int size;
+
+   /** Create an empty heap */
+   public DoubleIntMinHeap()
+   {
+      this(16);
+   }
+
+   /** Create an empty heap with room for n entries */
+   public DoubleIntMinHeap(int n)
+   {
+      keys = new double[Math.max(1, n)];
+      vals = new int[Math.max(1, n)];
+   }
+
+   public int size()
+   {
+      return size;
+   }
+
+   public boolean isEmpty()
+   {
+      return size == 0;
+   }
+
+   public void clear()
+   {
+      size = 0;
+   }
+
+   /** add an entry to the heap */
+   public void add(double key, int val)
+   {
+      if (size == keys.length){
+         keys = Arrays.copyOf(keys, size * 2);
+         vals = Arrays.copyOf(vals, size * 2);
+      }
+      int i = size++;
+      while(i > 0){
+         int parent = (i - 1) >> 1;
+         if (keys[parent] <= key) break;
+         keys[i] = keys[parent];
+         vals[i] = vals[parent];
+         i = parent;
+      }
+      keys[i] = key;
+      vals[i] = val;
+   }
+
+   /** @return smallest key in the heap */
+   public double peekKey()
+   {
+      assert (size > 0);
+      return keys[0];
+   }
+
+   /** @return value of the entry with the smallest key */
+   public int peekValue()
+   {
+      assert (size > 0);
+      return vals[0];
+   }
+
+   /**
+    * Remove the entry with the smallest key
+    *
+    * @return value of the removed entry
+    */
+   public int poll()
+   {
+      assert (size > 0);
+      int val = vals[0];
+      size--;
+      if (size > 0) siftDown(0, keys[size], vals[size]);
+      return val;
+   }
+
+   /** replace the smallest entry with the given one (faster than poll() followed by add()) */
+   public void replaceTop(double key, int val)
+   {
+      assert (size > 0);
+      siftDown(0, key, val);
+   }
+
+   /** place (key,val) at or below slot i */
+   protected void siftDown(int i, double key, int val)
+   {
+      int half = size >> 1;
+      while(i < half){
+         int child = 2 * i + 1;
+         if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+         if (key <= keys[child]) break;
+         keys[i] = keys[child];
+         vals[i] = vals[child];
+         i = child;
+      }
+      keys[i] = key;
+      vals[i] = val;
+   }
+
+   /** @return key of the i-th entry (heap order, not sorted) */
+   public double getKey(int i)
+   {
+      return keys[i];
+   }
+
+   /** @return value of the i-th entry (heap order, not sorted) */
+   public int getValue(int i)
+   {
+      return vals[i];
+   }
+}
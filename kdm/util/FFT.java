@@ -0,0 +1,211 @@
+package kdm.util;
+
+import java.util.*;
+
+/**
+ * Simple complex FFT routines (iterative radix-2, unnormalized forward transform). The real and imaginary
+ * components are kept in separate arrays so that callers working with real-valued data don't need to pack
+ * them into an interleaved format.
+ *
+ * An FFT object is a reusable plan for a fixed length. Lengths that are not a power of 2 are handled with
+ * Bluestein's (chirp-z) algorithm. Plans hold scratch buffers, so use one instance per thread.
+ */
+public final class FFT
+{
+   /** length of the transform */
+   protected int n;
+
+   /** length of the padded radix-2 convolution used by Bluestein's algorithm (0 if n is a power of 2) */
+   protected int M;
+
+   /** chirp exp(-i pi j^2/n) and the spectrum of its conjugate (padded to M) */
+   protected double[] chirpRe, chirpIm, bRe, bIm;
+
+   /** scratch buffers */
+   protected double[] ar, ai;
+
+   /**
+    * Create an FFT plan for the given length
+    * 
+    * @param n length of the transform (any positive integer)
+    */
+   public FFT(int n)
+   {
+      assert (n > 0);
+      this.n = n;
+      if ((n & (n - 1)) == 0){
+         M = 0;
+         return;
+      }
+
+      M = Library.getNextPow2(2 * n - 1);
+      chirpRe = new double[n];
+      chirpIm = new double[n];
+      long n2 = 2L * n;
+      for(int j = 0; j < n; j++){
+         // reduce j^2 mod 2n before converting to an angle to avoid losing precision for large j
+         double ang = Math.PI * (((long)j * j) % n2) / n;
+         chirpRe[j] = Math.cos(ang);
+         chirpIm[j] = -Math.sin(ang);
+      }
+      bRe = new double[M];
+      bIm = new double[M];
+      bRe[0] = chirpRe[0];
+      bIm[0] = -chirpIm[0];
+      for(int j = 1; j < n; j++){
+         bRe[j] = bRe[M - j] = chirpRe[j];
+         bIm[j] = bIm[M - j] = -chirpIm[j];
+      }
+      fft(bRe, bIm, false);
+      ar = new double[M];
+      ai = new double[M];
+   }
+
+   /** @return length of this transform */
+   public int length()
+   {
+      return n;
+   }
+
+   /**
+    * In-place forward transform (unnormalized): X[k] = sum_j x[j] exp(-2 pi i jk/n)
+    * 
+    * @param re real components (length n)
+    * @param im imaginary components (length n)
+    */
+   public void transform(double[] re, double[] im)
+   {
+      if (M == 0){
+         fft(re, im, false);
+         return;
+      }
+
+      // Bluestein: X[k] = c[k] * sum_j (x[j] c[j]) conj(c[k-j])
+      for(int j = 0; j < n; j++){
+         ar[j] = re[j] * chirpRe[j] - im[j] * chirpIm[j];
+         ai[j] = re[j] * chirpIm[j] + im[j] * chirpRe[j];
+      }
+      Arrays.fill(ar, n, M, 0.0);
+      Arrays.fill(ai, n, M, 0.0);
+      fft(ar, ai, false);
+      for(int k = 0; k < M; k++){
+         double t = ar[k] * bRe[k] - ai[k] * bIm[k];
+         ai[k] = ar[k] * bIm[k] + ai[k] * bRe[k];
+         ar[k] = t;
+      }
+      fft(ar, ai, true);
+      for(int k = 0; k < n; k++){
+         re[k] = ar[k] * chirpRe[k] - ai[k] * chirpIm[k];
+         im[k] = ar[k] * chirpIm[k] + ai[k] * chirpRe[k];
+      }
+   }
+
+   /**
+    * In-place radix-2 FFT. The forward transform computes X[k] = sum_j x[j] exp(-2 pi i jk/n); the inverse
+    * uses the opposite sign and scales by 1/n so that fft(fft(x), true) == x.
+    *
+    * @param re real components (length must be a power of 2)
+    * @param im imaginary components (same length as re)
+    * @param bInverse if true, compute the inverse transform
+    */
+   public static void fft(double[] re, double[] im, boolean bInverse)
+   {
+      int n = re.length;
+      assert (n == im.length);
+      assert (n & (n - 1)) == 0 : String.format("FFT length must be a power of 2 (%d)", n);
+      if (n < 2) return;
+
+      // bit-reversal permutation
+      for(int i = 1, j = 0; i < n; i++){
+         int bit = n >> 1;
+         for(; (j & bit) != 0; bit >>= 1)
+            j ^= bit;
+         j ^= bit;
+         if (i < j){
+            double t = re[i];
+            re[i] = re[j];
+            re[j] = t;
+            t = im[i];
+            im[i] = im[j];
+            im[j] = t;
+         }
+      }
+
+      // butterflies
+      double sign = bInverse ? 1.0 : -1.0;
+      for(int len = 2; len <= n; len <<= 1){
+         double ang = sign * Library.TWO_PI / len;
+         double wr = Math.cos(ang);
+         double wi = Math.sin(ang);
+         int half = len >> 1;
+         for(int i = 0; i < n; i += len){
+            double cr = 1.0, ci = 0.0;
+            for(int j = 0; j < half; j++){
+               int a = i + j;
+               int b = a + half;
+               double xr = re[b] * cr - im[b] * ci;
+               double xi = re[b] * ci + im[b] * cr;
+               re[b] = re[a] - xr;
+               im[b] = im[a] - xi;
+               re[a] += xr;
+               im[a] += xi;
+               double t = cr * wr - ci * wi;
+               ci = cr * wi + ci * wr;
+               cr = t;
+            }
+         }
+      }
+
+      if (bInverse){
+         double f = 1.0 / n;
+         for(int i = 0; i < n; i++){
+            re[i] *= f;
+            im[i] *= f;
+         }
+      }
+   }
+
+   /**
+    * Compute the dot product between the query and every window of the same length in the data (i.e., a
+    * sliding dot product) in O(n log n) time via the convolution theorem.
+    *
+    * @param q query vector (length m)
+    * @param t data vector (length n >= m)
+    * @return array of length n-m+1 where ret[k] = sum_j q[j]*t[k+j]
+    */
+   public static double[] slidingDotProduct(double[] q, double[] t)
+   {
+      int m = q.length;
+      int n = t.length;
+      assert (m <= n);
+      int N = Library.getNextPow2(n + m);
+
+      // both inputs are real, so we can pack them into a single complex transform
+      double[] re = new double[N];
+      double[] im = new double[N];
+      for(int i = 0; i < n; i++)
+         re[i] = t[i];
+      for(int i = 0; i < m; i++)
+         im[i] = q[m - 1 - i];
+      fft(re, im, false);
+
+      // separate the spectra (T = (Z[k] + conj(Z[N-k]))/2, Q = (Z[k] - conj(Z[N-k]))/2i) and multiply
+      double[] pr = new double[N];
+      double[] pi = new double[N];
+      for(int k = 0; k < N; k++){
+         int k2 = (N - k) & (N - 1);
+         double tr = 0.5 * (re[k] + re[k2]);
+         double ti = 0.5 * (im[k] - im[k2]);
+         double qr = 0.5 * (im[k] + im[k2]);
+         double qi = -0.5 * (re[k] - re[k2]);
+         pr[k] = tr * qr - ti * qi;
+         pi[k] = tr * qi + ti * qr;
+      }
+      fft(pr, pi, true);
+
+      double[] ret = new double[n - m + 1];
+      for(int k = 0; k < ret.length; k++)
+         ret[k] = pr[k + m - 1];
+      return ret;
+   }
+}
@@ -0,0 +1,191 @@
+package kdm.util;
+
+import java.util.*;
+
+/**
+ * Hash map from int to int with open addressing (linear probing), so neither keys nor values are boxed. Any
+ * int can be used as a key; get() returns the "no entry" value (default: -1) for missing keys.
+ */
+public class IntIntMap
+{
+   protected int[] keys, vals;
+   protected boolean[] used;
+   protected int size, mask, maxSize;
+   protected int noEntry = -1;
+
+   /** Create an empty map */
+   public IntIntMap()
+   {
+      this(16);
+   }
+
+   /** Create a map that can hold n entries without growing */
+   public IntIntMap(int n)
+   {
+      int cap = 8;
+      while(cap * 3 / 4 < n)
+         cap <<= 1;
+      alloc(cap);
+   }
+
+   protected void alloc(int cap)
+   {
+      keys = new int[cap];
+      vals = new int[cap];
+      used = new boolean[cap];
+      mask = cap - 1;
+      maxSize = cap * 3 / 4;
+   }
+
+   /** set the value returned by get() and put() when there is no entry for a key */
+   public void setNoEntryValue(int x)
+   {
+      noEntry = x;
+   }
+
+   public int getNoEntryValue()
+   {
+      return noEntry;
+   }
+
+   protected static int hash(int key)
+   {
+      key ^= key >>> 16;
+      key *= 0x85ebca6b;
+      key ^= key >>> 13;
+      key *= 0xc2b2ae35;
+      return key ^ (key >>> 16);
+   }
+
+   /** @return slot that holds the key or the empty slot where it would go */
+   protected int find(int key)
+   {
+      int i = hash(key) & mask;
+      while(used[i] && keys[i] != key)
+         i = (i + 1) & mask;
+      return i;
+   }
+
+   public int size()
+   {
+      return size;
+   }
+
+   public boolean isEmpty()
+   {
+      return size == 0;
+   }
+
+   public boolean containsKey(int key)
+   {
+      return used[find(key)];
+   }
+
+   /** @return value for the key or the "no entry" value */
+   public int get(int key)
+   {
+      int i = find(key);
+      return used[i] ? vals[i] : noEntry;
+   }
+
+   /** @return value for the key or x if there is no entry */
+   public int get(int key, int x)
+   {
+      int i = find(key);
+      return used[i] ? vals[i] : x;
+   }
+
+   /** @return previous value for the key or the "no entry" value */
+   public int put(int key, int val)
+   {
+      int i = find(key);
+      if (used[i]){
+         int old = vals[i];
+         vals[i] = val;
+         return old;
+      }
+      used[i] = true;
+      keys[i] = key;
+      vals[i] = val;
+      if (++size > maxSize) rehash(keys.length << 1);
+      return noEntry;
+   }
+
+   /** add x to the value for the key (which starts at zero if there is no entry) */
+   public int adjust(int key, int x)
+   {
+      int i = find(key);
+      if (used[i]) return vals[i] += x;
+      used[i] = true;
+      keys[i] = key;
+      vals[i] = x;
+      if (++size > maxSize) rehash(keys.length << 1);
+      return x;
+   }
+
+   /** @return value that was removed or the "no entry" value */
+   public int remove(int key)
+   {
+      int i = find(key);
+      if (!used[i]) return noEntry;
+      int old = vals[i];
+      used[i] = false;
+      size--;
+
+      // shift back the entries that follow so that no probe sequence is broken
+      int j = i;
+      while(true){
+         j = (j + 1) & mask;
+         if (!used[j]) break;
+         int home = hash(keys[j]) & mask;
+         if (((j - home) & mask) >= ((j - i) & mask)){
+            keys[i] = keys[j];
+            vals[i] = vals[j];
+            used[i] = true;
+            used[j] = false;
+            i = j;
+         }
+      }
+      return old;
+   }
+
+   public void clear()
+   {
+      Arrays.fill(used, false);
+      size = 0;
+   }
+
+   /** @return all keys (in the same order as values()) */
+   public int[] keys()
+   {
+      int[] a = new int[size];
+      int n = 0;
+      for(int i = 0; i < used.length; i++)
+         if (used[i]) a[n++] = keys[i];
+      return a;
+   }
+
+   /** @return all values (in the same order as keys()) */
+   public int[] values()
+   {
+      int[] a = new int[size];
+      int n = 0;
+      for(int i = 0; i < used.length; i++)
+         if (used[i]) a[n++] = vals[i];
+      return a;
+   }
+
+   protected void rehash(int cap)
+   {
+      int[] oldKeys = keys, oldVals = vals;
+      boolean[] oldUsed = used;
+      alloc(cap);
+      for(int i = 0; i < oldUsed.length; i++){
+         if (!oldUsed[i]) continue;
+         int j = find(oldKeys[i]);
+         used[j] = true;
+         keys[j] = oldKeys[i];
+         vals[j] = oldVals[i];
+      }
+   }
+}
@@ -0,0 +1,124 @@
+package kdm.util;
+
+import java.util.*;
+
+/**
+ * Hash set of ints with open addressing (linear probing), so the members are not boxed.
+ */
+public class IntSet
+{
+   protected int[] keys;
+   protected boolean[] used;
+   protected int size, mask, maxSize;
+
+   /** Create an empty set */
+   public IntSet()
+   {
+      this(16);
+   }
+
+   /** Create a set that can hold n members without growing */
+   public IntSet(int n)
+   {
+      int cap = 8;
+      while(cap * 3 / 4 < n)
+         cap <<= 1;
+      alloc(cap);
+   }
+
+   protected void alloc(int cap)
+   {
+      keys = new int[cap];
+      used = new boolean[cap];
+      mask = cap - 1;
+      maxSize = cap * 3 / 4;
+   }
+
+   /** @return slot that holds x or the empty slot where it would go */
+   protected int find(int x)
+   {
+      int i = IntIntMap.hash(x) & mask;
+      while(used[i] && keys[i] != x)
+         i = (i + 1) & mask;
+      return i;
+   }
+
+   public int size()
+   {
+      return size;
+   }
+
+   public boolean isEmpty()
+   {
+      return size == 0;
+   }
+
+   public boolean contains(int x)
+   {
+      return used[find(x)];
+   }
+
+   /** @return true if x was added (i.e., it wasn't already in the set) */
+   public boolean add(int x)
+   {
+      int i = find(x);
+      if (used[i]) return false;
+      used[i] = true;
+      keys[i] = x;
+      if (++size > maxSize) rehash(keys.length << 1);
+      return true;
+   }
+
+   /** @return true if x was removed (i.e., it was in the set) */
+   public boolean remove(int x)
+   {
+      int i = find(x);
+      if (!used[i]) return false;
+      used[i] = false;
+      size--;
+
+      // shift back the members that follow so that no probe sequence is broken
+      int j = i;
+      while(true){
+         j = (j + 1) & mask;
+         if (!used[j]) break;
+         int home = IntIntMap.hash(keys[j]) & mask;
+         if (((j - home) & mask) >= ((j - i) & mask)){
+            keys[i] = keys[j];
+            used[i] = true;
+            used[j] = false;
+            i = j;
+         }
+      }
+      return true;
+   }
+
+   public void clear()
+   {
+      Arrays.fill(used, false);
+      size = 0;
+   }
+
+   /** @return members of the set (in no particular order) */
+   public int[] toArray()
+   {
+      int[] a = new int[size];
+      int n = 0;
+      for(int i = 0; i < used.length; i++)
+         if (used[i]) a[n++] = keys[i];
+      return a;
+   }
+
+   protected void rehash(int cap)
+   {
+      int[] oldKeys = keys;
+      boolean[] oldUsed = used;
+      alloc(cap);
+      for(int i = 0; i < oldUsed.length; i++){
+         if (!oldUsed[i]) continue;
+         int j = find(oldKeys[i]);
+         used[j] = true;
+         keys[j] = oldKeys[i];
+      }
+   }
+}
@@ -1,7 +1,6 @@
 package kdm.util;
 
 import org.apache.commons.math.special.*;
-import edu.cornell.lassp.houle.RngPack.*;
 import java.text.*;
 import java.util.regex.*;
 import java.io.*;
@@ -53,7 +52,14 @@ public final class Library
    public final static TimeZone utc = TimeZone.getTimeZone("UTC");
    public final static SimpleDateFormat sdf = getSDF("yyyy MMM d HH:mm:ss");
    public final static DecimalFormat df = new DecimalFormat();
-   public static Ranmar rng;
+
+   /**
+    * Shared random stream for single-threaded code. It isn't synchronized, so it must never be touched from pool
+    * tasks (directly or through overloads that default to it, such as KMeans.cluster(k, data) or
+    * GMM1D.learn(data)); instead give each task its own stream from rng.stream(iTask) and pass it to the
+    * functions that take a RandomStream.
+    */
+   public static RandomStream rng;
    protected static GraphicsEnvironment ge = null;
    protected static GraphicsDevice gs = null;
    protected static GraphicsConfiguration gc = null;
@@ -65,7 +71,7 @@ public final class Library
 
    static{
       df.setMaximumFractionDigits(4);
-      rng = new Ranmar(getTime());
+      rng = new RandomStream(getTime());
    }
 
    public static JFrame popup(String title, Component comp, int width, int height)
@@ -954,13 +960,24 @@ public final class Library
     * @return array containing permuted indices
     */
    public static int[] permute(int n)
+   {
+      return permute(rng, n);
+   }
+
+   /**
+    * Generate a permutation of [0..n-1] using the given random stream.
+    * 
+    * @param n upper bound (exclusive) on indices
+    * @return array containing permuted indices
+    */
+   public static int[] permute(RandomStream rng, int n)
    {
       int a[] = new int[n];
       for(int i = 0; i < n; i++)
          a[i] = i;
       for(int i = 0; i < n; i++){
          // swap i with a random element in [i..n)
-         int j = i + random(n - i);
+         int j = i + random(rng, n - i);
          int t = a[i];
          a[i] = a[j];
          a[j] = t;
@@ -979,13 +996,14 @@ public final class Library
    {
       for(int p = low + 1; p <= high; p++){
          double tmp = a[p];
+         int itmp = ii[p];
          int j;
          for(j = p; j > low && tmp < a[j - 1]; j--){
             a[j] = a[j - 1];
             ii[j] = ii[j - 1];
          }
          a[j] = tmp;
-         ii[j] = p;
+         ii[j] = itmp;
       }
    }
 
@@ -1070,6 +1088,18 @@ public final class Library
     * @return list of selected indices
     */
    public static int[] selectRandomIndices(int nNeeded, int nAvail)
+   {
+      return selectRandomIndices(rng, nNeeded, nAvail);
+   }
+
+   /**
+    * Select a random subset of (unique) indices using the given random stream
+    * 
+    * @param nNeeded size of subset
+    * @param nAvail total range of indices to select from ([0..nAvail-1])
+    * @return list of selected indices
+    */
+   public static int[] selectRandomIndices(RandomStream rng, int nNeeded, int nAvail)
    {
       if (nNeeded > nAvail) return null;
 
@@ -1080,19 +1110,19 @@ public final class Library
       {
          for(int i = 0; i < ii.length; i++)
             ii[i] = i;
-         int missing[] = selectRandomIndices(nAvail - nNeeded, nAvail);
+         int missing[] = selectRandomIndices(rng, nAvail - nNeeded, nAvail);
          int m = nNeeded;
          for(int i = 0; i < ii.length; i++){
             while(contains(missing, ii[i]))
                ii[i] = m++;
          }
-         shuffle(ii);
+         shuffle(rng, ii);
       }
       else{ // better to select chosen indices
          Arrays.fill(ii, -1);
          for(int i = 0; i < ii.length; i++){
             do{
-               j = random(nAvail);
+               j = random(rng, nAvail);
             } while(contains(ii, j));
             ii[i] = j;
          }
@@ -1122,7 +1152,17 @@ public final class Library
     */
    public static int[] shuffle(int a[])
    {
-      int ii[] = permute(a.length);
+      return shuffle(rng, a);
+   }
+
+   /**
+    * Randomly permute the given array using the given random stream
+    * 
+    * @return permutation indices (maps original index to new index)
+    */
+   public static int[] shuffle(RandomStream rng, int a[])
+   {
+      int ii[] = permute(rng, a.length);
       shuffle(a, ii);
       return ii;
    }
@@ -1134,7 +1174,17 @@ public final class Library
     */
    public static int[] shuffle(double a[])
    {
-      int ii[] = permute(a.length);
+      return shuffle(rng, a);
+   }
+
+   /**
+    * Randomly permute the given array using the given random stream
+    * 
+    * @return permutation indices (maps original index to new index)
+    */
+   public static int[] shuffle(RandomStream rng, double a[])
+   {
+      int ii[] = permute(rng, a.length);
       shuffle(a, ii);
       return ii;
    }
@@ -1146,7 +1196,17 @@ public final class Library
     */
    public static int[] shuffle(Object a[])
    {
-      int ii[] = permute(a.length);
+      return shuffle(rng, a);
+   }
+
+   /**
+    * Randomly permute the given array using the given random stream
+    * 
+    * @return permutation indices (maps original index to new index)
+    */
+   public static int[] shuffle(RandomStream rng, Object a[])
+   {
+      int ii[] = permute(rng, a.length);
       shuffle(a, ii);
       return ii;
    }
@@ -1198,7 +1258,18 @@ public final class Library
     */
    public static int sample(double a[])
    {
-      double v = random();
+      return sample(rng, a);
+   }
+
+   /**
+    * Return a random sample from the multinomial represented by 'a' using the given random stream.
+    * 
+    * @param a array of discrete probabilities for each bin. The elements of 'a' should sum to one.
+    * @return index of a bin in 'a', selected proportional to its weight
+    */
+   public static int sample(RandomStream rng, double a[])
+   {
+      double v = rng.raw();
       double sum = 0.0;
       int n = a.length;
       for(int i = 0; i < n; i++){
@@ -1217,7 +1288,19 @@ public final class Library
     */
    public static int[] sample(double a[][])
    {
-      double v = random();
+      return sample(rng, a);
+   }
+
+   /**
+    * Return a random sample from the multinomial represented by a using the given random stream.
+    * 
+    * @param a array of discrete probabilities for each bin. The 2D array is treated as if it were one long
+    *           multinomial. All elements of 'a' should sum to one.
+    * @return indices (i,j) of a bin in a, selected proportional to its weight
+    */
+   public static int[] sample(RandomStream rng, double a[][])
+   {
+      double v = rng.raw();
       double sum = 0.0;
       for(int i = 0; i < a.length; i++){
          for(int j = 0; j < a[i].length; j++){
@@ -1234,7 +1317,7 @@ public final class Library
     */
    public static void reseed(long seed)
    {
-      rng = new Ranmar(seed);
+      rng = new RandomStream(seed);
    }
 
    /**
@@ -1253,7 +1336,18 @@ public final class Library
     */
    public static int random(int n)
    {
-      return (int)(random() * n);
+      return random(rng, n);
+   }
+
+   /**
+    * Pick a random integer in [0..n-1] from the given random stream
+    * 
+    * @param n upper bound of uniform distribution (exclusive)
+    * @return random integer in [0..n-1]
+    */
+   public static int random(RandomStream rng, int n)
+   {
+      return (int)(rng.raw() * n);
    }
 
    /**
@@ -0,0 +1,194 @@
+package kdm.util;
+
+import java.util.*;
+
+/**
+ * Hash map from long to int with open addressing (linear probing), so neither keys nor values are boxed. Any
+ * long can be used as a key (e.g., a packed tuple of small ints); get() returns the "no entry" value (default: -1) for missing keys.
+ */
+public class LongIntMap
+{
+   protected long[] keys;
+   protected int[] vals;
+   protected boolean[] used;
+   protected int size, mask, maxSize;
+   protected int noEntry = -1;
+
+   /** Create an empty map */
+   public LongIntMap()
+   {
+      this(16);
+   }
+
+   /** Create a map that can hold n entries without growing */
+   public LongIntMap(int n)
+   {
+      int cap = 8;
+      while(cap * 3 / 4 < n)
+         cap <<= 1;
+      alloc(cap);
+   }
+
+   protected void alloc(int cap)
+   {
+      keys = new long[cap];
+      vals = new int[cap];
+      used = new boolean[cap];
+      mask = cap - 1;
+      maxSize = cap * 3 / 4;
+   }
+
+   /** set the value returned by get() and put() when there is no entry for a key */
+   public void setNoEntryValue(int x)
+   {
+      noEntry = x;
+   }
+
+   public int getNoEntryValue()
+   {
+      return noEntry;
+   }
+
+   protected static int hash(long key)
+   {
+      key ^= key >>> 33;
+      key *= 0xff51afd7ed558ccdL;
+      key ^= key >>> 33;
+      key *= 0xc4ceb9fe1a85ec53L;
+      key ^= key >>> 33;
+      return (int)key;
+   }
+
+   /** @return slot that holds the key or the empty slot where it would go */
+   protected int find(long key)
+   {
+      int i = hash(key) & mask;
+      while(used[i] && keys[i] != key)
+         i = (i + 1) & mask;
+      return i;
+   }
+
+   public int size()
+   {
+      return size;
+   }
+
+   public boolean isEmpty()
+   {
+      return size == 0;
+   }
+
+   public boolean containsKey(long key)
+   {
+      return used[find(key)];
+   }
+
+   /** @return value for the key or the "no entry" value */
+   public int get(long key)
+   {
+      int i = find(key);
+      return used[i] ? vals[i] : noEntry;
+   }
+
+   /** @return value for the key or x if there is no entry */
+   public int get(long key, int x)
+   {
+      int i = find(key);
+      return used[i] ? vals[i] : x;
+   }
+
+   /** @return previous value for the key or the "no entry" value */
+   public int put(long key, int val)
+   {
+      int i = find(key);
+      if (used[i]){
+         int old = vals[i];
+         vals[i] = val;
+         return old;
+      }
+      used[i] = true;
+      keys[i] = key;
+      vals[i] = val;
+      if (++size > maxSize) rehash(keys.length << 1);
+      return noEntry;
+   }
+
+   /** add x to the value for the key (which starts at zero if there is no entry) */
+   public int adjust(long key, int x)
+   {
+      int i = find(key);
+      if (used[i]) return vals[i] += x;
+      used[i] = true;
+      keys[i] = key;
+      vals[i] = x;
+      if (++size > maxSize) rehash(keys.length << 1);
+      return x;
+   }
+
+   /** @return value that was removed or the "no entry" value */
+   public int remove(long key)
+   {
+      int i = find(key);
+      if (!used[i]) return noEntry;
+      int old = vals[i];
+      used[i] = false;
+      size--;
+
+      // shift back the entries that follow so that no probe sequence is broken
+      int j = i;
+      while(true){
+         j = (j + 1) & mask;
+         if (!used[j]) break;
+         int home = hash(keys[j]) & mask;
+         if (((j - home) & mask) >= ((j - i) & mask)){
+            keys[i] = keys[j];
+            vals[i] = vals[j];
+            used[i] = true;
+            used[j] = false;
+            i = j;
+         }
+      }
+      return old;
+   }
+
+   public void clear()
+   {
+      Arrays.fill(used, false);
+      size = 0;
+   }
+
+   /** @return all keys (in the same order as values()) */
+   public long[] keys()
+   {
+      long[] a = new long[size];
+      int n = 0;
+      for(int i = 0; i < used.length; i++)
+         if (used[i]) a[n++] = keys[i];
+      return a;
+   }
+
+   /** @return all values (in the same order as keys()) */
+   public int[] values()
+   {
+      int[] a = new int[size];
+      int n = 0;
+      for(int i = 0; i < used.length; i++)
+         if (used[i]) a[n++] = vals[i];
+      return a;
+   }
+
+   protected void rehash(int cap)
+   {
+      long[] oldKeys = keys;
+      int[] oldVals = vals;
+      boolean[] oldUsed = used;
+      alloc(cap);
+      for(int i = 0; i < oldUsed.length; i++){
+         if (!oldUsed[i]) continue;
+         int j = find(oldKeys[i]);
+         used[j] = true;
+         keys[j] = oldKeys[i];
+         vals[j] = oldVals[i];
+      }
+   }
+}
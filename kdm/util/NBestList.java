@@ -5,6 +5,9 @@ import java.util.*;
 /**
  * container class that keeps the N "best" (i.e., largest) elements offered to it; elements are stored in
  * descending order
+ *
+ * @see TopKHeap for (double score, int index) entries, which avoids objects and keeps a heap instead of a sorted
+ *      list
  */
 public class NBestList<T>
 {
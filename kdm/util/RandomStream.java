@@ -0,0 +1,183 @@
+package kdm.util;
+
+/**
+ * Fast, splittable stream of random numbers (SplitMix64). A stream is not thread-safe; instead, parallel code
+ * gives each task its own stream. Streams for tasks should come from stream(i) on a master stream, which
+ * depends only on the master's seed and the task index, so results are the same bit for bit no matter how
+ * the tasks are scheduled. split() is the sequential alternative: it derives a new stream from the next value
+ * of this one.
+ */
+public final class RandomStream
+{
+   protected static final long GoldenGamma = 0x9E3779B97F4A7C15L;
+   protected static final double DoubleUnit = 1.0 / (1L << 53);
+
+   /** seed this stream was created with (used to derive sub-streams) */
+   protected final long seed0;
+   protected long state;
+
+   /** second Gaussian from the last pair (valid if bSpare) */
+   protected double spare;
+   protected boolean bSpare;
+
+   /** Create a stream seeded from the clock */
+   public RandomStream()
+   {
+      this(mix64(System.nanoTime()) ^ System.currentTimeMillis());
+   }
+
+   public RandomStream(long seed)
+   {
+      seed0 = seed;
+      state = seed;
+   }
+
+   /** @return seed that this stream was created with */
+   public long getSeed()
+   {
+      return seed0;
+   }
+
+   /** @return well-mixed version of z (splitmix64 finalizer) */
+   public static long mix64(long z)
+   {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+
+   /**
+    * @return the i-th sub-stream of this stream; it depends only on the seed of this stream and i (not on how
+    *         many numbers have been drawn), so task i always sees the same numbers
+    */
+   public RandomStream stream(long i)
+   {
+      return new RandomStream(mix64(mix64(seed0 + (i + 1) * GoldenGamma) ^ 0x632BE59BD9B4E019L));
+   }
+
+   /** @return new stream seeded from (and advancing) this one */
+   public RandomStream split()
+   {
+      return new RandomStream(mix64(nextLong() ^ 0x632BE59BD9B4E019L));
+   }
+
+   /** @return next 64 random bits */
+   public long nextLong()
+   {
+      state += GoldenGamma;
+      return mix64(state);
+   }
+
+   /** @return next 32 random bits */
+   public int nextInt()
+   {
+      return (int)(nextLong() >>> 32);
+   }
+
+   /** @return random number in [0..1) */
+   public double raw()
+   {
+      return (nextLong() >>> 11) * DoubleUnit;
+   }
+
+   /** @return random integer in [0..n-1] (unbiased) */
+   public int random(int n)
+   {
+      assert (n > 0);
+      int bits = (int)(nextLong() >>> 33);
+      if ((n & -n) == n) return (int)(((long)n * bits) >> 31);
+      int v = bits % n;
+      while(bits - v + (n - 1) < 0){
+         bits = (int)(nextLong() >>> 33);
+         v = bits % n;
+      }
+      return v;
+   }
+
+   /** @return random number in [a..b) */
+   public double uniform(double a, double b)
+   {
+      return a + (b - a) * raw();
+   }
+
+   /** @return sample from the standard normal distribution */
+   public double gaussian()
+   {
+      if (bSpare){
+         bSpare = false;
+         return spare;
+      }
+
+      // Marsaglia's polar method produces two samples
+      double u, v, s;
+      do{
+         u = 2 * raw() - 1;
+         v = 2 * raw() - 1;
+         s = u * u + v * v;
+      } while(s >= 1 || s == 0);
+      double f = Math.sqrt(-2 * Math.log(s) / s);
+      spare = v * f;
+      bSpare = true;
+      return u * f;
+   }
+
+   /** @return sample from a normal distribution with the given mean and variance */
+   public double gaussian(double mean, double var)
+   {
+      return mean + Math.sqrt(var) * gaussian();
+   }
+
+   /** fill the array with random numbers in [0..1) */
+   public void uniform(double[] a)
+   {
+      uniform(a, 0, a.length);
+   }
+
+   /** fill a[off..off+n) with random numbers in [0..1) */
+   public void uniform(double[] a, int off, int n)
+   {
+      long s = state;
+      for(int i = off; i < off + n; i++){
+         s += GoldenGamma;
+         a[i] = (mix64(s) >>> 11) * DoubleUnit;
+      }
+      state = s;
+   }
+
+   /** fill the array with samples from the standard normal distribution */
+   public void gaussian(double[] a)
+   {
+      gaussian(a, 0, a.length);
+   }
+
+   /** fill a[off..off+n) with samples from the standard normal distribution */
+   public void gaussian(double[] a, int off, int n)
+   {
+      int i = off, end = off + n;
+      if (bSpare && i < end){
+         bSpare = false;
+         a[i++] = spare;
+      }
+      while(i + 1 < end){
+         double u, v, s;
+         do{
+            u = 2 * raw() - 1;
+            v = 2 * raw() - 1;
+            s = u * u + v * v;
+         } while(s >= 1 || s == 0);
+         double f = Math.sqrt(-2 * Math.log(s) / s);
+         a[i++] = u * f;
+         a[i++] = v * f;
+      }
+      if (i < end) a[i] = gaussian();
+   }
+
+   /** fill the array with samples from a normal distribution with the given mean and variance */
+   public void gaussian(double[] a, double mean, double var)
+   {
+      gaussian(a);
+      double sdev = Math.sqrt(var);
+      for(int i = 0; i < a.length; i++)
+         a[i] = mean + sdev * a[i];
+   }
+}
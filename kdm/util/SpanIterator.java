@@ -28,8 +28,8 @@ public final class SpanIterator
    /** @return true if there are more indices in this iterator */
    public final boolean hasMore()
    {
-      return (iRange + 1 < span.getNumSpans() || (iRange + 1 == span.getNumSpans() && iPos + 1 < span
-            .getRange(iRange).b));
+      // next() moves to the next range as soon as the current one is finished
+      return iRange < span.getNumSpans();
    }
    
    /** Same as hasMore(); */
@@ -46,33 +46,31 @@ public final class SpanIterator
       int nRange = span.getNumSpans();
       while(iRange < nRange)
       {
-         Range r = span.getRange(iRange);
-         if (r.b >= imin) break;
+         if (span.getSpanEnd(iRange) >= imin) break;
          iRange++;
       }
 
       if (iRange < nRange)
       {
-         Range r = span.getRange(iRange);
+         int a = span.getSpanStart(iRange);
 
          // find the right spot within this range
-         if (r.a >= imin) iPos = 0;
-         else iPos = imin - r.a;
+         if (a >= imin) iPos = 0;
+         else iPos = imin - a;
       }
    }
 
    /** @return the next index without increasing this iterator */
    public final int peek()
    {
-      return span.getRange(iRange).a + iPos;
+      return span.getSpanStart(iRange) + iPos;
    }
 
    /** @return the next index */
    public final int next()
    {
-      Range r = span.getRange(iRange);
-      int ret = r.a + iPos;
-      if (ret == r.b)
+      int ret = span.getSpanStart(iRange) + iPos;
+      if (ret == span.getSpanEnd(iRange))
       {
          iPos = 0;
          iRange++;
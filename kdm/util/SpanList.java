@@ -4,25 +4,40 @@ import java.util.*;
 
 /**
  * This class represents a binary array by explicity representing all of the ranges in the array that are
- * true. This is very efficient if large, continuous areas are true, but is quite inefficient if true and
- * false elements are interspersed (i.e., T,F,T,F,T,F,...). One benefit of this representation is that false
- * areas can be skipped in constant time, potentially leading to significant time savings if only small
- * "islands" of true values exist.
- * 
+ * true. One benefit of this representation is that false areas can be skipped in constant time, potentially
+ * leading to significant time savings if only small "islands" of true values exist.
+ *
  * Each Range that represents a true area is made up of two indices 'a' and 'b' where 'a' and 'b' are
  * inclusive. Furthermore, this class automatically merges intersecting (or abutting) ranges to minimizes the
  * number of ranges that must be represented (i.e., [1 10] + [10 20] -> [1 20] automatically).
+ *
+ * The ranges are kept sorted in primitive arrays, so add(), sub(), and contains() use a binary search
+ * (O(log n) plus a block move of the arrays when ranges are inserted or removed). Bounded span lists can also
+ * use a bitset instead, which is better when true and false elements are interspersed (T,F,T,F,...): add(),
+ * sub() and contains() then take time proportional to the length of the range (/64), and the ranges are
+ * rebuilt from the bits when they are needed (e.g., for iteration). The bitset doesn't track which ranges
+ * changed, so all rebuilt ranges are dirty.
  */
 public class SpanList
 {
-   protected ArrayList<Range> spans;
+   /** sorted, disjoint, non-abutting ranges: [spanA[i], spanB[i]] */
+   protected int[] spanA, spanB;
+   protected boolean[] spanDirty;
+   protected int nSpans;
+
+   /** number of indices in the span list */
+   protected int count;
    protected int vmin, vmax;
 
+   /** bitset mode: bit i is set if vmin+i is in the list; the ranges are rebuilt when bSpansStale */
+   protected long[] bits;
+   protected boolean bSpansStale;
+
    protected boolean itReady = true;
    protected int itRange = 0;
    protected int itVal = 0;
    protected int itBDirty = 0; // 0: all, 1: dirty only, 2: clean only
-   protected Range rItCurRange = null;
+   protected int itCurRange = -1;
 
    public SpanList()
    {
@@ -31,9 +46,23 @@ public class SpanList
 
    public SpanList(int _vmin, int _vmax, boolean bFill)
    {
-      spans = new ArrayList<Range>();
+      this(_vmin, _vmax, bFill, false);
+   }
+
+   /**
+    * Create a span list for the indices [vmin, vmax]
+    *
+    * @param bFill if true, all indices are initially in the list
+    * @param bBitset if true, use a bitset (the range must be bounded)
+    */
+   public SpanList(int _vmin, int _vmax, boolean bFill, boolean bBitset)
+   {
       vmin = _vmin;
       vmax = _vmax;
+      spanA = new int[4];
+      spanB = new int[4];
+      spanDirty = new boolean[4];
+      if (bBitset) setBitset(true);
       if (bFill) fill();
       itReset();
    }
@@ -42,55 +71,76 @@ public class SpanList
    {
       vmin = sl.vmin;
       vmax = sl.vmax;
-      spans = new ArrayList<Range>();
-      for(int i = 0; i < sl.getNumSpans(); i++)
-         spans.add(new Range(sl.getRange(i)));
+      sl.ensureSpans();
+      nSpans = sl.nSpans;
+      count = sl.count;
+      spanA = Arrays.copyOf(sl.spanA, Math.max(4, nSpans));
+      spanB = Arrays.copyOf(sl.spanB, Math.max(4, nSpans));
+      spanDirty = Arrays.copyOf(sl.spanDirty, Math.max(4, nSpans));
+      if (sl.bits != null) bits = sl.bits.clone();
       itReset();
    }
 
+   /** @return true if this span list uses a bitset */
+   public boolean isBitset()
+   {
+      return bits != null;
+   }
+
+   /**
+    * Switch between the bitset and range representations (only bounded span lists can use a bitset)
+    */
+   public void setBitset(boolean bBitset)
+   {
+      if (bBitset == (bits != null)) return;
+      itReady = false;
+      if (bBitset){
+         assert (isBound());
+         bits = new long[(int)(((long)vmax - vmin + 64) >>> 6)];
+         ensureSpans();
+         for(int i = 0; i < nSpans; i++)
+            setBits(spanA[i], spanB[i], true);
+      }
+      else{
+         ensureSpans();
+         bits = null;
+      }
+   }
+
    /**
     * Reset the iterator
     */
    public void itReset() // TODO: should get rid of these functions and use iterator()
    {
+      ensureSpans();
       itRange = 0;
       itVal = 0;
-      itReady = (itRange < spans.size());
+      itReady = (itRange < nSpans);
       itBDirty = 0;
    }
 
    /**
     * Reset iterator to give dirty or clean values
-    * 
+    *
     * @param bDirty true for dirty values, false for clean
     */
    public void itReset(boolean bDirty)
    {
+      ensureSpans();
       itRange = 0;
-      rItCurRange = null;
+      itCurRange = -1;
       itVal = 0;
       itBDirty = (bDirty ? 1 : 2);
-      if (bDirty){
-         while(!spans.get(itRange).isDirty()) // want a dirty range
-         {
-            itRange++;
-            if (itRange >= spans.size()) break;
-         }
-      }
-      else{
-         while(spans.get(itRange).isDirty()) // want a clean range
-         {
-            itRange++;
-            if (itRange >= spans.size()) break;
-         }
-      }
-      itReady = (itRange < spans.size());
+      while(itRange < nSpans && spanDirty[itRange] != bDirty)
+         itRange++;
+      itReady = (itRange < nSpans);
    }
 
    /** @return the range that holds the current (just returned) index */
    public Range getItRange()
    {
-      return rItCurRange;
+      if (itCurRange < 0) return null;
+      return getRange(itCurRange);
    }
 
    /**
@@ -100,38 +150,20 @@ public class SpanList
    public int itNext() throws IllegalStateException
    {
       if (!itReady) throw new IllegalStateException("SpanList iterator not ready" + " (call itReset()).");
-      assert (itRange < spans.size()) : String.format("itRange=%d  itReady=%b  spans=%d", itRange, itReady,
-            spans.size());
-      rItCurRange = spans.get(itRange);
-      int v = rItCurRange.a + itVal;
-      itVal++;
-      if (itVal >= rItCurRange.length()){
+      assert (itRange < nSpans) : String.format("itRange=%d  itReady=%b  spans=%d", itRange, itReady, nSpans);
+      itCurRange = itRange;
+      int v = spanA[itRange] + itVal;
+      if (v == spanB[itRange]){
          itVal = 0;
          itRange++;
-         if (itRange >= spans.size()) itReady = false;
-         else{
-            if (itBDirty == 1) // dirty only
-            {
-               while(!spans.get(itRange).isDirty()){
-                  itRange++;
-                  if (itRange >= spans.size()){
-                     itReady = false;
-                     break;
-                  }
-               }
-            }
-            else if (itBDirty == 2) // clean only
-            {
-               while(spans.get(itRange).isDirty()){
-                  itRange++;
-                  if (itRange >= spans.size()){
-                     itReady = false;
-                     break;
-                  }
-               }
-            }
+         if (itBDirty != 0){
+            boolean bDirty = (itBDirty == 1);
+            while(itRange < nSpans && spanDirty[itRange] != bDirty)
+               itRange++;
          }
+         if (itRange >= nSpans) itReady = false;
       }
+      else itVal++;
       return v;
    }
 
@@ -146,29 +178,48 @@ public class SpanList
    /** @return length of the longest continuous segment (range) */
    public int longestSegment()
    {
+      ensureSpans();
       int x = 0;
-      for(Range r : spans)
-         if (r.length() > x) x = r.length();
+      for(int i = 0; i < nSpans; i++)
+         x = Math.max(x, spanB[i] - spanA[i] + 1);
       return x;
    }
 
    /** @return an iterator for the values in this span list */
    public SpanIterator iterator()
    {
-      sort();
+      ensureSpans();
       return new SpanIterator(this);
    }
 
-   /** @return the i-th range */
+   /** @return the i-th range (a copy; changing it doesn't change this span list) */
    public Range getRange(int i)
    {
-      return spans.get(i);
+      ensureSpans();
+      Range r = new Range(spanA[i], spanB[i]);
+      r.bDirty = spanDirty[i];
+      return r;
+   }
+
+   /** @return first index of the i-th range */
+   public int getSpanStart(int i)
+   {
+      ensureSpans();
+      return spanA[i];
+   }
+
+   /** @return last index (inclusive) of the i-th range */
+   public int getSpanEnd(int i)
+   {
+      ensureSpans();
+      return spanB[i];
    }
 
    /** @return number of spans (ranges) in this span list */
    public int getNumSpans()
    {
-      return spans.size();
+      ensureSpans();
+      return nSpans;
    }
 
    /** @return smallest index representable */
@@ -187,23 +238,25 @@ public class SpanList
    public int getSpanMin()
    {
       if (isEmpty()) return Integer.MAX_VALUE;
-      return spans.get(0).a;
+      ensureSpans();
+      return spanA[0];
    }
 
    /** @return largest index that is actually in the range (MIN_VALUE if none) */
    public int getSpanMax()
    {
       if (isEmpty()) return Integer.MIN_VALUE;
-      return spans.get(spans.size() - 1).b;
+      ensureSpans();
+      return spanB[nSpans - 1];
    }
 
    /** @return the ix'th index that is actually in the range (MIN_VALUE if none) */
    public int get(int ix)
    {
-      for(int i = 0; i < spans.size(); i++){
-         Range r = spans.get(i);
-         int m = r.length();
-         if (ix < m) return r.a + ix;
+      ensureSpans();
+      for(int i = 0; i < nSpans; i++){
+         int m = spanB[i] - spanA[i] + 1;
+         if (ix < m) return spanA[i] + ix;
          ix -= m;
       }
       return Integer.MIN_VALUE;
@@ -219,15 +272,17 @@ public class SpanList
    public void clear()
    {
       itReady = false;
-      spans.clear();
+      nSpans = 0;
+      count = 0;
+      bSpansStale = false;
+      if (bits != null) Arrays.fill(bits, 0L);
    }
 
    /** place all indices in the range (all true) */
    public void fill()
    {
       assert (isBound());
-      itReady = false;
-      spans.clear();
+      clear();
       add(vmin, vmax);
    }
 
@@ -236,8 +291,8 @@ public class SpanList
     */
    public void clean()
    {
-      for(int i = 0; i < spans.size(); i++)
-         spans.get(i).clearDirty();
+      ensureSpans();
+      Arrays.fill(spanDirty, 0, nSpans, false);
    }
 
    /** add the given index to the span list */
@@ -249,37 +304,61 @@ public class SpanList
    /** add the given range (inclusive) to the span list */
    public void add(int a, int b)
    {
-      add(new Range(a, b));
+      add(a, b, true);
    }
 
    /** add the given range to the span list */
    public void add(Range r)
+   {
+      add(r.a, r.b, r.bDirty);
+   }
+
+   /**
+    * Add the range [a,b]; the new (merged) range is dirty if bDirty or if it extends beyond [a,b] or if it was
+    * clipped to the bounds of this span list
+    */
+   protected void add(int a, int b, boolean bDirty)
    {
       itReady = false;
+      if (a > b) return;
 
       // keep range in bound
       if (isBound()){
-         if (r.a > vmax || r.b < vmin) return;
-         if (r.a < vmin){
-            r.a = vmin;
-            r.setDirty();
+         if (a > vmax || b < vmin) return;
+         if (a < vmin){
+            a = vmin;
+            bDirty = true;
          }
-         if (r.b > vmax){
-            r.b = vmax;
-            r.setDirty();
+         if (b > vmax){
+            b = vmax;
+            bDirty = true;
          }
       }
 
-      // merge all intersects with the new range
-      for(int i = 0; i < spans.size();){
-         Range ri = spans.get(i);
-         if (r.intersectAbuts(ri)){
-            r.merge(ri);
-            spans.remove(i);
-         }
-         else i++;
+      if (bits != null){
+         count += (b - a + 1) - countBits(a, b);
+         setBits(a, b, true);
+         bSpansStale = true;
+         return;
       }
-      spans.add(r); // finally, we can add the new (possibly modified) range
+
+      // ranges [i, j) intersect or abut the new range
+      int i = findEnd((long)a - 1);
+      int j = findStart((long)b + 1);
+      if (i == j){
+         insert(i, a, b, bDirty);
+         count += b - a + 1;
+         return;
+      }
+      int na = Math.min(a, spanA[i]);
+      int nb = Math.max(b, spanB[j - 1]);
+      for(int k = i; k < j; k++)
+         count -= spanB[k] - spanA[k] + 1;
+      count += nb - na + 1;
+      spanA[i] = na;
+      spanB[i] = nb;
+      spanDirty[i] = bDirty || na < a || nb > b;
+      remove(i + 1, j);
    }
 
    /** add all indices in the given span list */
@@ -287,7 +366,7 @@ public class SpanList
    {
       int n = sl.getNumSpans();
       for(int i = 0; i < n; i++)
-         add(new Range(sl.getRange(i)));
+         add(sl.spanA[i], sl.spanB[i], sl.spanDirty[i]);
    }
 
    /** remove the given index from the span list */
@@ -299,43 +378,58 @@ public class SpanList
    /** remove the given range (inclusive) from the span list */
    public void sub(int a, int b)
    {
-      sub(new Range(a, b));
+      itReady = false;
+      if (a > b) return;
+      if (bits != null){
+         a = Math.max(a, vmin);
+         b = Math.min(b, vmax);
+         if (a > b) return;
+         count -= countBits(a, b);
+         setBits(a, b, false);
+         bSpansStale = true;
+         return;
+      }
+
+      // ranges [i, j) intersect the removed range
+      int i = findEnd(a);
+      int j = findStart(b);
+      if (i == j) return;
+
+      // remove middle (split)
+      if (j == i + 1 && spanA[i] < a && spanB[i] > b){
+         insert(i + 1, b + 1, spanB[i], true);
+         spanB[i] = a - 1;
+         spanDirty[i] = true;
+         count -= b - a + 1;
+         return;
+      }
+
+      // remove suffix of the first range
+      if (spanA[i] < a){
+         count -= spanB[i] - a + 1;
+         spanB[i] = a - 1;
+         spanDirty[i] = true;
+         i++;
+      }
+
+      // remove prefix of the last range
+      if (i < j && spanB[j - 1] > b){
+         count -= b - spanA[j - 1] + 1;
+         spanA[j - 1] = b + 1;
+         spanDirty[j - 1] = true;
+         j--;
+      }
+
+      // remove all
+      for(int k = i; k < j; k++)
+         count -= spanB[k] - spanA[k] + 1;
+      remove(i, j);
    }
 
    /** remove the given range from the span list */
    public void sub(Range r)
    {
-      itReady = false;
-      for(int i = 0; i < spans.size();){
-         Range ri = spans.get(i);
-         if (r.intersects(ri)){
-            // remove prefix
-            if (r.a <= ri.a && r.b < ri.b){
-               ri.a = r.b + 1;
-               ri.setDirty();
-               i++;
-            }
-
-            // remove suffix
-            else if (r.a > ri.a && r.b >= ri.b){
-               ri.b = r.a - 1;
-               ri.setDirty();
-               i++;
-            }
-
-            // remove all
-            else if (r.a <= ri.a && r.b >= ri.b) spans.remove(i);
-
-            // remove middle (split)
-            else{
-               spans.remove(i);
-               spans.add(new Range(ri.a, r.a - 1));
-               spans.add(new Range(r.b + 1, ri.b));
-               break;
-            }
-         }
-         else i++;
-      }
+      sub(r.a, r.b);
    }
 
    /** remove all indices in the given span list */
@@ -343,7 +437,114 @@ public class SpanList
    {
       int n = sl.getNumSpans();
       for(int i = 0; i < n; i++)
-         sub(new Range(sl.getRange(i)));
+         sub(sl.spanA[i], sl.spanB[i]);
+   }
+
+   /** @return index of the first range that ends at or after x (nSpans if none) */
+   protected int findEnd(long x)
+   {
+      int lo = 0, hi = nSpans;
+      while(lo < hi){
+         int mid = (lo + hi) >>> 1;
+         if (spanB[mid] < x) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+
+   /** @return index of the first range that starts after x (nSpans if none) */
+   protected int findStart(long x)
+   {
+      int lo = 0, hi = nSpans;
+      while(lo < hi){
+         int mid = (lo + hi) >>> 1;
+         if (spanA[mid] <= x) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+
+   /** insert a range at position i */
+   protected void insert(int i, int a, int b, boolean bDirty)
+   {
+      if (nSpans == spanA.length){
+         int n = Math.max(4, nSpans * 2);
+         spanA = Arrays.copyOf(spanA, n);
+         spanB = Arrays.copyOf(spanB, n);
+         spanDirty = Arrays.copyOf(spanDirty, n);
+      }
+      System.arraycopy(spanA, i, spanA, i + 1, nSpans - i);
+      System.arraycopy(spanB, i, spanB, i + 1, nSpans - i);
+      System.arraycopy(spanDirty, i, spanDirty, i + 1, nSpans - i);
+      spanA[i] = a;
+      spanB[i] = b;
+      spanDirty[i] = bDirty;
+      nSpans++;
+   }
+
+   /** remove the ranges [i, j) */
+   protected void remove(int i, int j)
+   {
+      if (i >= j) return;
+      System.arraycopy(spanA, j, spanA, i, nSpans - j);
+      System.arraycopy(spanB, j, spanB, i, nSpans - j);
+      System.arraycopy(spanDirty, j, spanDirty, i, nSpans - j);
+      nSpans -= j - i;
+   }
+
+   /** set or clear the bits for the indices [a,b] */
+   protected void setBits(int a, int b, boolean bSet)
+   {
+      long lo = (long)a - vmin, hi = (long)b - vmin;
+      int wa = (int)(lo >>> 6), wb = (int)(hi >>> 6);
+      for(int w = wa; w <= wb; w++){
+         long mask = -1L;
+         if (w == wa) mask &= -1L << (lo & 63);
+         if (w == wb) mask &= -1L >>> (63 - (hi & 63));
+         if (bSet) bits[w] |= mask;
+         else bits[w] &= ~mask;
+      }
+   }
+
+   /** @return number of set bits for the indices [a,b] */
+   protected int countBits(int a, int b)
+   {
+      long lo = (long)a - vmin, hi = (long)b - vmin;
+      int wa = (int)(lo >>> 6), wb = (int)(hi >>> 6);
+      int n = 0;
+      for(int w = wa; w <= wb; w++){
+         long mask = -1L;
+         if (w == wa) mask &= -1L << (lo & 63);
+         if (w == wb) mask &= -1L >>> (63 - (hi & 63));
+         n += Long.bitCount(bits[w] & mask);
+      }
+      return n;
+   }
+
+   /** rebuild the ranges from the bitset if they are out of date */
+   protected void ensureSpans()
+   {
+      if (!bSpansStale) return;
+      bSpansStale = false;
+      nSpans = 0;
+      long n = (long)vmax - vmin + 1;
+      long i = 0;
+      while(i < n){
+         // find the next set bit, then the next clear bit
+         int w = (int)(i >>> 6);
+         long word = bits[w] & (-1L << (i & 63));
+         while(word == 0 && ++w < bits.length)
+            word = bits[w];
+         if (word == 0) break;
+         long a = ((long)w << 6) + Long.numberOfTrailingZeros(word);
+         if (a >= n) break;
+         word = ~bits[w] & (-1L << (a & 63));
+         while(word == 0 && ++w < bits.length)
+            word = ~bits[w];
+         long b = (word == 0 ? n : Math.min(n, ((long)w << 6) + Long.numberOfTrailingZeros(word)));
+         insert(nSpans, (int)(vmin + a), (int)(vmin + b - 1), true);
+         i = b;
+      }
    }
 
    /**
@@ -352,10 +553,8 @@ public class SpanList
    public SpanList union(SpanList sl)
    {
       SpanList nsl = new SpanList(this);
-      int n = sl.getNumSpans();
-      for(int i = 0; i < n; i++)
-         nsl.add(sl.getRange(i));
-      return sl;
+      nsl.add(sl);
+      return nsl;
    }
 
    /**
@@ -364,7 +563,8 @@ public class SpanList
    public void intersect(Range r)
    {
       itReady = false;
-      assert false : "not yet implemented"; // TODO
+      if (r.a > Integer.MIN_VALUE) sub(Integer.MIN_VALUE, r.a - 1);
+      if (r.b < Integer.MAX_VALUE) sub(r.b + 1, Integer.MAX_VALUE);
    }
 
    /**
@@ -372,20 +572,21 @@ public class SpanList
     * list.
     */
    public SpanList intersect(SpanList sl)
-   {      
+   {
       int a = Math.min(vmin, sl.getRangeMin());
       int b = Math.max(vmax, sl.getRangeMax());
       SpanList spanInt = new SpanList(a, b, false);
       int n = getNumSpans();
       int m = sl.getNumSpans();
-      // TODO could be (much) more efficient
-      for(int i=0; i<n; i++){
-         Range ri = getRange(i);
-         for(int j=0; j<m; j++){           
-            Range rj = sl.getRange(j);
-            if (!ri.intersects(rj)) continue;
-            spanInt.add(ri.intersect(rj));
-         }
+
+      // both lists are sorted, so walk them together
+      int i = 0, j = 0;
+      while(i < n && j < m){
+         int lo = Math.max(spanA[i], sl.spanA[j]);
+         int hi = Math.min(spanB[i], sl.spanB[j]);
+         if (lo <= hi) spanInt.add(lo, hi);
+         if (spanB[i] < sl.spanB[j]) i++;
+         else j++;
       }
       return spanInt;
    }
@@ -406,9 +607,7 @@ public class SpanList
       fill();
 
       // subtract everything that was in the span list
-      int n = sl.getNumSpans();
-      for(int i = 0; i < n; i++)
-         sub(sl.getRange(i));
+      sub(sl);
    }
 
    public void prefix(int v)
@@ -417,11 +616,8 @@ public class SpanList
       SpanList sl = new SpanList(this);
       clear();
       int nSpans = sl.getNumSpans();
-      for(int iSpan = 0; iSpan < nSpans; iSpan++){
-         Range r = sl.getRange(iSpan);
-         r.a -= v;
-         add(r);
-      }
+      for(int iSpan = 0; iSpan < nSpans; iSpan++)
+         add(sl.spanA[iSpan] - v, sl.spanB[iSpan], sl.spanDirty[iSpan]);
    }
 
    public void suffix(int v)
@@ -432,58 +628,54 @@ public class SpanList
       SpanList sl = new SpanList(this);
       clear();
       int nSpans = sl.getNumSpans();
-      for(int iSpan = 0; iSpan < nSpans; iSpan++){
-         Range r = sl.getRange(iSpan);
-         r.b += v;
-         add(r);
-      }
+      for(int iSpan = 0; iSpan < nSpans; iSpan++)
+         add(sl.spanA[iSpan], sl.spanB[iSpan] + v, sl.spanDirty[iSpan]);
    }
 
+   /** the ranges are always sorted, so this only resets the iterator */
    public void sort()
    {
       itReady = false;
-      Collections.sort(spans);
    }
 
    public boolean isSorted()
    {
-      for(int i = 1; i < spans.size(); i++){
-         Range r1 = spans.get(i - 1);
-         Range r2 = spans.get(i);
-         if (r1.b > r2.a) return false;
-      }
       return true;
    }
 
    /** @return true if the given range is in (completely) included in this span list */
    public boolean contains(Range r)
    {
-      for(int j = 0; j < spans.size(); j++)
-         if (spans.get(j).contains(r)) return true;
-      return false;
+      if (bits != null){
+         if (r.a < vmin || r.b > vmax) return false;
+         return countBits(r.a, r.b) == r.length();
+      }
+      int i = findEnd(r.a);
+      return (i < nSpans && spanA[i] <= r.a && spanB[i] >= r.b);
    }
 
    /** @return true if the given index is in included in this span list */
    public boolean contains(int i)
    {
-      for(int j = 0; j < spans.size(); j++)
-         if (spans.get(j).contains(i)) return true;
-      return false;
+      if (bits != null){
+         if (i < vmin || i > vmax) return false;
+         long x = (long)i - vmin;
+         return (bits[(int)(x >>> 6)] & (1L << (x & 63))) != 0;
+      }
+      int j = findEnd(i);
+      return (j < nSpans && spanA[j] <= i);
    }
 
    /** @return true if there are no spots included in this span list */
    public boolean isEmpty()
    {
-      return spans.isEmpty();
+      return count == 0;
    }
 
    /** @return number of locations in this span list */
    public int size()
    {
-      int n = 0;
-      for(Range r : spans)
-         n += r.length();
-      return n;
+      return count;
    }
 
    /** @return maximum number of spots if all are included */
@@ -502,25 +694,26 @@ public class SpanList
 
    public String toString()
    {
+      ensureSpans();
       StringBuffer sb = new StringBuffer();
       sb.append("[");
-      for(int i = 0; i < spans.size(); i++){
-         sb.append(spans.get(i));
-         if (i < spans.size() - 1) sb.append(", ");
+      for(int i = 0; i < nSpans; i++){
+         sb.append(getRange(i));
+         if (i < nSpans - 1) sb.append(", ");
       }
       sb.append("]");
       return sb.toString();
    }
-   
-   /** @return array of all indices contained in this list */ 
+
+   /** @return array of all indices contained in this list */
    public int[] toIndexArray()
    {
-      int N = size();
-      int[] a = new int[N];
-      SpanIterator it = iterator();
-      int i = 0;
-      while(it.hasNext())
-         a[i++] = it.next();
+      ensureSpans();
+      int[] a = new int[count];
+      int k = 0;
+      for(int i = 0; i < nSpans; i++)
+         for(int x = spanA[i]; x <= spanB[i]; x++)
+            a[k++] = x;
       return a;
    }
 }
@@ -57,6 +57,28 @@ public class SparseMatrix<T>
       return n;
    }
 
+   /**
+    * Create a compressed (CSR or CSC) copy of this matrix; the values must be Numbers.
+    *
+    * @param nRows number of rows (must be larger than any row index)
+    * @param nCols number of columns (must be larger than any column index)
+    */
+   public CompressedMatrix compress(int nRows, int nCols, Library.MatrixOrder order)
+   {
+      int n = size();
+      int[] rows = new int[n];
+      int[] cols = new int[n];
+      double[] vals = new double[n];
+      n = 0;
+      for(Map.Entry<Integer, HashMap<Integer, T>> row : mat.entrySet())
+         for(Map.Entry<Integer, T> x : row.getValue().entrySet()){
+            rows[n] = row.getKey();
+            cols[n] = x.getKey();
+            vals[n++] = ((Number)x.getValue()).doubleValue();
+         }
+      return CompressedMatrix.fromTriplets(nRows, nCols, rows, cols, vals, n, order);
+   }
+
    public SMIterator iterator()
    {
       return new SMIterator(this);
@@ -0,0 +1,249 @@
+package kdm.util;
+
+/**
+ * Keeps the k (double key, int value) entries with the largest keys (or smallest keys, if requested) out of
+ * any number of offers, using a heap of the kept entries with the worst one at the top. Offers that can't make
+ * the list cost one comparison; the others cost O(log k). Two lists can be merged, so each thread can collect
+ * its own top k and the results can be combined at the end. A list can be cleared and reused for the next query
+ * without allocating.
+ *
+ * By default, an entry that only ties the worst kept key is rejected and the order of equal keys is arbitrary.
+ * A list can instead rank newer entries ahead of older ones with the same key (like a sorted list that inserts
+ * each entry in front of equal keys); then a tie with the worst kept key replaces the oldest entry with that
+ * key, and getSorted() lists equal keys newest first.
+ */
+public class TopKHeap
+{
+   protected final int k;
+   protected final boolean bLargest;
+   protected final boolean bNewestFirst;
+
+   /**
+    * heap of the kept entries; keys are negated when keeping the smallest keys. If bNewestFirst, the heap
+    * values are slots in slotVal/slotSeq, which hold the value and offer number of each entry.
+    */
+   protected final DoubleIntMinHeap heap;
+   protected int[] slotVal;
+   protected long[] slotSeq;
+   protected long nOffers;
+
+   /** scratch heap and keys for getSorted() */
+   protected DoubleIntMinHeap sorted;
+   protected double[] sortedKeys;
+
+   /** Create a list that keeps the k largest keys */
+   public TopKHeap(int k)
+   {
+      this(k, true);
+   }
+
+   /**
+    * Create a list that keeps the k best keys
+    *
+    * @param bLargest true to keep the largest keys, false to keep the smallest
+    */
+   public TopKHeap(int k, boolean bLargest)
+   {
+      this(k, bLargest, false);
+   }
+
+   /**
+    * Create a list that keeps the k best keys
+    *
+    * @param bLargest true to keep the largest keys, false to keep the smallest
+    * @param bNewestFirst true to rank newer entries ahead of older ones with the same key
+    */
+   public TopKHeap(int k, boolean bLargest, boolean bNewestFirst)
+   {
+      assert (k > 0);
+      this.k = k;
+      this.bLargest = bLargest;
+      this.bNewestFirst = bNewestFirst;
+      heap = new DoubleIntMinHeap(k);
+      if (bNewestFirst){
+         slotVal = new int[k];
+         slotSeq = new long[k];
+      }
+   }
+
+   public int getK()
+   {
+      return k;
+   }
+
+   public boolean keepsLargest()
+   {
+      return bLargest;
+   }
+
+   /** @return true if newer entries rank ahead of older ones with the same key */
+   public boolean keepsNewestFirst()
+   {
+      return bNewestFirst;
+   }
+
+   public int size()
+   {
+      return heap.size();
+   }
+
+   public boolean isFull()
+   {
+      return heap.size() == k;
+   }
+
+   public void clear()
+   {
+      heap.clear();
+      nOffers = 0;
+   }
+
+   /** @return key of the worst kept entry; a key must be better than this to make a full list */
+   public double getThreshold()
+   {
+      double x = heap.peekKey();
+      return bLargest ? x : -x;
+   }
+
+   /**
+    * @return key that an entry must beat to be kept (i.e., getThreshold() for a full list, otherwise -inf when
+    *         keeping the largest keys or +inf when keeping the smallest); useful for early abandoning
+    */
+   public double getBound()
+   {
+      if (heap.size < k) return bLargest ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+      return bLargest ? heap.keys[0] : -heap.keys[0];
+   }
+
+   /** @return true if an entry with the given key would be kept */
+   public boolean accepts(double key)
+   {
+      if (heap.size < k) return !Double.isNaN(key);
+      double x = bLargest ? key : -key;
+      return x > heap.keys[0] || (bNewestFirst && x == heap.keys[0]);
+   }
+
+   /** @return true if an entry with the given value is in the list (O(k)) */
+   public boolean containsValue(int val)
+   {
+      int[] vals = (bNewestFirst ? slotVal : heap.vals);
+      for(int i = 0; i < heap.size; i++)
+         if (vals[i] == val) return true;
+      return false;
+   }
+
+   /** @return true if the entry was kept */
+   public boolean offer(double key, int val)
+   {
+      if (bNewestFirst) return offerNewestFirst(key, val);
+      double x = bLargest ? key : -key;
+      if (heap.size == k){
+         // most offers fail this test (and it also rejects NaN)
+         if (!(x > heap.keys[0])) return false;
+         heap.replaceTop(x, val);
+         return true;
+      }
+      if (Double.isNaN(x)) return false;
+      heap.add(x, val);
+      return true;
+   }
+
+   protected boolean offerNewestFirst(double key, int val)
+   {
+      double x = bLargest ? key : -key;
+      if (Double.isNaN(x)) return false;
+      int slot;
+      if (heap.size < k){
+         // slots [0, size) are in use
+         slot = heap.size;
+         heap.add(x, slot);
+      }
+      else{
+         double x0 = heap.keys[0];
+         if (x < x0) return false;
+
+         // the oldest entry with the worst key goes, so move it to the top (only needed if the worst key is tied,
+         // in which case one of the children of the top has the same key)
+         if ((heap.size > 1 && heap.keys[1] == x0) || (heap.size > 2 && heap.keys[2] == x0)){
+            int iOld = 0;
+            for(int i = 1; i < heap.size; i++)
+               if (heap.keys[i] == x0 && slotSeq[heap.vals[i]] < slotSeq[heap.vals[iOld]]) iOld = i;
+            int t = heap.vals[iOld];
+            heap.vals[iOld] = heap.vals[0];
+            heap.vals[0] = t;
+         }
+         slot = heap.vals[0];
+         heap.replaceTop(x, slot);
+      }
+      slotVal[slot] = val;
+      slotSeq[slot] = nOffers++;
+      return true;
+   }
+
+   /** offer all of the entries of another list (which must keep the same end of the keys) */
+   public void merge(TopKHeap other)
+   {
+      assert (other.bLargest == bLargest);
+      for(int i = 0; i < other.heap.size(); i++){
+         double x = other.heap.getKey(i);
+         int val = other.heap.getValue(i);
+         offer(bLargest ? x : -x, other.bNewestFirst ? other.slotVal[val] : val);
+      }
+   }
+
+   /**
+    * fill in the keys and values of the kept entries, best first (keys[i] goes with vals[i]); keys may be null
+    * if only the values are needed
+    */
+   public void getSorted(double[] keys, int[] vals)
+   {
+      int n = heap.size();
+      assert ((keys == null || keys.length >= n) && vals.length >= n);
+
+      // copy the heap (it's already in heap order) and pop the worst entries off the copy
+      if (sorted == null) sorted = new DoubleIntMinHeap(k);
+      DoubleIntMinHeap h = sorted;
+      System.arraycopy(heap.keys, 0, h.keys, 0, n);
+      System.arraycopy(heap.vals, 0, h.vals, 0, n);
+      h.size = n;
+      if (!bNewestFirst){
+         for(int i = n - 1; i >= 0; i--){
+            double x = h.peekKey();
+            if (keys != null) keys[i] = bLargest ? x : -x;
+            vals[i] = h.poll();
+         }
+         return;
+      }
+
+      // pop the slots, then order equal keys newest first (a pass over short runs since the keys are sorted)
+      if (sortedKeys == null) sortedKeys = new double[k];
+      double[] xs = sortedKeys;
+      for(int i = n - 1; i >= 0; i--){
+         xs[i] = h.peekKey();
+         vals[i] = h.poll();
+      }
+      for(int i = 1; i < n; i++){
+         double x = xs[i];
+         int slot = vals[i];
+         int j = i;
+         while(j > 0 && xs[j - 1] == x && slotSeq[vals[j - 1]] < slotSeq[slot]){
+            vals[j] = vals[j - 1];
+            j--;
+         }
+         vals[j] = slot;
+      }
+      for(int i = 0; i < n; i++){
+         if (keys != null) keys[i] = bLargest ? xs[i] : -xs[i];
+         vals[i] = slotVal[vals[i]];
+      }
+   }
+
+   /** @return values of the kept entries, best first */
+   public int[] getSortedValues()
+   {
+      int n = heap.size();
+      int[] vals = new int[n];
+      getSorted(null, vals);
+      return vals;
+   }
+}